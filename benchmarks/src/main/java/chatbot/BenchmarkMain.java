@@ -0,0 +1,204 @@
+package chatbot;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to run the benchmarks with JMH, and to compare the results of
+ * two runs.  The usual JMH options apply, with these defaults when they
+ * aren't given:
+ *   -prof gc                       allocation rate and GC counts
+ *   -rf csv                        one line per benchmark, parameter
+ *                                  set, mode and secondary result
+ *   -rff benchmarks/results/<commit>.csv   named after git HEAD
+ * so that the results of two commits can be compared line by line, or
+ * with -compare.
+ */
+public class BenchmarkMain {
+
+    public static final String RESULTS_DIRECTORY = "benchmarks/results";
+
+    /** *************************************************************
+     * @return the short hash of git HEAD, or "jmh-result" if there is
+     * no git to ask
+     */
+    private static String commit() {
+
+        try {
+            Process process = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").start();
+            BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line = r.readLine();
+            if (process.waitFor() == 0 && line != null && !line.trim().isEmpty())
+                return line.trim();
+        }
+        catch (IOException | InterruptedException e) {
+            System.out.println("Info in BenchmarkMain.commit(): no git commit: " + e.getMessage());
+        }
+        return "jmh-result";
+    }
+
+    /** *************************************************************
+     * Split a line of a JMH CSV file into its fields.
+     */
+    private static List<String> fields(String line) {
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                    sb.append(line.charAt(++i));
+                else
+                    quoted = !quoted;
+            }
+            else if (c == ',' && !quoted) {
+                fields.add(sb.toString());
+                sb.setLength(0);
+            }
+            else
+                sb.append(c);
+        }
+        fields.add(sb.toString());
+        return fields;
+    }
+
+    /** *************************************************************
+     * Read the scores of a JMH CSV file.  A score is keyed by the
+     * benchmark, its parameters, the mode, the threads and the unit,
+     * so that runs with different sets of parameter columns line up.
+     * @return the score of each key, in the order of the file
+     */
+    private static Map<String,Double> readScores(String filename) throws IOException {
+
+        Map<String,Double> scores = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+        if (lines.isEmpty())
+            return scores;
+        List<String> header = fields(lines.get(0));
+        for (int l = 1; l < lines.size(); l++) {
+            List<String> row = fields(lines.get(l));
+            TreeMap<String,String> params = new TreeMap<>();
+            String benchmark = "", mode = "", threads = "", unit = "";
+            double score = Double.NaN;
+            for (int i = 0; i < header.size() && i < row.size(); i++) {
+                String column = header.get(i);
+                String value = row.get(i);
+                if (column.equals("Benchmark"))
+                    benchmark = value;
+                else if (column.equals("Mode"))
+                    mode = value;
+                else if (column.equals("Threads"))
+                    threads = value;
+                else if (column.equals("Unit"))
+                    unit = value;
+                else if (column.equals("Score"))
+                    score = parse(value);
+                else if (column.startsWith("Param: ") && !value.isEmpty())
+                    params.put(column.substring(7), value);
+            }
+            StringBuilder key = new StringBuilder(benchmark);
+            for (Map.Entry<String,String> param : params.entrySet())
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+            key.append(' ').append(mode).append(" x").append(threads).append(' ').append(unit);
+            scores.put(key.toString(), score);
+        }
+        return scores;
+    }
+
+    /** *************************************************************
+     */
+    private static double parse(String value) {
+
+        try {
+            return Double.parseDouble(value);
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /** *************************************************************
+     * Print the score of every result of two runs side by side, with
+     * the change from the first to the second.
+     */
+    public static void compare(String before, String after) throws IOException {
+
+        Map<String,Double> old = readScores(before);
+        Map<String,Double> current = readScores(after);
+        System.out.println(String.format("%14s %14s %9s  %s", "before", "after", "change", "benchmark"));
+        for (Map.Entry<String,Double> e : current.entrySet()) {
+            Double o = old.get(e.getKey());
+            double n = e.getValue();
+            String change = o == null || o == 0 || o.isNaN() || Double.isNaN(n) ? "" :
+                    String.format("%+8.1f%%", (n - o) / o * 100);
+            System.out.println(String.format("%14s %14.3f %9s  %s", o == null ? "-" : String.format("%.3f", o),
+                    n, change, e.getKey()));
+        }
+        for (Map.Entry<String,Double> e : old.entrySet())
+            if (!current.containsKey(e.getKey()))
+                System.out.println(String.format("%14.3f %14s %9s  %s", e.getValue(), "-", "", e.getKey()));
+    }
+
+    /** *************************************************************
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length > 0 && args[0].equals("-compare")) {
+            if (args.length != 3) {
+                System.out.println("Usage: BenchmarkMain -compare before.csv after.csv");
+                return;
+            }
+            compare(args[1], args[2]);
+            return;
+        }
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            System.out.println("  -compare before.csv after.csv    compare the results of two runs");
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cmd);
+        if (cmd.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        ResultFormatType format = cmd.getResultFormat().orElse(ResultFormatType.CSV);
+        options.resultFormat(format);
+        if (!cmd.getResult().hasValue()) {
+            new File(RESULTS_DIRECTORY).mkdirs();
+            options.result(RESULTS_DIRECTORY + File.separator + commit() + "." + format.toString().toLowerCase());
+        }
+        new Runner(options.build()).run();
+    }
+}
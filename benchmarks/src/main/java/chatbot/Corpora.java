@@ -0,0 +1,297 @@
+package chatbot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to make the corpora and queries the benchmarks run on.  A corpus
+ * is named by the "corpus" parameter of a benchmark:
+ *   synthetic  lines of words drawn from a Zipf distribution over a
+ *              made up vocabulary, with stop words, punctuation and the
+ *              odd profane word mixed in
+ *   cornell    the parsed Cornell movie dialogs, from corpora.properties
+ *   any other  the path of a file with one line per document
+ * A corpus read from a file is repeated until it has as many lines as
+ * asked for.  Everything is drawn from a fixed seed, so every run and
+ * every commit is measured on the same lines and queries.
+ */
+public class Corpora {
+
+    public static final String STOPWORDS_FILE = "src/main/java/chatbot/resourcefiles/stopwords.txt";
+    public static final String PROFANITY_FILE = "src/main/java/chatbot/resourcefiles/profanity-list.txt";
+
+    // the seed Chatbot.prepare() uses
+    public static final long SEED = 18021918;
+
+    // size of the made up vocabulary, and the exponent of its Zipf distribution
+    private static final int VOCABULARY = 50000;
+    private static final double ZIPF_EXPONENT = 1.1;
+
+    private static final String[] SYLLABLES = {"ba", "ko", "ri", "tu", "me", "sa", "lo", "ni", "de", "pa",
+            "gu", "fe", "zo", "hi", "ma", "ru", "ve", "to", "ka", "li", "no", "se", "di", "wa"};
+
+    /** *************************************************************
+     * @return the stop words, from the file Chatbot reads them from
+     */
+    public static List<String> stopwords() throws IOException {
+
+        return readLines(STOPWORDS_FILE);
+    }
+
+    /** *************************************************************
+     * @return the profane words, from the file Chatbot reads them from
+     */
+    public static List<String> profanity() throws IOException {
+
+        return readLines(PROFANITY_FILE);
+    }
+
+    /** *************************************************************
+     * @return size lines of the named corpus
+     */
+    public static List<String> lines(String corpus, int size) throws IOException {
+
+        if (corpus.equals("synthetic"))
+            return synthetic(size);
+        String filename = corpus;
+        if (corpus.equals("cornell"))
+            filename = ResourceBundle.getBundle("corpora").getString("cornellParsedFileName");
+        List<String> sample = new ArrayList<>();
+        for (String line : readLines(filename))
+            if (!line.trim().isEmpty())
+                sample.add(line);
+        if (sample.isEmpty())
+            throw new IOException("no lines in " + filename);
+        List<String> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            result.add(sample.get(i % sample.size()));
+        return result;
+    }
+
+    /** *************************************************************
+     * @return size lines of the synthetic corpus
+     */
+    public static List<String> synthetic(int size) throws IOException {
+
+        Random random = new Random(SEED);
+        List<String> stopwords = stopwords();
+        List<String> profanity = profanity();
+        String[] vocabulary = vocabulary(random);
+        double[] cumulative = zipf(VOCABULARY, ZIPF_EXPONENT);
+        List<String> result = new ArrayList<>(size);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            sb.setLength(0);
+            int words = 2 + random.nextInt(19);
+            for (int w = 0; w < words; w++) {
+                if (w > 0)
+                    sb.append(random.nextInt(20) == 0 ? ", " : " ");
+                double r = random.nextDouble();
+                String word;
+                if (r < 0.35)
+                    word = stopwords.get(random.nextInt(stopwords.size()));
+                else if (r < 0.352)
+                    word = profanity.get(random.nextInt(profanity.size()));
+                else
+                    word = vocabulary[draw(cumulative, random)];
+                if (w == 0 && !word.isEmpty())
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                sb.append(word);
+            }
+            sb.append(".?!".charAt(random.nextInt(3)));
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     * Make count queries of the given shape from the words of lines:
+     *   short      two of the most frequent words
+     *   long       ten words of any frequency
+     *   rare       two words that are in at most two lines
+     *   stopwords  stop words and punctuation around one frequent word
+     *   unknown    words that are in no line
+     * @return the queries, in a fixed order
+     */
+    public static List<String> queries(List<String> lines, String shape, int count) throws IOException {
+
+        Random random = new Random(SEED + shape.hashCode());
+        List<String> stopwords = stopwords();
+        Set<String> stopwordSet = new HashSet<>(stopwords);
+        List<String> words = wordsByFrequency(lines, stopwordSet);
+        int frequent = Math.max(1, words.size() / 100);
+        int rareFrom = words.size();
+        Map<String,Integer> docfreq = docfreq(lines, stopwordSet);
+        while (rareFrom > 0 && docfreq.get(words.get(rareFrom - 1)) <= 2)
+            rareFrom--;
+        if (rareFrom == words.size())
+            rareFrom = words.size() * 9 / 10;
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            switch (shape) {
+                case "short":
+                    sb.append(pick(words, 0, frequent, random)).append(' ').append(pick(words, 0, frequent, random));
+                    break;
+                case "long":
+                    for (int w = 0; w < 10; w++)
+                        sb.append(w > 0 ? " " : "").append(pick(words, 0, words.size(), random));
+                    break;
+                case "rare":
+                    sb.append(pick(words, rareFrom, words.size(), random)).append(' ')
+                            .append(pick(words, rareFrom, words.size(), random));
+                    break;
+                case "stopwords":
+                    sb.append(pick(stopwords, 0, stopwords.size(), random)).append(", ")
+                            .append(pick(stopwords, 0, stopwords.size(), random)).append(' ')
+                            .append(pick(words, 0, frequent, random)).append(' ')
+                            .append(pick(stopwords, 0, stopwords.size(), random)).append('?');
+                    break;
+                case "unknown":
+                    sb.append("xq").append(i).append(" zx").append(i);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown query shape " + shape);
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     * @return the words of lines that aren't stop words, most frequent first
+     */
+    private static List<String> wordsByFrequency(List<String> lines, Set<String> stopwords) {
+
+        Map<String,Integer> freq = new HashMap<>();
+        for (String line : lines)
+            for (String word : words(line))
+                if (!stopwords.contains(word))
+                    freq.merge(word, 1, Integer::sum);
+        List<String> words = new ArrayList<>(freq.keySet());
+        Collections.sort(words);
+        words.sort((a, b) -> freq.get(b) - freq.get(a));
+        return words;
+    }
+
+    /** *************************************************************
+     * @return the number of lines each word that isn't a stop word is in
+     */
+    private static Map<String,Integer> docfreq(List<String> lines, Set<String> stopwords) {
+
+        Map<String,Integer> docfreq = new HashMap<>();
+        for (String line : lines) {
+            List<String> seen = new ArrayList<>();
+            for (String word : words(line))
+                if (!stopwords.contains(word) && !seen.contains(word)) {
+                    seen.add(word);
+                    docfreq.merge(word, 1, Integer::sum);
+                }
+        }
+        return docfreq;
+    }
+
+    /** *************************************************************
+     * @return the lower case words of a line, without punctuation
+     */
+    private static List<String> words(String line) {
+
+        List<String> words = new ArrayList<>();
+        for (String word : line.toLowerCase().split("[^\\p{L}\\p{N}']+"))
+            if (!word.isEmpty())
+                words.add(word);
+        return words;
+    }
+
+    /** *************************************************************
+     */
+    private static String pick(List<String> words, int from, int to, Random random) {
+
+        return words.get(from + random.nextInt(Math.max(1, to - from)));
+    }
+
+    /** *************************************************************
+     * @return VOCABULARY distinct made up words
+     */
+    private static String[] vocabulary(Random random) {
+
+        String[] words = new String[VOCABULARY];
+        HashSet<String> seen = new HashSet<>();
+        int n = 0;
+        while (n < VOCABULARY) {
+            StringBuilder sb = new StringBuilder();
+            int syllables = 1 + random.nextInt(4);
+            for (int s = 0; s < syllables; s++)
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            if (seen.add(sb.toString()))
+                words[n++] = sb.toString();
+        }
+        return words;
+    }
+
+    /** *************************************************************
+     * @return the cumulative probability of each rank of a Zipf
+     * distribution over n ranks
+     */
+    private static double[] zipf(int n, double exponent) {
+
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < n; i++)
+            cumulative[i] /= sum;
+        return cumulative;
+    }
+
+    /** *************************************************************
+     * @return a rank drawn from the distribution
+     */
+    private static int draw(double[] cumulative, Random random) {
+
+        double r = random.nextDouble();
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < r)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** *************************************************************
+     */
+    private static List<String> readLines(String filename) throws IOException {
+
+        if (!new File(filename).exists())
+            throw new IOException("can't find " + filename + "; run the benchmarks from the root of the repository");
+        return Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+package chatbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Benchmark of Chatbot.prepare(), through the constructor that calls
+ * it: reading the stop word and profanity lists, tokenizing every line
+ * and building the index, on one thread or on all cores.  A build of a large corpus takes long enough that each
+ * is timed on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class IndexBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private List<String> lines;
+
+    /** *************************************************************
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        Chatbot.setOptions(false, false, parallel);
+        lines = Corpora.lines(corpus, size);
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public Chatbot prepare() throws IOException {
+
+        return new Chatbot(lines, Corpora.STOPWORDS_FILE);
+    }
+}
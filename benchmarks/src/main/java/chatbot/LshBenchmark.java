@@ -0,0 +1,187 @@
+package chatbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Benchmark of matchInputTopK() with candidates found exactly, by the
+ * postings, or approximately, by LshIndex as with -lsh, by corpus size
+ * and query shape.  Time alone says nothing of what LSH misses, so
+ * main() reports the recall of the approximate top K against the exact
+ * matchInputFull() too, with the speedup:
+ *   java chatbot.LshBenchmark [size [corpus [queries]]]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class LshBenchmark {
+
+    // distinct queries each benchmark cycles through
+    private static final int QUERIES = 1024;
+
+    // scores closer than this are taken as equal, since LSH sums the
+    // terms of a line in another order than the postings do
+    private static final float EPSILON = 1e-5f;
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    @Param({"short", "long", "rare"})
+    public String shape;
+
+    @Param({"exact", "lsh"})
+    public String retrieval;
+
+    private Chatbot chatbot;
+    private String[] queries;
+
+    /** *************************************************************
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next = 0;
+    }
+
+    /** *************************************************************
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        Chatbot.setApproximate(retrieval.equals("lsh"));
+        List<String> lines = Corpora.lines(corpus, size);
+        chatbot = new Chatbot(lines, Corpora.STOPWORDS_FILE);
+        Chatbot.setApproximate(false);
+        queries = Corpora.queries(lines, shape, QUERIES).toArray(new String[0]);
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public TreeMap<Float,ArrayList<Integer>> matchInputTopK(Cursor cursor) {
+
+        String query = queries[cursor.next];
+        cursor.next = (cursor.next + 1) % queries.length;
+        return chatbot.matchInputTopK(query, Chatbot.TOP_K);
+    }
+
+    /** *************************************************************
+     * @return the number of documents of found that are among the k
+     * best of the exact matches, counting any document whose exact
+     * score ties the k-th best as among them
+     */
+    private static int hits(TreeMap<Float,ArrayList<Integer>> exact, TreeMap<Float,ArrayList<Integer>> found, int k) {
+
+        Map<Integer,Float> scores = new HashMap<>();
+        float kth = Float.NaN;
+        int seen = 0;
+        for (Map.Entry<Float,ArrayList<Integer>> e : exact.descendingMap().entrySet()) {
+            for (Integer doc : e.getValue())
+                scores.put(doc, e.getKey());
+            if (seen < k)
+                kth = e.getKey();
+            seen += e.getValue().size();
+        }
+        int hits = 0;
+        for (ArrayList<Integer> docs : found.values()) {
+            for (Integer doc : docs) {
+                Float score = scores.get(doc);
+                if (score != null && score >= kth - EPSILON)
+                    hits++;
+            }
+        }
+        return Math.min(hits, k);
+    }
+
+    /** *************************************************************
+     * @return the mean time of one matchInputTopK() call over the
+     * queries, in microseconds, after one pass to warm up
+     */
+    private static double time(Chatbot chatbot, List<String> queries) {
+
+        for (String query : queries)
+            chatbot.matchInputTopK(query, Chatbot.TOP_K);
+        long start = System.nanoTime();
+        int passes = 0;
+        do {
+            for (String query : queries)
+                chatbot.matchInputTopK(query, Chatbot.TOP_K);
+            passes++;
+        } while (System.nanoTime() - start < 2000000000L);
+        return (System.nanoTime() - start) / 1000.0 / passes / queries.size();
+    }
+
+    /** *************************************************************
+     * Print the recall at Chatbot.TOP_K of LSH against the exact
+     * matches of matchInputFull(), and the time of each, for every
+     * query shape.
+     */
+    public static void main(String[] args) throws IOException {
+
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String corpus = args.length > 1 ? args[1] : "synthetic";
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        Chatbot.setOptions(false, false, false);
+        List<String> lines = Corpora.lines(corpus, size);
+        Chatbot.setApproximate(false);
+        Chatbot exact = new Chatbot(lines, Corpora.STOPWORDS_FILE);
+        Chatbot.setApproximate(true);
+        Chatbot approximate = new Chatbot(lines, Corpora.STOPWORDS_FILE);
+        Chatbot.setApproximate(false);
+        int k = Chatbot.TOP_K;
+        System.out.println(String.format("%d lines of %s, LSH of %d tables of %d bits, recall at %d",
+                size, corpus, LshIndex.TABLES, LshIndex.BITS, k));
+        System.out.println(String.format("%-10s %8s %12s %12s %8s", "shape", "recall", "exact us", "lsh us", "speedup"));
+        for (String shape : new String[] {"short", "long", "rare", "stopwords"}) {
+            List<String> queries = Corpora.queries(lines, shape, count);
+            long hits = 0;
+            long relevant = 0;
+            for (String query : queries) {
+                TreeMap<Float,ArrayList<Integer>> full = exact.matchInputFull(query);
+                int matches = 0;
+                for (ArrayList<Integer> docs : full.values())
+                    matches += docs.size();
+                relevant += Math.min(k, matches);
+                hits += hits(full, approximate.matchInputTopK(query, k), k);
+            }
+            double exactTime = time(exact, queries);
+            double lshTime = time(approximate, queries);
+            System.out.println(String.format("%-10s %8.3f %12.1f %12.1f %7.1fx", shape,
+                    relevant == 0 ? 1.0 : (double) hits / relevant, exactTime, lshTime, exactTime / lshTime));
+        }
+    }
+}
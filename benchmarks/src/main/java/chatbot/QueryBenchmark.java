@@ -0,0 +1,128 @@
+package chatbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Benchmarks of matching a query against a prepared Chatbot, by corpus
+ * size and query shape (see Corpora.queries()).  Each benchmark thread
+ * cycles through the same fixed queries.  matchBestInput is measured
+ * without the response cache, and matchBestInputCached with it, once
+ * every query has been answered.  shards is the number of ranges of
+ * lines a query walks in parallel, as with -shards; try -p shards=n
+ * with n the number of cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class QueryBenchmark {
+
+    // distinct queries each benchmark cycles through
+    private static final int QUERIES = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    @Param({"short", "long", "rare", "stopwords", "unknown"})
+    public String shape;
+
+    @Param({"1"})
+    public int shards;
+
+    private Chatbot chatbot;
+    private String[] queries;
+
+    /** *************************************************************
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next = 0;
+    }
+
+    /** *************************************************************
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        Chatbot.setShards(shards);
+        List<String> lines = Corpora.lines(corpus, size);
+        chatbot = new Chatbot(lines, Corpora.STOPWORDS_FILE);
+        queries = Corpora.queries(lines, shape, QUERIES).toArray(new String[0]);
+        for (String query : queries)
+            chatbot.matchBestInput(query);
+    }
+
+    /** *************************************************************
+     */
+    private String next(Cursor cursor) {
+
+        String query = queries[cursor.next];
+        cursor.next = (cursor.next + 1) % queries.length;
+        return query;
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public TreeMap<Float,ArrayList<Integer>> matchInputFull(Cursor cursor) {
+
+        return chatbot.matchInputFull(next(cursor));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public TreeMap<Float,ArrayList<Integer>> matchInputTopK(Cursor cursor) {
+
+        return chatbot.matchInputTopK(next(cursor), Chatbot.TOP_K);
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public String matchBestInput(Cursor cursor) {
+
+        return chatbot.matchBestInputUncached(next(cursor));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public String matchBestInputCached(Cursor cursor) {
+
+        return chatbot.matchBestInput(next(cursor));
+    }
+}
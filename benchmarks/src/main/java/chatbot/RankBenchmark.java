@@ -0,0 +1,84 @@
+package chatbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Benchmark of Chatbot.rankResponsesOnSentiment() over candidate
+ * responses drawn at random from the corpus, keeping those of
+ * non-negative sentiment (snn) or those matching the sentiment of a
+ * positive input (sm).  Like the -snn and -sm options, this needs the
+ * sentiment lexicon of Sigma.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class RankBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    @Param({"snn", "sm"})
+    public String ranking;
+
+    @Param({"10", "100", "1000"})
+    public int candidates;
+
+    private Chatbot chatbot;
+    private Chatbot.IndexCandidates documents;
+    private ArrayList<Integer> responses;
+
+    /** *************************************************************
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        Chatbot.setOptions(ranking.equals("snn"), ranking.equals("sm"), false);
+        List<String> lines = Corpora.lines(corpus, size);
+        chatbot = new Chatbot(lines, Corpora.STOPWORDS_FILE);
+        documents = new Chatbot.IndexCandidates(chatbot.liveIndex(), new ScoreList());
+        Random random = new Random(Corpora.SEED);
+        responses = new ArrayList<>(candidates);
+        for (int i = 0; i < candidates; i++)
+            responses.add(random.nextInt(size));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public ArrayList<Integer> rankResponsesOnSentiment() {
+
+        return chatbot.rankResponsesOnSentiment(responses, 1, documents);
+    }
+}
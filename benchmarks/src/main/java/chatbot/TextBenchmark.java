@@ -0,0 +1,121 @@
+package chatbot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Benchmarks of the per line text processing: removing punctuation and
+ * stop words, tokenizing, and censoring a list of responses the way
+ * Chatbot.profanityFilter() does.  Each benchmark thread cycles through
+ * the lines of the corpus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+
+    // lines each benchmark cycles through
+    private static final int LINES = 10000;
+
+    @Param({"synthetic"})
+    public String corpus;
+
+    // responses censored at a time
+    @Param({"1", "10", "100"})
+    public int responses;
+
+    private String[] lines;
+    private Chatbot chatbot;
+    private Analyzer analyzer;
+    private ProfanityFilter profanity;
+
+    /** *************************************************************
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int next = 0;
+    }
+
+    /** *************************************************************
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        lines = Corpora.lines(corpus, LINES).toArray(new String[0]);
+        chatbot = new Chatbot(Corpora.STOPWORDS_FILE);
+        analyzer = new Analyzer(Corpora.stopwords());
+        profanity = ProfanityFilter.fromFile(Corpora.PROFANITY_FILE);
+    }
+
+    /** *************************************************************
+     */
+    private String next(Cursor cursor) {
+
+        String line = lines[cursor.next];
+        cursor.next = (cursor.next + 1) % lines.length;
+        return line;
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public String removePunctuation(Cursor cursor) {
+
+        return chatbot.removePunctuation(next(cursor));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public String removeStopWords(Cursor cursor) {
+
+        return chatbot.removeStopWords(next(cursor));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public ArrayList<String> tokenize(Cursor cursor) {
+
+        return analyzer.tokenize(next(cursor));
+    }
+
+    /** *************************************************************
+     */
+    @Benchmark
+    public ArrayList<String> profanityFilter(Cursor cursor) {
+
+        List<String> batch = new ArrayList<>(responses);
+        for (int i = 0; i < responses; i++)
+            batch.add(next(cursor));
+        return profanity.censor(batch);
+    }
+}
@@ -0,0 +1,399 @@
+package chatbot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to turn a line of text into the terms that get indexed: strip
+ * contractions, remove punctuation, split on spaces and drop stop words
+ * (compared in lower case).  The output is the same as the regular
+ * expressions this replaces, including their quirks:
+ * - a contraction is only stripped after a letter, digit or underscore,
+ *   one kind after another in the order 're 'm n't 'll 's 'd 've
+ * - ", " becomes " " and then a comma eats the character after it
+ *   unless that is a space, or both chars of a surrogate pair
+ * - pairs of spaces become one space
+ * - terms keep their case.
+ * Punctuation, commas and spaces are handled in one scan over the
+ * characters, and contractions in one more scan per kind, only for
+ * lines with an apostrophe.  Stop words are looked up in a hash table
+ * straight from the characters.  An Analyzer is never changed after
+ * it is built and may be shared between threads.
+ */
+public class Analyzer {
+
+    /** *************************************************************
+     * Receives each term of a line, as a range of a char array that is
+     * only valid during the call.
+     */
+    public interface TermConsumer {
+        void accept(char[] buf, int start, int end);
+    }
+
+    private static final String[] CONTRACTIONS = {"'re", "'m", "n't", "'ll", "'s", "'d", "'ve"};
+
+    // open addressing table of the stop words, null for an empty slot
+    private final String[] stopTable;
+
+    /** *************************************************************
+     * @param stopwords words to leave out, matched against the lower
+     *                  case form of each term
+     */
+    public Analyzer(Collection<String> stopwords) {
+
+        int capacity = 16;
+        while (capacity < stopwords.size() * 2)
+            capacity <<= 1;
+        stopTable = new String[capacity];
+        for (String word : stopwords) {
+            int i = mix(word.hashCode()) & (capacity - 1);
+            while (stopTable[i] != null && !stopTable[i].equals(word))
+                i = (i + 1) & (capacity - 1);
+            stopTable[i] = word;
+        }
+    }
+
+    /** *************************************************************
+     * @return the terms of doc, or null if there are none
+     */
+    public ArrayList<String> tokenize(String doc) {
+
+        ArrayList<String> result = new ArrayList<String>();
+        if (!tokenize(doc, (buf, start, end) -> result.add(new String(buf, start, end - start))))
+            return null;
+        return result;
+    }
+
+    /** *************************************************************
+     * Pass each term of doc to consumer, in order.
+     * @return false if doc has no terms
+     */
+    public boolean tokenize(String doc, TermConsumer consumer) {
+
+        if (doc == null || doc.isEmpty())
+            return false;
+        char[] buf = doc.toCharArray();
+        int len = normalize(buf, buf.length);
+
+        // split on spaces, dropping blank terms and stop words
+        int[] starts = new int[len / 2 + 1];
+        int[] ends = new int[len / 2 + 1];
+        int n = 0;
+        int start = 0;
+        for (int i = 0; i <= len; i++) {
+            if (i == len || buf[i] == ' ') {
+                if (i > start && !isBlank(buf, start, i) && !isStopWord(buf, start, i)) {
+                    starts[n] = start;
+                    ends[n++] = i;
+                }
+                start = i + 1;
+            }
+        }
+
+        // the terms used to be joined and trimmed before being split
+        // again, which strips control characters from the ends
+        int first = 0;
+        while (first < n) {
+            while (starts[first] < ends[first] && buf[starts[first]] <= ' ')
+                starts[first]++;
+            if (starts[first] < ends[first])
+                break;
+            first++;
+        }
+        int last = n - 1;
+        while (last >= first) {
+            while (ends[last] > starts[last] && buf[ends[last] - 1] <= ' ')
+                ends[last]--;
+            if (ends[last] > starts[last])
+                break;
+            last--;
+        }
+        if (first > last)
+            return false;
+        for (int t = first; t <= last; t++)
+            consumer.accept(buf, starts[t], ends[t]);
+        return true;
+    }
+
+    /** *************************************************************
+     * Remove punctuation and contractions from a sentence.
+     * @return the sentence in a String minus these elements.
+     */
+    public String removePunctuation(String sentence) {
+
+        if (sentence == null || sentence.isEmpty())
+            return sentence;
+        char[] buf = sentence.toCharArray();
+        int len = normalize(buf, buf.length);
+        return new String(buf, 0, len);
+    }
+
+    /** *************************************************************
+     * Remove stop words from a sentence.
+     * @return a string that is the sentence minus the stop words.
+     */
+    public String removeStopWords(String sentence) {
+
+        if (sentence == null || sentence.isEmpty())
+            return "";
+        StringBuilder sb = new StringBuilder(sentence.length());
+        int start = 0;
+        int len = sentence.length();
+        char[] buf = sentence.toCharArray();
+        for (int i = 0; i <= len; i++) {
+            if (i == len || buf[i] == ' ') {
+                if (i > start && !isBlank(buf, start, i) && !isStopWord(buf, start, i)) {
+                    if (sb.length() > 0)
+                        sb.append(' ');
+                    sb.append(buf, start, i - start);
+                }
+                start = i + 1;
+            }
+        }
+        return sb.toString();
+    }
+
+    /** *************************************************************
+     * Strip contractions and punctuation from buf in place.
+     * @return the new length
+     */
+    private static int normalize(char[] buf, int len) {
+
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == '\'') {
+                for (String contraction : CONTRACTIONS)
+                    len = stripContraction(buf, len, contraction);
+                break;
+            }
+        }
+
+        Punctuation out = new Punctuation(buf);
+        for (int r = 0; r < len; r++) {
+            char c = buf[r];
+            if (c == '\'' || c == '"' || c == '.' || c == ';' || c == ':' || c == '?' || c == '!')
+                continue;
+            out.commaSpace(c);
+        }
+        out.finish();
+        return out.w;
+    }
+
+    /** *************************************************************
+     * Rewrites the characters passed to it back into buf, applying in
+     * turn ", " to " ", then ",x" to ", " for any x but a space, then
+     * "  " to " ".  Each rule holds back at most one character until it
+     * sees the next, so all three run in the same pass.
+     */
+    private static final class Punctuation {
+
+        private final char[] buf;
+        private int w = 0;
+        private boolean comma = false;          // held back by commaSpace()
+        private boolean eatingComma = false;    // held back by commaAny()
+        private boolean eatingLow = false;      // commaAny() ate a high surrogate
+        private boolean space = false;          // held back by doubleSpace()
+
+        private Punctuation(char[] buf) {
+
+            this.buf = buf;
+        }
+
+        private void commaSpace(char c) {
+
+            if (comma) {
+                comma = false;
+                if (c == ' ') {
+                    commaAny(' ');
+                    return;
+                }
+                commaAny(',');
+            }
+            if (c == ',')
+                comma = true;
+            else
+                commaAny(c);
+        }
+
+        private void commaAny(char c) {
+
+            if (eatingLow) {
+                eatingLow = false;
+                if (Character.isLowSurrogate(c))
+                    return;
+            }
+            if (eatingComma) {
+                eatingComma = false;
+                if (c != ' ') {
+                    doubleSpace(',');
+                    doubleSpace(' ');
+                    eatingLow = Character.isHighSurrogate(c);
+                    return;
+                }
+                doubleSpace(',');
+            }
+            if (c == ',')
+                eatingComma = true;
+            else
+                doubleSpace(c);
+        }
+
+        private void doubleSpace(char c) {
+
+            if (c == ' ') {
+                if (space)
+                    buf[w++] = ' ';
+                space = !space;
+                return;
+            }
+            if (space) {
+                buf[w++] = ' ';
+                space = false;
+            }
+            buf[w++] = c;
+        }
+
+        private void finish() {
+
+            if (comma) {
+                comma = false;
+                commaAny(',');
+            }
+            if (eatingComma) {
+                eatingComma = false;
+                doubleSpace(',');
+            }
+            if (space) {
+                buf[w++] = ' ';
+                space = false;
+            }
+        }
+    }
+
+    /** *************************************************************
+     * Remove every contraction that follows a word character, in place,
+     * until none is left.
+     * @return the new length
+     */
+    private static int stripContraction(char[] buf, int len, String contraction) {
+
+        boolean nt = contraction.equals("n't");
+        int w = 0;
+        int r = 0;
+        while (r < len) {
+            if (w > 0 && isWordChar(buf[w - 1]) && startsWith(buf, r, len, contraction)) {
+                r += contraction.length();
+                continue;
+            }
+            // removing one "n't" can leave an "n" that is followed by the
+            // "'t" of another one
+            if (nt && w > 1 && buf[w - 1] == 'n' && isWordChar(buf[w - 2]) && startsWith(buf, r, len, "'t")) {
+                w--;
+                r += 2;
+                continue;
+            }
+            buf[w++] = buf[r++];
+        }
+        return w;
+    }
+
+    /** *************************************************************
+     */
+    private static boolean startsWith(char[] buf, int r, int len, String s) {
+
+        if (r + s.length() > len)
+            return false;
+        for (int i = 0; i < s.length(); i++)
+            if (buf[r + i] != s.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** *************************************************************
+     * @return true for the characters matched by \w
+     */
+    private static boolean isWordChar(char c) {
+
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /** *************************************************************
+     * @return true if every character from start to end is matched by \s
+     */
+    private static boolean isBlank(char[] buf, int start, int end) {
+
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (c != ' ' && c != '\t' && c != '\n' && c != 0x0B && c != '\f' && c != '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /** *************************************************************
+     * @return true if the lower case form of the term from start to end
+     * is a stop word
+     */
+    private boolean isStopWord(char[] buf, int start, int end) {
+
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            char c = buf[i];
+            if (c >= 0x80) // String.toLowerCase() isn't one char at a time beyond ASCII
+                return isStopWord(new String(buf, start, end - start).toLowerCase());
+            h = 31 * h + lower(c);
+        }
+        int mask = stopTable.length - 1;
+        int i = mix(h) & mask;
+        while (stopTable[i] != null) {
+            String word = stopTable[i];
+            if (word.length() == end - start) {
+                int k = 0;
+                while (k < word.length() && word.charAt(k) == lower(buf[start + k]))
+                    k++;
+                if (k == word.length())
+                    return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** *************************************************************
+     */
+    private boolean isStopWord(String word) {
+
+        int mask = stopTable.length - 1;
+        int i = mix(word.hashCode()) & mask;
+        while (stopTable[i] != null) {
+            if (stopTable[i].equals(word))
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** *************************************************************
+     */
+    private static char lower(char c) {
+
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+
+    /** *************************************************************
+     */
+    private static int mix(int h) {
+
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
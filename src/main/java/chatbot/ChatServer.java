@@ -0,0 +1,440 @@
+package chatbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to serve a Chatbot over HTTP with the JDK's built-in server.
+ *   POST /chat         {"input": "hi"}              -> {"response": "..."}
+ *   POST /chat/batch   {"inputs": ["hi", "bye"]}    -> {"responses": ["...", "..."]}
+ *   POST /lines        {"lines": ["hi", "hello"]}   -> {"added": 2}
+ *                      adds lines to the corpus, if the server was
+ *                      started to take them, otherwise 404
+ *   GET  /ready        200 {"ready": true} once the index is loaded,
+ *                      503 {"ready": false} before
+ *   GET  /metrics      latencies, counts and sizes as Prometheus text,
+ *                      or 404 if metrics are off
+ * Chat requests get 503 until the index is loaded, so the server can be
+ * started first and put behind a load balancer that polls /ready.
+ * Each request runs on a virtual thread where the JVM has them (Java 21
+ * and later), otherwise on a bounded pool with a bounded queue.  When
+ * that queue is full, the request is handed to a single overflow
+ * thread instead, which answers chat requests with 503 and a
+ * Retry-After header without matching anything, so the accepting
+ * thread never waits.  The utterances of a batch are matched in
+ * parallel on the same executor, with the request's own thread taking
+ * its share, so a batch never waits on a queue behind other requests.
+ */
+public class ChatServer {
+
+    // largest request body accepted
+    public static final int MAX_BODY_BYTES = 1 << 20;
+
+    // most utterances accepted in one batch
+    public static final int MAX_BATCH = 1000;
+
+    // true on the thread that answers requests the pool has no room for
+    private static final ThreadLocal<Boolean> OVERFLOW = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private final Chatbot chatbot;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ExecutorService overflow;
+
+    /** *************************************************************
+     * @param port the port to listen on, 0 for any free one
+     */
+    public ChatServer(Chatbot chatbot, int port) throws IOException {
+
+        this(chatbot, port, false);
+    }
+
+    /** *************************************************************
+     * @param port the port to listen on, 0 for any free one
+     * @param ingest true to add the lines posted to /lines to the corpus
+     */
+    public ChatServer(Chatbot chatbot, int port, boolean ingest) throws IOException {
+
+        this(chatbot, port, ingest, newExecutor());
+    }
+
+    /** *************************************************************
+     * @param executor runs each request, and rejects those it has no
+     * room for, which are answered by the overflow thread
+     */
+    ChatServer(Chatbot chatbot, int port, boolean ingest, ExecutorService executor) throws IOException {
+
+        this.chatbot = chatbot;
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = executor;
+        overflow = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(() -> {
+                OVERFLOW.set(Boolean.TRUE);
+                r.run();
+            }, "chatserver-overflow");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(task -> {
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                overflow.execute(task);
+            }
+        });
+        server.createContext("/chat", this::chat);
+        server.createContext("/chat/batch", this::batch);
+        server.createContext("/ready", this::ready);
+        server.createContext("/metrics", this::metrics);
+        if (ingest)
+            server.createContext("/lines", this::lines);
+    }
+
+    /** *************************************************************
+     * @return a virtual thread per task executor if this JVM has one,
+     * otherwise a bounded pool with a bounded queue that rejects what
+     * it has no room for
+     */
+    private static ExecutorService newExecutor() {
+
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            int threads = Runtime.getRuntime().availableProcessors() * 4;
+            return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    /** *************************************************************
+     */
+    public void start() {
+
+        server.start();
+        System.out.println("Info in ChatServer.start(): listening on port " + port());
+    }
+
+    /** *************************************************************
+     * Stop accepting requests, give those in progress up to
+     * delaySeconds to finish, and stop the executor.
+     */
+    public void stop(int delaySeconds) {
+
+        server.stop(delaySeconds);
+        executor.shutdown();
+        overflow.shutdown();
+    }
+
+    /** *************************************************************
+     * @return the port the server listens on
+     */
+    public int port() {
+
+        return server.getAddress().getPort();
+    }
+
+    /** *************************************************************
+     * POST /chat
+     */
+    private void chat(HttpExchange exchange) throws IOException {
+
+        try {
+            if (!checkRequest(exchange))
+                return;
+            JSONObject request = new JSONObject(readBody(exchange));
+            String input = request.optString("input", "");
+            if (input.trim().isEmpty()) {
+                sendError(exchange, 400, "missing \"input\"");
+                return;
+            }
+            JSONObject response = new JSONObject();
+            response.put("response", chatbot.matchBestInput(input));
+            send(exchange, 200, response);
+        }
+        catch (BodyTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        }
+        catch (JSONException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error in ChatServer.chat(): " + e.getMessage());
+            e.printStackTrace();
+            sendError(exchange, 500, "internal error");
+        }
+    }
+
+    /** *************************************************************
+     * POST /chat/batch.  Blank utterances get a null response rather
+     * than failing the whole batch.
+     */
+    private void batch(HttpExchange exchange) throws IOException {
+
+        try {
+            if (!checkRequest(exchange))
+                return;
+            JSONObject request = new JSONObject(readBody(exchange));
+            JSONArray inputs = request.optJSONArray("inputs");
+            if (inputs == null) {
+                sendError(exchange, 400, "missing \"inputs\"");
+                return;
+            }
+            if (inputs.length() > MAX_BATCH) {
+                sendError(exchange, 413, "more than " + MAX_BATCH + " inputs");
+                return;
+            }
+            String[] results = matchAll(inputs);
+            JSONArray responses = new JSONArray();
+            for (String result : results)
+                responses.put(result == null ? JSONObject.NULL : result);
+            JSONObject response = new JSONObject();
+            response.put("responses", responses);
+            send(exchange, 200, response);
+        }
+        catch (BodyTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        }
+        catch (JSONException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error in ChatServer.batch(): " + e.getMessage());
+            e.printStackTrace();
+            sendError(exchange, 500, "internal error");
+        }
+    }
+
+    /** *************************************************************
+     * Match each of inputs, in parallel on up to one thread per core.
+     * Helpers are offered to the executor, and this thread and each
+     * helper that gets to run take the next unmatched input until there
+     * are none.  This thread then waits only for inputs already being
+     * matched, so a helper still in the queue, or one the executor had
+     * no room for, never holds up the batch.
+     * @return the response to each input, null for a blank one
+     */
+    private String[] matchAll(JSONArray inputs) {
+
+        int n = inputs.length();
+        String[] results = new String[n];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(n);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < n) {
+                try {
+                    String input = inputs.optString(i, "");
+                    if (!input.trim().isEmpty())
+                        results[i] = chatbot.matchBestInput(input);
+                }
+                catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        };
+        int helpers = Math.min(n - 1, Runtime.getRuntime().availableProcessors() - 1);
+        for (int h = 0; h < helpers; h++) {
+            try {
+                executor.execute(worker);
+            }
+            catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        worker.run();
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted matching a batch");
+        }
+        if (failure.get() != null)
+            throw failure.get();
+        return results;
+    }
+
+    /** *************************************************************
+     * POST /lines.  Blank lines are skipped and not counted.
+     */
+    private void lines(HttpExchange exchange) throws IOException {
+
+        try {
+            if (!checkRequest(exchange))
+                return;
+            JSONObject request = new JSONObject(readBody(exchange));
+            JSONArray lines = request.optJSONArray("lines");
+            if (lines == null) {
+                sendError(exchange, 400, "missing \"lines\"");
+                return;
+            }
+            if (lines.length() > MAX_BATCH) {
+                sendError(exchange, 413, "more than " + MAX_BATCH + " lines");
+                return;
+            }
+            int added = 0;
+            for (int i = 0; i < lines.length(); i++) {
+                String line = lines.optString(i, "");
+                if (!line.trim().isEmpty() && chatbot.addLine(line) >= 0)
+                    added++;
+            }
+            JSONObject response = new JSONObject();
+            response.put("added", added);
+            send(exchange, 200, response);
+        }
+        catch (BodyTooLargeException e) {
+            sendError(exchange, 413, e.getMessage());
+        }
+        catch (JSONException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+        catch (RuntimeException e) {
+            System.out.println("Error in ChatServer.lines(): " + e.getMessage());
+            e.printStackTrace();
+            sendError(exchange, 500, "internal error");
+        }
+    }
+
+    /** *************************************************************
+     * GET /ready
+     */
+    private void ready(HttpExchange exchange) throws IOException {
+
+        boolean ready = chatbot.isReady();
+        JSONObject response = new JSONObject();
+        response.put("ready", ready);
+        send(exchange, ready ? 200 : 503, response);
+    }
+
+    /** *************************************************************
+     * GET /metrics
+     */
+    private void metrics(HttpExchange exchange) throws IOException {
+
+        if (!Metrics.isEnabled()) {
+            sendError(exchange, 404, "metrics are off");
+            return;
+        }
+        byte[] bytes = chatbot.metrics().dump().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** *************************************************************
+     * Answer requests that can't be served: anything but a POST to the
+     * exact path, everything before the index is loaded, and everything
+     * the pool had no room for.
+     * @return true if the request should be served
+     */
+    private boolean checkRequest(HttpExchange exchange) throws IOException {
+
+        if (!exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath())) {
+            sendError(exchange, 404, "not found");
+            return false;
+        }
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendError(exchange, 405, "use POST");
+            return false;
+        }
+        if (!chatbot.isReady()) {
+            sendError(exchange, 503, "index not loaded yet");
+            return false;
+        }
+        if (OVERFLOW.get()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 503, "server busy");
+            return false;
+        }
+        return true;
+    }
+
+    /** *************************************************************
+     */
+    private static class BodyTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+
+            super("request body over " + MAX_BODY_BYTES + " bytes");
+        }
+    }
+
+    /** *************************************************************
+     * @return the request body as UTF-8 text
+     */
+    private static String readBody(HttpExchange exchange) throws IOException {
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (body.size() + n > MAX_BODY_BYTES)
+                    throw new BodyTooLargeException();
+                body.write(buf, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /** *************************************************************
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+
+        JSONObject response = new JSONObject();
+        response.put("error", message);
+        send(exchange, status, response);
+    }
+
+    /** *************************************************************
+     */
+    private static void send(HttpExchange exchange, int status, JSONObject response) throws IOException {
+
+        byte[] bytes = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -3,16 +3,25 @@ package chatbot;
 import com.articulate.sigma.DB;
 import com.articulate.sigma.utils.ProgressPrinter;
 import com.google.common.io.Resources;
-import nlp.KMeans;
+import dataprocessing.amazonwebservices.ObjectFetcher;
+import dataprocessing.amazonwebservices.ObjectStore;
+import dataprocessing.amazonwebservices.S3Client;
+import dataprocessing.elasticsearch.ElasticSearchClient;
 import nlp.TextFileUtil;
 import org.apache.commons.lang3.ArrayUtils;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.IntStream;
 import java.util.ResourceBundle;
 
 import static com.amazonaws.util.StringUtils.isNullOrEmpty;
@@ -33,29 +42,77 @@ import static com.amazonaws.util.StringUtils.isNullOrEmpty;
  */
 public class Chatbot {
 
-    // inverse document frequency = log of number of documents divided by
-    // number of documents in which a term appears
-    private HashMap<String,Float> idf = new HashMap<String,Float>();
+    // term frequencies of each document (where each document is an int index into lines)
+    private TfidfIndexBuilder builder = new TfidfIndexBuilder();
 
-    // number of documents in which a term appears
-    private HashMap<String,Integer> docfreq = new HashMap<String,Integer>();
+    // tf * idf of each document, and its euclidean length, as of the last calcDFs().
+    // Queries only read it, and a rebuild replaces it as a whole.
+    private volatile LiveIndex index = null;
 
-    // the length of a vector composed from each term frequency
-    private HashMap<Integer,Float> euclid = new HashMap<Integer,Float>();
+    // held while lines are added or a new index is put in place
+    private final Object writeLock = new Object();
 
-    // number of times a term appears in a document (where each document is an Integer index)
-    private HashMap<Integer,HashMap<String,Integer>> tf = new HashMap<Integer,HashMap<String,Integer>>();
+    // held for the whole of a compaction, so only one runs at a time
+    private final Object compactLock = new Object();
 
-    // tf * idf (where each document is an Integer index)
-    private HashMap<Integer,HashMap<String,Float>> tfidf = new HashMap<Integer,HashMap<String,Float>>();
+    // bumped after every change to the lines index holds, to invalidate
+    // the responses cached before it
+    private volatile long generation = 0;
 
-    // similarity of each document to the query (index -1)
-    private HashMap<Integer,Float> docSim = new HashMap<Integer,Float>();
+    // number of responses to recent queries that are kept
+    public static final int RESPONSE_CACHE_SIZE = 10000;
+
+    // responses to recent queries
+    private final ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_SIZE);
+
+    // runs compact() in the background, once started
+    private ScheduledExecutorService compactor = null;
+
+    // latencies of each stage of queries and builds, and other counts
+    private final Metrics metrics = new Metrics();
+
+    // finds candidates in index, for as long as no other backend is set
+    private final RetrievalBackend localBackend = new RetrievalBackend() {
+
+        @Override
+        public CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k) {
+
+            LiveIndex index = Chatbot.this.index;
+            return CompletableFuture.completedFuture(new IndexCandidates(index, matchTokens(tokens, k, index)));
+        }
+
+        @Override
+        public boolean isReady() {
+
+            return index != null;
+        }
+    };
+
+    // where matchBestInput() finds the lines it ranks
+    private volatile RetrievalBackend backend = localBackend;
+
+    // the longest a query waits for its candidates
+    public static final long RETRIEVE_TIMEOUT_MILLIS = 2000;
+
+    // similarity of each document to a query, one per querying thread
+    private static final ThreadLocal<ScoreAccumulator> docSim =
+            ThreadLocal.withInitial(ScoreAccumulator::new);
 
     /** English "stop words" such as "a", "at", "them", which have no or little
      * inherent meaning when taken alone. */
     public ArrayList<String> stopwords = new ArrayList<String>();
 
+    // splits lines into terms, rebuilt whenever stopwords are read
+    private Analyzer analyzer = new Analyzer(stopwords);
+
+    // profane words to censor in responses, compiled once
+    private ProfanityFilter profanity = null;
+
+    private static final String PROFANITY_FILE = "src/main/java/chatbot/resourcefiles/profanity-list.txt";
+
+    // a corpus file's index is saved next to it, under its name plus this
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+
     // each line of a corpus
     public ArrayList<String> lines = new ArrayList<String>();
 
@@ -70,8 +127,36 @@ public class Chatbot {
 
     // flag for choosing responses that match the question's sentiment
     private static boolean isMatchingSentiment = false;
+
+    // flag for tokenizing lines and building the index on all cores
+    private static boolean isParallelBuild = false;
+
+    // find candidates in the Elasticsearch index rather than reading a corpus
+    private static boolean isElasticSearch = false;
+
+    // find candidates in LSH tables rather than by walking every posting
+    private static boolean isApproximate = false;
+
+    // number of ranges of lines each query walks in parallel, 1 for none
+    private static int shards = 1;
+
+    // host:port of each ShardServer to coordinate, or null to hold the corpus here
+    private static String nodes = null;
+
+    // seconds between compactions of a server that takes new lines over
+    // POST /lines, 0 for a server that doesn't
+    private static long compactSeconds = 0;
+
+    // number of best matching lines that matchBestInput() chooses a response
+    // from when they are found approximately or by another backend
+    public static final int TOP_K = 100;
+
+    // set once DB.sentiment has been read
+    private static volatile boolean sentimentRead = false;
     private Random rand = new Random();
 
+    // the answer when nothing in the corpus matches
+    private static final String NO_ANSWER = "I don't know";
 
     /** *************************************************************************************************
      * Constructor
@@ -79,7 +164,9 @@ public class Chatbot {
     public Chatbot(String stopwordsFilename) throws IOException {
 
         //System.out.println("Info in TFIDF(): Initializing");
+        addGauges();
         readStopWords(stopwordsFilename);
+        readProfanityList();
     }
 
     /** *************************************************************************************************
@@ -88,18 +175,44 @@ public class Chatbot {
     public Chatbot(List<String> documents, String stopwordsFilename) throws IOException {
 
         //System.out.println("Info in TFIDF(): Initializing");
+        addGauges();
         prepare(documents, stopwordsFilename);
     }
 
+    /** *************************************************************************************************
+     * Add the size of the corpus, the index and the response cache to
+     * the metrics.
+     */
+    private void addGauges() {
+
+        metrics.gauge("lines", () -> { LiveIndex i = index; return i == null ? 0 : i.docCount(); });
+        metrics.gauge("appended_lines", () -> { LiveIndex i = index; return i == null ? 0 : i.appendedDocs(); });
+        metrics.gauge("terms", () -> { LiveIndex i = index; return i == null ? 0 : i.base.termCount; });
+        metrics.gauge("generation", () -> generation);
+        metrics.gauge("response_cache_entries", responseCache::size);
+        metrics.gauge("response_cache_hits", responseCache::hits);
+        metrics.gauge("response_cache_misses", responseCache::misses);
+    }
+
+    /** *************************************************************************************************
+     * @return the latencies, counts and sizes of this Chatbot
+     */
+    public Metrics metrics() {
+
+        return metrics;
+    }
+
     /** *************************************************************************************************
      */
     public void prepare(List<String> documents, String stopwordsFilename) throws IOException {
 
         rand.setSeed(18021918); // Makes test results consistent
         readStopWords(stopwordsFilename);
+        readProfanityList();
+        long start = metrics.start();
         readDocuments(documents);
-        calcIDF(documents.size());
-        calcTFIDF();
+        metrics.stop(Metrics.Stage.BUILD_READ, start);
+        publish(buildIndex(documents.size()), documents.size());
     }
 
     /** ************************************************************************************************
@@ -108,165 +221,239 @@ public class Chatbot {
      */
     private void readDocuments(List<String> documents) {
 
-        int count = 0;
+        if (isParallelBuild) {
+            lines.addAll(documents);
+            builder.addDocuments(documents, analyzer, buildPool());
+            return;
+        }
         for (String doc : documents) {
             lines.add(doc);
-            processDoc(doc, count);
-            count++;
+            processDoc(doc);
         }
     }
 
     /** ************************************************************************************************
-     * inverse document frequency = log of number of documents divided by
-     * number of documents in which a term appears.
-     * Note that if the query is included as index -1 then it will
-     * get processed too. Put the results into
-     * HashMap<String,Float> idf
+     * @return the pool to build the index on, or null to build it on
+     * the calling thread
      */
-    private void calcIDF(int docCount) {
+    private static ForkJoinPool buildPool() {
 
-        idf.putAll(docfreq.keySet().stream().collect(Collectors.toMap((t) -> t,t ->
-                ((float) Math.log10((float) docCount / (float) docfreq.get(t))))));
+        return isParallelBuild ? ForkJoinPool.commonPool() : null;
     }
 
     /** ************************************************************************************************
-     * Calculate TF/IDF and put the results in
-     * HashMap<Integer,HashMap<String,Float>> tfidf
-     * In the process, calculate the euclidean distance of the word
-     * vectors and put in HashMap<Integer,Float> euclid
-     * Note that if the query is included as index -1 then it will
-     * get processed too.
-     */
-    private void calcOneTFIDF(Integer int1) {
-
-        HashMap<String,Integer> tftermlist = tf.get(int1);
-        if (tftermlist == null) {
-            System.out.println("Error in calcOneTFIDF(): bad index: " + int1);
-            return;
-        }
-        HashMap<String,Float> tfidflist = new HashMap<String,Float>();
-        float euc = 0;
-        Iterator<String> it2 = tftermlist.keySet().iterator();
-        while (it2.hasNext()) {
-            String term = it2.next();
-            int tfint = tftermlist.get(term).intValue();
-            float idffloat = idf.get(term).floatValue();
-            float tfidffloat = idffloat * tfint;
-            tfidflist.put(term,new Float(tfidffloat));
-            euc = euc + (tfidffloat * tfidffloat);
+     * Adds a document as the next row of the index
+     */
+    private void processDoc(String doc) {
+
+        builder.addDocument(doc, analyzer);
+    }
+
+    /** ************************************************************************************************
+     * Remove punctuation and stop words from a document.
+     * @return the remaining tokens, or null if there are none
+     */
+    private ArrayList<String> tokenize(String doc) {
+
+        return analyzer.tokenize(doc);
+    }
+
+    /** **************************************************************************************************
+     * Calculate IDF and TF/IDF over all lines read so far
+     */
+    protected void calcDFs() {
+
+        System.out.println("Info in TFIDF.calcDFs(): Caclulate IDF, with size: " + lines.size());
+        publish(buildIndex(lines.size() - 1), lines.size() - 1);
+    }
+
+    /** **************************************************************************************************
+     * Build the index from the documents in builder.
+     */
+    private TfidfIndex buildIndex(int idfDocCount) {
+
+        long start = metrics.start();
+        TfidfIndex base = builder.build(idfDocCount, buildPool());
+        metrics.stop(Metrics.Stage.BUILD_INDEX, start);
+        return base;
+    }
+
+    /** **************************************************************************************************
+     * Make base, built from all of lines, the index that queries use.
+     */
+    private void publish(TfidfIndex base, int idfDocCount) {
+
+        publish(base, idfDocCount, null);
+    }
+
+    /** **************************************************************************************************
+     * Make base, built from all of lines, the index that queries use.
+     * @param sentiment the sentiment of each line, or null to compute
+     *                  it if responses are ranked on sentiment
+     */
+    private void publish(TfidfIndex base, int idfDocCount, int[] sentiment) {
+
+        synchronized (writeLock) {
+            String[] baseLines = lines.toArray(new String[lines.size()]);
+            if (sentiment == null || sentiment.length != baseLines.length) {
+                long start = metrics.start();
+                sentiment = computeSentiments(baseLines);
+                metrics.stop(Metrics.Stage.BUILD_SENTIMENT, start);
+            }
+            index = new LiveIndex(base, idfDocCount, baseLines, sentiment, buildLsh(base));
+            generation++;
         }
-        euclid.put(int1, new Float((float) Math.sqrt(euc)));
-        tfidf.put(int1, tfidflist);
     }
 
+    /** **************************************************************************************************
+     * @return the LSH tables of base if queries are answered
+     * approximately, otherwise null
+     */
+    private LshIndex buildLsh(TfidfIndex base) {
 
+        if (!isApproximate)
+            return null;
+        long start = metrics.start();
+        LshIndex lsh = LshIndex.build(base, buildPool());
+        metrics.stop(Metrics.Stage.BUILD_LSH, start);
+        return lsh;
+    }
 
-    /** *************************************************************************************************
-     * Calculate TF/IDF and put results in
-     * HashMap<Integer,HashMap<String,Float>> tfidf
-     * Note that if the query is included as index -1 then it will
-     * get processed too.
-     * This calls calcOneTFIDF() that does most of the work.
+    /** **************************************************************************************************
+     * @return true if responses are ranked on sentiment, so the
+     * sentiment of each line should be kept in the index
      */
-    private void calcTFIDF() {
+    private static boolean isUsingSentiment() {
 
-        System.out.print("Info in TFIDF.calcTFIDF(): TF/IDF: ");
-        ProgressPrinter pp = new ProgressPrinter(1000);
-        tf.keySet().stream().forEach(s -> {calcOneTFIDF(s.intValue()); pp.tick();} );
-        System.out.println();
+        return isExcludingNegativeSentiment || isMatchingSentiment;
     }
 
-    /** ************************************************************************************************
-     * sets the values in tf (term frequency) and tdocfreq (count of
-     * documents in which a term appears)
-     * @param intlineCount is -1 for query
+    /** **************************************************************************************************
+     * Compute the sentiment of every line in parallel, once, so queries
+     * only have to look it up.
+     * @return the sentiment of each line, or null if it isn't needed
      */
-    private void processDoc(String doc, Integer intlineCount) {
+    private static int[] computeSentiments(String[] lines) {
 
-        if (isNullOrEmpty(doc))
-            return;
-        String line = removePunctuation(doc);
-        line = removeStopWords(line);
-        if (isNullOrEmpty(line.trim()))
-            return;
-        ArrayList<String> tokens = splitToArrayList(line.trim());
-        HashSet<String> tokensNoDup = new HashSet<String>();
-        HashMap<String,Integer> tdocfreq = new HashMap<String,Integer>();
-        for (int i = 0; i < tokens.size(); i++) {
-            String token = tokens.get(i);
-            Integer tcount = new Integer(0);
-            if (tdocfreq.containsKey(token))
-                tcount = tdocfreq.get(token);
-            int tcountint = tcount.intValue() + 1;
-            tcount = new Integer(tcountint);
-            tdocfreq.put(token,tcount);
-            if (!docfreq.containsKey(token))
-                docfreq.put(token,new Integer(1));
-            else {
-                if (!tokensNoDup.contains(token)) {
-                    Integer intval = docfreq.get(token);
-                    int intvalint = intval.intValue();
-                    docfreq.put(token, new Integer(intvalint + 1));
-                    tokensNoDup.add(token);
-                }
+        if (!isUsingSentiment())
+            return null;
+        readSentimentArray();
+        int[] sentiment = new int[lines.length];
+        IntStream.range(0, lines.length).parallel().forEach(i -> sentiment[i] = lineSentiment(lines[i]));
+        return sentiment;
+    }
+
+    /** **************************************************************************************************
+     * @return the sentiment of a line, or 0 if responses aren't ranked
+     * on sentiment
+     */
+    private static int lineSentiment(String line) {
+
+        if (!isUsingSentiment() || isNullOrEmpty(line))
+            return 0;
+        readSentimentArray();
+        return DB.computeSentiment(line);
+    }
+
+    /** **************************************************************************************************
+     * Add a line to the corpus and make it searchable right away, in
+     * time proportional to its length, while other threads go on
+     * matching.  Its weights use the document frequencies as they are
+     * when it is matched; the weights of the other lines are brought up
+     * to date by the next compact().
+     * @return the document number of the line, or -1 if it is empty or
+     * there is no index yet
+     */
+    public int addLine(String line) {
+
+        if (isNullOrEmpty(line))
+            return -1;
+        ArrayList<String> tokens = tokenize(line);
+        int sentiment = lineSentiment(line);
+        synchronized (writeLock) {
+            if (index == null)
+                return -1;
+            lines.add(line);
+            builder.addDocument(tokens);
+            int doc = index.add(line, tokens, sentiment);
+            generation++;
+            metrics.increment(Metrics.Counter.LINES_ADDED);
+            return doc;
+        }
+    }
+
+    /** **************************************************************************************************
+     * Rebuild the index from all lines, including those added by
+     * addLine() since the last build, so every line is weighted with
+     * the current document frequencies.  The build runs without holding
+     * up addLine() or queries; lines added while it runs are carried
+     * over to the new index before it is put in place.
+     */
+    public void compact() {
+
+        synchronized (compactLock) {
+            long start = metrics.start();
+            TfidfIndexBuilder frozen;
+            String[] frozenLines;
+            int[] frozenSentiment;
+            int idfDocCount;
+            synchronized (writeLock) {
+                LiveIndex current = index;
+                if (current == null || current.appendedDocs() == 0)
+                    return;
+                frozen = builder.frozenCopy();
+                frozenLines = lines.toArray(new String[lines.size()]);
+                frozenSentiment = current.sentiments(frozenLines.length);
+                idfDocCount = current.idfDocCount + current.appendedDocs();
+            }
+            TfidfIndex base = frozen.build(idfDocCount, buildPool());
+            LshIndex lsh = buildLsh(base);
+            synchronized (writeLock) {
+                LiveIndex current = index;
+                LiveIndex next = new LiveIndex(base, idfDocCount, frozenLines, frozenSentiment, lsh);
+                for (int i = frozenLines.length; i < lines.size(); i++)
+                    next.add(lines.get(i), tokenize(lines.get(i)), current.hasSentiment() ? current.sentiment(i) : 0);
+                index = next;
+                generation++;
             }
+            metrics.stop(Metrics.Stage.COMPACT, start);
+            metrics.increment(Metrics.Counter.COMPACTIONS);
         }
-        tf.put(intlineCount, tdocfreq);
     }
 
     /** **************************************************************************************************
+     * Run compact() every periodSeconds on a background thread, whenever
+     * lines have been added since the last build.
      */
-    protected void calcDFs() {
+    public synchronized void startCompaction(long periodSeconds) {
 
-        System.out.println("Info in TFIDF.calcDFs(): Caclulate IDF, with size: " + lines.size());
-        calcIDF(lines.size() - 1);
-        calcTFIDF();
-    }
-
-    /** **************************************************************************************************
-     * Assume that query is file index -1
-     * Calculate the similarity of each document to the query
-     * Put the result in HashMap<Integer,Float> docSim
-     */
-    private void calcDocSim() {
-
-        //System.out.println("Info in TFIDF.calcDocSim(): tfidf: " + tfidf);
-        Integer negone = new Integer(-1);
-        HashMap<String,Float> tfidflist = tfidf.get(negone);
-        HashMap<String,Float> normquery = new HashMap<String,Float>();
-        float euc = euclid.get(negone);
-        Iterator<String> it2 = tfidflist.keySet().iterator();
-        while (it2.hasNext()) {
-            String term = it2.next();
-            float tfidffloat = tfidflist.get(term).floatValue();
-            normquery.put(term,new Float(tfidffloat / euc));
-        }
-        //System.out.println("Info in TFIDF.calcDocSim(): normquery: " + normquery);
-        Iterator<Integer> it1 = tf.keySet().iterator();
-        while (it1.hasNext()) {
-            Integer int1 = it1.next();
-            if (int1.intValue() != -1) {
-                tfidflist = tfidf.get(int1);
-                euc = euclid.get(int1);
-                float fval = 0;
-                Iterator<String> it3 = tfidflist.keySet().iterator();
-                while (it3.hasNext()) {
-                    String term = it3.next();
-                    float tfidffloat = tfidflist.get(term).floatValue();
-                    float query = 0;
-                    if (normquery.containsKey(term))
-                        query = normquery.get(term).floatValue();
-                    float normalize = 0;
-                    if (euc != 0)
-                        normalize = tfidffloat / euc;
-                    fval = fval + (normalize * query);
-                }
-                docSim.put(int1,fval);
-                //if (int1 == 8362)
-                //    System.out.println("TFIDF.calcDocSim(): " + fval + ":" + tf.get(8362));
+        if (compactor != null)
+            return;
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "chatbot-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
             }
+            catch (RuntimeException e) {
+                System.out.println("Error in Chatbot.compact(): " + e.getMessage());
+                e.printStackTrace();
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /** **************************************************************************************************
+     * Stop the background thread started by startCompaction().
+     */
+    public synchronized void stopCompaction() {
+
+        if (compactor != null) {
+            compactor.shutdownNow();
+            compactor = null;
         }
-        //System.out.println("Info in TFIDF.calcDocSim(): Doc sim:\n" + docSim);
     }
 
     /** **************************************************************************************************
@@ -275,69 +462,7 @@ public class Chatbot {
      */
     public String removePunctuation(String sentence) {
 
-        Matcher m = null;
-        if (isNullOrEmpty(sentence))
-            return sentence;
-        m = Pattern.compile("(\\w)\\'re").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)\\'m").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)n\\'t").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)\\'ll").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)\\'s").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)\\'d").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        m = Pattern.compile("(\\w)\\'ve").matcher(sentence);
-        while (m.find()) {
-            //System.out.println("matches");
-            String group = m.group(1);
-            sentence = m.replaceFirst(group).toString();
-            m.reset(sentence);
-        }
-        sentence = sentence.replaceAll("\\'","");
-        sentence = sentence.replaceAll("\"","");
-        sentence = sentence.replaceAll("\\.","");
-        sentence = sentence.replaceAll("\\;","");
-        sentence = sentence.replaceAll("\\:","");
-        sentence = sentence.replaceAll("\\?","");
-        sentence = sentence.replaceAll("\\!","");
-        sentence = sentence.replaceAll("\\, "," ");
-        sentence = sentence.replaceAll("\\,[^ ]",", ");
-        sentence = sentence.replaceAll("  "," ");
-        return sentence;
+        return analyzer.removePunctuation(sentence);
     }
 
     /** **************************************************************************************************
@@ -346,30 +471,7 @@ public class Chatbot {
      */
     public String removeStopWords(String sentence) {
 
-        if (isNullOrEmpty(sentence))
-            return "";
-        String result = "";
-        ArrayList<String> al = splitToArrayList(sentence);
-        if (al == null)
-            return "";
-        return al.stream()
-                .filter(s -> !stopwords.contains(s.toLowerCase()))
-                .collect(Collectors.joining(" "));
-    }
-
-    /** **************************************************************************************************
-     * @return an ArrayList of the string split by spaces.
-     */
-    private static ArrayList<String> splitToArrayList(String st) {
-
-        if (isNullOrEmpty(st)) {
-            System.out.println("Error in TFIDF.splitToArrayList(): empty string input");
-            return null;
-        }
-        String[] sentar = st.split(" ");
-        return new ArrayList<String>(Arrays.asList(sentar)).stream()
-                .filter(s -> s != null && !s.equals("") && !s.matches("\\s*"))
-                .collect(Collectors.toCollection(ArrayList<String>::new));
+        return analyzer.removeStopWords(sentence);
     }
 
     /*****************************************************************************************************
@@ -379,38 +481,231 @@ public class Chatbot {
      */
     public String matchBestInput(String input) {
 
-        ArrayList<String> result = new ArrayList<>();
-        TreeMap<Float,ArrayList<Integer>> sortedSim = matchInputFull(input);
-        if (sortedSim == null || sortedSim.keySet().size() < 1 || sortedSim.lastKey() < .1) {
-            return "I don't know";
-        }
-        Object[] floats = sortedSim.keySet().toArray();
-        int numClusters = 3;
-        if (floats.length < numClusters)
-            numClusters = floats.length;
-        float[] floatarray = new float[floats.length];
-        for (int i = 0; i < floats.length; i++)
-            floatarray[i] = (float) floats[i];
-        ArrayList<ArrayList<Float>> res = KMeans.run(floatarray.length, floatarray, numClusters);
-        ArrayList<Float> topCluster = res.get(res.size() - 2);
-        while (res.get(res.size() - 2).size() > 3 && numClusters < floats.length) {
-            numClusters++;
-            res = KMeans.run(floatarray.length, floatarray, numClusters);
-            topCluster = res.get(res.size() - 2);
-            //System.out.println("Info in TFIDF.matchBestInput(): " + res);
-            //System.out.println("Info in TFIDF.matchBestInput(): " + topCluster);
+        if (isNullOrEmpty(input))
+            System.exit(0);
+        long start = metrics.start();
+        // read before the index, so a response is never kept under a
+        // generation older than the lines it was matched against
+        long generation = this.generation;
+        long stage = metrics.start();
+        ArrayList<String> tokens = tokenize(input);
+        metrics.stop(Metrics.Stage.TOKENIZE, stage);
+        int inputSentiment = inputSentiment(input);
+        String key = cacheKey(tokens, inputSentiment);
+        String response = responseCache.get(key, generation);
+        if (response == null) {
+            RetrievalBackend.Candidates candidates = retrieve(tokens);
+            response = candidates == null ? null : matchBestInput(candidates, inputSentiment);
+            // a backend that failed isn't remembered as having no answer,
+            // nor is an answer from only part of the corpus
+            if (response == null)
+                response = NO_ANSWER;
+            else if (!candidates.isPartial())
+                responseCache.put(key, generation, response);
         }
-        for (int i = 0; i < topCluster.size(); i++) {
-            ArrayList<Integer> temp = sortedSim.get(topCluster.get(i));
-            for (int j = 0; j < temp.size(); j++)
-                result.add(lines.get(temp.get(j).intValue()));
+        metrics.increment(Metrics.Counter.QUERIES);
+        if (response.equals(NO_ANSWER))
+            metrics.increment(Metrics.Counter.UNANSWERED);
+        metrics.stop(Metrics.Stage.QUERY, start);
+        return response;
+    }
+
+    /** **************************************************************************************************
+     * matchBestInput() without the response cache, so that benchmarks
+     * measure the matching itself.
+     */
+    String matchBestInputUncached(String input) {
+
+        if (isNullOrEmpty(input))
+            System.exit(0);
+        RetrievalBackend.Candidates candidates = retrieve(tokenize(input));
+        String response = candidates == null ? null : matchBestInput(candidates, inputSentiment(input));
+        return response == null ? NO_ANSWER : response;
+    }
+
+    /** **************************************************************************************************
+     * @return the sentiment of the input if responses must match it,
+     * otherwise 0
+     */
+    private int inputSentiment(String input) {
+
+        if (!isMatchingSentiment)
+            return 0;
+        long start = metrics.start();
+        readSentimentArray();
+        int sentiment = DB.computeSentiment(input);
+        metrics.stop(Metrics.Stage.INPUT_SENTIMENT, start);
+        return sentiment;
+    }
+
+    /** **************************************************************************************************
+     * @return the key of a query in responseCache: the sentiment flags,
+     * the sign of the input's sentiment if responses must match it, and
+     * the terms of the query in order, which is all the response
+     * depends on for a given corpus
+     */
+    private static String cacheKey(ArrayList<String> tokens, int inputSentiment) {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(isExcludingNegativeSentiment ? 'n' : '-');
+        sb.append(isMatchingSentiment ? (char) ('1' + Integer.signum(inputSentiment)) : '-');
+        if (tokens != null)
+            for (String token : tokens)
+                sb.append('\u0000').append(token);
+        return sb.toString();
+    }
+
+    /** **************************************************************************************************
+     * @return true once an index has been built or loaded, so queries
+     * can be answered
+     */
+    public boolean isReady() {
+
+        return backend.isReady();
+    }
+
+    /** **************************************************************************************************
+     * Find the candidates of queries with backend rather than this
+     * Chatbot's own index, such as an ElasticSearchBackend over a corpus
+     * too large to hold here, or with the index again if backend is
+     * null.  The responses cached before are forgotten.
+     */
+    public void setBackend(RetrievalBackend backend) {
+
+        synchronized (writeLock) {
+            this.backend = backend == null ? localBackend : backend;
+            generation++;
         }
+    }
+
+    /** **************************************************************************************************
+     * @return the index queries currently use, or null if there is none yet
+     */
+    LiveIndex liveIndex() {
+
+        return index;
+    }
+
+    /** **************************************************************************************************
+     * Set the options main() reads from the command line, for callers
+     * such as benchmarks that build a Chatbot themselves.  They apply
+     * to every Chatbot in this JVM.
+     */
+    static void setOptions(boolean excludingNegativeSentiment, boolean matchingSentiment, boolean parallelBuild) {
+
+        isExcludingNegativeSentiment = excludingNegativeSentiment;
+        isMatchingSentiment = matchingSentiment;
+        isParallelBuild = parallelBuild;
+    }
+
+    /** **************************************************************************************************
+     * Find candidates in LSH tables from the next build on, trading
+     * recall for time on large corpora, as -lsh does.  Applies to every
+     * Chatbot in this JVM.
+     */
+    static void setApproximate(boolean approximate) {
+
+        isApproximate = approximate;
+    }
+
+    /** **************************************************************************************************
+     * Walk the postings of each query in n shards in parallel, as
+     * -shards does, so a large corpus is searched on all cores.
+     * Applies to every Chatbot in this JVM.
+     */
+    static void setShards(int n) {
 
-        ArrayList<String> resultNoProfanity = profanityFilter(result);
+        shards = Math.max(1, n);
+    }
 
-        ArrayList<String> rankedResponses = rankResponses(resultNoProfanity, input);
+    /** **************************************************************************************************
+     * @return the number of matchBestInput() calls answered from the cache
+     */
+    public long cacheHits() {
 
-        return chooseBestResponse(rankedResponses);
+        return responseCache.hits();
+    }
+
+    /** **************************************************************************************************
+     * @return the number of matchBestInput() calls that had to be matched
+     */
+    public long cacheMisses() {
+
+        return responseCache.misses();
+    }
+
+    /** **************************************************************************************************
+     * Find the candidates for the terms of a query with backend.
+     * @return the candidates, or null if backend failed
+     */
+    private RetrievalBackend.Candidates retrieve(ArrayList<String> tokens) {
+
+        long start = metrics.start();
+        RetrievalBackend.Candidates candidates;
+        try {
+            candidates = backend.retrieve(tokens, TOP_K).get(RETRIEVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException | TimeoutException e) {
+            System.out.println("Error in Chatbot.retrieve(): no candidates: " + e);
+            return null;
+        }
+        metrics.stop(Metrics.Stage.SCORE, start);
+        if (candidates.isPartial())
+            metrics.increment(Metrics.Counter.PARTIAL);
+        return candidates;
+    }
+
+    /** **************************************************************************************************
+     * Choose a response from the candidates backend found for a query.
+     * @return the best response
+     */
+    private String matchBestInput(RetrievalBackend.Candidates candidates, int inputSentiment) {
+
+        ArrayList<Integer> result = new ArrayList<>();
+        metrics.record(Metrics.Distribution.CANDIDATES, candidates.size());
+        long start = metrics.start();
+        // documents that share no term with the input are not scored, but
+        // they still count as a similarity of zero when clustering
+        float[] floatarray = candidates.similarities();
+        if (floatarray.length < 1 || floatarray[floatarray.length - 1] < .1) {
+            return NO_ANSWER;
+        }
+        int numClusters = 3;
+        if (floatarray.length < numClusters)
+            numClusters = floatarray.length;
+        // the last cluster KMeans.run() gives with the fewest clusters,
+        // starting at numClusters, that leaves at most 3 values in it
+        int[] topCluster = TopClusterSelector.topCluster(floatarray, numClusters, 3);
+        if (topCluster.length > 0) {
+            TreeMap<Float,ArrayList<Integer>> scores = candidates.scores(floatarray[topCluster[0]]);
+            for (int i : topCluster) {
+                ArrayList<Integer> temp = scores.get(floatarray[i]);
+                if (temp != null)
+                    result.addAll(temp);
+            }
+        }
+        metrics.stop(Metrics.Stage.CLUSTER, start);
+        metrics.record(Metrics.Distribution.CLUSTER, result.size());
+
+        start = metrics.start();
+        ArrayList<Integer> rankedDocs = rankResponses(result, inputSentiment, candidates);
+        metrics.stop(Metrics.Stage.SENTIMENT, start);
+        metrics.record(Metrics.Distribution.RANKED, rankedDocs.size());
+        if (rankedDocs.isEmpty())
+            return NO_ANSWER;
+        ArrayList<String> rankedResponses = new ArrayList<>(rankedDocs.size());
+        for (Integer doc : rankedDocs)
+            rankedResponses.add(candidates.line(doc.intValue()));
+
+        start = metrics.start();
+        ArrayList<String> resultNoProfanity = profanityFilter(rankedResponses);
+        metrics.stop(Metrics.Stage.PROFANITY, start);
+
+        return chooseBestResponse(resultNoProfanity);
     }
 
     /** ************************************************************************************************
@@ -431,6 +726,7 @@ public class Chatbot {
         String line;
         while ((line = lr.readLine()) != null)
             stopwords.add(line.intern());
+        analyzer = new Analyzer(stopwords);
         return;
     }
 
@@ -446,37 +742,143 @@ public class Chatbot {
     }
 
     /****************************************************************************************************
-     *
-     * @param responses
-     * @param input
-     * @return
+     * Read the sentiment lexicon once, however many threads ask for it
+     */
+    private static void readSentimentArray() {
+
+        if (sentimentRead)
+            return;
+        synchronized (Chatbot.class) {
+            if (!sentimentRead) {
+                if (DB.sentiment.keySet().size() < 1)
+                    DB.readSentimentArray();
+                sentimentRead = true;
+            }
+        }
+    }
+
+    /** ************************************************************************************************
+     * Keep the responses whose sentiment is non-negative, or matches
+     * that of the input.  The sentiment of each line is looked up in
+     * the index, and that of the input is computed once per query.
+     * @param responses numbers of the responses among candidates
+     */
+    ArrayList<Integer> rankResponsesOnSentiment(ArrayList<Integer> responses, int inputSentiment,
+                                                RetrievalBackend.Candidates candidates) {
+
+        readSentimentArray();
+        ArrayList<Integer> result = new ArrayList<>(responses.size());
+        if (isExcludingNegativeSentiment) {
+            for (Integer doc : responses)
+                if (candidates.sentiment(doc.intValue()) >= 0)
+                    result.add(doc);
+        }
+        else if (isMatchingSentiment) {
+            for (Integer doc : responses)
+                if (compareSentiment(candidates.sentiment(doc.intValue()), inputSentiment))
+                    result.add(doc);
+        }
+        else
+            result = responses;
+        return result;
+    }
+
+    /** ************************************************************************************************
+     * @return the sentiment of document doc, from the index if it keeps it
      */
-    private ArrayList<String> rankResponsesOnSentiment(ArrayList<String> responses, String input) {
+    private static int sentiment(LiveIndex index, int doc) {
+
+        if (index.hasSentiment())
+            return index.sentiment(doc);
+        return DB.computeSentiment(index.line(doc));
+    }
+
+    /** ************************************************************************************************
+     * The documents of index that a query matched, numbered as in index.
+     * The scores are kept in arrays, and only those a response can be
+     * picked from are put in a TreeMap.
+     */
+    static class IndexCandidates implements RetrievalBackend.Candidates {
+
+        private final LiveIndex index;
+        private final ScoreList scored;
 
-        if (DB.sentiment.keySet().size() < 1)
-            DB.readSentimentArray();
-        if (isExcludingNegativeSentiment)
-            responses = responses.stream().filter(r -> DB.computeSentiment(r) >= 0)
-                    .collect(Collectors.toCollection(ArrayList::new));
-        else if (isMatchingSentiment)
-            responses = responses.stream().filter(r -> compareSentiment(DB.computeSentiment(r),
-                    DB.computeSentiment(input))).collect(Collectors.toCollection(ArrayList::new));
+        IndexCandidates(LiveIndex index, ScoreList scored) {
 
-        return responses.size() > 0 ? responses : new ArrayList<>(Collections.singletonList("I don't know"));
+            this.index = index;
+            this.scored = scored;
+        }
+
+        @Override
+        public TreeMap<Float,ArrayList<Integer>> scores() {
+
+            return scores(Float.NEGATIVE_INFINITY);
+        }
+
+        @Override
+        public TreeMap<Float,ArrayList<Integer>> scores(float min) {
+
+            TreeMap<Float,ArrayList<Integer>> result = new TreeMap<Float,ArrayList<Integer>>();
+            for (int i = 0; i < scored.size(); i++)
+                if (Float.compare(scored.score(i), min) >= 0)
+                    result.computeIfAbsent(scored.score(i), f -> new ArrayList<Integer>()).add(scored.doc(i));
+            return result;
+        }
+
+        @Override
+        public int size() {
+
+            return scored.size();
+        }
+
+        @Override
+        public boolean hasUnscored() {
+
+            return index != null && scored.size() < index.nonEmptyDocs();
+        }
+
+        @Override
+        public float[] similarities() {
+
+            float[] sims = scored.distinctScores();
+            if (!hasUnscored())
+                return sims;
+            int zero = Arrays.binarySearch(sims, 0f);
+            if (zero >= 0)
+                return sims;
+            zero = -zero - 1;
+            float[] result = new float[sims.length + 1];
+            System.arraycopy(sims, 0, result, 0, zero);
+            System.arraycopy(sims, zero, result, zero + 1, sims.length - zero);
+            return result;
+        }
+
+        @Override
+        public String line(int candidate) {
+
+            return index.line(candidate);
+        }
+
+        @Override
+        public int sentiment(int candidate) {
+
+            return Chatbot.sentiment(index, candidate);
+        }
     }
 
     /***************************************************************************************************
      *
-     * @param responses
-     * @param input
+     * @param responses document numbers of the responses
+     * @param inputSentiment
      * @return
      */
-    private ArrayList<String> rankResponses(ArrayList<String> responses, String input) {
+    private ArrayList<Integer> rankResponses(ArrayList<Integer> responses, int inputSentiment,
+                                             RetrievalBackend.Candidates candidates) {
 
-        ArrayList<String> rankedResponses = responses;
+        ArrayList<Integer> rankedResponses = responses;
 
         if (isExcludingNegativeSentiment || isMatchingSentiment)
-            rankedResponses = rankResponsesOnSentiment(rankedResponses, input);
+            rankedResponses = rankResponsesOnSentiment(rankedResponses, inputSentiment, candidates);
 
         return rankedResponses;
     }
@@ -486,10 +888,9 @@ public class Chatbot {
     protected void prepareLine(String line) {
 
         if (!isNullOrEmpty(line)) {
-            int newLineIndex = lines.size();
             lines.add(line);
             //System.out.println(line);
-            processDoc(line, newLineIndex);
+            processDoc(line);
         }
     }
 
@@ -510,31 +911,26 @@ public class Chatbot {
      */
     private ArrayList<String> profanityFilter(ArrayList<String> result) {
 
-        ArrayList<String> filteredResult = new ArrayList<>();
-        List<String> profanityList = new ArrayList<>();
-        String line;
-        Properties prop = new Properties();
+        if (profanity == null)
+            return result;
+        return profanity.censor(result);
+    }
 
-        try {
-            String profanityFile = "src/main/java/chatbot/resourcefiles/profanity-list.txt";
-            String str = String.join(",", result);
-            BufferedReader br = new BufferedReader(new FileReader(profanityFile));
+    /** ************************************************************************************************
+     * Compile the list of profane words into ProfanityFilter profanity.
+     * If the list can't be read, responses are not censored.
+     */
+    private void readProfanityList() {
 
-            while ((line = br.readLine()) != null) {
-                profanityList.add(line);
-            }
-            for (String profaneWord: profanityList) {
-                // in the replaceAll() method call, the regEx searches for any spaces before and after the profane word
-                // along with the punctuation marks. (?i) nullifies any case sensitive string matching.
-                str  = str.replaceAll("[^\\\\s\\\\w( )]*(?i)"+profaneWord+"[[^a-zA-Z0-9\\s][ ][^a-zA-Z0-9\\s]]", " <censored> ");
-            }
-            filteredResult = new ArrayList<>(Arrays.asList(str.split(",")));
-            return filteredResult;
+        if (profanity != null)
+            return;
+        try {
+            profanity = ProfanityFilter.fromFile(PROFANITY_FILE);
         }
         catch (IOException e) {
+            System.out.println("Error in Chatbot.readProfanityList(): " + e.getMessage());
             e.printStackTrace();
         }
-        return filteredResult;
     }
 
     /** *************************************************************************************************
@@ -542,23 +938,32 @@ public class Chatbot {
      */
     public TreeMap<Float,ArrayList<Integer>> matchInputFull(String input) {
 
+        return matchInputFull(input, index);
+    }
+
+    /** *************************************************************************************************
+     * The query is scored in its own QueryVector and this thread's
+     * ScoreAccumulator, and the index is only read, so any number of
+     * threads can match at once.
+     * @return a list of matches in index ranked by relevance to the input.
+     */
+    private TreeMap<Float,ArrayList<Integer>> matchInputFull(String input, LiveIndex index) {
+
         //System.out.println("Info in TFIDF.matchInputFull(): input: " + input);
-        //System.out.println("Info in TFIDF.matchInputFull(): lines: " + lines);
-        ArrayList<String> result = new ArrayList<String>();
         if (isNullOrEmpty(input))
             System.exit(0);
-        Integer negone = new Integer(-1);
-        processDoc(input,negone);
-        calcIDF(lines.size()+1);
-        calcOneTFIDF(negone);
-        calcDocSim();
         TreeMap<Float,ArrayList<Integer>> sortedSim = new TreeMap<Float,ArrayList<Integer>>();
-        if (docSim == null)
+        ArrayList<String> tokens = tokenize(input);
+        if (tokens == null || index == null) // nothing left of the query after removing stop words
             return sortedSim;
-        Iterator<Integer> it = docSim.keySet().iterator();
-        while (it.hasNext()) {
-            Integer i = it.next();
-            Float f = docSim.get(i);
+        QueryVector query = index.query(tokens);
+        ScoreAccumulator acc = docSim.get();
+        index.score(query, acc);
+        // keep documents with equal similarity in corpus order
+        acc.sortDocs();
+        for (int t = 0; t < acc.size(); t++) {
+            int i = acc.doc(t);
+            Float f = acc.score(i);
             if (sortedSim.containsKey(f)) {
                 ArrayList<Integer> vals = sortedSim.get(f);
                 vals.add(i);
@@ -569,6 +974,68 @@ public class Chatbot {
                 sortedSim.put(f,vals);
             }
         }
+        acc.clear();
+        return sortedSim;
+    }
+
+    /** *************************************************************************************************
+     * @return the k lines most similar to the input, in the same form as matchInputFull()
+     */
+    public TreeMap<Float,ArrayList<Integer>> matchInputTopK(String input, int k) {
+
+        return matchInputTopK(input, k, index);
+    }
+
+    /** *************************************************************************************************
+     * Like matchInputFull() but only the k best matches are kept, in a
+     * bounded heap, and documents that can't make the k best are
+     * skipped without being scored in full.
+     * @return the k lines in index most similar to the input
+     */
+    private TreeMap<Float,ArrayList<Integer>> matchInputTopK(String input, int k, LiveIndex index) {
+
+        if (isNullOrEmpty(input))
+            System.exit(0);
+        return matchTokensTopK(tokenize(input), k, index);
+    }
+
+    /** *************************************************************************************************
+     * @return every line in index that shares a term with a query, in
+     * corpus order, with its similarity, so that matchBestInput()
+     * clusters the similarities of the whole corpus; or, if index finds
+     * lines approximately, the k best it finds, by similarity
+     */
+    private static ScoreList matchTokens(ArrayList<String> tokens, int k, LiveIndex index) {
+
+        ScoreList scored = new ScoreList();
+        if (tokens == null || index == null)
+            return scored;
+        QueryVector query = index.query(tokens);
+        if (!index.isApproximate()) {
+            index.scoreAll(query, scored, shards, ForkJoinPool.commonPool());
+            return scored;
+        }
+        TopKCollector top = new TopKCollector(k);
+        index.topK(query, top);
+        top.sort();
+        for (int t = 0; t < top.size(); t++)
+            scored.add(top.doc(t), top.score(t));
+        return scored;
+    }
+
+    /** *************************************************************************************************
+     * @return the k lines in index most similar to the terms of a query
+     */
+    private TreeMap<Float,ArrayList<Integer>> matchTokensTopK(ArrayList<String> tokens, int k, LiveIndex index) {
+
+        TreeMap<Float,ArrayList<Integer>> sortedSim = new TreeMap<Float,ArrayList<Integer>>();
+        if (tokens == null || index == null)
+            return sortedSim;
+        TopKCollector top = new TopKCollector(k);
+        index.topK(index.query(tokens), top, shards, ForkJoinPool.commonPool());
+        top.sort();
+        for (int t = 0; t < top.size(); t++)
+            sortedSim.computeIfAbsent(top.score(t), f -> new ArrayList<Integer>()).add(top.doc(t));
         return sortedSim;
     }
 
@@ -580,37 +1047,163 @@ public class Chatbot {
     private void readFile(String fname) {
 
         System.out.println("Chatbot.readFile() " + fname);
+        String filename = fname;
+        if (asResource) {
+            URL fileURL = Resources.getResource(fname);
+            filename = fileURL.getPath();
+        }
+        try {
+            readLines(new BufferedReader(new FileReader(filename)));
+        }
+        catch (IOException ex) {
+            System.out.println("Error in readFile(): " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        //System.out.println("Movie lines:\n" + lines);
+        //System.out.println("TF:\n" + tf);
+
+        System.out.println();
+        calcDFs();
+    }
+
+    /*****************************************************************
+     * Read the object key of store, such as a file in S3, and store it
+     * in the ArrayList<String> lines member variable.  Each line is
+     * indexed as it arrives, while the rest of the object is still
+     * being fetched.
+     */
+    public void readObject(ObjectStore store, String key) {
+
+        System.out.println("Chatbot.readObject() " + key);
+        try {
+            readLines(new BufferedReader(new InputStreamReader(store.open(key), StandardCharsets.UTF_8)));
+        }
+        catch (IOException ex) {
+            System.out.println("Error in readObject(): " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        System.out.println();
+        calcDFs();
+    }
+
+    /*****************************************************************
+     * Read every object under prefix in store, such as the files of an
+     * S3 directory, in order of key, into lines and the index builder.
+     * The objects are fetched in parallel ahead of the indexing.
+     */
+    public void readObjects(ObjectStore store, String prefix) {
+
+        System.out.println("Chatbot.readObjects() " + prefix);
+        long start = metrics.start();
+        ArrayList<String> batch = new ArrayList<String>();
+        try (ObjectFetcher fetcher = new ObjectFetcher(store)) {
+            List<String> keys = fetcher.list(Collections.singletonList(prefix)).get(prefix);
+            fetcher.fetch(keys, (key, objectLines) -> {
+                System.out.println("Info in Chatbot.readObjects(): " + key + " has " + objectLines.size() + " lines");
+                for (String line : objectLines)
+                    readLine(line, batch);
+            });
+        }
+        catch (IOException ex) {
+            System.out.println("Error in readObjects(): " + ex.getMessage());
+            ex.printStackTrace();
+        }
+        if (isParallelBuild)
+            readDocuments(batch);
+        metrics.stop(Metrics.Stage.BUILD_READ, start);
+        calcDFs();
+    }
+
+    /*****************************************************************
+     * Index a line read from a corpus, or keep it in batch to index
+     * with the rest in parallel.
+     */
+    private void readLine(String line, ArrayList<String> batch) {
+
+        if (!isParallelBuild)
+            prepareLine(line);
+        else if (!isNullOrEmpty(line))
+            batch.add(line);
+    }
+
+    /*****************************************************************
+     * Read every line of omcs into lines and the index builder, then
+     * close it.
+     */
+    private void readLines(BufferedReader omcs) {
+
         String line = "";
-        BufferedReader omcs = null;
         try {
-            String filename = fname;
-            if (asResource) {
-                URL fileURL = Resources.getResource(fname);
-                filename = fileURL.getPath();
-            }
-            omcs = new BufferedReader(new FileReader(filename));
             /* readLine is a bit quirky :
              * it returns the content of a line MINUS the newline.
              * it returns null only for the END of the stream.
              * it returns an empty String if two newlines appear in a row. */
+            long start = metrics.start();
             ProgressPrinter pp = new ProgressPrinter(1000);
+            ArrayList<String> batch = new ArrayList<String>();
             while ((line = omcs.readLine()) != null) {
                 pp.tick();
-                prepareLine(line);
+                readLine(line, batch);
             }
+            if (isParallelBuild)
+                readDocuments(batch);
+            metrics.stop(Metrics.Stage.BUILD_READ, start);
             System.out.println();
-            omcs.close();
         }
         catch (Exception ex)  {
-            System.out.println("Error in readFile(): " + ex.getMessage());
+            System.out.println("Error in readLines(): " + ex.getMessage());
             System.out.println("Error in at line: " + line);
             ex.printStackTrace();
         }
-        //System.out.println("Movie lines:\n" + lines);
-        //System.out.println("TF:\n" + tf);
+        finally {
+            try {
+                omcs.close();
+            }
+            catch (IOException ex) {
+                System.out.println("Error in readLines(): " + ex.getMessage());
+            }
+        }
+    }
 
-        System.out.println();
-        calcDFs();
+    /** ************************************************************************************************
+     * Read the corpus in fname from its snapshot, fname + SNAPSHOT_SUFFIX,
+     * if the snapshot was built from the same corpus and stop words.
+     * Otherwise read the corpus with readFile() and write a new snapshot
+     * for the next start.
+     */
+    private void readFileOrSnapshot(String fname) {
+
+        String snapshotFile = fname + SNAPSHOT_SUFFIX;
+        long checksum;
+        try {
+            checksum = IndexSnapshot.checksum(fname, stopwords);
+        }
+        catch (IOException e) {
+            System.out.println("Error in Chatbot.readFileOrSnapshot(): " + e.getMessage());
+            readFile(fname);
+            return;
+        }
+        long start = metrics.start();
+        IndexSnapshot snapshot = IndexSnapshot.load(snapshotFile, checksum);
+        metrics.stop(Metrics.Stage.SNAPSHOT_LOAD, start);
+        if (snapshot != null) {
+            System.out.println("Info in Chatbot.readFileOrSnapshot(): loaded " + snapshotFile);
+            lines = snapshot.lines;
+            builder = snapshot.builder;
+            publish(snapshot.index, snapshot.idfDocCount, snapshot.sentiment);
+            return;
+        }
+        readFile(fname);
+        try {
+            start = metrics.start();
+            IndexSnapshot.write(snapshotFile, checksum, lines, builder, index.base, index.idfDocCount,
+                    index.sentiments(lines.size()));
+            metrics.stop(Metrics.Stage.SNAPSHOT_WRITE, start);
+            System.out.println("Info in Chatbot.readFileOrSnapshot(): wrote " + snapshotFile);
+        }
+        catch (IOException e) {
+            System.out.println("Error in Chatbot.readFileOrSnapshot(): can't write " + snapshotFile + ": " + e.getMessage());
+        }
     }
 
     /** **************************************************************************************************
@@ -618,6 +1211,14 @@ public class Chatbot {
      */
     private static void run(String fname) throws IOException {
 
+        run(fname, null);
+    }
+
+    /** **************************************************************************************************
+     * Run with a given file, read from store if it isn't null
+     */
+    private static void run(String fname, ObjectStore store) throws IOException {
+
         List<String> documents = null;
 
         try {
@@ -631,12 +1232,29 @@ public class Chatbot {
         }
         Chatbot cb;
         ResourceBundle resourceBundle = ResourceBundle.getBundle("corpora");
-        if (asResource)
+        if (isElasticSearch) {
+            cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
+            cb.setBackend(new ElasticSearchBackend(new ElasticSearchClient()));
+        }
+        else if (nodes != null) {
+            cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
+            cb.setBackend(startShards());
+        }
+        else if (asResource)
             cb = new Chatbot(documents, resourceBundle.getString("stopWordsDirectoryName"));
+        else if (store != null && fname.endsWith("/")) {
+            cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
+            cb.readObjects(store, fname);
+        }
+        else if (store != null) {
+            cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
+            cb.readObject(store, fname);
+        }
         else {
             cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
-            cb.readFile(fname);
+            cb.readFileOrSnapshot(fname);
         }
+        cb.metrics().registerMBean("chatbot");
 
         System.out.println("Hi, I'm Cloudio, tell/ask me something. Type 'quit' to exit");
 
@@ -664,6 +1282,74 @@ public class Chatbot {
         }
     }
 
+    /** **************************************************************************************************
+     * Serve the chatbot over HTTP on port.  The server starts before the
+     * corpus is read, and reports itself ready once the index is loaded.
+     * With -compact, lines posted to /lines are added with addLine(),
+     * and compact() runs every compactSeconds on a background thread.
+     */
+    private static void runServer(int port, String fname) throws IOException {
+
+        ResourceBundle resourceBundle = ResourceBundle.getBundle("corpora");
+        Chatbot cb = new Chatbot(resourceBundle.getString("stopWordsDirectoryName"));
+        cb.metrics().registerMBean("chatbot");
+        if (isElasticSearch)
+            cb.setBackend(new ElasticSearchBackend(new ElasticSearchClient()));
+        boolean ingest = compactSeconds > 0 && !isElasticSearch && nodes == null;
+        if (compactSeconds > 0 && !ingest)
+            System.out.println("Info in Chatbot.runServer(): -compact ignored, the corpus isn't held here");
+        ChatServer server = new ChatServer(cb, port, ingest);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(2)));
+        if (isElasticSearch) {
+            System.out.println("Info in Chatbot.runServer(): ready, searching Elasticsearch");
+            return;
+        }
+        if (nodes != null) {
+            cb.setBackend(startShards());
+            System.out.println("Info in Chatbot.runServer(): ready, coordinating " + nodes);
+            return;
+        }
+        cb.readFileOrSnapshot(fname);
+        if (ingest) {
+            cb.startCompaction(compactSeconds);
+            System.out.println("Info in Chatbot.runServer(): taking lines on /lines, compacting every " +
+                    compactSeconds + " seconds");
+        }
+        System.out.println("Info in Chatbot.runServer(): ready with " + cb.lines.size() + " lines");
+    }
+
+    /** **************************************************************************************************
+     * @return a backend searching the shard servers of nodes, which
+     * have been sent the document frequencies of the whole corpus
+     */
+    private static ShardedBackend startShards() throws IOException {
+
+        ShardedBackend sharded = new ShardedBackend(nodes);
+        sharded.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(sharded::close));
+        return sharded;
+    }
+
+    /** **************************************************************************************************
+     * Set the options that -f, -server and -d share from the flags in
+     * args, wherever they are; the file is read rather than loaded as
+     * a resource.  -compact only counts with -server.
+     */
+    private static void parseOptions(String[] args) {
+
+        asResource = false;
+        if (ArrayUtils.contains(args, "-snn")) isExcludingNegativeSentiment = true;
+        if (ArrayUtils.contains(args, "-sm")) isMatchingSentiment = true;
+        if (ArrayUtils.contains(args, "-p")) isParallelBuild = true;
+        if (ArrayUtils.contains(args, "-nometrics")) Metrics.setEnabled(false);
+        if (ArrayUtils.contains(args, "-es")) isElasticSearch = true;
+        if (ArrayUtils.contains(args, "-lsh")) isApproximate = true;
+        if (ArrayUtils.contains(args, "-shards")) setShards(Integer.parseInt(args[ArrayUtils.indexOf(args, "-shards") + 1]));
+        if (ArrayUtils.contains(args, "-nodes")) nodes = args[ArrayUtils.indexOf(args, "-nodes") + 1];
+        if (ArrayUtils.contains(args, "-compact")) compactSeconds = Long.parseLong(args[ArrayUtils.indexOf(args, "-compact") + 1]);
+    }
+
     /*************************************************************************************************
      *
      * @param args
@@ -677,23 +1363,44 @@ public class Chatbot {
                 System.out.println("      -f fname   % run program using a particular input file");
                 System.out.println("      -d fname   % development mode using a particular input file");
                 System.out.println("      -d -s      % development mode using s3 to load input files");
+                System.out.println("      -d -s key  % development mode streaming input file key from s3,");
+                System.out.println("                 % or every file under key if it ends in /,");
+                System.out.println("                 % through a cache on local disk");
+                System.out.println("      -server port fname % serve HTTP/JSON on port using a particular input file");
+                System.out.println("      -shard port i n fname % serve shard i of n of a particular input file");
+                System.out.println("                 % to a coordinator started with -nodes");
                 System.out.println("adding -snn      % filters responses by non-negative sentiment");
                 System.out.println("adding -sm       % filters responses by matching sentiment");
+                System.out.println("adding -p        % builds the index in parallel on all cores");
+                System.out.println("adding -nometrics % turns off latency histograms and counters");
+                System.out.println("adding -es       % finds candidates in Elasticsearch; the file isn't read");
+                System.out.println("adding -lsh      % finds candidates approximately, in LSH tables");
+                System.out.println("adding -shards n % searches each query in n shards in parallel");
+                System.out.println("adding -nodes host:port,... % coordinates the shard servers at these");
+                System.out.println("                 % addresses, shard 0 first; the file isn't read");
+                System.out.println("adding -compact s % with -server, takes new lines on POST /lines and");
+                System.out.println("                 % rebuilds the index with them every s seconds");
             }
             else if (args != null && args.length > 1 && args[0].equals("-f")) {
-                asResource = false;
+                parseOptions(args);
                 isDevelopment = false;
-                if (ArrayUtils.contains(args, "-snn")) isExcludingNegativeSentiment = true;
-                if (ArrayUtils.contains(args, "-sm")) isMatchingSentiment = true;
                 run(args[1]);
             }
+            else if (args != null && args.length > 2 && args[0].equals("-server")) {
+                parseOptions(args);
+                isDevelopment = false;
+                runServer(Integer.parseInt(args[1]), args[2]);
+            }
+            else if (args != null && args.length > 4 && args[0].equals("-shard")) {
+                ShardServer.main(Arrays.copyOfRange(args, 1, 5));
+            }
             else if (args != null && args.length > 1 && args[0].equals("-d")) {
-                asResource = false;
+                parseOptions(args);
                 isDevelopment = true;
-
-                if (ArrayUtils.contains(args, "-snn")) isExcludingNegativeSentiment = true;
-                if (ArrayUtils.contains(args, "-sm")) isMatchingSentiment = true;
-                if (args[1].equals("-s")) {
+                if (args[1].equals("-s") && args.length > 2 && !args[2].startsWith("-")) {
+                    run(args[2], new S3Client().cached());
+                }
+                else if (args[1].equals("-s")) {
                     String newFileName = "/home/vish/Documents/chatbot/cornell_movie_dialgos_corpus_parsed/" +
                             "movie_lines_parsed.txt";
                     run(newFileName);
@@ -0,0 +1,158 @@
+package chatbot;
+
+import com.articulate.sigma.DB;
+import dataprocessing.elasticsearch.ElasticSearchClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to find the lines that best match a query in the Elasticsearch
+ * index that CorporaIndexer fills, by BM25 on their text, so a Chatbot
+ * needn't hold the corpus itself.  The terms of the query are searched
+ * for as Chatbot analyzed them.  BM25 scores aren't cosine similarities:
+ * they aren't bounded by 1, so nearly any line that shares a term with
+ * the query passes Chatbot's threshold of .1.  The sentiment of a line
+ * is computed when it is asked for, since the index doesn't keep it.
+ * The backend is ready while the last search, or the last ping of the
+ * index when there has been no search for READY_MILLIS, succeeded; an
+ * older outcome is used while a new ping is waited for, so isReady()
+ * never blocks.
+ */
+public class ElasticSearchBackend implements RetrievalBackend {
+
+    // how long the outcome of a search or ping stands before another ping
+    public static final long READY_MILLIS = 5000;
+
+    private final ElasticSearchClient client;
+    private final long readyMillis;
+
+    // the outcome of the last search or ping, and when it was known
+    private volatile boolean ready = false;
+    private volatile long checked = 0;
+    private final AtomicBoolean pinging = new AtomicBoolean();
+
+    /** *************************************************************
+     * A search's hits, numbered in the order of the response.
+     */
+    private static class HitCandidates implements Candidates {
+
+        private final TreeMap<Float,ArrayList<Integer>> scores = new TreeMap<>();
+        private final String[] lines;
+
+        HitCandidates(List<ElasticSearchClient.Hit> hits) {
+
+            lines = new String[hits.size()];
+            for (int i = 0; i < hits.size(); i++) {
+                ElasticSearchClient.Hit hit = hits.get(i);
+                lines[i] = hit.source.optString("text", "");
+                scores.computeIfAbsent(hit.score, f -> new ArrayList<Integer>()).add(i);
+            }
+        }
+
+        @Override
+        public TreeMap<Float,ArrayList<Integer>> scores() {
+
+            return scores;
+        }
+
+        @Override
+        public boolean hasUnscored() {
+
+            // the index holds the corpus, which has lines the query misses
+            return true;
+        }
+
+        @Override
+        public String line(int candidate) {
+
+            return lines[candidate];
+        }
+
+        @Override
+        public int sentiment(int candidate) {
+
+            return DB.computeSentiment(lines[candidate]);
+        }
+    }
+
+    /** *************************************************************
+     * @param client the client of the index to search, which the
+     *               caller closes
+     */
+    public ElasticSearchBackend(ElasticSearchClient client) {
+
+        this(client, READY_MILLIS);
+    }
+
+    /** *************************************************************
+     * @param readyMillis how long the outcome of a search or ping
+     *                    stands before another ping
+     */
+    ElasticSearchBackend(ElasticSearchClient client, long readyMillis) {
+
+        this.client = client;
+        this.readyMillis = readyMillis;
+        ping();
+    }
+
+    /** *************************************************************
+     * Ask the server whether it has the index, unless a ping is already
+     * waiting for the answer.
+     */
+    private void ping() {
+
+        if (!pinging.compareAndSet(false, true))
+            return;
+        client.pingAsync().whenComplete((ok, e) -> {
+            outcome(ok != null && ok);
+            pinging.set(false);
+        });
+    }
+
+    /** *************************************************************
+     */
+    private void outcome(boolean ok) {
+
+        ready = ok;
+        checked = System.currentTimeMillis();
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k) {
+
+        if (tokens == null || tokens.isEmpty())
+            return CompletableFuture.completedFuture(new HitCandidates(Collections.<ElasticSearchClient.Hit>emptyList()));
+        return client.searchAsync(String.join(" ", tokens), k)
+                .whenComplete((hits, e) -> outcome(e == null))
+                .thenApply(HitCandidates::new);
+    }
+
+    /** *************************************************************
+     * @return true if the last search or ping succeeded, pinging again
+     * if that was more than readyMillis ago
+     */
+    @Override
+    public boolean isReady() {
+
+        if (System.currentTimeMillis() - checked >= readyMillis)
+            ping();
+        return ready;
+    }
+}
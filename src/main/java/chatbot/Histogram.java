@@ -0,0 +1,159 @@
+package chatbot;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to count non-negative long values, such as latencies in
+ * nanoseconds, in buckets that are linear within each power of two, so
+ * any value from 0 to Long.MAX_VALUE is kept to within 1/32 of itself
+ * in a fixed 15KB.  Recording a value is a few shifts and one atomic
+ * increment, so any number of threads can record at once without a
+ * lock.  Percentiles are read from a copy of the buckets that may miss
+ * values recorded while it is taken.
+ */
+public class Histogram {
+
+    // values below 2^SUB_BITS get a bucket each; each power of two above
+    // is split into 2^SUB_BITS buckets
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong(0);
+
+    /** *************************************************************
+     * @return the bucket of value
+     */
+    static int bucket(long value) {
+
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** *************************************************************
+     * @return the smallest value in bucket
+     */
+    static long lowest(int bucket) {
+
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+    }
+
+    /** *************************************************************
+     * @return the largest value in bucket
+     */
+    static long highest(int bucket) {
+
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        return lowest(bucket) + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /** *************************************************************
+     * Count value; negative values count as 0.
+     */
+    public void record(long value) {
+
+        if (value < 0)
+            value = 0;
+        buckets.incrementAndGet(bucket(value));
+        count.increment();
+        sum.add(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value))
+            m = max.get();
+    }
+
+    /** *************************************************************
+     * @return the number of values recorded
+     */
+    public long count() {
+
+        return count.sum();
+    }
+
+    /** *************************************************************
+     * @return the sum of the values recorded
+     */
+    public long sum() {
+
+        return sum.sum();
+    }
+
+    /** *************************************************************
+     * @return the largest value recorded, or 0 if there is none
+     */
+    public long max() {
+
+        return max.get();
+    }
+
+    /** *************************************************************
+     * @return the mean of the values recorded, or 0 if there is none
+     */
+    public double mean() {
+
+        long n = count();
+        return n == 0 ? 0 : (double) sum() / n;
+    }
+
+    /** *************************************************************
+     * @param quantile from 0 to 1
+     * @return the value that quantile of the values recorded are at or
+     * below, to within 1/32 of it, or 0 if there is none
+     */
+    public long percentile(double quantile) {
+
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = buckets.get(i);
+            total += copy[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += copy[i];
+            if (seen >= rank)
+                return Math.min(highest(i), max());
+        }
+        return max();
+    }
+
+    /** *************************************************************
+     * Forget every value recorded.  Values recorded by other threads
+     * while this runs may be partly kept.
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
@@ -0,0 +1,426 @@
+package chatbot;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to save a built index, and the lines it was built from, to a
+ * binary file, and to load it again without reading or tokenizing the
+ * corpus.  The file starts with a fixed header:
+ *   magic, version, corpus checksum, the byte lengths of the line and
+ *   term text, line count, document count, term count, number of
+ *   entries, non-empty documents, the idf numerator, and whether the
+ *   sentiment of each line is saved
+ * followed by the long offsets of each line and term in the text, the
+ * arrays of TfidfIndex, the raw term counts that TfidfIndexBuilder
+ * needs to add more lines later, the sentiment of each line if saved,
+ * and the UTF-8 text of the lines and terms, all little-endian.  A
+ * file is loaded by mapping it with FileChannel.map(), in segments of
+ * up to SEGMENT_BYTES since one mapping can't pass 2GB, and copying
+ * each array out in bulk.  Every long in the file starts at a multiple
+ * of 8 and every int or float at a multiple of 4, so only text ever
+ * spans two segments.  A file with the wrong magic, version or layout,
+ * or built from a corpus with another checksum, is not loaded, and the
+ * caller rebuilds from the corpus instead.
+ */
+public class IndexSnapshot {
+
+    private static final int MAGIC = 0x43424958; // "CBIX"
+
+    // change whenever the layout below changes
+    public static final int VERSION = 4;
+
+    private static final int HEADER_BYTES = 64;
+
+    // the most bytes of the file mapped at once; a multiple of 8
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    // the most bytes of an array written at once
+    private static final int WRITE_CHUNK_BYTES = 1 << 20;
+
+    public final ArrayList<String> lines;
+    public final TfidfIndex index;
+    public final TfidfIndexBuilder builder;
+
+    // the number of documents index used in its idf numerator
+    public final int idfDocCount;
+
+    // the sentiment of each line, or null if it wasn't saved
+    public final int[] sentiment;
+
+    /** *************************************************************
+     */
+    private IndexSnapshot(ArrayList<String> lines, TfidfIndex index, TfidfIndexBuilder builder,
+                          int idfDocCount, int[] sentiment) {
+
+        this.lines = lines;
+        this.index = index;
+        this.builder = builder;
+        this.idfDocCount = idfDocCount;
+        this.sentiment = sentiment;
+    }
+
+    /** *************************************************************
+     * @return a checksum of the corpus file and the stop words, either
+     * of which changes what the index holds
+     */
+    public static long checksum(String corpusFile, List<String> stopwords) throws IOException {
+
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = new BufferedInputStream(new FileInputStream(corpusFile))) {
+            int n;
+            while ((n = in.read(buf)) > 0)
+                crc.update(buf, 0, n);
+        }
+        for (String word : stopwords) {
+            crc.update(word.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        return crc.getValue();
+    }
+
+    /** *************************************************************
+     * Write index, the builder it was built by and the lines it was
+     * built from, with their sentiment if not null, to filename.  The
+     * file is written under a temporary name and then moved into
+     * place, so a reader never sees half of it.
+     */
+    public static void write(String filename, long checksum, List<String> lines,
+                             TfidfIndexBuilder builder, TfidfIndex index, int idfDocCount,
+                             int[] sentiment) throws IOException {
+
+        byte[][] lineBytes = new byte[lines.size()][];
+        long[] lineOffsets = new long[lines.size() + 1];
+        for (int i = 0; i < lines.size(); i++) {
+            lineBytes[i] = lines.get(i).getBytes(StandardCharsets.UTF_8);
+            lineOffsets[i + 1] = lineOffsets[i] + lineBytes[i].length;
+        }
+        int termCount = index.termCount;
+        byte[][] termBytes = new byte[termCount][];
+        long[] termOffsets = new long[termCount + 1];
+        for (int t = 0; t < termCount; t++) {
+            termBytes[t] = index.terms.term(t).getBytes(StandardCharsets.UTF_8);
+            termOffsets[t + 1] = termOffsets[t] + termBytes[t].length;
+        }
+        int nnz = index.termIds.length;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(checksum);
+        header.putLong(lineOffsets[lines.size()]).putLong(termOffsets[termCount]);
+        header.putInt(lines.size()).putInt(index.docCount).putInt(termCount).putInt(nnz);
+        header.putInt(index.nonEmptyDocs).putInt(idfDocCount).putInt(sentiment != null ? 1 : 0).putInt(0);
+        header.flip();
+        ByteBuffer chunk = ByteBuffer.allocate(WRITE_CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        Path target = Paths.get(filename);
+        Path tmp = Paths.get(filename + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(ch, header);
+            writeLongs(ch, chunk, lineOffsets);
+            writeLongs(ch, chunk, termOffsets);
+            writeInts(ch, chunk, index.docfreq);
+            writeFloats(ch, chunk, index.idf);
+            writeInts(ch, chunk, index.rowOffsets);
+            writeInts(ch, chunk, index.termIds);
+            writeInts(ch, chunk, builder.counts());
+            writeFloats(ch, chunk, index.weights);
+            writeFloats(ch, chunk, index.norms);
+            writeInts(ch, chunk, index.postingOffsets);
+            writeInts(ch, chunk, index.postingDocs);
+            writeFloats(ch, chunk, index.postingWeights);
+            writeFloats(ch, chunk, index.maxWeights);
+            if (sentiment != null)
+                writeInts(ch, chunk, sentiment);
+            for (byte[] b : lineBytes)
+                writeFully(ch, ByteBuffer.wrap(b));
+            for (byte[] b : termBytes)
+                writeFully(ch, ByteBuffer.wrap(b));
+            ch.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** *************************************************************
+     */
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+
+        while (buf.hasRemaining())
+            ch.write(buf);
+    }
+
+    /** *************************************************************
+     * Write a through chunk, as many values at a time as it holds, so
+     * no buffer of the size of a large array is needed.
+     */
+    private static void writeInts(FileChannel ch, ByteBuffer chunk, int[] a) throws IOException {
+
+        int step = chunk.capacity() / 4;
+        for (int from = 0; from < a.length; from += step) {
+            int n = Math.min(step, a.length - from);
+            chunk.clear();
+            chunk.asIntBuffer().put(a, from, n);
+            chunk.limit(4 * n);
+            writeFully(ch, chunk);
+        }
+    }
+
+    /** *************************************************************
+     */
+    private static void writeFloats(FileChannel ch, ByteBuffer chunk, float[] a) throws IOException {
+
+        int step = chunk.capacity() / 4;
+        for (int from = 0; from < a.length; from += step) {
+            int n = Math.min(step, a.length - from);
+            chunk.clear();
+            chunk.asFloatBuffer().put(a, from, n);
+            chunk.limit(4 * n);
+            writeFully(ch, chunk);
+        }
+    }
+
+    /** *************************************************************
+     */
+    private static void writeLongs(FileChannel ch, ByteBuffer chunk, long[] a) throws IOException {
+
+        int step = chunk.capacity() / 8;
+        for (int from = 0; from < a.length; from += step) {
+            int n = Math.min(step, a.length - from);
+            chunk.clear();
+            chunk.asLongBuffer().put(a, from, n);
+            chunk.limit(8 * n);
+            writeFully(ch, chunk);
+        }
+    }
+
+    /** *************************************************************
+     * @return the snapshot in filename, or null if there is none, it
+     * can't be read, or it was built from a corpus with another checksum
+     */
+    public static IndexSnapshot load(String filename, long checksum) {
+
+        return load(filename, checksum, SEGMENT_BYTES);
+    }
+
+    /** *************************************************************
+     * @param segmentBytes the most bytes to map at once, a multiple of 8
+     */
+    static IndexSnapshot load(String filename, long checksum, int segmentBytes) {
+
+        Path path = Paths.get(filename);
+        if (!Files.isRegularFile(path))
+            return null;
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_BYTES) {
+                System.out.println("Info in IndexSnapshot.load(): can't use " + filename + " of size " + size);
+                return null;
+            }
+            MappedFile map = new MappedFile(ch, size, segmentBytes);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION) {
+                System.out.println("Info in IndexSnapshot.load(): " + filename + " is not a version " +
+                        VERSION + " snapshot");
+                return null;
+            }
+            if (map.getLong() != checksum) {
+                System.out.println("Info in IndexSnapshot.load(): corpus has changed since " + filename);
+                return null;
+            }
+            long lineBytes = map.getLong();
+            long termBytes = map.getLong();
+            int lineCount = map.getInt();
+            int docCount = map.getInt();
+            int termCount = map.getInt();
+            int nnz = map.getInt();
+            int nonEmptyDocs = map.getInt();
+            int idfDocCount = map.getInt();
+            boolean hasSentiment = map.getInt() != 0;
+            map.getInt();
+            long expected = HEADER_BYTES + 8L * ((lineCount + 1L) + (termCount + 1L)) +
+                    4L * (2L * termCount + (docCount + 1L) + docCount + 5L * nnz + (termCount + 1L) +
+                    termCount + (hasSentiment ? lineCount : 0)) + lineBytes + termBytes;
+            if (lineCount < 0 || docCount < 0 || termCount < 0 || nnz < 0 || lineBytes < 0 ||
+                    termBytes < 0 || lineCount != docCount || expected != size) {
+                System.out.println("Error in IndexSnapshot.load(): bad header in " + filename);
+                return null;
+            }
+
+            long[] lineOffsets = map.readLongs(lineCount + 1);
+            long[] termOffsets = map.readLongs(termCount + 1);
+            int[] docfreq = map.readInts(termCount);
+            float[] idf = map.readFloats(termCount);
+            int[] rowOffsets = map.readInts(docCount + 1);
+            int[] termIds = map.readInts(nnz);
+            int[] counts = map.readInts(nnz);
+            float[] weights = map.readFloats(nnz);
+            float[] norms = map.readFloats(docCount);
+            int[] postingOffsets = map.readInts(termCount + 1);
+            int[] postingDocs = map.readInts(nnz);
+            float[] postingWeights = map.readFloats(nnz);
+            float[] maxWeights = map.readFloats(termCount);
+            int[] sentiment = hasSentiment ? map.readInts(lineCount) : null;
+            if (lineOffsets[lineCount] != lineBytes || termOffsets[termCount] != termBytes ||
+                    rowOffsets[docCount] != nnz || postingOffsets[termCount] != nnz) {
+                System.out.println("Error in IndexSnapshot.load(): bad offsets in " + filename);
+                return null;
+            }
+
+            byte[] text = new byte[64];
+            ArrayList<String> lines = new ArrayList<String>(lineCount);
+            for (int i = 0; i < lineCount; i++) {
+                int length = Math.toIntExact(lineOffsets[i + 1] - lineOffsets[i]);
+                if (length > text.length)
+                    text = new byte[Math.max(length, text.length * 2)];
+                map.readBytes(text, length);
+                lines.add(new String(text, 0, length, StandardCharsets.UTF_8));
+            }
+            TermDictionary terms = new TermDictionary(termCount);
+            for (int t = 0; t < termCount; t++) {
+                int length = Math.toIntExact(termOffsets[t + 1] - termOffsets[t]);
+                if (length > text.length)
+                    text = new byte[Math.max(length, text.length * 2)];
+                map.readBytes(text, length);
+                terms.add(new String(text, 0, length, StandardCharsets.UTF_8));
+            }
+            if (terms.size() != termCount) {
+                System.out.println("Error in IndexSnapshot.load(): repeated terms in " + filename);
+                return null;
+            }
+
+            TfidfIndex index = new TfidfIndex(terms.copy(), termCount, docCount, nonEmptyDocs, docfreq, idf,
+                    rowOffsets, termIds, weights, norms, postingOffsets, postingDocs, postingWeights, maxWeights);
+            // the builder adds to its arrays, so it gets its own
+            TfidfIndexBuilder builder = new TfidfIndexBuilder(terms, docCount, rowOffsets.clone(),
+                    termIds.clone(), counts, docfreq.clone());
+            return new IndexSnapshot(lines, index, builder, idfDocCount, sentiment);
+        }
+        catch (IOException | RuntimeException e) {
+            System.out.println("Error in IndexSnapshot.load(): " + filename + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** *************************************************************
+     * A file mapped in segments, read from a position that runs on
+     * from one segment into the next.  Values are never split between
+     * segments, as long as each starts at a multiple of its width.
+     */
+    private static final class MappedFile {
+
+        private final MappedByteBuffer[] segments;
+        private final int segmentBytes;
+        private long position = 0;
+
+        MappedFile(FileChannel ch, long size, int segmentBytes) throws IOException {
+
+            if (segmentBytes <= 0 || segmentBytes % 8 != 0)
+                throw new IllegalArgumentException("segments of " + segmentBytes + " bytes");
+            this.segmentBytes = segmentBytes;
+            segments = new MappedByteBuffer[(int) ((size + segmentBytes - 1) / segmentBytes)];
+            for (int s = 0; s < segments.length; s++) {
+                long from = (long) s * segmentBytes;
+                segments[s] = ch.map(FileChannel.MapMode.READ_ONLY, from, Math.min(segmentBytes, size - from));
+                segments[s].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        /** the segment holding position, positioned there */
+        private ByteBuffer segment() {
+
+            ByteBuffer segment = segments[(int) (position / segmentBytes)].duplicate();
+            segment.position((int) (position % segmentBytes));
+            return segment.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int getInt() {
+
+            int value = segment().getInt();
+            position += 4;
+            return value;
+        }
+
+        long getLong() {
+
+            long value = segment().getLong();
+            position += 8;
+            return value;
+        }
+
+        int[] readInts(int n) {
+
+            int[] a = new int[n];
+            for (int done = 0; done < n; ) {
+                ByteBuffer segment = segment();
+                int count = Math.min(n - done, segment.remaining() / 4);
+                segment.asIntBuffer().get(a, done, count);
+                done += count;
+                position += 4L * count;
+            }
+            return a;
+        }
+
+        float[] readFloats(int n) {
+
+            float[] a = new float[n];
+            for (int done = 0; done < n; ) {
+                ByteBuffer segment = segment();
+                int count = Math.min(n - done, segment.remaining() / 4);
+                segment.asFloatBuffer().get(a, done, count);
+                done += count;
+                position += 4L * count;
+            }
+            return a;
+        }
+
+        long[] readLongs(int n) {
+
+            long[] a = new long[n];
+            for (int done = 0; done < n; ) {
+                ByteBuffer segment = segment();
+                int count = Math.min(n - done, segment.remaining() / 8);
+                segment.asLongBuffer().get(a, done, count);
+                done += count;
+                position += 8L * count;
+            }
+            return a;
+        }
+
+        /** read the next n bytes into the start of dst */
+        void readBytes(byte[] dst, int n) {
+
+            for (int done = 0; done < n; ) {
+                ByteBuffer segment = segment();
+                int count = Math.min(n - done, segment.remaining());
+                segment.get(dst, done, count);
+                done += count;
+                position += count;
+            }
+        }
+    }
+}
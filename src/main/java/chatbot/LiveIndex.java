@@ -0,0 +1,516 @@
+package chatbot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to hold a built TfidfIndex together with the lines appended
+ * since it was built, so new lines can be searched right away.  An
+ * appended line is stored as its raw term counts, and the running
+ * document frequency of each of its terms is bumped, and its number is
+ * added to the postings of each of its terms, which costs time in the
+ * length of the line only.  A query looks up the appended lines that
+ * share a term with it in those postings, rather than going through
+ * them all.  The tf * idf weights of an appended line are not stored:
+ * they are worked out from the running counts when a query shares a
+ * term with it.  The lines of the built index keep the weights they
+ * were built with until the whole is compacted into a new TfidfIndex.
+ * The sentiment of each line may be kept too, computed once when the
+ * line is indexed, so ranking by it is an array lookup.
+ *
+ * Lines are appended by one thread at a time while any number of
+ * threads query.  Each append publishes an immutable Appended view
+ * through a volatile field, and a query reads only the view it started
+ * with; the arrays of a view are never written below its counts.
+ * Document frequencies are the one exception, and a query may see
+ * some that are newer than its view, which only makes idf more current.
+ * The postings of a term are read past the end they had in the view,
+ * so they hold line number + 1 and a query stops at a 0 not yet
+ * written or at a line the view doesn't have.  A grown postings array
+ * is published in a Postings, whose final field makes the entries
+ * copied into it visible to a query that finds it through a newer
+ * table than its view's.
+ */
+public class LiveIndex {
+
+    // the index built by TfidfIndexBuilder, and the lines it was built from
+    final TfidfIndex base;
+
+    // the LSH tables of base, if queries are answered approximately
+    private final LshIndex lsh;
+    private final String[] baseLines;
+
+    // sentiment of each line of base, or null if sentiment isn't kept
+    private final int[] baseSentiment;
+
+    // the number of documents used in the idf numerator of base
+    final int idfDocCount;
+
+    // ids of terms that are not in base, from base.termCount up
+    private final ConcurrentHashMap<String,Integer> newTerms = new ConcurrentHashMap<String,Integer>();
+
+    /** *************************************************************
+     * The appended lines a term is in, each as its number + 1, in
+     * ascending order and followed by zeros.
+     */
+    private static final class Postings {
+
+        static final Postings EMPTY = new Postings(new int[0]);
+
+        final int[] rows;
+
+        Postings(int[] rows) {
+
+            this.rows = rows;
+        }
+    }
+
+    /** *************************************************************
+     * The appended lines as of one append.  Line i is document
+     * base.docCount + i, with terms termIds[rowOffsets[i]] up to
+     * termIds[rowOffsets[i+1]] and their counts in counts.  docfreq is
+     * the number of appended lines each term of the first termCount
+     * ids is in, and postings lists those lines for each term of the
+     * first termCount ids.  sentiment is that of each line, if kept.
+     */
+    private static final class Appended {
+
+        final int docs;
+        final int termCount;
+        final int nonEmptyDocs;
+        final String[] lines;
+        final int[] sentiment;
+        final int[] rowOffsets;
+        final int[] termIds;
+        final int[] counts;
+        final int[] docfreq;
+        final Postings[] postings;
+
+        Appended(int docs, int termCount, int nonEmptyDocs, String[] lines, int[] sentiment,
+                 int[] rowOffsets, int[] termIds, int[] counts, int[] docfreq, Postings[] postings) {
+
+            this.docs = docs;
+            this.termCount = termCount;
+            this.nonEmptyDocs = nonEmptyDocs;
+            this.lines = lines;
+            this.sentiment = sentiment;
+            this.rowOffsets = rowOffsets;
+            this.termIds = termIds;
+            this.counts = counts;
+            this.docfreq = docfreq;
+            this.postings = postings;
+        }
+    }
+
+    private volatile Appended appended;
+
+    // the appending thread's own copies of the fields of appended, which
+    // it writes past the counts of the last view before publishing them
+    private int docs = 0;
+    private int termCount;
+    private int nonEmptyDocs = 0;
+    private String[] lines = new String[16];
+    private int[] sentiment = new int[16];
+    private int[] rowOffsets = new int[17];
+    private int[] termIds = new int[64];
+    private int[] counts = new int[64];
+    private int[] docfreq;
+    private Postings[] postings;
+    private int nnz = 0;
+
+    /** *************************************************************
+     * @param base the index built from baseLines
+     * @param idfDocCount the number of documents base used in its idf
+     *                    numerator
+     * @param baseLines the line of each document of base
+     * @param baseSentiment the sentiment of each of baseLines, or null
+     *                      to not keep sentiment
+     */
+    public LiveIndex(TfidfIndex base, int idfDocCount, String[] baseLines, int[] baseSentiment) {
+
+        this(base, idfDocCount, baseLines, baseSentiment, null);
+    }
+
+    /** *************************************************************
+     * @param lsh the LSH tables of base, which topK() then probes
+     *            instead of walking the postings of base, or null
+     */
+    public LiveIndex(TfidfIndex base, int idfDocCount, String[] baseLines, int[] baseSentiment, LshIndex lsh) {
+
+        if (lsh != null && lsh.base != base)
+            throw new IllegalArgumentException("lsh is of another index");
+        this.lsh = lsh;
+        this.base = base;
+        this.idfDocCount = idfDocCount;
+        this.baseLines = baseLines;
+        this.baseSentiment = baseSentiment;
+        termCount = base.termCount;
+        docfreq = new int[Math.max(16, termCount)];
+        postings = new Postings[docfreq.length];
+        Arrays.fill(postings, Postings.EMPTY);
+        appended = new Appended(0, termCount, 0, lines, sentiment, rowOffsets, termIds, counts, docfreq,
+                postings);
+    }
+
+    /** *************************************************************
+     * Append a line as the next document.  Only one thread may append
+     * at a time.
+     * @param tokens the terms of the line, null or empty for none
+     * @param lineSentiment the sentiment of the line, ignored if
+     *                      sentiment isn't kept
+     * @return the document number of the line
+     */
+    public int add(String line, List<String> tokens, int lineSentiment) {
+
+        int row = docs;
+        if (row == lines.length) {
+            lines = Arrays.copyOf(lines, row * 2);
+            sentiment = Arrays.copyOf(sentiment, row * 2);
+        }
+        lines[row] = line;
+        sentiment[row] = lineSentiment;
+        int start = nnz;
+        if (tokens != null) {
+            for (String token : tokens) {
+                int id = base.termId(token);
+                if (id < 0) {
+                    Integer known = newTerms.get(token);
+                    if (known == null) {
+                        known = termCount++;
+                        if (termCount > docfreq.length) {
+                            int length = Math.max(docfreq.length * 2, termCount);
+                            docfreq = Arrays.copyOf(docfreq, length);
+                            int from = postings.length;
+                            postings = Arrays.copyOf(postings, length);
+                            Arrays.fill(postings, from, length, Postings.EMPTY);
+                        }
+                        newTerms.put(token, known);
+                    }
+                    id = known.intValue();
+                }
+                // lines are short, so look for a repeated term in the row itself
+                int k = start;
+                while (k < nnz && termIds[k] != id)
+                    k++;
+                if (k < nnz) {
+                    counts[k]++;
+                    continue;
+                }
+                if (nnz == termIds.length) {
+                    termIds = Arrays.copyOf(termIds, nnz * 2);
+                    counts = Arrays.copyOf(counts, nnz * 2);
+                }
+                termIds[nnz] = id;
+                counts[nnz++] = 1;
+                addPosting(id, row);
+                docfreq[id]++;
+            }
+        }
+        if (nnz > start)
+            nonEmptyDocs++;
+        docs++;
+        if (docs + 1 > rowOffsets.length)
+            rowOffsets = Arrays.copyOf(rowOffsets, rowOffsets.length * 2);
+        rowOffsets[docs] = nnz;
+        appended = new Appended(docs, termCount, nonEmptyDocs, lines, sentiment, rowOffsets, termIds,
+                counts, docfreq, postings);
+        return base.docCount + row;
+    }
+
+    /** *************************************************************
+     * Add row to the postings of term id, which hold docfreq[id]
+     * appended lines so far.
+     */
+    private void addPosting(int id, int row) {
+
+        int n = docfreq[id];
+        int[] rows = postings[id].rows;
+        if (n == rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(4, n * 2));
+            rows[n] = row + 1;
+            postings[id] = new Postings(rows);
+        }
+        else
+            rows[n] = row + 1;
+    }
+
+    /** *************************************************************
+     * @return the appended lines of a that share a term with the query,
+     * in ascending order
+     */
+    private static int[] matchingRows(QueryVector query, Appended a) {
+
+        if (a.docs == 0)
+            return new int[0];
+        int[] rows = new int[8];
+        int n = 0;
+        for (int id : query.termIds) {
+            if (id >= a.termCount)
+                continue;
+            for (int row : a.postings[id].rows) {
+                if (row == 0 || row > a.docs)
+                    break;
+                if (n == rows.length)
+                    rows = Arrays.copyOf(rows, n * 2);
+                rows[n++] = row - 1;
+            }
+        }
+        if (query.termIds.length > 1)
+            Arrays.sort(rows, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++)
+            if (distinct == 0 || rows[i] != rows[distinct - 1])
+                rows[distinct++] = rows[i];
+        return Arrays.copyOf(rows, distinct);
+    }
+
+    /** *************************************************************
+     * @return the number of lines appended since base was built
+     */
+    public int appendedDocs() {
+
+        return appended.docs;
+    }
+
+    /** *************************************************************
+     * @return true if topK() finds built lines by LSH
+     */
+    public boolean isApproximate() {
+
+        return lsh != null;
+    }
+
+    /** *************************************************************
+     * @return the number of documents, built and appended
+     */
+    public int docCount() {
+
+        return base.docCount + appended.docs;
+    }
+
+    /** *************************************************************
+     * @return the number of documents with at least one term
+     */
+    public int nonEmptyDocs() {
+
+        return base.nonEmptyDocs + appended.nonEmptyDocs;
+    }
+
+    /** *************************************************************
+     * @return the line of document doc
+     */
+    public String line(int doc) {
+
+        if (doc < base.docCount)
+            return baseLines[doc];
+        return appended.lines[doc - base.docCount];
+    }
+
+    /** *************************************************************
+     * @return true if the sentiment of each line is kept
+     */
+    public boolean hasSentiment() {
+
+        return baseSentiment != null;
+    }
+
+    /** *************************************************************
+     * @return the sentiment of document doc; only valid if hasSentiment()
+     */
+    public int sentiment(int doc) {
+
+        if (doc < base.docCount)
+            return baseSentiment[doc];
+        return appended.sentiment[doc - base.docCount];
+    }
+
+    /** *************************************************************
+     * @return the sentiment of the first n documents, or null if
+     * sentiment isn't kept
+     */
+    public int[] sentiments(int n) {
+
+        if (baseSentiment == null)
+            return null;
+        int[] result = Arrays.copyOf(baseSentiment, n);
+        Appended a = appended;
+        for (int d = base.docCount; d < n; d++)
+            result[d] = a.sentiment[d - base.docCount];
+        return result;
+    }
+
+    /** *************************************************************
+     * @return the query's tf * idf vector, with idf from the running
+     * document frequencies, so terms only in appended lines count too
+     */
+    public QueryVector query(List<String> tokens) {
+
+        Appended a = appended;
+        return QueryVector.of(tokens, base.docCount + a.docs, term -> termId(term, a), id -> docfreq(id, a));
+    }
+
+    /** *************************************************************
+     */
+    private int termId(String term, Appended a) {
+
+        int id = base.termId(term);
+        if (id >= 0)
+            return id;
+        Integer known = newTerms.get(term);
+        return known != null && known.intValue() < a.termCount ? known.intValue() : -1;
+    }
+
+    /** *************************************************************
+     */
+    private int docfreq(int id, Appended a) {
+
+        return (id < base.termCount ? base.docfreq[id] : 0) + a.docfreq[id];
+    }
+
+    /** *************************************************************
+     * Add the similarity of every document that shares a term with the
+     * query to acc, as TfidfIndex.score() does.
+     */
+    public void score(QueryVector query, ScoreAccumulator acc) {
+
+        Appended a = appended;
+        acc.ensureCapacity(base.docCount + a.docs);
+        base.score(query.below(base.termCount), acc);
+        for (int d : matchingRows(query, a))
+            acc.add(base.docCount + d, similarity(query, a, d));
+    }
+
+    /** *************************************************************
+     * Add every document that shares a term with the query to out, in
+     * corpus order, with the similarity score() gives it.  The built
+     * lines are split into shards contiguous ranges whose postings are
+     * merged in parallel on pool, as topK() does, and appended lines
+     * are scored after them.
+     */
+    public void scoreAll(QueryVector query, ScoreList out, int shards, ForkJoinPool pool) {
+
+        Appended a = appended;
+        QueryVector built = query.below(base.termCount);
+        shards = Math.min(shards, base.docCount);
+        if (shards < 2 || pool == null)
+            base.scoreAll(built, out, 0, base.docCount);
+        else {
+            ScoreList[] parts = new ScoreList[shards];
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(shards);
+            for (int s = 0; s < shards; s++) {
+                ScoreList part = new ScoreList();
+                int from = (int) ((long) base.docCount * s / shards);
+                int to = (int) ((long) base.docCount * (s + 1) / shards);
+                parts[s] = part;
+                tasks.add(pool.submit(() -> base.scoreAll(built, part, from, to)));
+            }
+            for (int s = 0; s < shards; s++) {
+                tasks.get(s).join();
+                out.addAll(parts[s]);
+            }
+        }
+        for (int d : matchingRows(query, a))
+            out.add(base.docCount + d, similarity(query, a, d));
+    }
+
+    /** *************************************************************
+     * Offer top the documents that could be among its k most similar
+     * to the query, as TfidfIndex.topK() does, or only those of the
+     * built lines that LshIndex finds if there is one.  Appended lines
+     * are all scored that share a term with the query.
+     */
+    public void topK(QueryVector query, TopKCollector top) {
+
+        Appended a = appended;
+        if (lsh != null)
+            lsh.topK(query.below(base.termCount), top);
+        else
+            base.topK(query.below(base.termCount), top);
+        for (int d : matchingRows(query, a))
+            top.offer(base.docCount + d, similarity(query, a, d));
+    }
+
+    /** *************************************************************
+     * Offer top the same documents as topK(), with the built lines
+     * split into shards contiguous ranges whose postings are walked in
+     * parallel on pool, each into its own collector, while this thread
+     * scores the appended lines.  The shards share the idf of base, so
+     * their similarities are those of the whole, and the best k of
+     * their best k are the best k overall.  LSH tables are not
+     * sharded, so with them this is topK().
+     */
+    public void topK(QueryVector query, TopKCollector top, int shards, ForkJoinPool pool) {
+
+        shards = Math.min(shards, base.docCount);
+        if (shards < 2 || pool == null || lsh != null) {
+            topK(query, top);
+            return;
+        }
+        QueryVector built = query.below(base.termCount);
+        TopKCollector[] tops = new TopKCollector[shards];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) {
+            TopKCollector shardTop = new TopKCollector(top.k());
+            int from = (int) ((long) base.docCount * s / shards);
+            int to = (int) ((long) base.docCount * (s + 1) / shards);
+            tops[s] = shardTop;
+            tasks.add(pool.submit(() -> base.topK(built, shardTop, from, to)));
+        }
+        Appended a = appended;
+        for (int d : matchingRows(query, a))
+            top.offer(base.docCount + d, similarity(query, a, d));
+        for (int s = 0; s < shards; s++) {
+            tasks.get(s).join();
+            top.offerAll(tops[s]);
+        }
+    }
+
+    /** *************************************************************
+     * @return the cosine similarity of appended line d, which shares a
+     * term with the query, computed the same way as for a built line
+     */
+    private float similarity(QueryVector query, Appended a, int d) {
+
+        int from = a.rowOffsets[d];
+        int to = a.rowOffsets[d + 1];
+        float n = idfDocCount + a.docs;
+        float euc = 0;
+        for (int k = from; k < to; k++) {
+            float tfidffloat = idf(a, a.termIds[k], n) * a.counts[k];
+            euc = euc + (tfidffloat * tfidffloat);
+        }
+        euc = (float) Math.sqrt(euc);
+        float sim = 0;
+        for (int q = 0; q < query.termIds.length; q++) {
+            for (int k = from; k < to; k++) {
+                if (a.termIds[k] == query.termIds[q]) {
+                    float weight = euc != 0 ? idf(a, a.termIds[k], n) * a.counts[k] / euc : 0;
+                    sim = sim + (weight * query.weights[q]);
+                    break;
+                }
+            }
+        }
+        return sim;
+    }
+
+    /** *************************************************************
+     */
+    private float idf(Appended a, int id, float n) {
+
+        return (float) Math.log10(n / (float) docfreq(id, a));
+    }
+}
@@ -0,0 +1,275 @@
+package chatbot;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to find the documents of a TfidfIndex likely to be most similar
+ * to a query without walking its postings, by random hyperplane LSH.
+ * Each of tables tables has bits random hyperplanes through the origin,
+ * and a document's key in a table has one bit per hyperplane for the
+ * side its tf * idf vector is on, so two vectors at angle a share each
+ * bit with probability 1 - a / pi.  A hyperplane is a random +1 or -1
+ * per term, drawn from a hash of the seed, the table and the term, so
+ * nothing but the buckets is stored.  A query is hashed the same way,
+ * and the documents in its bucket, and in every bucket one bit away,
+ * in each table are scored exactly; documents in none of them are
+ * missed.  The buckets of a table are addressed directly by key, so
+ * bits is at most MAX_BITS, and take 4 bytes a document per table.
+ *
+ * Lines are short, so a query and the lines that best match it are
+ * often far apart in angle, and many of them share no bucket with it.
+ * Whether the time saved is worth the lines missed depends on the
+ * corpus; LshBenchmark measures both.
+ */
+public class LshIndex {
+
+    public static final int TABLES = 16;
+    public static final int BITS = 14;
+    public static final int MAX_BITS = 20;
+    public static final long SEED = 18021918;
+
+    final TfidfIndex base;
+    private final int tables;
+    private final int bits;
+    private final long seed;
+
+    // table t's bucket k spans bucketDocs[t][bucketOffsets[t][k]] to
+    // bucketDocs[t][bucketOffsets[t][k+1]], in corpus order
+    private final int[][] bucketOffsets;
+    private final int[][] bucketDocs;
+
+    // which documents this thread has scored for the query, by stamp
+    private static final ThreadLocal<int[]> marks = ThreadLocal.withInitial(() -> new int[0]);
+    private static final ThreadLocal<int[]> stamps = ThreadLocal.withInitial(() -> new int[1]);
+
+    /** *************************************************************
+     */
+    private LshIndex(TfidfIndex base, int tables, int bits, long seed, int[][] bucketOffsets, int[][] bucketDocs) {
+
+        this.base = base;
+        this.tables = tables;
+        this.bits = bits;
+        this.seed = seed;
+        this.bucketOffsets = bucketOffsets;
+        this.bucketDocs = bucketDocs;
+    }
+
+    /** *************************************************************
+     * Hash every document of base with TABLES tables of BITS bits.
+     * @param pool the pool to hash documents on, or null to hash them
+     *             on this thread
+     */
+    public static LshIndex build(TfidfIndex base, ForkJoinPool pool) {
+
+        return build(base, TABLES, BITS, SEED, pool);
+    }
+
+    /** *************************************************************
+     * Hash every document of base.  More bits make smaller buckets,
+     * so fewer documents are scored and more of the best are missed;
+     * more tables find more of the best at the cost of scoring more.
+     */
+    public static LshIndex build(TfidfIndex base, int tables, int bits, long seed, ForkJoinPool pool) {
+
+        if (tables < 1 || bits < 1 || bits > MAX_BITS)
+            throw new IllegalArgumentException("need at least one table, and 1 to " + MAX_BITS + " bits");
+        int docCount = base.docCount;
+        int[][] keys = new int[tables][docCount];
+        IntStream docs = IntStream.range(0, docCount);
+        if (pool != null)
+            pool.submit(() -> docs.parallel().forEach(d -> hashDoc(base, tables, bits, seed, d, keys))).join();
+        else
+            docs.forEach(d -> hashDoc(base, tables, bits, seed, d, keys));
+
+        // empty documents have no direction, and are in no bucket
+        int buckets = 1 << bits;
+        int[][] bucketOffsets = new int[tables][];
+        int[][] bucketDocs = new int[tables][];
+        for (int t = 0; t < tables; t++) {
+            int[] offsets = new int[buckets + 1];
+            for (int d = 0; d < docCount; d++)
+                if (keys[t][d] >= 0)
+                    offsets[keys[t][d] + 1]++;
+            for (int k = 0; k < buckets; k++)
+                offsets[k + 1] += offsets[k];
+            int[] next = new int[buckets];
+            System.arraycopy(offsets, 0, next, 0, buckets);
+            int[] members = new int[offsets[buckets]];
+            for (int d = 0; d < docCount; d++)
+                if (keys[t][d] >= 0)
+                    members[next[keys[t][d]]++] = d;
+            bucketOffsets[t] = offsets;
+            bucketDocs[t] = members;
+            keys[t] = null;
+        }
+        return new LshIndex(base, tables, bits, seed, bucketOffsets, bucketDocs);
+    }
+
+    /** *************************************************************
+     * Put the key of document d in each table in keys, or -1 if it
+     * has no terms.
+     */
+    private static void hashDoc(TfidfIndex base, int tables, int bits, long seed, int d, int[][] keys) {
+
+        int from = base.rowOffsets[d];
+        int to = base.rowOffsets[d + 1];
+        if (from == to || base.norms[d] == 0) {
+            for (int t = 0; t < tables; t++)
+                keys[t][d] = -1;
+            return;
+        }
+        float[] sums = new float[bits];
+        for (int t = 0; t < tables; t++) {
+            Arrays.fill(sums, 0);
+            for (int k = from; k < to; k++)
+                project(sums, hyperplanes(seed, t, base.termIds[k]), base.weights[k]);
+            keys[t][d] = key(sums);
+        }
+    }
+
+    /** *************************************************************
+     * @return the signs of term id on the hyperplanes of table t, one
+     * bit each, set for +1
+     */
+    private static long hyperplanes(long seed, int t, int id) {
+
+        // splitmix64 of the seed, table and term
+        long z = seed + ((long) t << 32 | (id & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** *************************************************************
+     * Add weight times the signs of a term to the sums of each bit.
+     */
+    private static void project(float[] sums, long signs, float weight) {
+
+        for (int b = 0; b < sums.length; b++)
+            sums[b] += (signs >>> b & 1) != 0 ? weight : -weight;
+    }
+
+    /** *************************************************************
+     * @return the key of a vector with the given sums
+     */
+    private static int key(float[] sums) {
+
+        int key = 0;
+        for (int b = 0; b < sums.length; b++)
+            if (sums[b] > 0)
+                key |= 1 << b;
+        return key;
+    }
+
+    /** *************************************************************
+     * @return about how many documents a query scores, the documents
+     * of base being spread evenly over the buckets
+     */
+    public long probedDocs() {
+
+        return (long) tables * (bits + 1) * base.nonEmptyDocs >> bits;
+    }
+
+    /** *************************************************************
+     * Offer top the documents in the buckets the query probes that
+     * share a term with it, each with its similarity computed as
+     * TfidfIndex.topK() does, up to rounding in the last bit.  A query
+     * whose terms are in fewer documents than probedDocs() is answered
+     * exactly by TfidfIndex.topK() instead, since that is cheaper.
+     * @return the number of documents scored, or of postings walked
+     */
+    public int topK(QueryVector query, TopKCollector top) {
+
+        if (query.termIds.length == 0)
+            return 0;
+        long postings = 0;
+        for (int q = 0; q < query.termIds.length; q++)
+            postings += base.docfreq[query.termIds[q]];
+        if (postings <= probedDocs()) {
+            base.topK(query, top);
+            return (int) postings;
+        }
+        int[] mark = marks.get();
+        if (mark.length < base.docCount) {
+            mark = new int[base.docCount];
+            marks.set(mark);
+        }
+        int[] stamp = stamps.get();
+        if (++stamp[0] == 0) {
+            Arrays.fill(mark, 0);
+            stamp[0] = 1;
+        }
+        int now = stamp[0];
+        int scored = 0;
+        float[] sums = new float[bits];
+        for (int t = 0; t < tables; t++) {
+            Arrays.fill(sums, 0);
+            for (int q = 0; q < query.termIds.length; q++)
+                project(sums, hyperplanes(seed, t, query.termIds[q]), query.weights[q]);
+            int key = key(sums);
+            for (int flip = -1; flip < bits; flip++) {
+                int probe = flip < 0 ? key : key ^ (1 << flip);
+                int[] docs = bucketDocs[t];
+                for (int p = bucketOffsets[t][probe]; p < bucketOffsets[t][probe + 1]; p++) {
+                    int d = docs[p];
+                    if (mark[d] == now)
+                        continue;
+                    mark[d] = now;
+                    scored++;
+                    float sim = similarity(query, d);
+                    if (!Float.isNaN(sim))
+                        top.offer(d, sim);
+                }
+            }
+        }
+        return scored;
+    }
+
+    /** *************************************************************
+     * @return the cosine similarity of document d to the query, or NaN
+     * if they share no term
+     */
+    private float similarity(QueryVector query, int d) {
+
+        float euc = base.norms[d];
+        float sim = 0;
+        boolean shared = false;
+        for (int k = base.rowOffsets[d]; k < base.rowOffsets[d + 1]; k++) {
+            int q = query.indexOf(base.termIds[k]);
+            if (q >= 0) {
+                shared = true;
+                float weight = euc != 0 ? base.weights[k] / euc : 0;
+                sim = sim + (weight * query.weights[q]);
+            }
+        }
+        return shared ? sim : Float.NaN;
+    }
+
+    /** *************************************************************
+     * @return the number of hash tables
+     */
+    public int tables() {
+
+        return tables;
+    }
+
+    /** *************************************************************
+     * @return the number of bits of a key
+     */
+    public int bits() {
+
+        return bits;
+    }
+}
@@ -0,0 +1,435 @@
+package chatbot;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to measure a Chatbot: how long each stage of a query and of an
+ * index build takes, how many candidate responses each query goes
+ * through, how often things happen, and the size of the corpus and the
+ * heap.  A stage is timed as
+ *     long start = metrics.start();
+ *     ...
+ *     metrics.stop(Metrics.Stage.SCORE, start);
+ * The lot can be read as JMX attributes under chatbot:type=Metrics, or
+ * as text in the Prometheus exposition format from dump().
+ *
+ * Metrics are on unless the chatbot.metrics system property is "false"
+ * or setEnabled(false) is called.  While they are off, start() doesn't
+ * read the clock and nothing is recorded.
+ */
+public class Metrics {
+
+    // the stages timed, in nanoseconds
+    public enum Stage {
+        QUERY,            // the whole of matchBestInput(), cache hits included
+        TOKENIZE,         // punctuation and stop words removed from the input
+        INPUT_SENTIMENT,  // sentiment of the input computed
+        SCORE,            // the best matching lines found
+        CLUSTER,          // the top cluster of similarities chosen
+        SENTIMENT,        // responses ranked on sentiment
+        PROFANITY,        // responses censored
+        BUILD_READ,       // lines read and tokenized into the builder
+        BUILD_INDEX,      // tf * idf weights and postings built
+        BUILD_SENTIMENT,  // sentiment of each line computed
+        BUILD_LSH,        // lines hashed into LSH tables, with -lsh
+        SNAPSHOT_LOAD,
+        SNAPSHOT_WRITE,
+        COMPACT;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    // the counts recorded once per query
+    public enum Distribution {
+        CANDIDATES,       // lines scored among the best matches
+        CLUSTER,          // lines in the top cluster
+        RANKED;           // lines left after ranking on sentiment
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    // the events counted
+    public enum Counter {
+        QUERIES,
+        UNANSWERED,       // queries answered "I don't know"
+        PARTIAL,          // queries answered by only some of the shards
+        LINES_ADDED,
+        COMPACTIONS;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("chatbot.metrics"));
+
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+    private final Histogram[] distributions = new Histogram[Distribution.values().length];
+    private final LongAdder[] counters = new LongAdder[Counter.values().length];
+    private final Map<String,LongSupplier> gauges = new LinkedHashMap<String,LongSupplier>();
+
+    /** *************************************************************
+     */
+    public Metrics() {
+
+        for (int i = 0; i < stages.length; i++)
+            stages[i] = new Histogram();
+        for (int i = 0; i < distributions.length; i++)
+            distributions[i] = new Histogram();
+        for (int i = 0; i < counters.length; i++)
+            counters[i] = new LongAdder();
+        gauge("heap_used_bytes", () -> heap().getUsed());
+        gauge("heap_committed_bytes", () -> heap().getCommitted());
+        gauge("heap_max_bytes", () -> heap().getMax());
+    }
+
+    /** *************************************************************
+     */
+    private static MemoryUsage heap() {
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    }
+
+    /** *************************************************************
+     * Turn recording on or off for every Metrics in this JVM.
+     */
+    public static void setEnabled(boolean on) {
+
+        enabled = on;
+    }
+
+    /** *************************************************************
+     */
+    public static boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /** *************************************************************
+     * Add a value that is read whenever the metrics are, such as the
+     * number of lines in the corpus.
+     */
+    public synchronized void gauge(String name, LongSupplier value) {
+
+        gauges.put(name, value);
+    }
+
+    /** *************************************************************
+     * @return the time a stage starts, or 0 if metrics are off
+     */
+    public long start() {
+
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** *************************************************************
+     * Record that a stage that began at start, as returned by start(),
+     * has ended.
+     */
+    public void stop(Stage stage, long start) {
+
+        if (start != 0 && enabled)
+            stages[stage.ordinal()].record(System.nanoTime() - start);
+    }
+
+    /** *************************************************************
+     */
+    public void record(Distribution distribution, long value) {
+
+        if (enabled)
+            distributions[distribution.ordinal()].record(value);
+    }
+
+    /** *************************************************************
+     */
+    public void increment(Counter counter) {
+
+        if (enabled)
+            counters[counter.ordinal()].increment();
+    }
+
+    /** *************************************************************
+     * @return the latencies of a stage, in nanoseconds
+     */
+    public Histogram histogram(Stage stage) {
+
+        return stages[stage.ordinal()];
+    }
+
+    /** *************************************************************
+     */
+    public Histogram histogram(Distribution distribution) {
+
+        return distributions[distribution.ordinal()];
+    }
+
+    /** *************************************************************
+     */
+    public long count(Counter counter) {
+
+        return counters[counter.ordinal()].sum();
+    }
+
+    /** *************************************************************
+     * Forget every latency, distribution and count recorded so far.
+     */
+    public void reset() {
+
+        for (Histogram h : stages)
+            h.reset();
+        for (Histogram h : distributions)
+            h.reset();
+        for (LongAdder c : counters)
+            c.reset();
+    }
+
+    /** *************************************************************
+     * @return the gauges and their current values
+     */
+    private synchronized Map<String,Long> gaugeValues() {
+
+        Map<String,Long> values = new LinkedHashMap<String,Long>();
+        for (Map.Entry<String,LongSupplier> e : gauges.entrySet())
+            values.put(e.getKey(), e.getValue().getAsLong());
+        return values;
+    }
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /** *************************************************************
+     * @return every metric in the Prometheus text exposition format:
+     * latencies as summaries in seconds, distributions as summaries,
+     * counts as counters and the rest as gauges
+     */
+    public String dump() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE chatbot_stage_seconds summary\n");
+        for (Stage stage : Stage.values())
+            summary(sb, "chatbot_stage_seconds", "stage", stage.label, stages[stage.ordinal()], 1e9);
+        sb.append("# TYPE chatbot_responses summary\n");
+        for (Distribution d : Distribution.values())
+            summary(sb, "chatbot_responses", "set", d.label, distributions[d.ordinal()], 1);
+        for (Counter counter : Counter.values()) {
+            String name = "chatbot_" + counter.label + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(count(counter)).append('\n');
+        }
+        for (Map.Entry<String,Long> e : gaugeValues().entrySet()) {
+            String name = "chatbot_" + e.getKey();
+            sb.append("# TYPE ").append(name).append(" gauge\n");
+            sb.append(name).append(' ').append(e.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** *************************************************************
+     */
+    private static void summary(StringBuilder sb, String name, String label, String value, Histogram h,
+                                double divisor) {
+
+        String labels = label + "=\"" + value + "\"";
+        for (double q : QUANTILES)
+            sb.append(name).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ")
+                    .append(format(h.percentile(q) / divisor)).append('\n');
+        sb.append(name).append("_sum{").append(labels).append("} ").append(format(h.sum() / divisor)).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(h.count()).append('\n');
+    }
+
+    /** *************************************************************
+     */
+    private static String format(double d) {
+
+        return d == Math.rint(d) && Math.abs(d) < 1e15 ? Long.toString((long) d) : Double.toString(d);
+    }
+
+    /** *************************************************************
+     * Register these metrics as the MBean chatbot:type=Metrics,name=name
+     * on the platform MBean server, replacing any registered under that
+     * name before.  Nothing is registered while metrics are off.
+     * @return the name registered, or null if none was
+     */
+    public ObjectName registerMBean(String name) {
+
+        if (!enabled)
+            return null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("chatbot:type=Metrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(new Bean(), objectName);
+            return objectName;
+        }
+        catch (JMException e) {
+            System.out.println("Error in Metrics.registerMBean(): " + e.getMessage());
+            return null;
+        }
+    }
+
+    /** *************************************************************
+     * The metrics as JMX attributes: for each stage and distribution
+     * its count, mean, max and percentiles, named like score.p99, and
+     * each counter and gauge by its own name.  Latencies are in
+     * microseconds.  Enabled can be set, and reset() called.
+     */
+    private class Bean implements DynamicMBean {
+
+        private final String[] suffixes = {"count", "mean", "max", "p50", "p90", "p99", "p999"};
+
+        /** *************************************************************
+         * @return the value of a histogram attribute, divided by divisor
+         */
+        private Object histogramAttribute(Histogram h, String suffix, double divisor) {
+
+            switch (suffix) {
+                case "count": return h.count();
+                case "mean": return h.mean() / divisor;
+                case "max": return h.max() / divisor;
+                case "p50": return h.percentile(0.5) / divisor;
+                case "p90": return h.percentile(0.9) / divisor;
+                case "p99": return h.percentile(0.99) / divisor;
+                default: return h.percentile(0.999) / divisor;
+            }
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+
+            if (attribute.equals("Enabled"))
+                return enabled;
+            int dot = attribute.lastIndexOf('.');
+            if (dot > 0) {
+                String prefix = attribute.substring(0, dot);
+                String suffix = attribute.substring(dot + 1);
+                for (String s : suffixes) {
+                    if (!s.equals(suffix))
+                        continue;
+                    for (Stage stage : Stage.values())
+                        if (stage.label.equals(prefix))
+                            return histogramAttribute(stages[stage.ordinal()], suffix, 1e3);
+                    for (Distribution d : Distribution.values())
+                        if (("responses_" + d.label).equals(prefix))
+                            return histogramAttribute(distributions[d.ordinal()], suffix, 1);
+                }
+            }
+            for (Counter counter : Counter.values())
+                if (counter.label.equals(attribute))
+                    return count(counter);
+            Long gauge = gaugeValues().get(attribute);
+            if (gauge != null)
+                return gauge;
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException,
+                InvalidAttributeValueException {
+
+            if (!attribute.getName().equals("Enabled"))
+                throw new AttributeNotFoundException(attribute.getName() + " is read only");
+            if (!(attribute.getValue() instanceof Boolean))
+                throw new InvalidAttributeValueException("Enabled must be a Boolean");
+            setEnabled((Boolean) attribute.getValue());
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                }
+                catch (AttributeNotFoundException e) {
+                    // left out, as the interface asks
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+
+            AttributeList set = new AttributeList();
+            for (Attribute attribute : attributes.asList()) {
+                try {
+                    setAttribute(attribute);
+                    set.add(attribute);
+                }
+                catch (JMException e) {
+                    // left out, as the interface asks
+                }
+            }
+            return set;
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+
+            if (action.equals("reset")) {
+                reset();
+                return null;
+            }
+            if (action.equals("dump"))
+                return dump();
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "whether metrics are recorded",
+                    true, true, true));
+            for (Stage stage : Stage.values())
+                for (String s : suffixes)
+                    attributes.add(new MBeanAttributeInfo(stage.label + "." + s,
+                            s.equals("count") ? "long" : "double",
+                            s.equals("count") ? "times the stage ran" : "microseconds", true, false, false));
+            for (Distribution d : Distribution.values())
+                for (String s : suffixes)
+                    attributes.add(new MBeanAttributeInfo("responses_" + d.label + "." + s,
+                            s.equals("count") ? "long" : "double", "lines per query", true, false, false));
+            for (Counter counter : Counter.values())
+                attributes.add(new MBeanAttributeInfo(counter.label, "long", "count", true, false, false));
+            for (String gauge : gaugeValues().keySet())
+                attributes.add(new MBeanAttributeInfo(gauge, "long", "gauge", true, false, false));
+            MBeanOperationInfo[] operations = {
+                    new MBeanOperationInfo("reset", "forget everything recorded so far", null, "void",
+                            MBeanOperationInfo.ACTION),
+                    new MBeanOperationInfo("dump", "every metric as Prometheus text", null, "java.lang.String",
+                            MBeanOperationInfo.INFO)};
+            return new MBeanInfo(Metrics.class.getName(), "Latencies, counts and sizes of a Chatbot",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, operations, null);
+        }
+    }
+}
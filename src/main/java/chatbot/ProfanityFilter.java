@@ -0,0 +1,224 @@
+package chatbot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to censor profane words and phrases in responses.  All of the
+ * profane words are compiled once into an Aho-Corasick automaton, so a
+ * response is checked against every word in a single pass over its
+ * characters.  Matching ignores case, folding the words and the text
+ * alike one character at a time whatever the default locale, and a match only counts if it is
+ * a whole word, i.e. not preceded or followed by a letter or digit, so
+ * "class" is left alone when "ass" is profane.  Each match is replaced
+ * by "<censored>"; where matches overlap the one starting first, and
+ * then the longest, wins.  An instance is never changed after it is
+ * built and may be shared between threads.
+ */
+public class ProfanityFilter {
+
+    public static final String CENSORED = "<censored>";
+
+    // dense index of each character that appears in a profane word, -1 otherwise
+    private final int[] alphabet = new int[Character.MAX_VALUE + 1];
+
+    // next state of each state on each character of the alphabet, with
+    // failure links already followed, so there is no backtracking
+    private final int[][] delta;
+
+    // lengths of the profane words that end in each state, including
+    // those reached through failure links
+    private final int[][] lengths;
+
+    /** *************************************************************
+     * @param words profane words and phrases, in any case
+     */
+    public ProfanityFilter(Collection<String> words) {
+
+        Arrays.fill(alphabet, -1);
+        int alphabetSize = 0;
+        List<String> patterns = new ArrayList<>();
+        for (String word : words) {
+            String pattern = fold(word.trim());
+            if (pattern.isEmpty())
+                continue;
+            patterns.add(pattern);
+            for (int i = 0; i < pattern.length(); i++)
+                if (alphabet[pattern.charAt(i)] < 0)
+                    alphabet[pattern.charAt(i)] = alphabetSize++;
+        }
+
+        // the trie of the words, with -1 for a missing edge
+        List<int[]> trie = new ArrayList<>();
+        List<int[]> out = new ArrayList<>();
+        trie.add(newState(alphabetSize));
+        out.add(new int[0]);
+        for (String pattern : patterns) {
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                int c = alphabet[pattern.charAt(i)];
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newState(alphabetSize));
+                    out.add(new int[0]);
+                }
+                state = trie.get(state)[c];
+            }
+            out.set(state, append(out.get(state), pattern.length()));
+        }
+
+        // breadth first, turn missing edges into the failure state's edge
+        // and inherit the failure state's words
+        int[] fail = new int[trie.size()];
+        int[] queue = new int[trie.size()];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < alphabetSize; c++) {
+            int next = trie.get(0)[c];
+            if (next < 0)
+                trie.get(0)[c] = 0;
+            else {
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int len : out.get(fail[state]))
+                out.set(state, append(out.get(state), len));
+            for (int c = 0; c < alphabetSize; c++) {
+                int next = trie.get(state)[c];
+                if (next < 0)
+                    trie.get(state)[c] = trie.get(fail[state])[c];
+                else {
+                    fail[next] = trie.get(fail[state])[c];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        delta = trie.toArray(new int[trie.size()][]);
+        lengths = out.toArray(new int[out.size()][]);
+    }
+
+    /** *************************************************************
+     * @param filename a file of profane words, one per line
+     */
+    public static ProfanityFilter fromFile(String filename) throws IOException {
+
+        List<String> words = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null)
+                words.add(line);
+        }
+        return new ProfanityFilter(words);
+    }
+
+    /** *************************************************************
+     * @return s in lower case, folded as censor() folds the text: by
+     * Character.toLowerCase() on each character, so that neither the
+     * default locale, such as Turkish with its dotless i, nor the
+     * context rules of String.toLowerCase() can make a word and the
+     * same word in a response fold differently
+     */
+    static String fold(String s) {
+
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = Character.toLowerCase(chars[i]);
+        return new String(chars);
+    }
+
+    /** *************************************************************
+     */
+    private static int[] newState(int alphabetSize) {
+
+        int[] edges = new int[alphabetSize];
+        Arrays.fill(edges, -1);
+        return edges;
+    }
+
+    /** *************************************************************
+     */
+    private static int[] append(int[] a, int value) {
+
+        int[] result = Arrays.copyOf(a, a.length + 1);
+        result[a.length] = value;
+        return result;
+    }
+
+    /** *************************************************************
+     * @return true if the character at i of text is part of a word
+     */
+    private static boolean isWordChar(String text, int i) {
+
+        return i >= 0 && i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+    }
+
+    /** *************************************************************
+     * @return text with every profane word replaced by CENSORED
+     */
+    public String censor(String text) {
+
+        if (text == null || text.isEmpty())
+            return text;
+        int n = text.length();
+        // longest whole-word match starting at each position
+        int[] longest = null;
+        int state = 0;
+        for (int i = 0; i < n; i++) {
+            int c = alphabet[Character.toLowerCase(text.charAt(i))];
+            state = c < 0 ? 0 : delta[state][c];
+            for (int len : lengths[state]) {
+                int start = i - len + 1;
+                if (isWordChar(text, start - 1) || isWordChar(text, i + 1))
+                    continue;
+                if (longest == null)
+                    longest = new int[n];
+                if (len > longest[start])
+                    longest[start] = len;
+            }
+        }
+        if (longest == null)
+            return text;
+        StringBuilder sb = new StringBuilder(n);
+        int i = 0;
+        while (i < n) {
+            if (longest[i] > 0) {
+                sb.append(CENSORED);
+                i += longest[i];
+            }
+            else
+                sb.append(text.charAt(i++));
+        }
+        return sb.toString();
+    }
+
+    /** *************************************************************
+     * @return each of the responses, censored
+     */
+    public ArrayList<String> censor(List<String> responses) {
+
+        ArrayList<String> result = new ArrayList<>(responses.size());
+        for (String response : responses)
+            result.add(censor(response));
+        return result;
+    }
+}
@@ -0,0 +1,137 @@
+package chatbot;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import java.util.function.ToIntFunction;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to hold the tf * idf vector of one query, divided by its
+ * euclidean length.  The idf of each query term is computed as if the
+ * query were one more document of the corpus, without changing the
+ * index, so any number of queries can be built against the same
+ * TfidfIndex at once.
+ */
+public class QueryVector {
+
+    // ids of the query terms that are in the index
+    final int[] termIds;
+
+    // normalized tf * idf of each of those terms
+    final float[] weights;
+
+    /** *************************************************************
+     */
+    QueryVector(int[] termIds, float[] weights) {
+
+        this.termIds = termIds;
+        this.weights = weights;
+    }
+
+    /** *************************************************************
+     * @param tokens the terms of the query, after stop word removal
+     * @param index the index the query will be scored against
+     */
+    public static QueryVector of(List<String> tokens, TfidfIndex index) {
+
+        return of(tokens, index.docCount, index::termId, id -> index.docfreq[id]);
+    }
+
+    /** *************************************************************
+     * @param tokens the terms of the query, after stop word removal
+     * @param docCount the number of documents in the corpus
+     * @param termId the id of a term, or -1 if it is not in the corpus
+     * @param docfreq the number of documents in which term id appears
+     */
+    static QueryVector of(List<String> tokens, int docCount, ToIntFunction<String> termId,
+                          IntUnaryOperator docfreq) {
+
+        LinkedHashMap<String,Integer> querytf = new LinkedHashMap<String,Integer>();
+        for (String token : tokens)
+            querytf.merge(token, 1, Integer::sum);
+        int[] ids = new int[querytf.size()];
+        float[] tfidf = new float[querytf.size()];
+        float euc = 0;
+        int n = 0;
+        int known = 0;
+        for (Map.Entry<String,Integer> e : querytf.entrySet()) {
+            int id = termId.applyAsInt(e.getKey());
+            int df = id < 0 ? 0 : docfreq.applyAsInt(id);
+            float idffloat = (float) Math.log10((float) (docCount + 1) / (float) (df + 1));
+            float tfidffloat = idffloat * e.getValue().intValue();
+            ids[n] = id;
+            tfidf[n++] = tfidffloat;
+            euc = euc + (tfidffloat * tfidffloat);
+            if (id >= 0)
+                known++;
+        }
+        euc = (float) Math.sqrt(euc);
+
+        // terms that are not in the index count towards the length of
+        // the query but can't match anything
+        int[] termIds = new int[known];
+        float[] weights = new float[known];
+        int k = 0;
+        for (int q = 0; q < n; q++) {
+            if (ids[q] < 0)
+                continue;
+            termIds[k] = ids[q];
+            weights[k++] = tfidf[q] / euc;
+        }
+        return new QueryVector(termIds, weights);
+    }
+
+    /** *************************************************************
+     * @return the query without the terms whose ids are termCount or
+     * more, or the query itself if there are none
+     */
+    QueryVector below(int termCount) {
+
+        int n = 0;
+        for (int id : termIds)
+            if (id < termCount)
+                n++;
+        if (n == termIds.length)
+            return this;
+        int[] ids = new int[n];
+        float[] w = new float[n];
+        n = 0;
+        for (int q = 0; q < termIds.length; q++) {
+            if (termIds[q] < termCount) {
+                ids[n] = termIds[q];
+                w[n++] = weights[q];
+            }
+        }
+        return new QueryVector(ids, w);
+    }
+
+    /** *************************************************************
+     * @return the position of term id in the query, or -1
+     */
+    int indexOf(int id) {
+
+        for (int q = 0; q < termIds.length; q++)
+            if (termIds[q] == id)
+                return q;
+        return -1;
+    }
+
+    /** *************************************************************
+     * @return the number of query terms that are in the index
+     */
+    public int size() {
+
+        return termIds.length;
+    }
+}
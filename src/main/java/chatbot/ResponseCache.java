@@ -0,0 +1,180 @@
+package chatbot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to remember the responses to recent queries.  The entries are
+ * spread over segments by the hash of their key, and each segment is
+ * an access ordered LinkedHashMap under its own lock that drops its
+ * least recently used entry when full, so threads asking for different
+ * keys rarely wait on each other.  Each response is stored with the
+ * generation of the corpus it was computed from, and is a miss once the
+ * corpus has moved on to another generation.
+ */
+public class ResponseCache {
+
+    static final int SEGMENTS = 16;
+
+    /** *************************************************************
+     */
+    private static final class Cached {
+
+        final long generation;
+        final String response;
+
+        Cached(long generation, String response) {
+
+            this.generation = generation;
+            this.response = response;
+        }
+    }
+
+    /** *************************************************************
+     * One segment: an access ordered map that drops its least recently
+     * used entry once it holds more than capacity.
+     */
+    private static final class Segment extends LinkedHashMap<String,Cached> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,Cached> eldest) {
+
+            return size() > capacity;
+        }
+    }
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** *************************************************************
+     * @param capacity the most responses to keep
+     */
+    public ResponseCache(int capacity) {
+
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+
+    /** *************************************************************
+     * @return the number of the segment that holds key
+     */
+    static int segmentOf(String key) {
+
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (SEGMENTS - 1);
+    }
+
+    /** *************************************************************
+     */
+    private Segment segment(String key) {
+
+        return segments[segmentOf(key)];
+    }
+
+    /** *************************************************************
+     * @return the response to key computed from the given generation of
+     * the corpus, or null if there is none
+     */
+    public String get(String key, long generation) {
+
+        Segment segment = segment(key);
+        Cached entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.generation != generation) {
+                if (entry.generation < generation)
+                    segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.response;
+    }
+
+    /** *************************************************************
+     * Remember the response to key, computed from the given generation
+     * of the corpus.
+     */
+    public void put(String key, long generation, String response) {
+
+        Segment segment = segment(key);
+        synchronized (segment) {
+            Cached old = segment.get(key);
+            if (old == null || old.generation <= generation)
+                segment.put(key, new Cached(generation, response));
+        }
+    }
+
+    /** *************************************************************
+     * Forget every response, and reset the counters.
+     */
+    public void clear() {
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+        hits.reset();
+        misses.reset();
+    }
+
+    /** *************************************************************
+     * @return the number of responses kept
+     */
+    public int size() {
+
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /** *************************************************************
+     * @return the number of calls to get() that found a response
+     */
+    public long hits() {
+
+        return hits.sum();
+    }
+
+    /** *************************************************************
+     * @return the number of calls to get() that didn't
+     */
+    public long misses() {
+
+        return misses.sum();
+    }
+}
@@ -0,0 +1,116 @@
+package chatbot;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Interface to where Chatbot finds the lines that best match a query,
+ * before it clusters, ranks and censors them itself.  The lines may be
+ * in this JVM's index, or in a search server that holds a corpus too
+ * large for one JVM.
+ */
+public interface RetrievalBackend {
+
+    /** *************************************************************
+     * The lines found for one query, numbered however the backend
+     * likes.
+     */
+    interface Candidates {
+
+        /** *************************************************************
+         * @return the numbers of the lines found, by score
+         */
+        TreeMap<Float,ArrayList<Integer>> scores();
+
+        /** *************************************************************
+         * @return true if there are lines that share no term with the
+         * query, which count as a score of zero when clustering
+         */
+        boolean hasUnscored();
+
+        /** *************************************************************
+         * @return the lines found whose score is at least min, by score
+         */
+        default TreeMap<Float,ArrayList<Integer>> scores(float min) {
+
+            return new TreeMap<Float,ArrayList<Integer>>(scores().tailMap(min, true));
+        }
+
+        /** *************************************************************
+         * @return the number of lines found
+         */
+        default int size() {
+
+            int n = 0;
+            for (ArrayList<Integer> lines : scores().values())
+                n += lines.size();
+            return n;
+        }
+
+        /** *************************************************************
+         * @return each distinct score of a line, in ascending order,
+         * with zero if hasUnscored(), which are the values clustered to
+         * choose the lines a response is picked from.  A backend that
+         * scored every line that shares a term with the query clusters
+         * the scores of the whole corpus; one that only returned its
+         * best lines clusters theirs.
+         */
+        default float[] similarities() {
+
+            TreeSet<Float> sims = new TreeSet<Float>(scores().keySet());
+            if (hasUnscored())
+                sims.add(0f);
+            float[] result = new float[sims.size()];
+            int n = 0;
+            for (Float f : sims)
+                result[n++] = f.floatValue();
+            return result;
+        }
+
+        /** *************************************************************
+         * @return the text of a line found
+         */
+        String line(int candidate);
+
+        /** *************************************************************
+         * @return the sentiment of a line found
+         */
+        int sentiment(int candidate);
+
+        /** *************************************************************
+         * @return true if part of the corpus couldn't be searched, so
+         * the lines found may not be the best
+         */
+        default boolean isPartial() {
+
+            return false;
+        }
+    }
+
+    /** *************************************************************
+     * @param tokens the terms of the query, as Chatbot analyzes them,
+     *               or null if there are none
+     * @param k the most lines to find, for a backend that can't score
+     *          every line that shares a term with the query
+     * @return the lines that best match the query, when they have been
+     * found
+     */
+    CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k);
+
+    /** *************************************************************
+     * @return true if queries can be answered
+     */
+    boolean isReady();
+}
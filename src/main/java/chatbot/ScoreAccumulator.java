@@ -0,0 +1,101 @@
+package chatbot;
+
+import java.util.Arrays;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to sum the similarity of each document to one query.  Only the
+ * documents that were added to are listed, so clear() costs as much as
+ * the query did rather than the size of the corpus.  An accumulator
+ * is not thread safe; give each thread its own and reuse it.
+ */
+public class ScoreAccumulator {
+
+    // similarity of each document to the query
+    private float[] scores = new float[0];
+
+    // whether each document is listed in docs
+    private boolean[] seen = new boolean[0];
+
+    // the documents with a score, in the order they were first added to
+    private int[] docs = new int[0];
+    private int size = 0;
+
+    /** *************************************************************
+     * Make room for documents 0 to docCount - 1.  Must be called when
+     * the accumulator is empty.
+     */
+    public void ensureCapacity(int docCount) {
+
+        if (scores.length < docCount) {
+            scores = new float[docCount];
+            seen = new boolean[docCount];
+            docs = new int[docCount];
+        }
+    }
+
+    /** *************************************************************
+     * Add weight to the score of doc
+     */
+    public void add(int doc, float weight) {
+
+        if (!seen[doc]) {
+            seen[doc] = true;
+            docs[size++] = doc;
+        }
+        scores[doc] = scores[doc] + weight;
+    }
+
+    /** *************************************************************
+     * @return the number of documents with a score
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /** *************************************************************
+     * @return the i-th document with a score
+     */
+    public int doc(int i) {
+
+        return docs[i];
+    }
+
+    /** *************************************************************
+     * @return the score of document doc
+     */
+    public float score(int doc) {
+
+        return scores[doc];
+    }
+
+    /** *************************************************************
+     * Put the documents with a score into corpus order
+     */
+    public void sortDocs() {
+
+        Arrays.sort(docs, 0, size);
+    }
+
+    /** *************************************************************
+     * Reset every score to zero
+     */
+    public void clear() {
+
+        for (int i = 0; i < size; i++) {
+            scores[docs[i]] = 0;
+            seen[docs[i]] = false;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package chatbot;
+
+import java.util.Arrays;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to hold every document a query matched with its similarity,
+ * in the order they were added, which is corpus order when they come
+ * from TfidfIndex.scoreAll().  Unlike a TopKCollector nothing is
+ * dropped, so the whole distribution of similarities can be clustered.
+ * A list is not thread safe; give each thread its own.
+ */
+public class ScoreList {
+
+    private int[] docs = new int[16];
+    private float[] scores = new float[16];
+    private int size = 0;
+
+    /** *************************************************************
+     * Add doc, with its similarity, after the documents already added
+     */
+    public void add(int doc, float score) {
+
+        if (size == docs.length) {
+            docs = Arrays.copyOf(docs, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        docs[size] = doc;
+        scores[size++] = score;
+    }
+
+    /** *************************************************************
+     * Add the documents of other after the documents already added
+     */
+    public void addAll(ScoreList other) {
+
+        if (size + other.size > docs.length) {
+            int capacity = Math.max(docs.length * 2, size + other.size);
+            docs = Arrays.copyOf(docs, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+        System.arraycopy(other.docs, 0, docs, size, other.size);
+        System.arraycopy(other.scores, 0, scores, size, other.size);
+        size += other.size;
+    }
+
+    /** *************************************************************
+     * @return the number of documents
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /** *************************************************************
+     * @return the i-th document added
+     */
+    public int doc(int i) {
+
+        return docs[i];
+    }
+
+    /** *************************************************************
+     * @return the similarity of the i-th document added
+     */
+    public float score(int i) {
+
+        return scores[i];
+    }
+
+    /** *************************************************************
+     * @return each distinct similarity once, in ascending order, equal
+     * meaning equal as a Float key of a TreeMap is
+     */
+    public float[] distinctScores() {
+
+        float[] sorted = Arrays.copyOf(scores, size);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (n == 0 || Float.compare(sorted[n - 1], sorted[i]) != 0)
+                sorted[n++] = sorted[i];
+        return Arrays.copyOf(sorted, n);
+    }
+}
@@ -0,0 +1,359 @@
+package chatbot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ResourceBundle;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to serve one shard of a corpus to a ShardedBackend, so that a
+ * corpus too large for the heap of one JVM can be split over several.
+ * Shard i of n holds the non-empty lines of the corpus whose number,
+ * counting from 0 as Chatbot does, is i modulo n, and line l of the
+ * shard is line l * n + i of the corpus.  Its lines aren't weighted
+ * until the coordinator sends the document frequencies of the whole
+ * corpus, so every line gets the weights it would have in one index.
+ *
+ * Requests and responses are big-endian binary over TCP, as written by
+ * DataOutputStream, any number of them one after another on a
+ * connection.  A string is an int length and that many bytes of UTF-8.
+ * Each request is an op byte and its arguments:
+ *   STATS                               -> OK, int lines, int nonEmpty,
+ *                                          int n, n * (string term, int df)
+ *   BUILD  int idfDocCount, int n, n * int df
+ *                                       -> OK, int lines
+ *   SEARCH int k, int n, n * (string term, float weight)
+ *                                       -> OK, int hits,
+ *                                          hits * (int line, float score, string text)
+ * BUILD gives the df of each term in the order STATS listed them, and
+ * SEARCH the normalized tf * idf of each query term, with the corpus
+ * line numbers of the k best matches in its response.  A response that
+ * isn't OK is ERROR or NOT_BUILT and a string saying why.
+ */
+public class ShardServer {
+
+    // the first byte of a request
+    static final byte STATS = 1;
+    static final byte BUILD = 2;
+    static final byte SEARCH = 3;
+
+    // the first byte of a response
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final byte NOT_BUILT = 2;
+
+    // longest string or list accepted from the other end
+    static final int MAX_STRING_BYTES = 1 << 20;
+    static final int MAX_COUNT = 1 << 26;
+
+    private final int shard;
+    private final int shards;
+    private final Analyzer analyzer;
+    private final TfidfIndexBuilder builder = new TfidfIndexBuilder();
+    private final ArrayList<String> lines = new ArrayList<>();
+    private int nonEmptyDocs = 0;
+
+    // the lines weighted by the corpus as a whole, once BUILD has come
+    private volatile LiveIndex index = null;
+
+    private ServerSocket server;
+    private ExecutorService executor;
+
+    /** *************************************************************
+     * @param stopwordsFilename the stop words the coordinator removes too
+     * @param shard which of the shards this is, from 0
+     * @param shards how many shards the corpus is split into
+     */
+    public ShardServer(String stopwordsFilename, int shard, int shards) throws IOException {
+
+        if (shards < 1 || shard < 0 || shard >= shards)
+            throw new IllegalArgumentException("shard " + shard + " of " + shards);
+        this.shard = shard;
+        this.shards = shards;
+        analyzer = new Analyzer(Files.readAllLines(Paths.get(stopwordsFilename), StandardCharsets.UTF_8));
+    }
+
+    /** *************************************************************
+     * Read this shard's lines of the corpus in fname.
+     */
+    public void readFile(String fname) throws IOException {
+
+        try (BufferedReader r = Files.newBufferedReader(Paths.get(fname), StandardCharsets.UTF_8)) {
+            readLines(r);
+        }
+        System.out.println("Info in ShardServer.readFile(): shard " + shard + " of " + shards + " has " +
+                lines.size() + " lines of " + fname);
+    }
+
+    /** *************************************************************
+     * Read this shard's lines of the corpus in r.
+     */
+    public void readLines(BufferedReader r) throws IOException {
+
+        int n = 0;
+        String line;
+        while ((line = r.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            if (n++ % shards != shard)
+                continue;
+            lines.add(line);
+            ArrayList<String> tokens = analyzer.tokenize(line);
+            builder.addDocument(tokens);
+            if (tokens != null)
+                nonEmptyDocs++;
+        }
+    }
+
+    /** *************************************************************
+     * Listen on port, 0 for any free one, and answer requests on a
+     * thread per connection.
+     */
+    public void start(int port) throws IOException {
+
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-" + shard);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.execute(this::accept);
+        System.out.println("Info in ShardServer.start(): shard " + shard + " of " + shards +
+                " listening on port " + port());
+    }
+
+    /** *************************************************************
+     * @return the port listened on
+     */
+    public int port() {
+
+        return server.getLocalPort();
+    }
+
+    /** *************************************************************
+     * Stop listening.  Connections already open are answered until
+     * the coordinator closes them or the JVM exits.
+     */
+    public void stop() {
+
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            System.out.println("Error in ShardServer.stop(): " + e.getMessage());
+        }
+        executor.shutdownNow();
+    }
+
+    /** *************************************************************
+     */
+    private void accept() {
+
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                executor.execute(() -> serve(socket));
+            }
+            catch (IOException e) {
+                if (!server.isClosed())
+                    System.out.println("Error in ShardServer.accept(): " + e.getMessage());
+            }
+        }
+    }
+
+    /** *************************************************************
+     * Answer the requests of one connection until it is closed.
+     */
+    private void serve(Socket socket) {
+
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            while (true) {
+                int op = in.read();
+                if (op < 0)
+                    return;
+                if (op == STATS)
+                    stats(out);
+                else if (op == BUILD)
+                    build(in, out);
+                else if (op == SEARCH)
+                    search(in, out);
+                else {
+                    // the rest of the stream can't be parsed
+                    out.writeByte(ERROR);
+                    writeString(out, "unknown op " + op);
+                    out.flush();
+                    return;
+                }
+                out.flush();
+            }
+        }
+        catch (EOFException | SocketException e) {
+            // the coordinator went away
+        }
+        catch (IOException e) {
+            System.out.println("Error in ShardServer.serve(): " + e.getMessage());
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void stats(DataOutputStream out) throws IOException {
+
+        int termCount = builder.termCount();
+        out.writeByte(OK);
+        out.writeInt(lines.size());
+        out.writeInt(nonEmptyDocs);
+        out.writeInt(termCount);
+        for (int t = 0; t < termCount; t++) {
+            writeString(out, builder.term(t));
+            out.writeInt(builder.docfreq(t));
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void build(DataInputStream in, DataOutputStream out) throws IOException {
+
+        int idfDocCount = in.readInt();
+        int n = readCount(in);
+        int[] docfreq = new int[n];
+        for (int t = 0; t < n; t++)
+            docfreq[t] = in.readInt();
+        if (n != builder.termCount()) {
+            out.writeByte(ERROR);
+            writeString(out, "expected " + builder.termCount() + " document frequencies, got " + n);
+            return;
+        }
+        // the builder isn't changed by building, so a coordinator that
+        // reconnects can send its frequencies again
+        TfidfIndex base = builder.build(idfDocCount, docfreq, null);
+        index = new LiveIndex(base, idfDocCount, lines.toArray(new String[lines.size()]), null);
+        System.out.println("Info in ShardServer.build(): shard " + shard + " weighted " + lines.size() +
+                " lines for a corpus of " + idfDocCount);
+        out.writeByte(OK);
+        out.writeInt(lines.size());
+    }
+
+    /** *************************************************************
+     */
+    private void search(DataInputStream in, DataOutputStream out) throws IOException {
+
+        int k = in.readInt();
+        int n = readCount(in);
+        int[] ids = new int[n];
+        float[] weights = new float[n];
+        int known = 0;
+        LiveIndex current = index;
+        for (int q = 0; q < n; q++) {
+            String term = readString(in);
+            float weight = in.readFloat();
+            int id = current == null ? -1 : current.base.termId(term);
+            if (id >= 0) {
+                ids[known] = id;
+                weights[known++] = weight;
+            }
+        }
+        if (current == null) {
+            out.writeByte(NOT_BUILT);
+            writeString(out, "shard " + shard + " has no document frequencies yet");
+            return;
+        }
+        QueryVector query = new QueryVector(Arrays.copyOf(ids, known), Arrays.copyOf(weights, known));
+        TopKCollector top = new TopKCollector(k);
+        current.topK(query, top);
+        top.sort();
+        out.writeByte(OK);
+        out.writeInt(top.size());
+        for (int i = 0; i < top.size(); i++) {
+            out.writeInt(top.doc(i) * shards + shard);
+            out.writeFloat(top.score(i));
+            writeString(out, current.line(top.doc(i)));
+        }
+    }
+
+    /** *************************************************************
+     * @return a count read from in, checked to be reasonable
+     */
+    static int readCount(DataInputStream in) throws IOException {
+
+        int n = in.readInt();
+        if (n < 0 || n > MAX_COUNT)
+            throw new IOException("bad count " + n);
+        return n;
+    }
+
+    /** *************************************************************
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** *************************************************************
+     */
+    static String readString(DataInputStream in) throws IOException {
+
+        int n = in.readInt();
+        if (n < 0 || n > MAX_STRING_BYTES)
+            throw new IOException("bad string length " + n);
+        byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** *************************************************************
+     * Serve one shard of a corpus:
+     *   ShardServer port shard shards fname [stopwords]
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 4) {
+            System.out.println("Usage: ShardServer port shard shards fname [stopwords]");
+            return;
+        }
+        String stopwords = args.length > 4 ? args[4] :
+                ResourceBundle.getBundle("corpora").getString("stopWordsDirectoryName");
+        ShardServer shardServer = new ShardServer(stopwords, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+        shardServer.readFile(args[3]);
+        shardServer.start(Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(shardServer::stop));
+        try {
+            Thread.currentThread().join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,580 @@
+package chatbot;
+
+import com.articulate.sigma.DB;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to find the lines that best match a query in a corpus split
+ * over several ShardServers, for a Chatbot acting as their coordinator.
+ * start() gathers the document frequencies of every shard, adds them
+ * up and sends each shard the totals for its terms, so the shards
+ * weight their lines as one index of the whole corpus would.  A query
+ * is weighted here with the same totals and sent to every shard at
+ * once; the best k of the shards' best k are the best k overall, so
+ * with every shard answering the candidates are those of one index.
+ *
+ * A shard that doesn't answer within the timeout, or fails, is left
+ * out, and the candidates of the others are marked partial, so that
+ * Chatbot doesn't cache the response.  If no shard answers, retrieve()
+ * fails.  A shard that has restarted and lost its frequencies is sent
+ * them again.  Each shard has a pool of connections, and a connection
+ * whose request failed is closed rather than reused.
+ *
+ * The backend is ready once started while some shard answered the last
+ * query, or, when there has been no query for READY_MILLIS, the last
+ * probe: a search of no terms sent to every shard.  An older outcome is
+ * used while the probe is waited for, so isReady() never blocks.
+ */
+public class ShardedBackend implements RetrievalBackend, Closeable {
+
+    // the longest a shard has to answer a query, well within the time
+    // Chatbot waits, so partial candidates still arrive
+    public static final int TIMEOUT_MILLIS = 500;
+
+    // the longest a shard has to report or take its frequencies
+    public static final int START_TIMEOUT_MILLIS = 60000;
+
+    // how long the outcome of a query or probe stands before another probe
+    public static final long READY_MILLIS = 5000;
+
+    /** *************************************************************
+     * One shard server and its idle connections.
+     */
+    private static class Shard {
+
+        final InetSocketAddress address;
+        final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+        Shard(InetSocketAddress address) {
+
+            this.address = address;
+        }
+    }
+
+    /** *************************************************************
+     * A connection to a shard.
+     */
+    private static class Connection implements Closeable {
+
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+
+            socket = new Socket();
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+            catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // nothing more to do with it
+            }
+        }
+    }
+
+    /** *************************************************************
+     * The document frequencies of the whole corpus.
+     */
+    private static class Stats {
+
+        final TermDictionary terms = new TermDictionary();
+        int[] docfreq = new int[1024];
+        int lines = 0;
+        int nonEmptyDocs = 0;
+
+        void add(String term, int df) {
+
+            int id = terms.add(term);
+            if (id >= docfreq.length)
+                docfreq = Arrays.copyOf(docfreq, Math.max(docfreq.length * 2, id + 1));
+            docfreq[id] += df;
+        }
+
+        int docfreq(String term, int otherwise) {
+
+            int id = terms.get(term);
+            return id < 0 ? otherwise : docfreq[id];
+        }
+    }
+
+    /** *************************************************************
+     * What one shard reported of its part of the corpus.
+     */
+    private static class ShardStats {
+
+        int lines;
+        int nonEmptyDocs;
+        String[] terms;
+        int[] docfreq;
+    }
+
+    /** *************************************************************
+     * A shard's best matches.
+     */
+    private static class Hits {
+
+        int[] lines;
+        float[] scores;
+        String[] texts;
+    }
+
+    /** *************************************************************
+     * The best matches of all the shards that answered, numbered by
+     * their line in the corpus.
+     */
+    private static class ShardCandidates implements Candidates {
+
+        private final TreeMap<Float,ArrayList<Integer>> scores = new TreeMap<>();
+        private final Map<Integer,String> texts = new HashMap<>();
+        private final boolean unscored;
+        private final boolean partial;
+
+        ShardCandidates(List<Hits> answers, int k, int nonEmptyDocs, boolean partial) {
+
+            TopKCollector top = new TopKCollector(k);
+            for (Hits hits : answers) {
+                for (int i = 0; i < hits.lines.length; i++) {
+                    top.offer(hits.lines[i], hits.scores[i]);
+                    texts.put(hits.lines[i], hits.texts[i]);
+                }
+            }
+            top.sort();
+            for (int t = 0; t < top.size(); t++)
+                scores.computeIfAbsent(top.score(t), f -> new ArrayList<Integer>()).add(top.doc(t));
+            unscored = partial || top.size() < nonEmptyDocs;
+            this.partial = partial;
+        }
+
+        @Override
+        public TreeMap<Float,ArrayList<Integer>> scores() {
+
+            return scores;
+        }
+
+        @Override
+        public boolean hasUnscored() {
+
+            return unscored;
+        }
+
+        @Override
+        public String line(int candidate) {
+
+            return texts.get(candidate);
+        }
+
+        @Override
+        public int sentiment(int candidate) {
+
+            return DB.computeSentiment(texts.get(candidate));
+        }
+
+        @Override
+        public boolean isPartial() {
+
+            return partial;
+        }
+    }
+
+    private final Shard[] shards;
+    private final int timeoutMillis;
+    private final long readyMillis;
+    private final ExecutorService executor;
+    private volatile Stats stats = null;
+
+    // whether some shard answered the last query or probe, and when
+    private volatile boolean answered = false;
+    private volatile long checked = 0;
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    /** *************************************************************
+     * @param addresses the shard servers, shard 0 first
+     * @param timeoutMillis the longest a shard has to answer a query
+     */
+    public ShardedBackend(List<InetSocketAddress> addresses, int timeoutMillis) {
+
+        this(addresses, timeoutMillis, READY_MILLIS);
+    }
+
+    /** *************************************************************
+     * @param readyMillis how long the outcome of a query or probe
+     *                    stands before another probe
+     */
+    ShardedBackend(List<InetSocketAddress> addresses, int timeoutMillis, long readyMillis) {
+
+        shards = new Shard[addresses.size()];
+        for (int s = 0; s < shards.length; s++)
+            shards[s] = new Shard(addresses.get(s));
+        this.timeoutMillis = timeoutMillis;
+        this.readyMillis = readyMillis;
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "shard-client");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** *************************************************************
+     * @param nodes host:port of each shard server, shard 0 first,
+     *              separated by commas
+     */
+    public ShardedBackend(String nodes) {
+
+        this(parseNodes(nodes), TIMEOUT_MILLIS);
+    }
+
+    /** *************************************************************
+     * @return the address of each host:port in nodes
+     */
+    public static List<InetSocketAddress> parseNodes(String nodes) {
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String node : nodes.split(",")) {
+            node = node.trim();
+            int colon = node.lastIndexOf(':');
+            if (colon < 0)
+                throw new IllegalArgumentException("no port in " + node);
+            addresses.add(new InetSocketAddress(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    /** *************************************************************
+     * Gather the document frequencies of every shard and send each the
+     * totals.  Every shard must answer.
+     */
+    public void start() throws IOException {
+
+        Stats total = new Stats();
+        ShardStats[] parts = new ShardStats[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            parts[s] = readStats(shards[s]);
+            total.lines += parts[s].lines;
+            total.nonEmptyDocs += parts[s].nonEmptyDocs;
+            for (int t = 0; t < parts[s].terms.length; t++)
+                total.add(parts[s].terms[t], parts[s].docfreq[t]);
+        }
+        for (int s = 0; s < shards.length; s++)
+            sendStats(shards[s], parts[s], total);
+        stats = total;
+        outcome(true);
+        System.out.println("Info in ShardedBackend.start(): " + total.lines + " lines and " + total.terms.size() +
+                " terms in " + shards.length + " shards");
+    }
+
+    /** *************************************************************
+     * @return what a shard reports of its part of the corpus
+     */
+    private ShardStats readStats(Shard shard) throws IOException {
+
+        try (Connection c = new Connection(shard.address, START_TIMEOUT_MILLIS)) {
+            c.socket.setSoTimeout(START_TIMEOUT_MILLIS);
+            c.out.writeByte(ShardServer.STATS);
+            c.out.flush();
+            checkStatus(c.in, shard);
+            ShardStats part = new ShardStats();
+            part.lines = c.in.readInt();
+            part.nonEmptyDocs = c.in.readInt();
+            int n = ShardServer.readCount(c.in);
+            part.terms = new String[n];
+            part.docfreq = new int[n];
+            for (int t = 0; t < n; t++) {
+                part.terms[t] = ShardServer.readString(c.in);
+                part.docfreq[t] = c.in.readInt();
+            }
+            return part;
+        }
+    }
+
+    /** *************************************************************
+     * Send a shard the document frequencies of total for its terms, and
+     * the idf numerator Chatbot uses for a corpus it reads from a file.
+     */
+    private void sendStats(Shard shard, ShardStats part, Stats total) throws IOException {
+
+        try (Connection c = new Connection(shard.address, START_TIMEOUT_MILLIS)) {
+            c.socket.setSoTimeout(START_TIMEOUT_MILLIS);
+            c.out.writeByte(ShardServer.BUILD);
+            c.out.writeInt(total.lines - 1);
+            c.out.writeInt(part.terms.length);
+            for (int t = 0; t < part.terms.length; t++)
+                c.out.writeInt(total.docfreq(part.terms[t], part.docfreq[t]));
+            c.out.flush();
+            checkStatus(c.in, shard);
+            c.in.readInt();
+        }
+    }
+
+    /** *************************************************************
+     * Read the status of a response, throwing its message if it isn't OK.
+     */
+    private static void checkStatus(DataInputStream in, Shard shard) throws IOException {
+
+        int status = in.readByte();
+        if (status == ShardServer.NOT_BUILT)
+            throw new NotBuiltException(shard.address + ": " + ShardServer.readString(in));
+        if (status != ShardServer.OK)
+            throw new IOException(shard.address + ": " + ShardServer.readString(in));
+    }
+
+    /** *************************************************************
+     * A shard that has no document frequencies, having restarted.
+     */
+    private static class NotBuiltException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        NotBuiltException(String message) {
+
+            super(message);
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k) {
+
+        Stats total = stats;
+        if (total == null) {
+            CompletableFuture<Candidates> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("shards not started"));
+            return failed;
+        }
+        if (tokens == null || tokens.isEmpty())
+            return CompletableFuture.completedFuture(new ShardCandidates(new ArrayList<Hits>(), k, total.nonEmptyDocs, false));
+
+        // weight the query as LiveIndex.query() would over the whole corpus
+        QueryVector query = QueryVector.of(tokens, total.lines, total.terms::get, id -> total.docfreq[id]);
+        if (query.size() == 0)
+            return CompletableFuture.completedFuture(new ShardCandidates(new ArrayList<Hits>(), k, total.nonEmptyDocs, false));
+        String[] terms = new String[query.termIds.length];
+        for (int q = 0; q < terms.length; q++)
+            terms[q] = total.terms.term(query.termIds[q]);
+        return searchAll(terms, query.weights, k, "retrieve").thenApply(found -> {
+            outcome(!found.isEmpty());
+            if (found.isEmpty())
+                throw new CompletionException(new IOException("no shard answered"));
+            return new ShardCandidates(found, k, total.nonEmptyDocs, found.size() < shards.length);
+        });
+    }
+
+    /** *************************************************************
+     * Send a query to every shard at once.
+     * @param caller the method to name in the error of a shard that
+     *               doesn't answer
+     * @return the hits of the shards that answered within the timeout
+     */
+    private CompletableFuture<List<Hits>> searchAll(String[] terms, float[] weights, int k, String caller) {
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<CompletableFuture<Hits>> answers = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            answers.add(CompletableFuture.supplyAsync(() -> search(shard, terms, weights, k, deadline), executor)
+                    .exceptionally(e -> {
+                        System.out.println("Error in ShardedBackend." + caller + "(): " + shard.address + ": " +
+                                e.getCause().getMessage());
+                        return null;
+                    }));
+        }
+        return CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Hits> found = new ArrayList<>();
+            for (CompletableFuture<Hits> answer : answers)
+                if (answer.join() != null)
+                    found.add(answer.join());
+            return found;
+        });
+    }
+
+    /** *************************************************************
+     * @return the best k matches of a shard to the query, by the
+     * deadline.  An idle connection that fails other than by timing out
+     * may have been closed by a shard that restarted, so the query is
+     * sent once more on a new one.
+     */
+    private Hits search(Shard shard, String[] terms, float[] weights, int k, long deadline) {
+
+        Connection idle = shard.idle.poll();
+        if (idle != null) {
+            try {
+                return search(shard, idle, terms, weights, k, deadline);
+            }
+            catch (UncheckedIOException e) {
+                if (e.getCause() instanceof SocketTimeoutException || e.getCause() instanceof NotBuiltException)
+                    throw e;
+            }
+        }
+        return search(shard, null, terms, weights, k, deadline);
+    }
+
+    /** *************************************************************
+     * @param c the connection to send the query on, or null for a new one
+     */
+    private Hits search(Shard shard, Connection c, String[] terms, float[] weights, int k, long deadline) {
+
+        try {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0)
+                throw new IOException("timed out");
+            if (c == null)
+                c = new Connection(shard.address, (int) left);
+            c.socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+            c.out.writeByte(ShardServer.SEARCH);
+            c.out.writeInt(k);
+            c.out.writeInt(terms.length);
+            for (int q = 0; q < terms.length; q++) {
+                ShardServer.writeString(c.out, terms[q]);
+                c.out.writeFloat(weights[q]);
+            }
+            c.out.flush();
+            checkStatus(c.in, shard);
+            int n = ShardServer.readCount(c.in);
+            Hits hits = new Hits();
+            hits.lines = new int[n];
+            hits.scores = new float[n];
+            hits.texts = new String[n];
+            for (int i = 0; i < n; i++) {
+                hits.lines[i] = c.in.readInt();
+                hits.scores[i] = c.in.readFloat();
+                hits.texts[i] = ShardServer.readString(c.in);
+            }
+            shard.idle.add(c);
+            return hits;
+        }
+        catch (NotBuiltException e) {
+            shard.idle.add(c);
+            if (shard.rebuilding.compareAndSet(false, true))
+                executor.execute(() -> rebuild(shard));
+            throw new UncheckedIOException(e);
+        }
+        catch (IOException e) {
+            if (c != null)
+                c.close();
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** *************************************************************
+     * Send a shard that has restarted the document frequencies of the
+     * corpus again.  Its terms are those it had, so the totals stand.
+     */
+    private void rebuild(Shard shard) {
+
+        try {
+            sendStats(shard, readStats(shard), stats);
+            System.out.println("Info in ShardedBackend.rebuild(): sent " + shard.address + " its frequencies again");
+        }
+        catch (IOException e) {
+            System.out.println("Error in ShardedBackend.rebuild(): " + shard.address + ": " + e.getMessage());
+        }
+        finally {
+            shard.rebuilding.set(false);
+        }
+    }
+
+    /** *************************************************************
+     * Send every shard a search of no terms, unless a probe is already
+     * waiting for the answers.  A shard that has restarted answers
+     * NOT_BUILT, so it doesn't count, and is sent its frequencies again.
+     */
+    private void probe() {
+
+        if (!probing.compareAndSet(false, true))
+            return;
+        try {
+            searchAll(new String[0], new float[0], 1, "probe").whenComplete((found, e) -> {
+                outcome(found != null && !found.isEmpty());
+                probing.set(false);
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // closed
+            probing.set(false);
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void outcome(boolean ok) {
+
+        answered = ok;
+        checked = System.currentTimeMillis();
+    }
+
+    /** *************************************************************
+     * @return true if started and some shard answered the last query
+     * or probe, probing again if that was more than readyMillis ago
+     */
+    @Override
+    public boolean isReady() {
+
+        if (stats == null)
+            return false;
+        if (System.currentTimeMillis() - checked >= readyMillis)
+            probe();
+        return answered;
+    }
+
+    /** *************************************************************
+     * Close every idle connection and stop the threads of queries.
+     */
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+        for (Shard shard : shards) {
+            Connection c;
+            while ((c = shard.idle.poll()) != null)
+                c.close();
+        }
+    }
+}
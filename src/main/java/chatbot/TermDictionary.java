@@ -0,0 +1,173 @@
+package chatbot;
+
+import java.util.Arrays;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to map each distinct term of a corpus to a dense int id.
+ * Ids are handed out in the order terms are first seen, starting at 0.
+ * Lookups use an open addressing table so no boxed keys or values are
+ * allocated per term.
+ */
+public class TermDictionary {
+
+    // open addressing table of term ids, -1 for an empty slot
+    private int[] slots;
+
+    // each term, indexed by its id
+    private String[] terms;
+
+    private int size = 0;
+
+    /** *************************************************************
+     * Constructor
+     */
+    public TermDictionary() {
+
+        this(1024);
+    }
+
+    /** *************************************************************
+     * @param expected number of terms to size the table for
+     */
+    public TermDictionary(int expected) {
+
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        terms = new String[Math.max(16, expected)];
+    }
+
+    /** *************************************************************
+     * @return a dictionary with the same ids that later calls to add()
+     * on this one won't change
+     */
+    public TermDictionary copy() {
+
+        TermDictionary result = new TermDictionary(0);
+        result.slots = slots.clone();
+        result.terms = Arrays.copyOf(terms, Math.max(16, size));
+        result.size = size;
+        return result;
+    }
+
+    /** *************************************************************
+     * @return the number of terms in the dictionary
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /** *************************************************************
+     * @return the term with the given id
+     */
+    public String term(int id) {
+
+        return terms[id];
+    }
+
+    /** *************************************************************
+     * @return the id of term, or -1 if it is not in the dictionary
+     */
+    public int get(String term) {
+
+        int mask = slots.length - 1;
+        int i = mix(term.hashCode()) & mask;
+        while (slots[i] != -1) {
+            if (terms[slots[i]].equals(term))
+                return slots[i];
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /** *************************************************************
+     * @return the id of term, adding it to the dictionary if it is new
+     */
+    public int add(String term) {
+
+        int mask = slots.length - 1;
+        int i = mix(term.hashCode()) & mask;
+        while (slots[i] != -1) {
+            if (terms[slots[i]].equals(term))
+                return slots[i];
+            i = (i + 1) & mask;
+        }
+        if (size == terms.length)
+            terms = Arrays.copyOf(terms, size * 2);
+        int id = size++;
+        terms[id] = term.intern();
+        slots[i] = id;
+        if (size * 2 > slots.length)
+            rehash(slots.length * 2);
+        return id;
+    }
+
+    /** *************************************************************
+     * @return the id of the term in buf from start to end, adding it
+     * to the dictionary if it is new
+     */
+    public int add(char[] buf, int start, int end) {
+
+        int h = 0;
+        for (int k = start; k < end; k++)
+            h = 31 * h + buf[k];
+        int mask = slots.length - 1;
+        int i = mix(h) & mask;
+        while (slots[i] != -1) {
+            if (matches(terms[slots[i]], buf, start, end))
+                return slots[i];
+            i = (i + 1) & mask;
+        }
+        return add(new String(buf, start, end - start));
+    }
+
+    /** *************************************************************
+     */
+    private static boolean matches(String term, char[] buf, int start, int end) {
+
+        if (term.length() != end - start)
+            return false;
+        for (int k = 0; k < term.length(); k++)
+            if (term.charAt(k) != buf[start + k])
+                return false;
+        return true;
+    }
+
+    /** *************************************************************
+     */
+    private void rehash(int capacity) {
+
+        slots = new int[capacity];
+        Arrays.fill(slots, -1);
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int i = mix(terms[id].hashCode()) & mask;
+            while (slots[i] != -1)
+                i = (i + 1) & mask;
+            slots[i] = id;
+        }
+    }
+
+    /** *************************************************************
+     * Spread the bits of String.hashCode(), which are poor in the low
+     * bits for short strings.
+     */
+    private static int mix(int h) {
+
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
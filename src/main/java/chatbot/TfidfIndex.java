@@ -0,0 +1,278 @@
+package chatbot;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to hold the TF/IDF weights of a corpus in primitive arrays.
+ * Each document (a line of the corpus) is a row of a compressed sparse
+ * row matrix: the terms of document d are termIds[rowOffsets[d]] up to
+ * termIds[rowOffsets[d+1]] with tf * idf in the same positions of
+ * weights.  The same matrix is also stored by column as postings, so
+ * the documents containing term t are postingDocs[postingOffsets[t]]
+ * up to postingDocs[postingOffsets[t+1]], in corpus order, with the
+ * weight already divided by the euclidean length of the document.
+ * Built by TfidfIndexBuilder, and never changed afterwards.
+ */
+public class TfidfIndex {
+
+    // dense ids of every term in the corpus
+    final TermDictionary terms;
+
+    // number of terms with an id below this that the arrays cover
+    final int termCount;
+
+    // number of documents (rows), including empty ones
+    final int docCount;
+
+    // number of documents with at least one term
+    final int nonEmptyDocs;
+
+    // number of documents in which each term appears
+    final int[] docfreq;
+
+    // inverse document frequency of each term
+    final float[] idf;
+
+    // rows: document d spans [rowOffsets[d], rowOffsets[d+1])
+    final int[] rowOffsets;
+    final int[] termIds;
+    final float[] weights;
+
+    // the euclidean length of each document's tf * idf vector
+    final float[] norms;
+
+    // columns: term t spans [postingOffsets[t], postingOffsets[t+1])
+    final int[] postingOffsets;
+    final int[] postingDocs;
+    final float[] postingWeights;
+
+    // the largest of each term's posting weights, or zero if that is
+    // larger, which bounds what the term can add to a similarity
+    final float[] maxWeights;
+
+    /** *************************************************************
+     */
+    TfidfIndex(TermDictionary terms, int termCount, int docCount, int nonEmptyDocs,
+               int[] docfreq, float[] idf, int[] rowOffsets, int[] termIds, float[] weights,
+               float[] norms, int[] postingOffsets, int[] postingDocs, float[] postingWeights,
+               float[] maxWeights) {
+
+        this.terms = terms;
+        this.termCount = termCount;
+        this.docCount = docCount;
+        this.nonEmptyDocs = nonEmptyDocs;
+        this.docfreq = docfreq;
+        this.idf = idf;
+        this.rowOffsets = rowOffsets;
+        this.termIds = termIds;
+        this.weights = weights;
+        this.norms = norms;
+        this.postingOffsets = postingOffsets;
+        this.postingDocs = postingDocs;
+        this.postingWeights = postingWeights;
+        this.maxWeights = maxWeights;
+    }
+
+    /** *************************************************************
+     * @return the number of documents in the index
+     */
+    public int docCount() {
+
+        return docCount;
+    }
+
+    /** *************************************************************
+     * @return the number of distinct terms in the index
+     */
+    public int termCount() {
+
+        return termCount;
+    }
+
+    /** *************************************************************
+     * @return the id of term, or -1 if it is not in the index
+     */
+    public int termId(String term) {
+
+        int id = terms.get(term);
+        return id < termCount ? id : -1;
+    }
+
+    /** *************************************************************
+     * Add the similarity of every document that shares a term with
+     * the query to acc, one query term at a time.  Documents that
+     * share no term with the query have a similarity of zero and are
+     * not touched.  The index is only read, so any number of threads
+     * may score against it at once, each with its own accumulator.
+     */
+    public void score(QueryVector query, ScoreAccumulator acc) {
+
+        acc.ensureCapacity(docCount);
+        for (int q = 0; q < query.termIds.length; q++) {
+            int id = query.termIds[q];
+            float weight = query.weights[q];
+            for (int p = postingOffsets[id]; p < postingOffsets[id + 1]; p++)
+                acc.add(postingDocs[p], postingWeights[p] * weight);
+        }
+    }
+
+    /** *************************************************************
+     * Add every document from fromDoc up to toDoc that shares a term
+     * with the query to out, in corpus order, with its similarity.
+     * Postings are merged a document at a time, and each similarity is
+     * summed over the terms in the order of the query, as score() sums
+     * it, so the two agree to the last bit.  The ranges of a partition
+     * of the documents can be merged on as many threads.
+     */
+    public void scoreAll(QueryVector query, ScoreList out, int fromDoc, int toDoc) {
+
+        int n = query.termIds.length;
+        int[] pos = new int[n];
+        int[] end = new int[n];
+        for (int q = 0; q < n; q++) {
+            int id = query.termIds[q];
+            pos[q] = advance(postingOffsets[id], postingOffsets[id + 1], fromDoc);
+            end[q] = advance(pos[q], postingOffsets[id + 1], toDoc);
+        }
+        while (true) {
+            int doc = Integer.MAX_VALUE;
+            for (int q = 0; q < n; q++)
+                if (pos[q] < end[q] && postingDocs[pos[q]] < doc)
+                    doc = postingDocs[pos[q]];
+            if (doc == Integer.MAX_VALUE)
+                break;
+            float score = 0;
+            for (int q = 0; q < n; q++) {
+                if (pos[q] < end[q] && postingDocs[pos[q]] == doc) {
+                    score = score + (postingWeights[pos[q]] * query.weights[q]);
+                    pos[q]++;
+                }
+            }
+            out.add(doc, score);
+        }
+    }
+
+    /** *************************************************************
+     * Offer top the documents that could be among its k most similar
+     * to the query.  Postings are walked a document at a time using
+     * MaxScore: query terms are ordered by the most they can add to a
+     * similarity, and once the k-th best similarity is at least the sum
+     * of the smallest of those bounds, documents that only contain
+     * those terms are skipped, and the remaining terms of a document
+     * are not looked at once it can no longer beat the k-th best.
+     * Top gets the same documents as ranking the output of score(),
+     * up to rounding in the last bit of a similarity.
+     */
+    public void topK(QueryVector query, TopKCollector top) {
+
+        topK(query, top, 0, docCount);
+    }
+
+    /** *************************************************************
+     * Offer top the documents from fromDoc up to toDoc that could be
+     * among its k most similar to the query, as topK() does for all
+     * of them.  The ranges of a partition of the documents can be
+     * walked on as many threads, each with its own collector.
+     */
+    public void topK(QueryVector query, TopKCollector top, int fromDoc, int toDoc) {
+
+        int n = query.termIds.length;
+        int[] order = new int[n];
+        float[] bounds = new float[n];
+        for (int q = 0; q < n; q++) {
+            float bound = query.weights[q] * maxWeights[query.termIds[q]];
+            int i = q;
+            while (i > 0 && bounds[i - 1] > bound) {
+                bounds[i] = bounds[i - 1];
+                order[i] = order[i - 1];
+                i--;
+            }
+            bounds[i] = bound;
+            order[i] = q;
+        }
+        int[] pos = new int[n];
+        int[] end = new int[n];
+        float[] weight = new float[n];
+        float[] cumBounds = new float[n];
+        for (int i = 0; i < n; i++) {
+            int id = query.termIds[order[i]];
+            pos[i] = advance(postingOffsets[id], postingOffsets[id + 1], fromDoc);
+            end[i] = advance(pos[i], postingOffsets[id + 1], toDoc);
+            weight[i] = query.weights[order[i]];
+            cumBounds[i] = (i > 0 ? cumBounds[i - 1] : 0) + bounds[i];
+        }
+
+        // terms below firstEssential can't make a document beat threshold on their own
+        float threshold = top.threshold();
+        int firstEssential = 0;
+        while (true) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < n; i++)
+                if (pos[i] < end[i] && postingDocs[pos[i]] < doc)
+                    doc = postingDocs[pos[i]];
+            if (doc == Integer.MAX_VALUE)
+                break;
+            float score = 0;
+            for (int i = firstEssential; i < n; i++) {
+                if (pos[i] < end[i] && postingDocs[pos[i]] == doc) {
+                    score = score + (postingWeights[pos[i]] * weight[i]);
+                    pos[i]++;
+                }
+            }
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (score + cumBounds[i] <= threshold)
+                    break;
+                pos[i] = advance(pos[i], end[i], doc);
+                if (pos[i] < end[i] && postingDocs[pos[i]] == doc)
+                    score = score + (postingWeights[pos[i]] * weight[i]);
+            }
+            if (top.offer(doc, score)) {
+                threshold = top.threshold();
+                while (firstEssential < n && cumBounds[firstEssential] <= threshold)
+                    firstEssential++;
+            }
+        }
+    }
+
+    /** *************************************************************
+     * @return the first position from p to end whose document is not
+     * below doc, found by galloping then binary search
+     */
+    private int advance(int p, int end, int doc) {
+
+        int step = 1;
+        int lo = p;
+        int hi = p;
+        while (hi < end && postingDocs[hi] < doc) {
+            lo = hi + 1;
+            hi = hi + step;
+            step <<= 1;
+        }
+        if (hi > end)
+            hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (postingDocs[mid] < doc)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** *************************************************************
+     * @return the number of documents in which term id appears
+     */
+    public int docfreq(int id) {
+
+        return docfreq[id];
+    }
+}
@@ -0,0 +1,398 @@
+package chatbot;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to collect the term frequencies of a corpus one document at a
+ * time and turn them into a TfidfIndex.  The raw counts are kept, so
+ * build() can be called again after more documents are added.
+ * addDocuments() and build() can also split their work into chunks of
+ * documents that run in parallel on a ForkJoinPool; the result is the
+ * same, term ids and float rounding included, as doing it on one thread.
+ */
+public class TfidfIndexBuilder {
+
+    private TermDictionary terms = new TermDictionary();
+
+    // rows of raw term counts, in the same layout as TfidfIndex
+    private int[] rowOffsets = new int[1024];
+    private int[] termIds = new int[4096];
+    private int[] counts = new int[4096];
+    private int rows = 0;
+    private int nnz = 0;
+
+    // number of documents in which each term appears
+    private int[] docfreq = new int[1024];
+
+    // the last row each term was seen in and its position there, used
+    // to count repeated terms without a per-document map
+    private int[] lastRow = new int[1024];
+    private int[] lastPos = new int[1024];
+
+    /** *************************************************************
+     * Constructor
+     */
+    public TfidfIndexBuilder() {
+    }
+
+    /** *************************************************************
+     * Constructor to carry on from rows that were added earlier, as
+     * saved by IndexSnapshot.  The arrays are taken over, not copied.
+     */
+    TfidfIndexBuilder(TermDictionary terms, int rows, int[] rowOffsets, int[] termIds,
+                      int[] counts, int[] docfreq) {
+
+        this.terms = terms;
+        this.rows = rows;
+        this.nnz = rowOffsets[rows];
+        this.rowOffsets = rowOffsets;
+        this.termIds = termIds;
+        this.counts = counts;
+        this.docfreq = docfreq;
+        growTerms(Math.max(16, terms.size()));
+    }
+
+    /** *************************************************************
+     * @return the number of documents added so far
+     */
+    public int size() {
+
+        return rows;
+    }
+
+    /** *************************************************************
+     * Add a document as the next row.
+     * @param tokens the terms of the document, null or empty for a
+     *               document with no terms
+     * @return the index of the new row
+     */
+    public int addDocument(List<String> tokens) {
+
+        if (tokens != null)
+            for (String token : tokens)
+                addTerm(terms.add(token));
+        return endRow();
+    }
+
+    /** *************************************************************
+     * Add a document as the next row, passing its terms from analyzer
+     * straight to the dictionary, so a String is only made for terms
+     * not seen before.
+     * @return the index of the new row
+     */
+    public int addDocument(String doc, Analyzer analyzer) {
+
+        analyzer.tokenize(doc, (buf, start, end) -> addTerm(terms.add(buf, start, end)));
+        return endRow();
+    }
+
+    /** *************************************************************
+     * Add docs as the next rows, with the same result as calling
+     * addDocument(doc, analyzer) on each in turn.  With a pool, chunks
+     * of docs are tokenized and counted in parallel, each into a
+     * builder of its own, and the chunks are then merged in order: the
+     * terms of each are given their ids here in the order they were
+     * first seen, their document frequencies are added up, and the rows
+     * are copied in with their term ids mapped.
+     * @param pool the pool to run on, or null to run on this thread
+     */
+    public void addDocuments(List<String> docs, Analyzer analyzer, ForkJoinPool pool) {
+
+        int n = docs.size();
+        int chunks = chunkCount(n, 1024, pool == null ? 1 : pool.getParallelism() * 4);
+        TfidfIndexBuilder[] parts = new TfidfIndexBuilder[chunks];
+        forEach(pool, chunks, c -> {
+            TfidfIndexBuilder part = new TfidfIndexBuilder();
+            for (int i = chunkStart(c, n, chunks); i < chunkStart(c + 1, n, chunks); i++)
+                part.addDocument(docs.get(i), analyzer);
+            parts[c] = part;
+        });
+
+        int[][] ids = new int[chunks][];
+        int[] rowBase = new int[chunks + 1];
+        int[] nnzBase = new int[chunks + 1];
+        rowBase[0] = rows;
+        nnzBase[0] = nnz;
+        for (int c = 0; c < chunks; c++) {
+            TfidfIndexBuilder part = parts[c];
+            ids[c] = new int[part.terms.size()];
+            for (int l = 0; l < ids[c].length; l++) {
+                int id = terms.add(part.terms.term(l));
+                if (id >= docfreq.length)
+                    growTerms(terms.size());
+                docfreq[id] += part.docfreq[l];
+                ids[c][l] = id;
+            }
+            rowBase[c + 1] = rowBase[c] + part.rows;
+            nnzBase[c + 1] = nnzBase[c] + part.nnz;
+        }
+        if (rowBase[chunks] + 1 > rowOffsets.length)
+            rowOffsets = Arrays.copyOf(rowOffsets, Math.max(rowOffsets.length * 2, rowBase[chunks] + 1));
+        if (nnzBase[chunks] > termIds.length) {
+            int capacity = Math.max(termIds.length * 2, nnzBase[chunks]);
+            termIds = Arrays.copyOf(termIds, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        forEach(pool, chunks, c -> {
+            TfidfIndexBuilder part = parts[c];
+            int[] map = ids[c];
+            for (int r = 0; r < part.rows; r++)
+                rowOffsets[rowBase[c] + r + 1] = nnzBase[c] + part.rowOffsets[r + 1];
+            for (int k = 0; k < part.nnz; k++) {
+                termIds[nnzBase[c] + k] = map[part.termIds[k]];
+                counts[nnzBase[c] + k] = part.counts[k];
+            }
+        });
+        rows = rowBase[chunks];
+        nnz = nnzBase[chunks];
+    }
+
+    /** *************************************************************
+     * Count one occurrence of a term in the row being added.
+     */
+    private void addTerm(int id) {
+
+        int row = rows;
+        if (id >= docfreq.length)
+            growTerms(terms.size());
+        if (lastRow[id] == row + 1)
+            counts[lastPos[id]]++;
+        else {
+            if (nnz == termIds.length) {
+                termIds = Arrays.copyOf(termIds, Math.max(16, nnz * 2));
+                counts = Arrays.copyOf(counts, Math.max(16, nnz * 2));
+            }
+            lastRow[id] = row + 1;
+            lastPos[id] = nnz;
+            termIds[nnz] = id;
+            counts[nnz] = 1;
+            nnz++;
+            docfreq[id]++;
+        }
+    }
+
+    /** *************************************************************
+     * Close the row being added.
+     * @return its index
+     */
+    private int endRow() {
+
+        int row = rows;
+        rows++;
+        if (rows + 1 > rowOffsets.length)
+            rowOffsets = Arrays.copyOf(rowOffsets, rowOffsets.length * 2);
+        rowOffsets[rows] = nnz;
+        return row;
+    }
+
+    /** *************************************************************
+     */
+    private void growTerms(int needed) {
+
+        int capacity = Math.max(1, docfreq.length);
+        while (capacity < needed)
+            capacity *= 2;
+        docfreq = Arrays.copyOf(docfreq, capacity);
+        lastRow = Arrays.copyOf(lastRow, capacity);
+        lastPos = Arrays.copyOf(lastPos, capacity);
+    }
+
+    /** *************************************************************
+     * @return a builder with the rows added so far, that can be built
+     * while more rows are added to this one.  Rows are never changed
+     * once added, so their arrays are shared, and only the dictionary
+     * and document frequencies are copied.  No rows may be added to
+     * the result.
+     */
+    TfidfIndexBuilder frozenCopy() {
+
+        return new TfidfIndexBuilder(terms.copy(), rows, rowOffsets, termIds, counts,
+                Arrays.copyOf(docfreq, terms.size()));
+    }
+
+    /** *************************************************************
+     * @return the raw count of each term in each row, in the same
+     * positions as the term ids of the index
+     */
+    int[] counts() {
+
+        return Arrays.copyOf(counts, nnz);
+    }
+
+    /** *************************************************************
+     * @return the number of distinct terms added so far
+     */
+    public int termCount() {
+
+        return terms.size();
+    }
+
+    /** *************************************************************
+     * @return the term with the given id
+     */
+    public String term(int id) {
+
+        return terms.term(id);
+    }
+
+    /** *************************************************************
+     * @return the number of rows added so far in which term id appears
+     */
+    public int docfreq(int id) {
+
+        return docfreq[id];
+    }
+
+    /** *************************************************************
+     * Calculate idf, tf * idf and the euclidean length of every row,
+     * and the postings of every term.
+     * @param idfDocCount the number of documents to use in the idf
+     *                    numerator
+     */
+    public TfidfIndex build(int idfDocCount) {
+
+        return build(idfDocCount, null);
+    }
+
+    /** *************************************************************
+     * Calculate idf, tf * idf and the euclidean length of every row,
+     * and the postings of every term.  With a pool, the rows are split
+     * into chunks that are weighted in parallel, each also counting its
+     * terms; those counts tell each chunk where its postings of every
+     * term start, so the chunks then fill the postings in parallel too,
+     * in the same order as a single pass over the rows would.
+     * @param idfDocCount the number of documents to use in the idf
+     *                    numerator
+     * @param pool the pool to run on, or null to run on this thread
+     */
+    public TfidfIndex build(int idfDocCount, ForkJoinPool pool) {
+
+        return build(idfDocCount, docfreq, pool);
+    }
+
+    /** *************************************************************
+     * As build(idfDocCount, pool), with the idf of each term taken from
+     * idfDocfreq rather than from the rows added here, so that a shard
+     * holding part of a corpus weights its rows as the whole corpus
+     * would.
+     * @param idfDocfreq the number of documents in which each term id
+     *                   appears, from 0 to termCount()
+     */
+    public TfidfIndex build(int idfDocCount, int[] idfDocfreq, ForkJoinPool pool) {
+
+        int termCount = terms.size();
+        int rowCount = rows;
+        float[] idf = new float[termCount];
+        for (int t = 0; t < termCount; t++)
+            idf[t] = (float) Math.log10((float) idfDocCount / (float) idfDocfreq[t]);
+
+        float[] weights = new float[nnz];
+        float[] norms = new float[rowCount];
+        int chunks = chunkCount(rowCount, 4096, pool == null ? 1 : pool.getParallelism());
+        int[] nonEmpty = new int[chunks];
+        // how often each term appears in each chunk, then where the
+        // chunk's postings of the term go
+        int[][] cursors = new int[chunks][];
+        forEach(pool, chunks, c -> {
+            int[] count = new int[termCount];
+            for (int d = chunkStart(c, rowCount, chunks); d < chunkStart(c + 1, rowCount, chunks); d++) {
+                float euc = 0;
+                for (int k = rowOffsets[d]; k < rowOffsets[d + 1]; k++) {
+                    float tfidffloat = idf[termIds[k]] * counts[k];
+                    weights[k] = tfidffloat;
+                    euc = euc + (tfidffloat * tfidffloat);
+                    count[termIds[k]]++;
+                }
+                norms[d] = (float) Math.sqrt(euc);
+                if (rowOffsets[d + 1] > rowOffsets[d])
+                    nonEmpty[c]++;
+            }
+            cursors[c] = count;
+        });
+        int nonEmptyDocs = 0;
+        for (int c = 0; c < chunks; c++)
+            nonEmptyDocs += nonEmpty[c];
+
+        int[] postingOffsets = new int[termCount + 1];
+        for (int t = 0; t < termCount; t++) {
+            postingOffsets[t + 1] = postingOffsets[t] + docfreq[t];
+            int p = postingOffsets[t];
+            for (int c = 0; c < chunks; c++) {
+                int count = cursors[c][t];
+                cursors[c][t] = p;
+                p += count;
+            }
+        }
+        int[] postingDocs = new int[nnz];
+        float[] postingWeights = new float[nnz];
+        forEach(pool, chunks, c -> {
+            int[] next = cursors[c];
+            for (int d = chunkStart(c, rowCount, chunks); d < chunkStart(c + 1, rowCount, chunks); d++) {
+                float euc = norms[d];
+                for (int k = rowOffsets[d]; k < rowOffsets[d + 1]; k++) {
+                    int p = next[termIds[k]]++;
+                    postingDocs[p] = d;
+                    postingWeights[p] = euc != 0 ? weights[k] / euc : 0;
+                }
+            }
+        });
+        float[] maxWeights = new float[termCount];
+        int termChunks = chunkCount(termCount, 4096, pool == null ? 1 : pool.getParallelism());
+        forEach(pool, termChunks, c -> {
+            for (int t = chunkStart(c, termCount, termChunks); t < chunkStart(c + 1, termCount, termChunks); t++)
+                for (int p = postingOffsets[t]; p < postingOffsets[t + 1]; p++)
+                    if (postingWeights[p] > maxWeights[t])
+                        maxWeights[t] = postingWeights[p];
+        });
+
+        return new TfidfIndex(terms.copy(), termCount, rowCount, nonEmptyDocs,
+                Arrays.copyOf(docfreq, termCount), idf,
+                Arrays.copyOf(rowOffsets, rowCount + 1), Arrays.copyOf(termIds, nnz), weights,
+                norms, postingOffsets, postingDocs, postingWeights, maxWeights);
+    }
+
+    /** *************************************************************
+     * @return how many chunks to split n items into, at most maxChunks
+     * and with about minSize items or more in each
+     */
+    private static int chunkCount(int n, int minSize, int maxChunks) {
+
+        return Math.max(1, Math.min(maxChunks, n / minSize));
+    }
+
+    /** *************************************************************
+     * @return the first item of chunk c of n items split into chunks
+     */
+    private static int chunkStart(int c, int n, int chunks) {
+
+        return (int) ((long) n * c / chunks);
+    }
+
+    /** *************************************************************
+     * Run body for each chunk from 0 to chunks - 1, in parallel on pool
+     * if there is one, and wait for all of them.
+     */
+    private static void forEach(ForkJoinPool pool, int chunks, IntConsumer body) {
+
+        if (pool == null || chunks == 1) {
+            for (int c = 0; c < chunks; c++)
+                body.accept(c);
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(body)).join();
+    }
+}
@@ -0,0 +1,149 @@
+package chatbot;
+
+import java.util.Arrays;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to find the cluster of highest similarities among a sorted
+ * list of similarity values, as matchBestInput() did by calling
+ * KMeans.run() with k starting at a minimum and growing until the last
+ * cluster was small enough.  Each k is clustered by the same Lloyd's
+ * iterations KMeans.run() makes, from the same centroids, in the same
+ * float arithmetic, with ties going to the lower cluster, so the cluster
+ * chosen is always the one KMeans.run() gave.
+ *
+ * The values being sorted, each point's nearest centroid is found by
+ * walking the sorted centroids alongside them, so an iteration costs
+ * O(n + k log k) rather than O(n k), and the iterations stop as soon as
+ * no point changes cluster, since every one after would be the same.
+ */
+public class TopClusterSelector {
+
+    // the iterations of KMeans.run()
+    static final int ITERATIONS = 100;
+
+    /** *************************************************************
+     * @param values the values to cluster, in ascending order
+     * @param minClusters the number of clusters to start with
+     * @param maxSize the largest number of values the top cluster may have
+     * @return the indexes in values of the top cluster, in ascending
+     * order, which may be empty
+     */
+    public static int[] topCluster(float[] values, int minClusters, int maxSize) {
+
+        int n = values.length;
+        if (n == 0)
+            return new int[0];
+        int k = Math.max(1, Math.min(minClusters, n));
+        int[] assignment = kMeans(values, k);
+        while (count(assignment, k - 1) > maxSize && k < n) {
+            k++;
+            assignment = kMeans(values, k);
+        }
+        int[] cluster = new int[count(assignment, k - 1)];
+        int size = 0;
+        for (int i = 0; i < n; i++)
+            if (assignment[i] == k - 1)
+                cluster[size++] = i;
+        return cluster;
+    }
+
+    /** *************************************************************
+     * @return the number of values in cluster
+     */
+    private static int count(int[] assignment, int cluster) {
+
+        int size = 0;
+        for (int a : assignment)
+            if (a == cluster)
+                size++;
+        return size;
+    }
+
+    /** *************************************************************
+     * Cluster values as KMeans.run() does: the centroids start at k
+     * values evenly spaced through them, and each iteration assigns
+     * every value to its nearest centroid, then moves each centroid
+     * that has values to their mean.
+     * @return the cluster of each value
+     */
+    static int[] kMeans(float[] values, int k) {
+
+        int n = values.length;
+        float[] centroids = new float[k];
+        for (int j = 0; j < k; j++)
+            centroids[j] = values[(int) ((long) j * (n - 1) / Math.max(1, k - 1))];
+        int[] assignment = new int[n];
+        float[] sums = new float[k];
+        int[] counts = new int[k];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            if (!assign(values, centroids, assignment) && iteration > 0)
+                break;
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                sums[assignment[i]] += values[i];
+                counts[assignment[i]]++;
+            }
+            for (int j = 0; j < k; j++)
+                if (counts[j] > 0)
+                    centroids[j] = sums[j] / counts[j];
+        }
+        return assignment;
+    }
+
+    /** *************************************************************
+     * Assign each value to the centroid nearest it, the one of lowest
+     * index of those equally near, as KMeans.run() does by comparing
+     * the distance to each in turn.  The distances to the centroids in
+     * ascending order fall to the value and rise after it, so the
+     * nearest are the run of equal distances around it.
+     * @return true if any value changed cluster
+     */
+    private static boolean assign(float[] values, float[] centroids, int[] assignment) {
+
+        int k = centroids.length;
+        // each centroid's value, made to sort as a signed int, above its index
+        long[] keys = new long[k];
+        for (int j = 0; j < k; j++) {
+            int bits = Float.floatToIntBits(centroids[j]);
+            keys[j] = (long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32 | j;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[k];
+        for (int p = 0; p < k; p++)
+            order[p] = (int) keys[p];
+        boolean changed = false;
+        // the first centroid in order not below the value
+        int above = 0;
+        for (int i = 0; i < values.length; i++) {
+            float x = values[i];
+            while (above < k && centroids[order[above]] < x)
+                above++;
+            float nearest = Float.MAX_VALUE;
+            if (above > 0)
+                nearest = Math.abs(x - centroids[order[above - 1]]);
+            if (above < k)
+                nearest = Math.min(nearest, Math.abs(x - centroids[order[above]]));
+            int best = Integer.MAX_VALUE;
+            for (int p = above - 1; p >= 0 && Math.abs(x - centroids[order[p]]) == nearest; p--)
+                best = Math.min(best, order[p]);
+            for (int p = above; p < k && Math.abs(x - centroids[order[p]]) == nearest; p++)
+                best = Math.min(best, order[p]);
+            if (assignment[i] != best) {
+                assignment[i] = best;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,165 @@
+package chatbot;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to keep the k highest scoring documents seen so far in a
+ * fixed size min-heap of primitive arrays.  Among documents with equal
+ * scores the earliest line is kept, in whatever order they are offered.
+ */
+public class TopKCollector {
+
+    private final int[] docs;
+    private final float[] scores;
+    private int size = 0;
+
+    /** *************************************************************
+     * @param k the number of documents to keep
+     */
+    public TopKCollector(int k) {
+
+        docs = new int[Math.max(1, k)];
+        scores = new float[Math.max(1, k)];
+    }
+
+    /** *************************************************************
+     * @return the number of documents to keep
+     */
+    public int k() {
+
+        return docs.length;
+    }
+
+    /** *************************************************************
+     * Offer every document kept by other, such as the collector of
+     * another shard.
+     */
+    public void offerAll(TopKCollector other) {
+
+        for (int i = 0; i < other.size; i++)
+            offer(other.docs[i], other.scores[i]);
+    }
+
+    /** *************************************************************
+     * @return the number of documents kept
+     */
+    public int size() {
+
+        return size;
+    }
+
+    /** *************************************************************
+     * @return the score a document has to beat to be kept
+     */
+    public float threshold() {
+
+        return size < docs.length ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /** *************************************************************
+     * @return true if the document was kept
+     */
+    public boolean offer(int doc, float score) {
+
+        if (size < docs.length) {
+            docs[size] = doc;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (score < scores[0] || (score == scores[0] && doc > docs[0]))
+            return false;
+        docs[0] = doc;
+        scores[0] = score;
+        siftDown(0, size);
+        return true;
+    }
+
+    /** *************************************************************
+     * Put the documents kept in descending order of score, earliest
+     * line first among equal scores.  No more documents may be offered
+     * afterwards.
+     */
+    public void sort() {
+
+        for (int n = size - 1; n > 0; n--) {
+            swap(0, n);
+            siftDown(0, n);
+        }
+    }
+
+    /** *************************************************************
+     * @return the i-th document kept
+     */
+    public int doc(int i) {
+
+        return docs[i];
+    }
+
+    /** *************************************************************
+     * @return the score of the i-th document kept
+     */
+    public float score(int i) {
+
+        return scores[i];
+    }
+
+    /** *************************************************************
+     * @return true if entry a belongs nearer the root than entry b,
+     * i.e. it is the one to drop first
+     */
+    private boolean below(int a, int b) {
+
+        return scores[a] < scores[b] || (scores[a] == scores[b] && docs[a] > docs[b]);
+    }
+
+    /** *************************************************************
+     */
+    private void siftUp(int i) {
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!below(i, parent))
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void siftDown(int i, int n) {
+
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n)
+                break;
+            if (child + 1 < n && below(child + 1, child))
+                child++;
+            if (!below(child, i))
+                break;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void swap(int a, int b) {
+
+        int d = docs[a];
+        docs[a] = docs[b];
+        docs[b] = d;
+        float s = scores[a];
+        scores[a] = scores[b];
+        scores[b] = s;
+    }
+}
@@ -0,0 +1,502 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to keep a copy on local disk of each object read from another
+ * ObjectStore, such as an S3Client, so that a restart reads its corpora
+ * from disk rather than over the network.  Each object is kept as a
+ * .data file with a .meta file beside it holding its key, size and
+ * ETag, named by both, so a new version of an object never overwrites
+ * the file of an old one that a reader still has open.  Before a copy is used, the store is asked for the size and
+ * ETag of the object, which is one HEAD request; if they still match,
+ * the copy is read through a memory map, and otherwise the whole object
+ * is fetched again.  A copy checked within the last VALIDATE_MILLIS is
+ * used without asking, so the ranged reads of one object cost one HEAD.
+ * A stream from get() or open() holds its file open until it is closed,
+ * so it reads the version it was opened on to the end, and a ranged read
+ * for a given ETag fails with an ObjectChangedException once the copy
+ * is of another version.
+ * When the copies take more than maxBytes, the least recently read are
+ * deleted, by the modification time of their .data files, which a read
+ * sets, so the order survives a restart.  Objects with no ETag are
+ * read straight from the store and not kept.
+ */
+public class CachingObjectStore implements ObjectStore {
+
+    // a copy checked this recently is used without a HEAD request
+    public static final long VALIDATE_MILLIS = 60000;
+
+    // the most bytes mapped at once when a copy is read whole
+    private static final int MAP_BYTES = 64 << 20;
+
+    /** *************************************************************
+     * A copy of an object on disk.
+     */
+    private static class Entry {
+
+        final String key;
+        final String etag;
+        final long size;
+        final Path data;
+        final Path meta;
+        volatile long accessed;
+        volatile long validated;
+
+        Entry(String key, String etag, long size, Path data, Path meta, long accessed) {
+
+            this.key = key;
+            this.etag = etag;
+            this.size = size;
+            this.data = data;
+            this.meta = meta;
+            this.accessed = accessed;
+        }
+    }
+
+    private final ObjectStore store;
+    private final Path directory;
+    private final long maxBytes;
+    private final long validateMillis;
+    private final int mapBytes;
+    private final ConcurrentHashMap<String,Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String,Object> locks = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /** *************************************************************
+     * @param store the store the objects are read from
+     * @param directory where the copies are kept, made if it doesn't
+     *                  exist; the copies already in it are used
+     * @param maxBytes the most bytes the copies may take
+     */
+    public CachingObjectStore(ObjectStore store, String directory, long maxBytes) throws IOException {
+
+        this(store, directory, maxBytes, VALIDATE_MILLIS, MAP_BYTES);
+    }
+
+    /** *************************************************************
+     * @param validateMillis how long a checked copy is used without a
+     *                       HEAD request
+     * @param mapBytes the most bytes mapped at once
+     */
+    CachingObjectStore(ObjectStore store, String directory, long maxBytes, long validateMillis,
+                       int mapBytes) throws IOException {
+
+        if (maxBytes < 1 || mapBytes < 1)
+            throw new IllegalArgumentException("maxBytes and mapBytes must be positive");
+        this.store = store;
+        this.directory = Paths.get(directory).toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.validateMillis = validateMillis;
+        this.mapBytes = mapBytes;
+        Files.createDirectories(this.directory);
+        load();
+        evict(null);
+    }
+
+    /** *************************************************************
+     * Read the .meta files in the directory, and delete the files of
+     * any copy that is incomplete.
+     */
+    private void load() throws IOException {
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                if (!name.endsWith(".meta"))
+                    continue;
+                Path data = directory.resolve(name.substring(0, name.length() - 5) + ".data");
+                Properties properties = new Properties();
+                try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    properties.load(r);
+                    String key = properties.getProperty("key");
+                    String etag = properties.getProperty("etag");
+                    long size = Long.parseLong(properties.getProperty("size", "-1"));
+                    if (key != null && etag != null && Files.isRegularFile(data) && Files.size(data) == size) {
+                        entries.put(key, new Entry(key, etag, size, data, file, Files.getLastModifiedTime(data).toMillis()));
+                        bytes.addAndGet(size);
+                        continue;
+                    }
+                }
+                catch (IOException | IllegalArgumentException e) {
+                    System.out.println("Info in CachingObjectStore.load(): dropping " + name + ": " + e.getMessage());
+                }
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(data);
+            }
+        }
+        System.out.println("Info in CachingObjectStore.load(): " + entries.size() + " objects, " + bytes.get() +
+                " bytes in " + directory);
+    }
+
+    /** *************************************************************
+     * @return the name of the files of one version of key, either of
+     * which may hold any character
+     */
+    static String name(String key, String etag) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest((key + "\n" + etag).getBytes(StandardCharsets.UTF_8)))
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** *************************************************************
+     * @return the copy of key, checked against the store and fetched
+     * if it is missing or stale, or null if the object can't be kept
+     */
+    private Entry entry(String key) throws IOException {
+
+        Entry entry = entries.get(key);
+        long now = System.currentTimeMillis();
+        if (entry != null && now - entry.validated < validateMillis)
+            return touch(entry, now);
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.validated < validateMillis)
+                return touch(entry, now);
+            Metadata metadata = Retry.call("HEAD " + key, () -> store.head(key));
+            if (entry != null && entry.size == metadata.size && entry.etag.equals(metadata.etag)) {
+                entry.validated = now;
+                hits.incrementAndGet();
+                return touch(entry, now);
+            }
+            if (entry != null)
+                remove(entry);
+            misses.incrementAndGet();
+            if (metadata.etag == null || metadata.size > maxBytes)
+                return null;
+            entry = fetch(key, metadata);
+            entry.validated = now;
+            entries.put(key, entry);
+            bytes.addAndGet(entry.size);
+        }
+        evict(entry);
+        return entry;
+    }
+
+    /** *************************************************************
+     * Copy the whole version of the object that metadata describes to
+     * disk, under a temporary name until it is complete.
+     */
+    private Entry fetch(String key, Metadata metadata) throws IOException {
+
+        String name = name(key, metadata.etag);
+        Path data = directory.resolve(name + ".data");
+        Path meta = directory.resolve(name + ".meta");
+        Path tmp = directory.resolve(name + ".data.tmp");
+        try {
+            long copied;
+            try (InputStream in = new RangedObjectInputStream(store, key, metadata,
+                    RangedObjectInputStream.CHUNK_BYTES, RangedObjectInputStream.PARALLELISM,
+                    RangedObjectInputStream.READ_AHEAD)) {
+                copied = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (copied != metadata.size)
+                throw new IOException(key + " had " + copied + " bytes, not " + metadata.size);
+            Files.move(tmp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Properties properties = new Properties();
+            properties.setProperty("key", key);
+            properties.setProperty("etag", metadata.etag);
+            properties.setProperty("size", Long.toString(metadata.size));
+            Path metaTmp = directory.resolve(name + ".meta.tmp");
+            try (Writer w = Files.newBufferedWriter(metaTmp, StandardCharsets.UTF_8)) {
+                properties.store(w, null);
+            }
+            Files.move(metaTmp, meta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new Entry(key, metadata.etag, metadata.size, data, meta, System.currentTimeMillis());
+    }
+
+    /** *************************************************************
+     * Mark the copy as read now, on disk as well when it has been a
+     * while, so the order of reads survives a restart.
+     */
+    private Entry touch(Entry entry, long now) {
+
+        if (now - entry.accessed > 1000) {
+            try {
+                Files.setLastModifiedTime(entry.data, FileTime.fromMillis(now));
+            }
+            catch (IOException e) {
+                System.out.println("Info in CachingObjectStore.touch(): " + e.getMessage());
+            }
+        }
+        entry.accessed = now;
+        return entry;
+    }
+
+    /** *************************************************************
+     * Delete a copy.  A reader that has it open keeps reading it.
+     */
+    private void remove(Entry entry) {
+
+        if (!entries.remove(entry.key, entry))
+            return;
+        bytes.addAndGet(-entry.size);
+        try {
+            Files.deleteIfExists(entry.meta);
+            Files.deleteIfExists(entry.data);
+        }
+        catch (IOException e) {
+            System.out.println("Error in CachingObjectStore.remove(): " + e.getMessage());
+        }
+    }
+
+    /** *************************************************************
+     * Delete the least recently read copies, other than keep, until the
+     * copies take no more than maxBytes.
+     */
+    private synchronized void evict(Entry keep) {
+
+        if (bytes.get() <= maxBytes)
+            return;
+        List<Entry> oldest = new ArrayList<>(entries.values());
+        oldest.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+        for (Entry entry : oldest) {
+            if (bytes.get() <= maxBytes)
+                break;
+            if (entry != keep)
+                remove(entry);
+        }
+    }
+
+    /** *************************************************************
+     * @return the number of reads served from disk after a HEAD
+     * request, and the number that fetched the object
+     */
+    public long hits() {
+
+        return hits.get();
+    }
+
+    public long misses() {
+
+        return misses.get();
+    }
+
+    /** *************************************************************
+     * @return the bytes the copies take
+     */
+    public long bytes() {
+
+        return bytes.get();
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public Page listPage(String prefix, String token) throws IOException {
+
+        return store.listPage(prefix, token);
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public long size(String key) throws IOException {
+
+        return head(key).size;
+    }
+
+    /** *************************************************************
+     * @return the size and ETag of the copy of key, checked against the
+     * store, or those of the store if it can't be kept
+     */
+    @Override
+    public Metadata head(String key) throws IOException {
+
+        Entry entry = entry(key);
+        return entry == null ? store.head(key) : new Metadata(entry.size, entry.etag);
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+
+        Entry entry = entry(key);
+        if (entry == null)
+            return store.get(key, start, end);
+        if (start < 0 || end >= entry.size || start > end)
+            throw new IOException("no bytes " + start + "-" + end + " in " + key + " of " + entry.size);
+        return new MappedInputStream(entry.data, start, end + 1, mapBytes);
+    }
+
+    /** *************************************************************
+     * @throws ObjectChangedException if the copy, checked against the
+     * store, is no longer of the version with etag
+     */
+    @Override
+    public InputStream get(String key, long start, long end, String etag) throws IOException {
+
+        if (etag == null)
+            return get(key, start, end);
+        Entry entry = entry(key);
+        if (entry == null)
+            return store.get(key, start, end, etag);
+        if (!etag.equals(entry.etag))
+            throw new ObjectChangedException(key, etag, entry.etag);
+        if (start < 0 || end >= entry.size || start > end)
+            throw new IOException("no bytes " + start + "-" + end + " in " + key + " of " + entry.size);
+        return new MappedInputStream(entry.data, start, end + 1, mapBytes);
+    }
+
+    /** *************************************************************
+     * @return the whole object, read from its copy in order, or from
+     * the store if it can't be kept
+     */
+    @Override
+    public InputStream open(String key) throws IOException {
+
+        Entry entry = entry(key);
+        if (entry == null)
+            return store.open(key);
+        return new MappedInputStream(entry.data, 0, entry.size, mapBytes);
+    }
+
+    /** *************************************************************
+     * Stream over bytes from start to end, exclusive, of a file, mapped
+     * mapBytes at a time.  The file is opened once, so every map is of
+     * the same file even if it is deleted, and another written under
+     * its name, before the stream is closed.
+     */
+    private static class MappedInputStream extends InputStream {
+
+        private final Path file;
+        private final FileChannel channel;
+        private final int mapBytes;
+        private long position;
+        private final long end;
+        private ByteBuffer buf = ByteBuffer.allocate(0);
+
+        MappedInputStream(Path file, long start, long end, int mapBytes) throws IOException {
+
+            this.file = file;
+            this.mapBytes = mapBytes;
+            this.position = start;
+            this.end = end;
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            catch (NoSuchFileException e) {
+                throw new IOException("cached copy " + file + " was evicted before being read", e);
+            }
+            try {
+                fill();
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /** *************************************************************
+         * Map the next bytes, if the current map has been read.
+         * @return false at the end
+         */
+        private boolean fill() throws IOException {
+
+            if (buf.hasRemaining())
+                return true;
+            if (position >= end)
+                return false;
+            long length = Math.min(mapBytes, end - position);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            buf = map;
+            position += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            return fill() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0)
+                return 0;
+            if (!fill())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+
+            if (n <= 0)
+                return 0;
+            int inBuf = (int) Math.min(n, buf.remaining());
+            buf.position(buf.position() + inBuf);
+            long more = Math.min(n - inBuf, end - position);
+            position += more;
+            return inBuf + more;
+        }
+
+        @Override
+        public int available() {
+
+            return (int) Math.min(Integer.MAX_VALUE, buf.remaining() + end - position);
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            buf = ByteBuffer.allocate(0);
+            position = end;
+            channel.close();
+        }
+    }
+}
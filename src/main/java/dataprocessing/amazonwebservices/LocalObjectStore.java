@@ -0,0 +1,146 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to serve the files under a local directory as an ObjectStore,
+ * keyed by their paths relative to it with / between names, so code
+ * written against S3Client can be run and tested without S3.
+ */
+public class LocalObjectStore implements ObjectStore {
+
+    // the most keys in a page of a listing, as in S3
+    public static final int PAGE_SIZE = 1000;
+
+    private final Path root;
+    private final int pageSize;
+
+    /** *************************************************************
+     * @param root the directory whose files are the objects
+     */
+    public LocalObjectStore(String root) {
+
+        this(root, PAGE_SIZE);
+    }
+
+    /** *************************************************************
+     * @param pageSize the most keys in a page of a listing
+     */
+    public LocalObjectStore(String root, int pageSize) {
+
+        if (pageSize < 1)
+            throw new IllegalArgumentException("pageSize must be positive");
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+        this.pageSize = pageSize;
+    }
+
+    /** *************************************************************
+     * @return the file of key, which must be under root
+     */
+    private Path file(String key) throws IOException {
+
+        Path file = root.resolve(key).normalize();
+        if (!file.startsWith(root) || !Files.isRegularFile(file))
+            throw new IOException("no object " + key + " in " + root);
+        return file;
+    }
+
+    /** *************************************************************
+     * @return up to pageSize keys of the files under root that start
+     * with prefix, in order, after the key token
+     */
+    @Override
+    public Page listPage(String prefix, String token) throws IOException {
+
+        List<String> keys;
+        try (Stream<Path> files = Files.walk(root)) {
+            keys = files.filter(Files::isRegularFile)
+                    .map(f -> root.relativize(f).toString().replace(f.getFileSystem().getSeparator(), "/"))
+                    .filter(k -> k.startsWith(prefix) && (token == null || k.compareTo(token) > 0))
+                    .sorted()
+                    .limit(pageSize + 1)
+                    .collect(Collectors.toList());
+        }
+        if (keys.size() <= pageSize)
+            return new Page(keys, null);
+        keys = keys.subList(0, pageSize);
+        return new Page(keys, keys.get(pageSize - 1));
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public long size(String key) throws IOException {
+
+        return Files.size(file(key));
+    }
+
+    /** *************************************************************
+     * The tag of a file is made from its size and modification time,
+     * which change whenever its content does.
+     */
+    @Override
+    public Metadata head(String key) throws IOException {
+
+        Path file = file(key);
+        long size = Files.size(file);
+        return new Metadata(size, Long.toHexString(Files.getLastModifiedTime(file).toMillis()) + "-" +
+                Long.toHexString(size));
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start + 1));
+        try (FileChannel channel = FileChannel.open(file(key), StandardOpenOption.READ)) {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, start + buf.position()) < 0)
+                    throw new EOFException(key + " ended at " + (start + buf.position()));
+            }
+        }
+        return new ByteArrayInputStream(buf.array());
+    }
+
+    /** *************************************************************
+     * The tag is checked before and after the range is read, so bytes
+     * written to the file in between are not returned.
+     */
+    @Override
+    public InputStream get(String key, long start, long end, String etag) throws IOException {
+
+        if (etag == null)
+            return get(key, start, end);
+        String before = head(key).etag;
+        if (!etag.equals(before))
+            throw new ObjectChangedException(key, etag, before);
+        InputStream in = get(key, start, end);
+        String after = head(key).etag;
+        if (!etag.equals(after))
+            throw new ObjectChangedException(key, etag, after);
+        return in;
+    }
+}
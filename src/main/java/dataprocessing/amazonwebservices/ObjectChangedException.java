@@ -0,0 +1,30 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.IOException;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Exception for a read of one version of an object, by its ETag, after
+ * the object has been replaced by another.  Retrying won't help: the
+ * reader has to start again from the new version.
+ */
+public class ObjectChangedException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** *************************************************************
+     */
+    public ObjectChangedException(String key, String etag, String now) {
+
+        super(key + " changed from ETag " + etag + " to " + now + " while being read");
+    }
+}
@@ -0,0 +1,245 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to list and read many objects of an ObjectStore at once, on a
+ * fixed number of threads.  Every request is retried while it fails
+ * transiently.  Objects are handed to the caller in the order asked
+ * for, on the caller's thread, and no more than window of them are
+ * fetched or held ahead of the one being handled, so a slow handler
+ * holds up the fetching rather than filling memory.
+ */
+public class ObjectFetcher implements AutoCloseable {
+
+    public static final int PARALLELISM = 8;
+
+    /** *************************************************************
+     * Something to do with each object fetched.
+     */
+    public interface Handler {
+
+        void accept(String key, List<String> lines) throws IOException;
+    }
+
+    /** *************************************************************
+     * Something to do with each object fetched, told which version of
+     * the object its lines are from.
+     */
+    public interface VersionHandler {
+
+        void accept(String key, ObjectStore.Metadata version, List<String> lines) throws IOException;
+    }
+
+    /** *************************************************************
+     * The lines of one version of an object.
+     */
+    private static final class Fetched {
+
+        final ObjectStore.Metadata version;
+        final List<String> lines;
+
+        Fetched(ObjectStore.Metadata version, List<String> lines) {
+
+            this.version = version;
+            this.lines = lines;
+        }
+    }
+
+    private final ObjectStore store;
+    private final int window;
+    private final ExecutorService executor;
+
+    /** *************************************************************
+     */
+    public ObjectFetcher(ObjectStore store) {
+
+        this(store, PARALLELISM);
+    }
+
+    /** *************************************************************
+     * @param parallelism the most requests at once; twice as many
+     *                    objects may be held ahead of the handler
+     */
+    public ObjectFetcher(ObjectStore store, int parallelism) {
+
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.store = store;
+        window = parallelism * 2;
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "object-fetcher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** *************************************************************
+     * List every key under each prefix, following the pages of each
+     * listing to its end, with the prefixes listed in parallel.
+     * @return the keys under each prefix, in the order of prefixes
+     */
+    public Map<String,List<String>> list(List<String> prefixes) throws IOException {
+
+        List<Future<List<String>>> futures = new ArrayList<>();
+        for (String prefix : prefixes)
+            futures.add(executor.submit(() -> list(prefix)));
+        Map<String,List<String>> keys = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < prefixes.size(); i++)
+                keys.put(prefixes.get(i), get(futures.get(i)));
+        }
+        finally {
+            for (Future<List<String>> future : futures)
+                future.cancel(true);
+        }
+        return keys;
+    }
+
+    /** *************************************************************
+     * @return every key under prefix, each page retried on its own
+     */
+    private List<String> list(String prefix) throws IOException {
+
+        List<String> keys = new ArrayList<>();
+        String token = null;
+        do {
+            String from = token;
+            ObjectStore.Page page = Retry.call("listing " + prefix, () -> store.listPage(prefix, from));
+            keys.addAll(page.keys);
+            token = page.next;
+        } while (token != null);
+        return keys;
+    }
+
+    /** *************************************************************
+     * Ask for the size and tag of each of keys, in parallel.
+     * @return the metadata of each of keys, in the order of keys
+     */
+    public Map<String,ObjectStore.Metadata> head(List<String> keys) throws IOException {
+
+        List<Future<ObjectStore.Metadata>> futures = new ArrayList<>();
+        for (String key : keys)
+            futures.add(executor.submit(() -> Retry.call("HEAD " + key, () -> store.head(key))));
+        Map<String,ObjectStore.Metadata> metadata = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < keys.size(); i++)
+                metadata.put(keys.get(i), get(futures.get(i)));
+        }
+        finally {
+            for (Future<ObjectStore.Metadata> future : futures)
+                future.cancel(true);
+        }
+        return metadata;
+    }
+
+    /** *************************************************************
+     * Fetch the objects of keys in parallel and hand each, as UTF-8
+     * lines, to handler in the order of keys.  Stops at the first
+     * object that can't be read or handled.
+     */
+    public void fetch(List<String> keys, Handler handler) throws IOException {
+
+        fetchVersions(keys, (key, version, lines) -> handler.accept(key, lines));
+    }
+
+    /** *************************************************************
+     * As fetch(), telling handler the size and tag of the version of
+     * each object that was read.  Stops at an object that changes while
+     * it is read, with an ObjectChangedException.
+     */
+    public void fetchVersions(List<String> keys, VersionHandler handler) throws IOException {
+
+        ArrayDeque<Future<Fetched>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                while (next < keys.size() && pending.size() < window) {
+                    String key = keys.get(next++);
+                    pending.add(executor.submit(() -> readLines(key)));
+                }
+                Fetched fetched = get(pending.poll());
+                handler.accept(keys.get(i), fetched.version, fetched.lines);
+            }
+        }
+        finally {
+            for (Future<Fetched> future : pending)
+                future.cancel(true);
+        }
+    }
+
+    /** *************************************************************
+     * @return the lines of one version of an object, read in one
+     * request after the one for its size and tag, each retried on its
+     * own
+     */
+    private Fetched readLines(String key) throws IOException {
+
+        ObjectStore.Metadata version = Retry.call("HEAD " + key, () -> store.head(key));
+        if (version.size == 0)
+            return new Fetched(version, Collections.<String>emptyList());
+        return new Fetched(version, Retry.call("reading " + key, () -> {
+            List<String> lines = new ArrayList<>();
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                    store.get(key, 0, version.size - 1, version.etag), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null)
+                    lines.add(line);
+            }
+            return lines;
+        }));
+    }
+
+    /** *************************************************************
+     * @return the result of future, waiting for it
+     */
+    private static <T> T get(Future<T> future) throws IOException {
+
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted fetching");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** *************************************************************
+     * Stop the threads; requests still running are interrupted.
+     */
+    @Override
+    public void close() {
+
+        executor.shutdownNow();
+    }
+}
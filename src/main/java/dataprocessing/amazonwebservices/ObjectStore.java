@@ -0,0 +1,150 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Interface to a store of named objects that can be read by byte
+ * range, such as an S3 bucket or a local directory.
+ */
+public interface ObjectStore {
+
+    /** *************************************************************
+     * One page of a listing: some keys, in order, and the token that
+     * asks for the page after them, or null if this is the last.
+     */
+    final class Page {
+
+        public final List<String> keys;
+        public final String next;
+
+        public Page(List<String> keys, String next) {
+
+            this.keys = keys;
+            this.next = next;
+        }
+    }
+
+    /** *************************************************************
+     * What a store can say about an object without reading it: its
+     * length in bytes, and a tag that changes whenever its content
+     * does, or null if the store has none.
+     */
+    final class Metadata {
+
+        public final long size;
+        public final String etag;
+
+        public Metadata(long size, String etag) {
+
+            this.size = size;
+            this.etag = etag;
+        }
+    }
+
+    /** *************************************************************
+     * @param token null for the first page, otherwise the next token
+     *              of the page before
+     * @return a page of the keys of the objects whose keys start with
+     * prefix
+     */
+    Page listPage(String prefix, String token) throws IOException;
+
+    /** *************************************************************
+     * @return the keys of all the objects whose keys start with
+     * prefix, however many pages they take
+     */
+    default List<String> list(String prefix) throws IOException {
+
+        List<String> keys = new ArrayList<String>();
+        String token = null;
+        do {
+            Page page = listPage(prefix, token);
+            keys.addAll(page.keys);
+            token = page.next;
+        } while (token != null);
+        return keys;
+    }
+
+    /** *************************************************************
+     * @return the length of the object in bytes
+     */
+    long size(String key) throws IOException;
+
+    /** *************************************************************
+     * @return the size and tag of the object, in one cheap request
+     */
+    default Metadata head(String key) throws IOException {
+
+        return new Metadata(size(key), null);
+    }
+
+    /** *************************************************************
+     * @return the bytes of the object from start to end, both inclusive
+     */
+    InputStream get(String key, long start, long end) throws IOException;
+
+    /** *************************************************************
+     * Read a range of one version of an object, so that the ranges of
+     * one read all come from the same version.  A store that can make
+     * the read conditional on the ETag should; this checks the ETag
+     * with a HEAD request first, which leaves a short window where a
+     * change isn't seen.
+     * @param etag the ETag of the version to read, or null for any
+     * @return the bytes of the object from start to end, both inclusive
+     * @throws ObjectChangedException if the object no longer has etag
+     */
+    default InputStream get(String key, long start, long end, String etag) throws IOException {
+
+        if (etag != null) {
+            String now = head(key).etag;
+            if (!etag.equals(now))
+                throw new ObjectChangedException(key, etag, now);
+        }
+        return get(key, start, end);
+    }
+
+    /** *************************************************************
+     * @return the whole object, fetched in ranges in parallel ahead of
+     * the reader
+     */
+    default InputStream open(String key) throws IOException {
+
+        return new RangedObjectInputStream(this, key);
+    }
+
+    /** *************************************************************
+     * @return the lines of the object, read as UTF-8 while later
+     * ranges are still being fetched.  Close the stream to stop the
+     * fetching early.
+     */
+    default Stream<String> lines(String key) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(open(key), StandardCharsets.UTF_8));
+        return reader.lines().onClose(() -> {
+            try {
+                reader.close();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
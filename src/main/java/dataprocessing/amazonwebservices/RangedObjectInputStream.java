@@ -0,0 +1,222 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to read an object of an ObjectStore from start to end while
+ * its later ranges are fetched in parallel.  The object is split into
+ * chunks of chunkBytes, and up to readAhead chunks are fetched or held
+ * ahead of the reader by parallelism threads, so at most
+ * (readAhead + 1) * chunkBytes of the object are in memory at once.
+ * A fetch that fails transiently is retried; one that still fails is
+ * reported by the read that reaches its chunk.  The size and ETag of
+ * the object are read once, when the stream is opened, and every chunk
+ * is fetched from that version only, so a stream never mixes the bytes
+ * of two versions; if the object changes while it is read, the read
+ * that reaches the first chunk of the new version fails with an
+ * ObjectChangedException.
+ */
+public class RangedObjectInputStream extends InputStream {
+
+    public static final int CHUNK_BYTES = 8 << 20;
+    public static final int PARALLELISM = 4;
+    public static final int READ_AHEAD = 8;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ObjectStore store;
+    private final String key;
+    private final long size;
+
+    // the version every chunk is read from, or null if the store has no tags
+    private final String etag;
+
+    private final int chunkBytes;
+    private final int readAhead;
+    private final ExecutorService executor;
+
+    // the chunks fetched or being fetched, in order
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+
+    // the offset of the first chunk not yet asked for
+    private long next = 0;
+
+    // the chunk being read, and the position in it
+    private byte[] chunk = EMPTY;
+    private int pos = 0;
+
+    private boolean closed = false;
+
+    /** *************************************************************
+     */
+    public RangedObjectInputStream(ObjectStore store, String key) throws IOException {
+
+        this(store, key, CHUNK_BYTES, PARALLELISM, READ_AHEAD);
+    }
+
+    /** *************************************************************
+     * @param chunkBytes the length of each ranged fetch
+     * @param parallelism the most fetches at once
+     * @param readAhead the most chunks fetched ahead of the reader
+     */
+    public RangedObjectInputStream(ObjectStore store, String key, int chunkBytes, int parallelism,
+                                   int readAhead) throws IOException {
+
+        this(store, key, Retry.call("HEAD " + key, () -> store.head(key)), chunkBytes, parallelism, readAhead);
+    }
+
+    /** *************************************************************
+     * @param metadata the size and ETag of the version of the object
+     *                 to read
+     */
+    public RangedObjectInputStream(ObjectStore store, String key, ObjectStore.Metadata metadata,
+                                   int chunkBytes, int parallelism, int readAhead) {
+
+        if (chunkBytes < 1 || parallelism < 1 || readAhead < 1)
+            throw new IllegalArgumentException("chunkBytes, parallelism and readAhead must be positive");
+        this.store = store;
+        this.key = key;
+        this.chunkBytes = chunkBytes;
+        this.readAhead = readAhead;
+        size = metadata.size;
+        etag = metadata.etag;
+        long chunks = (size + chunkBytes - 1) / chunkBytes;
+        executor = Executors.newFixedThreadPool((int) Math.max(1, Math.min(parallelism, chunks)), r -> {
+            Thread t = new Thread(r, "object-reader");
+            t.setDaemon(true);
+            return t;
+        });
+        fill();
+    }
+
+    /** *************************************************************
+     * Ask for chunks until readAhead are pending or the object is all
+     * asked for.
+     */
+    private void fill() {
+
+        while (pending.size() < readAhead && next < size) {
+            long start = next;
+            long end = Math.min(size, start + chunkBytes) - 1;
+            pending.add(executor.submit(() -> Retry.call("reading " + key, () -> fetch(start, end))));
+            next = end + 1;
+        }
+    }
+
+    /** *************************************************************
+     * @return the bytes of the object from start to end, both inclusive
+     */
+    private byte[] fetch(long start, long end) throws IOException {
+
+        byte[] buf = new byte[(int) (end - start + 1)];
+        try (InputStream in = store.get(key, start, end, etag)) {
+            int off = 0;
+            while (off < buf.length) {
+                int n = in.read(buf, off, buf.length - off);
+                if (n < 0)
+                    throw new EOFException(key + " ended at " + (start + off) + " of " + size + " bytes");
+                off += n;
+            }
+        }
+        return buf;
+    }
+
+    /** *************************************************************
+     * Move on to the next chunk, waiting for it if it isn't fetched yet.
+     * @return false at the end of the object
+     */
+    private boolean nextChunk() throws IOException {
+
+        if (closed)
+            throw new IOException("stream closed");
+        Future<byte[]> future = pending.poll();
+        if (future == null)
+            return false;
+        try {
+            chunk = future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted reading " + key);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("can't read " + key, cause);
+        }
+        pos = 0;
+        fill();
+        return true;
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public int read() throws IOException {
+
+        while (pos == chunk.length)
+            if (!nextChunk())
+                return -1;
+        return chunk[pos++] & 0xff;
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0)
+            return 0;
+        while (pos == chunk.length)
+            if (!nextChunk())
+                return -1;
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public int available() {
+
+        return chunk.length - pos;
+    }
+
+    /** *************************************************************
+     * Stop fetching and drop the chunks fetched ahead.
+     */
+    @Override
+    public void close() {
+
+        if (closed)
+            return;
+        closed = true;
+        for (Future<byte[]> future : pending)
+            future.cancel(true);
+        pending.clear();
+        chunk = EMPTY;
+        pos = 0;
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,86 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to retry requests to an ObjectStore that fail transiently,
+ * with exponential backoff.  The nth retry waits between a half and
+ * the whole of backoffMillis * 2^(n-1), at random, so clients that
+ * failed together don't all retry together.
+ */
+public class Retry {
+
+    public static final int ATTEMPTS = 4;
+    public static final long BACKOFF_MILLIS = 100;
+
+    /** *************************************************************
+     * A request that may fail with an IOException.
+     */
+    public interface Request<T> {
+
+        T call() throws IOException;
+    }
+
+    /** *************************************************************
+     * @return the result of request, tried up to ATTEMPTS times
+     */
+    public static <T> T call(String what, Request<T> request) throws IOException {
+
+        return call(what, ATTEMPTS, BACKOFF_MILLIS, request);
+    }
+
+    /** *************************************************************
+     * @param what the request, to report failures
+     * @return the result of request, tried up to attempts times while
+     * it fails transiently
+     * @throws IOException the last failure, or the first that isn't
+     * transient
+     */
+    public static <T> T call(String what, int attempts, long backoffMillis, Request<T> request)
+            throws IOException {
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return request.call();
+            }
+            catch (IOException e) {
+                if (attempt >= attempts || !isTransient(e))
+                    throw e;
+                System.out.println("Info in Retry.call(): " + what + " failed on attempt " + attempt +
+                        " of " + attempts + ": " + e.getMessage());
+                long delay = backoffMillis << (attempt - 1);
+                try {
+                    Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted retrying " + what);
+                }
+            }
+        }
+    }
+
+    /** *************************************************************
+     * @return true if a request that failed with e may succeed if tried
+     * again
+     */
+    public static boolean isTransient(IOException e) {
+
+        return e instanceof TransientStoreException || e instanceof SocketTimeoutException ||
+                e instanceof SocketException;
+    }
+}
@@ -1,17 +1,26 @@
 package dataprocessing.amazonwebservices;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
 import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ResourceBundle;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This code is copyright CloudMinds 2017.
@@ -27,7 +36,12 @@ import java.util.stream.Collectors;
  * Created by charlescostello on 1/30/17.
  * Class to wrap the S3 API
  */
-public class S3Client {
+public class S3Client implements ObjectStore {
+
+    // where cached() keeps its copies, and the most bytes they take,
+    // unless aws.properties says cacheDirectory and cacheMaxBytes
+    public static final String CACHE_DIRECTORY = System.getProperty("user.home") + "/.chatbot/s3cache";
+    public static final long CACHE_MAX_BYTES = 10L << 30;
 
     private AmazonS3 client;
     private String bucket;
@@ -42,17 +56,33 @@ public class S3Client {
         client = new AmazonS3Client();
     }
 
+    /** *************************************************************
+     * @return this bucket read through a cache on local disk, so that
+     * objects that haven't changed since they were last read cost one
+     * HEAD request rather than a download
+     */
+    public ObjectStore cached() throws IOException {
+
+        ResourceBundle resourceBundle = ResourceBundle.getBundle("aws");
+        String directory = resourceBundle.containsKey("cacheDirectory") ?
+                resourceBundle.getString("cacheDirectory") : CACHE_DIRECTORY;
+        long maxBytes = resourceBundle.containsKey("cacheMaxBytes") ?
+                Long.parseLong(resourceBundle.getString("cacheMaxBytes").trim()) : CACHE_MAX_BYTES;
+        return new CachingObjectStore(this, directory, maxBytes);
+    }
+
     /** *************************************************************
      * @param directory Directory of files to be returns
      * @return List of files in directory
-     * Retrieves list of files in given directory
+     * Retrieves list of files in given directory, however many pages
+     * of listing they take
      */
     public List<String> getDirectoryFiles(String directory) {
 
         List<String> files = new ArrayList<>();
 
         try {
-            files = client.listObjects(bucket, directory).getObjectSummaries().stream().map(S3ObjectSummary::getKey).collect(Collectors.toCollection(ArrayList::new));
+            files = list(directory);
         }
         catch (Exception e) {
             e.printStackTrace();
@@ -89,4 +119,114 @@ public class S3Client {
 
         return lines;
     }
-}
\ No newline at end of file
+
+    /** *************************************************************
+     * @param filename name of file to retrieve from s3
+     * @return the lines of the file, read while the rest of it is
+     * still downloading in parallel ranged GETs.  Close the stream to
+     * stop the download early.
+     */
+    public Stream<String> streamS3File(String filename) throws IOException {
+
+        return lines(filename);
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public Page listPage(String prefix, String token) throws IOException {
+
+        try {
+            ListObjectsV2Result result = client.listObjectsV2(new ListObjectsV2Request()
+                    .withBucketName(bucket).withPrefix(prefix).withContinuationToken(token));
+            List<String> keys = result.getObjectSummaries().stream().map(S3ObjectSummary::getKey).collect(Collectors.toCollection(ArrayList::new));
+            return new Page(keys, result.isTruncated() ? result.getNextContinuationToken() : null);
+        }
+        catch (AmazonClientException e) {
+            throw failure("can't list " + prefix + " in " + bucket, e);
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public long size(String key) throws IOException {
+
+        try {
+            return client.getObjectMetadata(bucket, key).getContentLength();
+        }
+        catch (AmazonClientException e) {
+            throw failure("can't find " + key + " in " + bucket, e);
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public Metadata head(String key) throws IOException {
+
+        try {
+            ObjectMetadata metadata = client.getObjectMetadata(bucket, key);
+            return new Metadata(metadata.getContentLength(), metadata.getETag());
+        }
+        catch (AmazonClientException e) {
+            throw failure("can't find " + key + " in " + bucket, e);
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+
+        try {
+            return client.getObject(new GetObjectRequest(bucket, key).withRange(start, end)).getObjectContent();
+        }
+        catch (AmazonClientException e) {
+            throw failure("can't read " + key + " from " + bucket, e);
+        }
+    }
+
+    /** *************************************************************
+     * The GET is made with If-Match, so S3 itself refuses to serve
+     * another version.
+     */
+    @Override
+    public InputStream get(String key, long start, long end, String etag) throws IOException {
+
+        if (etag == null)
+            return get(key, start, end);
+        S3Object object;
+        try {
+            object = client.getObject(new GetObjectRequest(bucket, key).withRange(start, end)
+                    .withMatchingETagConstraint(etag));
+        }
+        catch (AmazonClientException e) {
+            throw failure("can't read " + key + " from " + bucket, e);
+        }
+        // the client returns null when the constraint isn't met
+        if (object == null)
+            throw new ObjectChangedException(key, etag, null);
+        return object.getObjectContent();
+    }
+
+    /** *************************************************************
+     * @return e as an IOException, a TransientStoreException if the
+     * request is worth retrying: a server error, throttling, or a
+     * failure to reach S3 at all
+     */
+    private static IOException failure(String message, AmazonClientException e) {
+
+        boolean transientFailure;
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException ase = (AmazonServiceException) e;
+            transientFailure = ase.getStatusCode() >= 500 || ase.getStatusCode() == 429 ||
+                    "SlowDown".equals(ase.getErrorCode()) || "Throttling".equals(ase.getErrorCode());
+        }
+        else
+            transientFailure = e.isRetryable();
+        if (transientFailure)
+            return new TransientStoreException(message, e);
+        return new IOException(message, e);
+    }
+}
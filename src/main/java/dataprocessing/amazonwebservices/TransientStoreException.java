@@ -0,0 +1,30 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.IOException;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Exception for a failure of an ObjectStore that may not happen again,
+ * such as a throttled or timed out request, so the request is worth
+ * retrying.
+ */
+public class TransientStoreException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** *************************************************************
+     */
+    public TransientStoreException(String message, Throwable cause) {
+
+        super(message, cause);
+    }
+}
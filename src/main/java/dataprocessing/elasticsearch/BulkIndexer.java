@@ -0,0 +1,373 @@
+package dataprocessing.elasticsearch;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.entity.NStringEntity;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to index documents in batches through the Elasticsearch _bulk
+ * API.  Documents are buffered as NDJSON until a batch has maxActions
+ * documents or maxBytes bytes, and the batch is then sent without
+ * waiting for the answer.  At most maxInFlight batches are sent at
+ * once; add() blocks while that many are waiting, so a fast reader
+ * can't run ahead of Elasticsearch.  Documents that Elasticsearch
+ * rejects, or that were in a batch that failed as a whole, are kept
+ * as Failures to be read with drainFailures() and added again.  close()
+ * sends what is buffered and waits for every batch to be answered.
+ */
+public class BulkIndexer implements AutoCloseable {
+
+    public static final int MAX_ACTIONS = 1000;
+    public static final int MAX_BYTES = 5 << 20;
+    public static final int MAX_IN_FLIGHT = 4;
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    /** *************************************************************
+     * A document that wasn't indexed, with the HTTP status and reason
+     * Elasticsearch gave, or status 0 if there was no answer.
+     */
+    public static class Failure {
+
+        public final String id;
+        public final String source;
+        public final int status;
+        public final String reason;
+
+        public Failure(String id, String source, int status, String reason) {
+
+            this.id = id;
+            this.source = source;
+            this.status = status;
+            this.reason = reason;
+        }
+
+        /** *************************************************************
+         * @return true if the same document may be indexed if sent
+         * again: there was no answer, Elasticsearch was too busy, or it
+         * failed on its side
+         */
+        public boolean isRetryable() {
+
+            return status == 0 || status == 429 || status >= 500;
+        }
+
+        @Override
+        public String toString() {
+
+            return id + " (" + status + "): " + reason;
+        }
+    }
+
+    /** *************************************************************
+     * Told of each document Elasticsearch has indexed, on the thread
+     * that read the answer.
+     */
+    public interface Listener {
+
+        void indexed(String id);
+    }
+
+    private final RestClient client;
+    private final String endpoint;
+    private final Header[] headers;
+    private final int maxActions;
+    private final int maxBytes;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    // the batch being filled
+    private StringBuilder body = new StringBuilder();
+    private List<String> ids = new ArrayList<>();
+    private List<String> sources = new ArrayList<>();
+    private int bytes = 0;
+
+    private final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private boolean closed = false;
+    private volatile Listener listener = null;
+
+    /** *************************************************************
+     * @param client the client to send the batches with, which stays
+     *               open after close()
+     */
+    public BulkIndexer(RestClient client, String index, String type, Header... headers) {
+
+        this(client, index, type, MAX_ACTIONS, MAX_BYTES, MAX_IN_FLIGHT, headers);
+    }
+
+    /** *************************************************************
+     * @param maxActions the most documents in a batch
+     * @param maxBytes the size at which a batch is sent; a batch is
+     *                 larger only if one document is
+     * @param maxInFlight the most batches sent and not yet answered
+     */
+    public BulkIndexer(RestClient client, String index, String type, int maxActions, int maxBytes,
+                       int maxInFlight, Header... headers) {
+
+        if (maxActions < 1 || maxBytes < 1 || maxInFlight < 1)
+            throw new IllegalArgumentException("maxActions, maxBytes and maxInFlight must be positive");
+        this.client = client;
+        this.endpoint = String.format("/%s/%s/_bulk", index, type);
+        this.headers = headers;
+        this.maxActions = maxActions;
+        this.maxBytes = maxBytes;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    /** *************************************************************
+     * @param listener told of each document indexed from now on, or
+     *                 null
+     */
+    public void setListener(Listener listener) {
+
+        this.listener = listener;
+    }
+
+    /** *************************************************************
+     * Buffer a document, and send the batch if it is full, waiting
+     * while maxInFlight batches are unanswered.
+     * @param id the id of the document, which replaces any document
+     *           with the same id
+     * @param source the document as JSON, on one line
+     */
+    public synchronized void add(String id, String source) throws IOException {
+
+        if (closed)
+            throw new IllegalStateException("BulkIndexer is closed");
+        int start = body.length();
+        body.append("{\"index\":{\"_id\":").append(JSONObject.quote(id)).append("}}\n");
+        body.append(source).append('\n');
+        for (int i = start; i < body.length(); i++) {
+            char c = body.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        ids.add(id);
+        sources.add(source);
+        if (ids.size() >= maxActions || bytes >= maxBytes)
+            send();
+    }
+
+    /** *************************************************************
+     * Send the buffered documents, if any, without waiting for the
+     * answer.
+     */
+    public synchronized void flush() throws IOException {
+
+        if (!ids.isEmpty())
+            send();
+    }
+
+    /** *************************************************************
+     * Send the batch being filled, and start a new one.
+     */
+    private void send() throws IOException {
+
+        try {
+            inFlight.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting to send a bulk request");
+        }
+        final List<String> batchIds = ids;
+        final List<String> batchSources = sources;
+        String batch = body.toString();
+        body = new StringBuilder();
+        ids = new ArrayList<>();
+        sources = new ArrayList<>();
+        bytes = 0;
+        requests.incrementAndGet();
+        try {
+            client.performRequestAsync("POST", endpoint, Collections.<String,String>emptyMap(),
+                    new NStringEntity(batch, NDJSON), new ResponseListener() {
+
+                        @Override
+                        public void onSuccess(Response response) {
+
+                            try {
+                                answered(batchIds, batchSources, response);
+                            }
+                            finally {
+                                inFlight.release();
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+
+                            try {
+                                int status = e instanceof ResponseException ?
+                                        ((ResponseException) e).getResponse().getStatusLine().getStatusCode() : 0;
+                                failedAll(batchIds, batchSources, status, e.getMessage());
+                            }
+                            finally {
+                                inFlight.release();
+                            }
+                        }
+                    }, headers);
+        }
+        catch (RuntimeException e) {
+            inFlight.release();
+            failedAll(batchIds, batchSources, 0, e.getMessage());
+        }
+    }
+
+    /** *************************************************************
+     * Read the answer to a batch, and keep the documents it rejected.
+     */
+    private void answered(List<String> batchIds, List<String> batchSources, Response response) {
+
+        JSONObject answer;
+        try {
+            answer = new JSONObject(EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+        }
+        catch (IOException | RuntimeException e) {
+            failedAll(batchIds, batchSources, 0, "unreadable bulk response: " + e.getMessage());
+            return;
+        }
+        if (!answer.optBoolean("errors", false)) {
+            for (String id : batchIds)
+                indexed(id);
+            return;
+        }
+        JSONArray items = answer.optJSONArray("items");
+        for (int i = 0; i < batchIds.size(); i++) {
+            JSONObject item = items == null ? null : items.optJSONObject(i);
+            JSONObject result = item == null ? null : item.optJSONObject("index");
+            if (result == null) {
+                fail(batchIds.get(i), batchSources.get(i), 0, "no result for item " + i);
+                continue;
+            }
+            int status = result.optInt("status", 0);
+            if (status >= 200 && status < 300 && !result.has("error")) {
+                indexed(batchIds.get(i));
+                continue;
+            }
+            Object error = result.opt("error");
+            String reason = error instanceof JSONObject ?
+                    ((JSONObject) error).optString("type") + ": " + ((JSONObject) error).optString("reason") :
+                    String.valueOf(error);
+            fail(batchIds.get(i), batchSources.get(i), status, reason);
+        }
+    }
+
+    /** *************************************************************
+     */
+    private void indexed(String id) {
+
+        indexed.incrementAndGet();
+        Listener l = listener;
+        if (l != null)
+            l.indexed(id);
+    }
+
+    /** *************************************************************
+     */
+    private void failedAll(List<String> batchIds, List<String> batchSources, int status, String reason) {
+
+        System.out.println("Error in BulkIndexer.send(): batch of " + batchIds.size() + " failed: " + reason);
+        for (int i = 0; i < batchIds.size(); i++)
+            fail(batchIds.get(i), batchSources.get(i), status, reason);
+    }
+
+    /** *************************************************************
+     */
+    private void fail(String id, String source, int status, String reason) {
+
+        failed.incrementAndGet();
+        failures.add(new Failure(id, source, status, reason));
+    }
+
+    /** *************************************************************
+     * Send the buffered documents and wait until every batch sent has
+     * been answered, so that drainFailures() has every failure.
+     */
+    public void await() throws IOException {
+
+        flush();
+        try {
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for bulk requests");
+        }
+    }
+
+    /** *************************************************************
+     * @return the documents that have failed since the last call, to
+     * be added again if they are retryable
+     */
+    public List<Failure> drainFailures() {
+
+        List<Failure> result = new ArrayList<>();
+        Failure failure;
+        while ((failure = failures.poll()) != null)
+            result.add(failure);
+        return result;
+    }
+
+    /** *************************************************************
+     * @return the number of documents indexed, the number that failed,
+     * and the number of bulk requests sent
+     */
+    public long indexed() {
+
+        return indexed.get();
+    }
+
+    public long failed() {
+
+        return failed.get();
+    }
+
+    public long requests() {
+
+        return requests.get();
+    }
+
+    /** *************************************************************
+     * Send the buffered documents and wait for every batch to be
+     * answered.  The failures can still be drained.
+     */
+    @Override
+    public void close() throws IOException {
+
+        await();
+        synchronized (this) {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package dataprocessing.elasticsearch;
+
+import dataprocessing.amazonwebservices.ObjectStore;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Class to record how far the indexing of each file has got, so that a
+ * restart can resume rather than index everything again.  The offset
+ * of a file is the number of its lines, from the first, that have all
+ * been indexed; lines are indexed out of order, so lines past the
+ * offset may be done too, but they are sent again on a restart, which
+ * is harmless since their document ids don't change.  The progress is
+ * of one version of the file, known by its size and ETag, and a file
+ * found to have another version starts again from its first line.
+ * The file holds one line per file indexed:
+ *   offset TAB lines TAB size TAB etag TAB key
+ * with an empty etag if the store has none, and is replaced whole by
+ * save(), so a crash leaves the last one.  A line without a size and
+ * ETag, as written before they were kept, matches no version.
+ */
+public class Checkpoint {
+
+    /** *************************************************************
+     * How far one file has got.
+     */
+    private static class Progress {
+
+        final long size;
+        final String etag;
+        final int lines;
+        final BitSet done = new BitSet();
+        int offset;
+
+        Progress(long size, String etag, int lines, int offset) {
+
+            this.size = size;
+            this.etag = etag;
+            this.lines = lines;
+            this.offset = Math.min(offset, lines);
+        }
+
+        /** @return true if this is the progress of version */
+        boolean isOf(ObjectStore.Metadata version) {
+
+            return size >= 0 && size == version.size && Objects.equals(etag, version.etag);
+        }
+
+        synchronized void done(int line) {
+
+            done.set(line);
+            while (offset < lines && done.get(offset))
+                offset++;
+        }
+
+        synchronized int offset() {
+
+            return offset;
+        }
+    }
+
+    private final Path path;
+    private final ConcurrentHashMap<String,Progress> files = new ConcurrentHashMap<>();
+
+    /** *************************************************************
+     * @param path the checkpoint file, which is read if it exists
+     */
+    public Checkpoint(String path) throws IOException {
+
+        this.path = Paths.get(path);
+        if (!Files.exists(this.path))
+            return;
+        try (BufferedReader r = Files.newBufferedReader(this.path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length == 3)
+                    files.put(fields[2], new Progress(-1, null, Integer.parseInt(fields[1]),
+                            Integer.parseInt(fields[0])));
+                else if (fields.length == 5)
+                    files.put(fields[4], new Progress(Long.parseLong(fields[2]),
+                            fields[3].isEmpty() ? null : fields[3], Integer.parseInt(fields[1]),
+                            Integer.parseInt(fields[0])));
+                else
+                    System.out.println("Error in Checkpoint(): bad line in " + path + ": " + line);
+            }
+        }
+        System.out.println("Info in Checkpoint(): " + files.size() + " files in " + path + ", " +
+                files.values().stream().filter(p -> p.offset() == p.lines).count() + " of them complete");
+    }
+
+    /** *************************************************************
+     * @return the number of lines of key already indexed, or 0 if it
+     * hasn't been started
+     */
+    public int offset(String key) {
+
+        Progress progress = files.get(key);
+        return progress == null ? 0 : progress.offset();
+    }
+
+    /** *************************************************************
+     * @return true if every line of version of key has been indexed
+     */
+    public boolean isComplete(String key, ObjectStore.Metadata version) {
+
+        Progress progress = files.get(key);
+        return progress != null && progress.isOf(version) && progress.offset() == progress.lines;
+    }
+
+    /** *************************************************************
+     * Start, or restart, recording the progress of key.  Progress
+     * recorded for another version of key is forgotten, so offset()
+     * is then 0.
+     * @param version the size and ETag of the version of key read
+     * @param lines the number of lines of that version
+     */
+    public void start(String key, ObjectStore.Metadata version, int lines) {
+
+        Progress old = files.get(key);
+        int offset = 0;
+        if (old != null && old.isOf(version))
+            offset = old.offset();
+        else if (old != null && old.offset() > 0)
+            System.out.println("Info in Checkpoint.start(): " + key + " has changed since line " +
+                    old.offset() + " was indexed, so it is indexed again from the start");
+        files.put(key, new Progress(version.size, version.etag, lines, offset));
+    }
+
+    /** *************************************************************
+     * Record that one line of key has been indexed, or needs no
+     * indexing.
+     */
+    public void done(String key, int line) {
+
+        Progress progress = files.get(key);
+        if (progress != null)
+            progress.done(line);
+    }
+
+    /** *************************************************************
+     * Write the progress of every file, replacing the file whole.
+     */
+    public synchronized void save() throws IOException {
+
+        Map<String,Progress> sorted = new TreeMap<>(files);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String,Progress> e : sorted.entrySet()) {
+                Progress progress = e.getValue();
+                w.write(progress.offset() + "\t" + progress.lines + "\t" + progress.size + "\t" +
+                        (progress.etag == null ? "" : progress.etag) + "\t" + e.getKey());
+                w.newLine();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
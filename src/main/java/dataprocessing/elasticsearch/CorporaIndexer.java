@@ -1,9 +1,27 @@
 package dataprocessing.elasticsearch;
 
+import dataprocessing.amazonwebservices.ObjectFetcher;
+import dataprocessing.amazonwebservices.ObjectStore;
+import dataprocessing.amazonwebservices.Retry;
 import dataprocessing.amazonwebservices.S3Client;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 /**
  * This code is copyright CloudMinds 2017.
@@ -17,27 +35,133 @@ import java.util.List;
  * August 9, Acapulco, Mexico.
  *
  * Created by charlescostello on 2/1/17.
- * Class to wrap the Elasticsearch API
+ * Class to index every line of the configured corpora in S3 into
+ * Elasticsearch, as a pipeline of stages that each run at once:
+ *   list   the files of the corpora, in parallel, page by page
+ *   fetch  the files, fetchThreads at a time, through the disk cache
+ *   parse  the lines of each file into documents, on parseThreads
+ *   index  the documents in _bulk batches of batchSize, with up to
+ *          inFlight batches sent at once
+ * Each stage blocks when the next falls behind.  How far each file has
+ * got is saved to a Checkpoint every CHECKPOINT_MILLIS and at the end,
+ * so a restart skips the files that are done and resumes the others,
+ * unless their size or ETag has changed since.
  */
 public class CorporaIndexer {
 
+    public static final int PARSE_THREADS = 4;
+    public static final long CHECKPOINT_MILLIS = 10000;
+    public static final String CHECKPOINT_FILE = "corpora-index.checkpoint";
+
     private ElasticSearchClient elasticSearchClient;
     private S3Client s3Client;
     private List<String> corpora;
 
+    private int fetchThreads = ObjectFetcher.PARALLELISM;
+    private int parseThreads = PARSE_THREADS;
+    private int batchSize = BulkIndexer.MAX_ACTIONS;
+    private int inFlight = BulkIndexer.MAX_IN_FLIGHT;
+    private String checkpointFile = CHECKPOINT_FILE;
+    private Checkpoint checkpoint;
+
+    // the file each document id prefix is from, for the checkpoint
+    private final ConcurrentHashMap<String,String> files = new ConcurrentHashMap<>();
+    private final AtomicReference<IOException> parseError = new AtomicReference<>();
+
+    /** ***************************************************************
+     * An indexer of the corpora named in elasticsearch.properties
+     */
+    public CorporaIndexer() {
+
+    }
+
+    /** ***************************************************************
+     * @param corpora Names of the corpora, the prefixes of their files
+     * @param checkpoint Progress to resume from and record
+     * An indexer of the given corpora, fetching and parsing on the
+     * given number of threads
+     */
+    CorporaIndexer(List<String> corpora, Checkpoint checkpoint, int fetchThreads, int parseThreads) {
+
+        this.corpora = corpora;
+        this.checkpoint = checkpoint;
+        this.fetchThreads = fetchThreads;
+        this.parseThreads = parseThreads;
+    }
+
     /** ***************************************************************
      * @param corpus Name of corpus
-     * Indexes each file in a corpus
+     * @param file Key of the file in S3
+     * @param version Size and ETag of the version of the file read
+     * @param lines Lines of the file
+     * Turns the lines of a file not yet indexed into documents for the
+     * indexer.  Blank lines are skipped but keep their line numbers.
      */
-    private void indexCorpus(String corpus) {
+    private void parseFile(BulkIndexer indexer, String corpus, String file, ObjectStore.Metadata version,
+                           List<String> lines) throws IOException {
 
-        for (String file : s3Client.getDirectoryFiles(corpus)) {
-            if (file.substring(file.length() - 3, file.length()).equals("txt")) {
-                List<String> lines = s3Client.readS3File(file);
-                for (int i = 0; i < 5; i++) {
-                    elasticSearchClient.indexDocument(corpus.split("/")[1], file.split("/")[file.split("/").length - 1], i, lines.get(i));
+        String fileName = file.substring(file.lastIndexOf('/') + 1);
+        // the ids documentId() makes for this file all start with this
+        files.put(corpus + "_" + fileName + "_", file);
+        checkpoint.start(file, version, lines.size());
+        for (int i = checkpoint.offset(file); i < lines.size(); i++) {
+            String text = lines.get(i).trim();
+            if (text.isEmpty())
+                checkpoint.done(file, i);
+            else
+                indexer.add(ElasticSearchClient.documentId(corpus, fileName, i),
+                        ElasticSearchClient.documentSource(corpus, fileName, i, text));
+        }
+    }
+
+    /** ***************************************************************
+     * @param id Id of a document Elasticsearch has indexed
+     * Records the line of the document as done
+     */
+    private void indexed(String id) {
+
+        int underscore = id.lastIndexOf('_');
+        String file = files.get(id.substring(0, underscore + 1));
+        if (file != null)
+            checkpoint.done(file, Integer.parseInt(id.substring(underscore + 1)));
+    }
+
+    /** ***************************************************************
+     * Wait for every batch to be answered, and send the documents that
+     * failed and may succeed again, backing off between rounds.  A
+     * document that can't succeed is logged and counted as done, so it
+     * doesn't hold back the checkpoint of its file.
+     */
+    private void retryFailures(BulkIndexer indexer) throws IOException {
+
+        long backoff = Retry.BACKOFF_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            indexer.await();
+            List<BulkIndexer.Failure> failures = indexer.drainFailures();
+            List<BulkIndexer.Failure> retryable = failures.stream().filter(BulkIndexer.Failure::isRetryable)
+                    .collect(Collectors.toList());
+            for (BulkIndexer.Failure failure : failures)
+                if (!failure.isRetryable()) {
+                    System.out.println("Error in CorporaIndexer.retryFailures(): " + failure);
+                    indexed(failure.id);
                 }
+            if (retryable.isEmpty())
+                return;
+            if (attempt >= Retry.ATTEMPTS) {
+                System.out.println("Error in CorporaIndexer.retryFailures(): gave up on " + retryable.size() +
+                        " documents, such as " + retryable.get(0));
+                return;
+            }
+            try {
+                Thread.sleep(backoff);
             }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff *= 2;
+            for (BulkIndexer.Failure failure : retryable)
+                indexer.add(failure.id, failure.source);
         }
     }
 
@@ -48,11 +172,102 @@ public class CorporaIndexer {
 
         elasticSearchClient = new ElasticSearchClient();
         s3Client = new S3Client();
-        corpora = Arrays.asList("Corpora/CornellMovieDialogs"); //, "Corpora/NPSChatCorpus", "Corpora/NUSSMSCorpus", "Corpora/SwitchboardDialogs");
-        corpora.forEach(this::indexCorpus);
+        corpora = Arrays.asList(ResourceBundle.getBundle("elasticsearch").getString("corpora").split("\\s*,\\s*"));
+        try {
+            checkpoint = new Checkpoint(checkpointFile);
+            indexCorpora(s3Client.cached(), elasticSearchClient.bulkIndexer(batchSize, inFlight));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
         elasticSearchClient.close();
     }
 
+    /** ***************************************************************
+     * Runs the pipeline from store to indexer, and closes the indexer
+     */
+    void indexCorpora(ObjectStore store, BulkIndexer bulkIndexer) throws IOException {
+
+        ExecutorService parsers = Executors.newFixedThreadPool(parseThreads);
+        Semaphore parsing = new Semaphore(parseThreads * 2);
+        long[] saved = {System.currentTimeMillis()};
+        try (ObjectFetcher fetcher = new ObjectFetcher(store, fetchThreads);
+             BulkIndexer indexer = bulkIndexer) {
+            indexer.setListener(this::indexed);
+
+            // list
+            List<String> prefixes = corpora.stream().map(c -> c + "/").collect(Collectors.toList());
+            Map<String,List<String>> listed = fetcher.list(prefixes);
+            List<String> texts = new ArrayList<>();
+            Map<String,String> corpusOf = new HashMap<>();
+            for (String prefix : prefixes) {
+                String corpus = prefix.substring(prefix.lastIndexOf('/', prefix.length() - 2) + 1, prefix.length() - 1);
+                for (String key : listed.get(prefix)) {
+                    if (!key.endsWith("txt"))
+                        continue;
+                    texts.add(key);
+                    corpusOf.put(key, corpus);
+                }
+            }
+            // a file is done only if it hasn't changed since it was indexed
+            Map<String,ObjectStore.Metadata> versions = fetcher.head(texts);
+            List<String> keys = new ArrayList<>();
+            int complete = 0;
+            for (String key : texts) {
+                if (checkpoint.isComplete(key, versions.get(key)))
+                    complete++;
+                else
+                    keys.add(key);
+            }
+            System.out.println("Info in CorporaIndexer.indexCorpora(): " + keys.size() + " files to index, " +
+                    complete + " already done");
+
+            // fetch, then parse on the parsers
+            fetcher.fetchVersions(keys, (key, version, lines) -> {
+                try {
+                    parsing.acquire();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for a parser");
+                }
+                parsers.execute(() -> {
+                    try {
+                        parseFile(indexer, corpusOf.get(key), key, version, lines);
+                    }
+                    catch (IOException | RuntimeException e) {
+                        System.out.println("Error in CorporaIndexer.parseFile(): " + key + ": " + e.getMessage());
+                        parseError.compareAndSet(null, e instanceof IOException ? (IOException) e : new IOException(e));
+                    }
+                    finally {
+                        parsing.release();
+                    }
+                });
+                if (System.currentTimeMillis() - saved[0] > CHECKPOINT_MILLIS) {
+                    checkpoint.save();
+                    saved[0] = System.currentTimeMillis();
+                }
+            });
+            parsers.shutdown();
+            parsers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            if (parseError.get() != null)
+                throw parseError.get();
+
+            // index what is left, and send the failures again
+            retryFailures(indexer);
+            System.out.println("Info in CorporaIndexer.indexCorpora(): indexed " + indexer.indexed() +
+                    " documents in " + indexer.requests() + " bulk requests");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the parsers");
+        }
+        finally {
+            parsers.shutdownNow();
+            checkpoint.save();
+        }
+    }
+
     /** ***************************************************************
      * @param args Program arguments
      * Initializes program
@@ -60,6 +275,41 @@ public class CorporaIndexer {
     public static void main(String[] args) {
 
         CorporaIndexer corporaIndexer = new CorporaIndexer();
+        boolean restart = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("-h")) {
+                    System.out.println("Usage: CorporaIndexer [options]");
+                    System.out.println("  -fetch n          % fetch n files at once (" + ObjectFetcher.PARALLELISM + ")");
+                    System.out.println("  -parse n          % parse on n threads (" + PARSE_THREADS + ")");
+                    System.out.println("  -batch n          % send n documents per bulk request (" + BulkIndexer.MAX_ACTIONS + ")");
+                    System.out.println("  -inflight n       % send up to n bulk requests at once (" + BulkIndexer.MAX_IN_FLIGHT + ")");
+                    System.out.println("  -checkpoint fname % record progress in fname (" + CHECKPOINT_FILE + ")");
+                    System.out.println("  -restart          % forget the progress recorded and index everything");
+                    return;
+                }
+                else if (args[i].equals("-fetch"))
+                    corporaIndexer.fetchThreads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-parse"))
+                    corporaIndexer.parseThreads = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-batch"))
+                    corporaIndexer.batchSize = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-inflight"))
+                    corporaIndexer.inFlight = Integer.parseInt(args[++i]);
+                else if (args[i].equals("-checkpoint"))
+                    corporaIndexer.checkpointFile = args[++i];
+                else if (args[i].equals("-restart"))
+                    restart = true;
+                else
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+            if (restart)
+                Files.deleteIfExists(Paths.get(corporaIndexer.checkpointFile));
+        }
+        catch (IOException | RuntimeException e) {
+            System.out.println("Error in CorporaIndexer.main(): " + e.getMessage() + "; try -h");
+            return;
+        }
         corporaIndexer.indexCorpora();
     }
 }
@@ -1,19 +1,30 @@
 package dataprocessing.elasticsearch;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.entity.ContentType;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.nio.entity.NStringEntity;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This code is copyright CloudMinds 2017.
@@ -31,6 +42,28 @@ import java.util.ResourceBundle;
  */
 public class ElasticSearchClient {
 
+    // the most ids in one _mget request
+    public static final int MGET_BATCH = 1000;
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** ***************************************************************
+     * A document found by a search, with its score.
+     */
+    public static class Hit {
+
+        public final String id;
+        public final float score;
+        public final JSONObject source;
+
+        public Hit(String id, float score, JSONObject source) {
+
+            this.id = id;
+            this.score = score;
+            this.source = source;
+        }
+    }
+
     private RestClient client;
     private Header header;
     private String index;
@@ -41,15 +74,30 @@ public class ElasticSearchClient {
      */
     public ElasticSearchClient() {
 
-        ResourceBundle resourceBundle = ResourceBundle.getBundle("elasticsearch");
-        index = resourceBundle.getObject("index").toString();
-        type = resourceBundle.getObject("type").toString();
-        header = new BasicHeader("CloudMinds","empty");
+        this(ResourceBundle.getBundle("elasticsearch"));
+    }
 
-        client = RestClient.builder(new HttpHost(
-                resourceBundle.getObject("host").toString(),
+    /** ***************************************************************
+     */
+    private ElasticSearchClient(ResourceBundle resourceBundle) {
+
+        this(resourceBundle.getObject("host").toString(),
                 Integer.parseInt(resourceBundle.getObject("port").toString()),
-                resourceBundle.getObject("protocol").toString())).build();
+                resourceBundle.getObject("protocol").toString(),
+                resourceBundle.getObject("index").toString(),
+                resourceBundle.getObject("type").toString());
+    }
+
+    /** ***************************************************************
+     * Constructor for a server other than the one in
+     * elasticsearch.properties
+     */
+    public ElasticSearchClient(String host, int port, String protocol, String index, String type) {
+
+        this.index = index;
+        this.type = type;
+        header = new BasicHeader("CloudMinds","empty");
+        client = RestClient.builder(new HttpHost(host, port, protocol)).build();
     }
 
     /** ***************************************************************
@@ -65,11 +113,52 @@ public class ElasticSearchClient {
         }
     }
 
+    /** ***************************************************************
+     * @return an indexer that sends documents to this index in _bulk
+     * batches, several at once.  Close it before this client.
+     */
+    public BulkIndexer bulkIndexer() {
+
+        return new BulkIndexer(client, index, type, header);
+    }
+
+    /** ***************************************************************
+     * @param batchSize the most documents in a bulk request
+     * @param inFlight the most bulk requests sent at once
+     */
+    public BulkIndexer bulkIndexer(int batchSize, int inFlight) {
+
+        return new BulkIndexer(client, index, type, batchSize, BulkIndexer.MAX_BYTES, inFlight, header);
+    }
+
+    /** ***************************************************************
+     * @return the id of the document of a line of a corpus
+     */
+    public static String documentId(String corpus, String file, int line) {
+
+        return corpus + "_" + file + "_" + line;
+    }
+
+    /** ***************************************************************
+     * @return the document of a line of a corpus as JSON, written
+     * straight to a string rather than through a JSONObject
+     */
+    public static String documentSource(String corpus, String file, int line, String text) {
+
+        StringBuilder sb = new StringBuilder(text.length() + corpus.length() + file.length() + 48);
+        sb.append("{\"corpus\":").append(JSONObject.quote(corpus));
+        sb.append(",\"file\":").append(JSONObject.quote(file));
+        sb.append(",\"line\":").append(line);
+        sb.append(",\"text\":").append(JSONObject.quote(text)).append('}');
+        return sb.toString();
+    }
+
     /** ***************************************************************
      * @param corpus Corpus line is from
      * @param line Line number in corpus
      * @param text line text
-     * Indexes line from corpus
+     * Indexes line from corpus, in one request of its own; see
+     * bulkIndexer() for indexing many lines
      *
      * Mapping for chatbot/dialog:
          PUT chatbot
@@ -102,17 +191,11 @@ public class ElasticSearchClient {
      public void indexDocument(String corpus, String file, int line, String text) {
 
          try {
-             JSONObject entity = new JSONObject();
-             entity.put("corpus", corpus);
-             entity.put("file", file);
-             entity.put("line", line);
-             entity.put("text", text);
-
             // Post JSON entity
              client.performRequest("POST",
-                     String.format("/%s/%s/%s", index, type, corpus + "_" + file + "_" + line),
+                     String.format("/%s/%s/%s", index, type, documentId(corpus, file, line)),
                      Collections.emptyMap(),
-                     new NStringEntity(entity.toString(), ContentType.APPLICATION_JSON),
+                     new NStringEntity(documentSource(corpus, file, line, text), ContentType.APPLICATION_JSON),
                      header);
         }
         catch (IOException e) {
@@ -121,35 +204,280 @@ public class ElasticSearchClient {
     }
 
     /** ***************************************************************
-     * @param id Id of document to retrieve
-     * @return document in JSON
+     * @param id Id of document to retrieve, or null or "" for the
+     *           first page of all documents
+     * @return the document's source in JSON, or with no id, an object
+     * keyed by the id of each document with its source; empty if
+     * there is no such document
      */
     public JSONObject retrieveDocument(String id) {
 
-        JSONObject documents = new JSONObject();
+        if (id == null || id.equals("")) {
+            JSONObject documents = new JSONObject();
+            try {
+                Response response = client.performRequest("GET", String.format("/%s/%s/_search", index, type), header);
+                try (InputStream in = response.getEntity().getContent();
+                     JsonParser parser = JSON.createParser(in)) {
+                    for (Hit hit : readHits(parser))
+                        documents.put(hit.id, hit.source);
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+            return documents;
+        }
+        JSONObject document = retrieveDocuments(Collections.singletonList(id)).get(id);
+        return document == null ? new JSONObject() : document;
+    }
+
+    /** ***************************************************************
+     * @param ids Ids of the documents to retrieve
+     * @param fields Fields of each document to return, or none for all
+     * @return the source of each document found, in the order of ids,
+     * fetched with one _mget request per MGET_BATCH ids and parsed as
+     * it streams in
+     */
+    public Map<String,JSONObject> retrieveDocuments(List<String> ids, String... fields) {
+
+        Map<String,JSONObject> documents = new LinkedHashMap<>();
+        Map<String,String> params = fields.length == 0 ? Collections.<String,String>emptyMap() :
+                Collections.singletonMap("_source", String.join(",", fields));
+        for (int from = 0; from < ids.size(); from += MGET_BATCH) {
+            List<String> batch = ids.subList(from, Math.min(ids.size(), from + MGET_BATCH));
+            try {
+                StringWriter body = new StringWriter();
+                try (JsonGenerator generator = JSON.createGenerator(body)) {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart("ids");
+                    for (String id : batch)
+                        generator.writeString(id);
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                }
+                Response response = client.performRequest("POST", String.format("/%s/%s/_mget", index, type),
+                        params, new NStringEntity(body.toString(), ContentType.APPLICATION_JSON), header);
+                try (InputStream in = response.getEntity().getContent();
+                     JsonParser parser = JSON.createParser(in)) {
+                    readDocs(parser, documents);
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (documents.size() < ids.size()) {
+            // put them in the order asked for, which a batch may not keep
+            Map<String,JSONObject> ordered = new LinkedHashMap<>();
+            for (String id : ids)
+                if (documents.containsKey(id))
+                    ordered.put(id, documents.get(id));
+            return ordered;
+        }
+        return documents;
+    }
+
+    /** ***************************************************************
+     * @param text Text to match against the text of each line
+     * @param size The most lines to return
+     * @return the lines that best match text by BM25, best first, with
+     * only their text; the request is sent without waiting, and the
+     * future completes, or fails, when the answer has been read
+     */
+    public CompletableFuture<List<Hit>> searchAsync(String text, int size) {
 
+        CompletableFuture<List<Hit>> result = new CompletableFuture<>();
         try {
-            // Get raw response
-            Response response = client.performRequest("GET", String.format("/%s/%s/%s", index, type, id), header);
-
-            // Convert raw response into JSON
-            String str;
-            StringBuilder responseStrBuilder = new StringBuilder();
-            BufferedReader streamReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-            while ((str = streamReader.readLine()) != null) responseStrBuilder.append(str);
-
-            // Extract documents
-            if (id == null || id.equals(""))
-                documents = (JSONObject) ((JSONObject) new JSONObject(responseStrBuilder.toString()).get("hits")).get("hits");
+            StringWriter body = new StringWriter();
+            try (JsonGenerator generator = JSON.createGenerator(body)) {
+                generator.writeStartObject();
+                generator.writeNumberField("size", size);
+                generator.writeArrayFieldStart("_source");
+                generator.writeString("text");
+                generator.writeEndArray();
+                generator.writeObjectFieldStart("query");
+                generator.writeObjectFieldStart("match");
+                generator.writeStringField("text", text);
+                generator.writeEndObject();
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            client.performRequestAsync("POST", String.format("/%s/%s/_search", index, type),
+                    Collections.<String,String>emptyMap(),
+                    new NStringEntity(body.toString(), ContentType.APPLICATION_JSON), new ResponseListener() {
+
+                        @Override
+                        public void onSuccess(Response response) {
+
+                            try (InputStream in = response.getEntity().getContent();
+                                 JsonParser parser = JSON.createParser(in)) {
+                                result.complete(readHits(parser));
+                            }
+                            catch (IOException | RuntimeException e) {
+                                result.completeExceptionally(e);
+                            }
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+
+                            result.completeExceptionally(e);
+                        }
+                    }, header);
+        }
+        catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /** ***************************************************************
+     * @return whether the server answers and has the index, asked with
+     * a HEAD request sent without waiting; the future completes with
+     * false, rather than failing, if there is no answer
+     */
+    public CompletableFuture<Boolean> pingAsync() {
+
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            client.performRequestAsync("HEAD", "/" + index, Collections.<String,String>emptyMap(),
+                    new ResponseListener() {
+
+                        @Override
+                        public void onSuccess(Response response) {
+
+                            result.complete(response.getStatusLine().getStatusCode() == 200);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+
+                            result.complete(false);
+                        }
+                    }, header);
+        }
+        catch (RuntimeException e) {
+            result.complete(false);
+        }
+        return result;
+    }
+
+    /** ***************************************************************
+     * Read the "docs" of an _mget response, keeping the _source of each
+     * one found
+     */
+    private static void readDocs(JsonParser parser, Map<String,JSONObject> documents) throws IOException {
+
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new IOException("_mget response isn't an object");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && field.equals("docs")) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Hit hit = readHit(parser);
+                    if (hit != null)
+                        documents.put(hit.id, hit.source);
+                }
+            }
             else
-                documents = (JSONObject) new JSONObject(responseStrBuilder.toString()).get("_source");
+                parser.skipChildren();
+        }
+    }
 
+    /** ***************************************************************
+     * Read the "hits" of a _search response
+     * @return the hits, in the order of the response
+     */
+    private static List<Hit> readHits(JsonParser parser) throws IOException {
+
+        List<Hit> hits = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new IOException("_search response isn't an object");
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT && field.equals("hits")) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String hitsField = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.START_ARRAY && hitsField.equals("hits")) {
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            Hit hit = readHit(parser);
+                            if (hit != null)
+                                hits.add(hit);
+                        }
+                    }
+                    else
+                        parser.skipChildren();
+                }
+            }
+            else
+                parser.skipChildren();
         }
-        catch (IOException e) {
-            e.printStackTrace();
+        return hits;
+    }
+
+    /** ***************************************************************
+     * Read one document of a response, from just after its {
+     * @return the document, or null if it wasn't found
+     */
+    private static Hit readHit(JsonParser parser) throws IOException {
+
+        String id = null;
+        float score = 0;
+        JSONObject source = null;
+        boolean found = true;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("_id"))
+                id = parser.getText();
+            else if (field.equals("_score") && token.isNumeric())
+                score = parser.getFloatValue();
+            else if (field.equals("found"))
+                found = token == JsonToken.VALUE_TRUE;
+            else if (field.equals("_source") && token == JsonToken.START_OBJECT)
+                source = (JSONObject) readValue(parser);
+            else
+                parser.skipChildren();
         }
+        if (id == null || !found)
+            return null;
+        return new Hit(id, score, source == null ? new JSONObject() : source);
+    }
 
-        return documents;
+    /** ***************************************************************
+     * @return the value at the current token, as org.json would have
+     * parsed it
+     */
+    private static Object readValue(JsonParser parser) throws IOException {
+
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                JSONObject object = new JSONObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.put(name, readValue(parser));
+                }
+                return object;
+            case START_ARRAY:
+                JSONArray array = new JSONArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY)
+                    array.put(readValue(parser));
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return JSONObject.NULL;
+        }
     }
 
     /** ***************************************************************
@@ -0,0 +1,268 @@
+package chatbot;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static com.amazonaws.util.StringUtils.isNullOrEmpty;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that Analyzer gives the same output as the regular expressions
+ * Chatbot used before it, which are copied here as they were.
+ */
+public class AnalyzerTest {
+
+    private static List<String> stopwords;
+    private static Analyzer analyzer;
+    private static RegexPipeline regex;
+
+    // lines that exercise each quirk of the regular expressions
+    private static final String[] INPUTS = {
+            "",
+            " ",
+            "hello",
+            "Hello, World!",
+            // contractions, after word characters or not, stacked and repeated
+            "I'm sure you're right, they'll say it's what we'd've done",
+            "He isn't here and we aren't there, don't you know?",
+            "donn't wonn'n't can'n'tt 'm 're 're're",
+            "_'s 9'll x'd 'd 's a 's y'all",
+            "We've've been there'sn't it",
+            "n't n'tn't nn't nn'tt",
+            "It's' 's's''s",
+            // commas in every position
+            "a,b , c ,d,, e,,f ,,g",
+            ", leading comma",
+            "trailing comma,",
+            "trailing comma ,",
+            ",,,",
+            "one,two,three",
+            "x, y,z",
+            // other punctuation and quotes
+            "Wait... what?! \"Quoted\" 'single' semi;colon: done.",
+            "tab\there and\tthere",
+            "many    spaces     between",
+            "   leading and trailing   ",
+            // control characters
+            "bell\u0007 and\u0000null",
+            "\u0001start and end\u0002",
+            "line\nbreak and\rreturn\u000Bvt\u000Cff",
+            "\t\n\r",
+            "\u0000",
+            // non-ASCII text
+            "Caf\u00E9 na\u00EFve r\u00E9sum\u00E9",
+            "\u65E5\u672C\u8A9E\u306E\u6587\u7AE0\u3067\u3059",
+            "\u00C0BOUT \u0130t \u212Aeep",
+            "emoji \uD83D\uDE00 smile",
+            "a,\uD83D\uDE00b ,\uD83D\uDE00 c,\uD83D",
+            "non\u00A0breaking\u2003space",
+            "\u201Csmart quotes\u201D and \u2019apostrophe\u2019s",
+            // stop words in every case
+            "The THE the tHe",
+            "ABOUT About about aBoUt",
+            "I i Me ME me",
+            "And so ON and SO on",
+            "Is it OK if I ask WHY?",
+    };
+
+    /** *************************************************************
+     * Chatbot's tokenizing before Analyzer: processDoc() up to the
+     * split, and the methods it called, copied as they were.
+     */
+    static class RegexPipeline {
+
+        private final List<String> stopwords;
+
+        RegexPipeline(List<String> stopwords) {
+
+            this.stopwords = stopwords;
+        }
+
+        /** the terms processDoc() indexed, or null if there were none */
+        ArrayList<String> tokens(String doc) {
+
+            if (isNullOrEmpty(doc))
+                return null;
+            String line = removePunctuation(doc);
+            line = removeStopWords(line);
+            if (isNullOrEmpty(line.trim()))
+                return null;
+            return splitToArrayList(line.trim());
+        }
+
+        public String removePunctuation(String sentence) {
+
+            Matcher m = null;
+            if (isNullOrEmpty(sentence))
+                return sentence;
+            m = Pattern.compile("(\\w)\\'re").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)\\'m").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)n\\'t").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)\\'ll").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)\\'s").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)\\'d").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            m = Pattern.compile("(\\w)\\'ve").matcher(sentence);
+            while (m.find()) {
+                //System.out.println("matches");
+                String group = m.group(1);
+                sentence = m.replaceFirst(group).toString();
+                m.reset(sentence);
+            }
+            sentence = sentence.replaceAll("\\'","");
+            sentence = sentence.replaceAll("\"","");
+            sentence = sentence.replaceAll("\\.","");
+            sentence = sentence.replaceAll("\\;","");
+            sentence = sentence.replaceAll("\\:","");
+            sentence = sentence.replaceAll("\\?","");
+            sentence = sentence.replaceAll("\\!","");
+            sentence = sentence.replaceAll("\\, "," ");
+            sentence = sentence.replaceAll("\\,[^ ]",", ");
+            sentence = sentence.replaceAll("  "," ");
+            return sentence;
+        }
+
+        public String removeStopWords(String sentence) {
+
+            if (isNullOrEmpty(sentence))
+                return "";
+            String result = "";
+            ArrayList<String> al = splitToArrayList(sentence);
+            if (al == null)
+                return "";
+            return al.stream()
+                    .filter(s -> !stopwords.contains(s.toLowerCase()))
+                    .collect(Collectors.joining(" "));
+        }
+
+        private static ArrayList<String> splitToArrayList(String st) {
+
+            if (isNullOrEmpty(st)) {
+                System.out.println("Error in TFIDF.splitToArrayList(): empty string input");
+                return null;
+            }
+            String[] sentar = st.split(" ");
+            return new ArrayList<String>(Arrays.asList(sentar)).stream()
+                    .filter(s -> s != null && !s.equals("") && !s.matches("\\s*"))
+                    .collect(Collectors.toCollection(ArrayList<String>::new));
+        }
+    }
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        stopwords = new ArrayList<>();
+        for (String word : ChatbotTest.readLines(ChatbotTest.STOPWORDS))
+            stopwords.add(word.intern());
+        analyzer = new Analyzer(stopwords);
+        regex = new RegexPipeline(stopwords);
+    }
+
+    /** *************************************************************
+     */
+    private static void assertSame(String input) {
+
+        String message = "input \"" + input + "\"";
+        assertEquals(message, regex.removePunctuation(input), analyzer.removePunctuation(input));
+        assertEquals(message, regex.removeStopWords(input), analyzer.removeStopWords(input));
+        assertEquals(message, regex.tokens(input), analyzer.tokenize(input));
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testFixedInputs() {
+
+        for (String input : INPUTS)
+            assertSame(input);
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testCorpus() throws IOException {
+
+        for (String line : ChatbotTest.readLines(ChatbotTest.CORPUS))
+            assertSame(line);
+        for (String line : ChatbotTest.readLines(ChatbotTest.QUERIES))
+            assertSame(line);
+    }
+
+    /** *************************************************************
+     * Random strings over the characters the regular expressions treat
+     * specially, some letters, stop words, control and non-ASCII
+     * characters.
+     */
+    @Test
+    public void testRandomInputs() {
+
+        String[] pieces = {"'", "'re", "'m", "n't", "'ll", "'s", "'d", "'ve", "n", "t", ",", ", ", " ", "  ",
+                ".", ";", ":", "?", "!", "\"", "\t", "\n", "\r", "\u0000", "\u001f", "a", "Z", "_", "7", "the",
+                "THE", "About", "i", "\u00E9", "\u00C9", "\u0130", "\u212A", "\u00A0", "\u65E5", "\uD83D\uDE00",
+                "word", "Word"};
+        Random random = new Random(18021918);
+        for (int trial = 0; trial < 20000; trial++) {
+            StringBuilder sb = new StringBuilder();
+            int n = random.nextInt(12);
+            for (int i = 0; i < n; i++)
+                sb.append(pieces[random.nextInt(pieces.length)]);
+            assertSame(sb.toString());
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package chatbot;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks ChatServer on a free port: that it is ready, and answers chat
+ * requests, only once the corpus is loaded, that its answers are those
+ * of the Chatbot, one by one or in a batch, that bad requests get 400,
+ * 404, 405 and 413, and that a request the pool has no room for gets
+ * 503 with a Retry-After header straight away.
+ */
+public class ChatServerTest {
+
+    private static List<String> corpus;
+    private static List<String> queries;
+
+    // answers the queries as the server's Chatbot should
+    private static Chatbot expected;
+
+    private Chatbot chatbot;
+    private ChatServer server;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        Chatbot.setShards(1);
+        corpus = ChatbotTest.readLines(ChatbotTest.CORPUS);
+        queries = new ArrayList<>();
+        for (String query : ChatbotTest.readLines(ChatbotTest.QUERIES))
+            if (!query.trim().isEmpty())
+                queries.add(query);
+        expected = new Chatbot(corpus, ChatbotTest.STOPWORDS);
+    }
+
+    /** *************************************************************
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        chatbot = new Chatbot(ChatbotTest.STOPWORDS);
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        if (server != null)
+            server.stop(0);
+    }
+
+    /** *************************************************************
+     * Start a server of chatbot on a free port, whose requests run on
+     * executor.
+     */
+    private void start(ExecutorService executor) throws IOException {
+
+        server = new ChatServer(chatbot, 0, false, executor);
+        server.start();
+    }
+
+    /** *************************************************************
+     * The status, headers and JSON body of an answer, whose json is
+     * null if the body isn't JSON, as that of a path with no handler.
+     */
+    private static class Answer {
+
+        int status;
+        String retryAfter;
+        String allow;
+        JSONObject json;
+    }
+
+    /** *************************************************************
+     * @return the answer to method on path, with body if it isn't null
+     */
+    private Answer request(String method, String path, byte[] body) throws IOException {
+
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL("http://localhost:" + server.port() + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(10000);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        Answer answer = new Answer();
+        answer.status = connection.getResponseCode();
+        answer.retryAfter = connection.getHeaderField("Retry-After");
+        answer.allow = connection.getHeaderField("Allow");
+        InputStream in = answer.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream i = in) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = i.read(buf)) >= 0)
+                bytes.write(buf, 0, n);
+        }
+        String type = connection.getContentType();
+        if (type != null && type.startsWith("application/json"))
+            answer.json = new JSONObject(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        return answer;
+    }
+
+    /** *************************************************************
+     */
+    private Answer post(String path, JSONObject body) throws IOException {
+
+        return request("POST", path, body.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** *************************************************************
+     */
+    private Answer chat(String input) throws IOException {
+
+        return post("/chat", new JSONObject().put("input", input));
+    }
+
+    /** *************************************************************
+     * Before the corpus is loaded /ready and chat requests get 503, and
+     * afterwards /ready gets 200.
+     */
+    @Test
+    public void testReady() throws IOException {
+
+        start(Executors.newCachedThreadPool());
+        Answer ready = request("GET", "/ready", null);
+        assertEquals(503, ready.status);
+        assertFalse(ready.json.getBoolean("ready"));
+        Answer chat = chat(queries.get(0));
+        assertEquals(503, chat.status);
+        assertEquals("index not loaded yet", chat.json.getString("error"));
+        assertEquals(503, post("/chat/batch", new JSONObject().put("inputs", new JSONArray(queries))).status);
+
+        chatbot.prepare(corpus, ChatbotTest.STOPWORDS);
+        ready = request("GET", "/ready", null);
+        assertEquals(200, ready.status);
+        assertTrue(ready.json.getBoolean("ready"));
+    }
+
+    /** *************************************************************
+     * Each query gets the Chatbot's response, alone or in a batch, in
+     * which blank utterances get null.
+     */
+    @Test
+    public void testChatAndBatch() throws IOException {
+
+        chatbot.prepare(corpus, ChatbotTest.STOPWORDS);
+        start(Executors.newCachedThreadPool());
+        List<String> responses = new ArrayList<>();
+        for (String query : queries) {
+            Answer answer = chat(query);
+            assertEquals(query, 200, answer.status);
+            String response = expected.matchBestInput(query);
+            assertEquals(query, response, answer.json.getString("response"));
+            responses.add(response);
+        }
+
+        JSONArray inputs = new JSONArray(queries);
+        inputs.put(1, "  ");
+        Answer batch = post("/chat/batch", new JSONObject().put("inputs", inputs));
+        assertEquals(200, batch.status);
+        JSONArray answers = batch.json.getJSONArray("responses");
+        assertEquals(queries.size(), answers.length());
+        for (int i = 0; i < queries.size(); i++) {
+            if (i == 1)
+                assertTrue(answers.isNull(i));
+            else
+                assertEquals(queries.get(i), responses.get(i), answers.getString(i));
+        }
+    }
+
+    /** *************************************************************
+     * Requests the server can't serve get the status that says why.
+     */
+    @Test
+    public void testBadRequests() throws IOException {
+
+        chatbot.prepare(corpus, ChatbotTest.STOPWORDS);
+        start(Executors.newCachedThreadPool());
+        assertEquals(400, post("/chat", new JSONObject()).status);
+        assertEquals(400, chat(" ").status);
+        assertEquals(400, request("POST", "/chat", "{\"input\": ".getBytes(StandardCharsets.UTF_8)).status);
+        assertEquals(400, post("/chat/batch", new JSONObject().put("inputs", "hi")).status);
+        assertEquals(400, request("POST", "/chat/batch", "[]".getBytes(StandardCharsets.UTF_8)).status);
+
+        Answer get = request("GET", "/chat", null);
+        assertEquals(405, get.status);
+        assertEquals("POST", get.allow);
+        assertEquals(405, request("PUT", "/chat/batch", new byte[0]).status);
+        assertEquals(404, post("/chat/more", new JSONObject().put("input", "hi")).status);
+        assertEquals(404, post("/lines", new JSONObject().put("lines", new JSONArray().put("hi"))).status);
+
+        byte[] large = new byte[ChatServer.MAX_BODY_BYTES + 100];
+        Arrays.fill(large, (byte) ' ');
+        assertEquals(413, request("POST", "/chat", large).status);
+        JSONArray inputs = new JSONArray();
+        for (int i = 0; i <= ChatServer.MAX_BATCH; i++)
+            inputs.put("hi");
+        assertEquals(413, post("/chat/batch", new JSONObject().put("inputs", inputs)).status);
+    }
+
+    /** *************************************************************
+     * With the one thread of the pool matching and the one place in
+     * its queue taken, another request is answered by the overflow
+     * thread with 503 and Retry-After, without waiting for either; both
+     * are answered once the matching goes on.
+     */
+    @Test
+    public void testOverflow() throws Exception {
+
+        CountDownLatch matching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        chatbot.setBackend(new RetrievalBackend() {
+
+            @Override
+            public CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k) {
+
+                matching.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return CompletableFuture.completedFuture(new Candidates() {
+
+                    public TreeMap<Float,ArrayList<Integer>> scores() { return new TreeMap<>(); }
+                    public boolean hasUnscored() { return false; }
+                    public String line(int candidate) { return null; }
+                    public int sentiment(int candidate) { return 0; }
+                });
+            }
+
+            @Override
+            public boolean isReady() {
+
+                return true;
+            }
+        });
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1), new ThreadPoolExecutor.AbortPolicy());
+        start(pool);
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            Future<Answer> first = clients.submit(() -> chat("what is the weather"));
+            assertTrue(matching.await(10, TimeUnit.SECONDS));
+            Future<Answer> second = clients.submit(() -> chat("how are you"));
+            long deadline = System.currentTimeMillis() + 10000;
+            while (pool.getQueue().isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(1, pool.getQueue().size());
+
+            Answer busy = chat("hello");
+            assertEquals(503, busy.status);
+            assertEquals("1", busy.retryAfter);
+            assertEquals("server busy", busy.json.getString("error"));
+            assertFalse(first.isDone());
+            assertFalse(second.isDone());
+
+            release.countDown();
+            assertEquals(200, first.get(10, TimeUnit.SECONDS).status);
+            assertEquals(200, second.get(10, TimeUnit.SECONDS).status);
+            assertEquals(200, chat("hello").status);
+        }
+        finally {
+            release.countDown();
+            clients.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package chatbot;
+
+import nlp.KMeans;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that matchBestInput() clusters the similarity of every line
+ * of a fixed corpus to the query, as it did before it found candidates
+ * in an index, and not just those of its best TOP_K lines.
+ */
+public class ChatbotTest {
+
+    static final String CORPUS = "src/test/resources/chatbot/corpus.txt";
+    static final String QUERIES = "src/test/resources/chatbot/queries.txt";
+    static final String STOPWORDS = "src/main/java/chatbot/resourcefiles/stopwords.txt";
+
+    // lines added to the corpus so that more than TOP_K lines share the
+    // terms of some queries, drawn from a Random with a fixed seed
+    private static final int WEATHER_LINES = 10 * Chatbot.TOP_K;
+    private static final long SEED = 1;
+
+    private static List<String> queries;
+    private static Chatbot chatbot;
+    private static Chatbot large;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        Chatbot.setShards(1);
+        queries = readLines(QUERIES);
+        List<String> corpus = readLines(CORPUS);
+        chatbot = new Chatbot(corpus, STOPWORDS);
+        List<String> more = new ArrayList<>(corpus);
+        more.addAll(weatherLines(WEATHER_LINES, SEED));
+        large = new Chatbot(more, STOPWORDS);
+    }
+
+    /** *************************************************************
+     */
+    @AfterClass
+    public static void tearDown() {
+
+        Chatbot.setShards(1);
+    }
+
+    /** *************************************************************
+     */
+    static List<String> readLines(String fname) throws IOException {
+
+        return Files.readAllLines(Paths.get(fname), StandardCharsets.UTF_8);
+    }
+
+    /** *************************************************************
+     * @return n lines about the weather, of up to six words each from
+     * a few common ones and many made up ones, so their similarities
+     * to a query take many values
+     */
+    static List<String> weatherLines(int n, long seed) {
+
+        String[] words = {"sunny", "rain", "cold", "warm", "snow", "wind", "beach", "park", "today", "tonight"};
+        String[] vocab = new String[40];
+        for (int i = 0; i < vocab.length; i++)
+            vocab[i] = "w" + (char) ('a' + i % 26) + (char) ('a' + i / 26);
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder("the weather");
+            int length = 1 + random.nextInt(6);
+            for (int j = 0; j < length; j++)
+                sb.append(' ').append(random.nextInt(3) == 0 ? words[random.nextInt(words.length)] :
+                        vocab[random.nextInt(vocab.length)]);
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /** *************************************************************
+     * @return the response of clustering only the TOP_K best lines, as
+     * matchBestInput() did when it took its candidates from topK()
+     */
+    static String topKReference(Chatbot chatbot, String query) {
+
+        TreeMap<Float,ArrayList<Integer>> sortedSim = chatbot.matchInputTopK(query, Chatbot.TOP_K);
+        return cluster(chatbot.liveIndex(), sortedSim);
+    }
+
+    /** *************************************************************
+     * @return the response matchBestInput() gave when it scored every
+     * line: the first line of the top cluster of the distinct
+     * similarities of all lines, zero for those sharing no term
+     */
+    static String reference(Chatbot chatbot, String query) {
+
+        return cluster(chatbot.liveIndex(), chatbot.matchInputFull(query));
+    }
+
+    /** *************************************************************
+     * @return the distinct similarities of the lines of chatbot to the
+     * query, in ascending order, with zero if any line shares no term
+     * with it, which is what matchBestInput() clusters
+     */
+    static float[] similarities(Chatbot chatbot, String query) {
+
+        return similarities(chatbot.liveIndex(), chatbot.matchInputFull(query));
+    }
+
+    /** *************************************************************
+     */
+    private static float[] similarities(LiveIndex index, TreeMap<Float,ArrayList<Integer>> sortedSim) {
+
+        TreeSet<Float> sims = new TreeSet<>(sortedSim.keySet());
+        int scored = 0;
+        for (ArrayList<Integer> docs : sortedSim.values())
+            scored += docs.size();
+        if (scored < index.nonEmptyDocs())
+            sims.add(0f);
+        float[] values = new float[sims.size()];
+        int n = 0;
+        for (Float f : sims)
+            values[n++] = f;
+        return values;
+    }
+
+    /** *************************************************************
+     * @return the top cluster of floatarray as matchBestInput() chose it
+     * before TopClusterSelector, by running KMeans.run() again with one
+     * more cluster until the last held at most three values
+     */
+    static ArrayList<Float> kMeansTopCluster(float[] floatarray) {
+
+        int numClusters = 3;
+        if (floatarray.length < numClusters)
+            numClusters = floatarray.length;
+        ArrayList<ArrayList<Float>> res = KMeans.run(floatarray.length, floatarray, numClusters);
+        ArrayList<Float> topCluster = res.get(res.size() - 2);
+        while (res.get(res.size() - 2).size() > 3 && numClusters < floatarray.length) {
+            numClusters++;
+            res = KMeans.run(floatarray.length, floatarray, numClusters);
+            topCluster = res.get(res.size() - 2);
+        }
+        return topCluster;
+    }
+
+    /** *************************************************************
+     * @return the first line of the top cluster of the similarities of
+     * sortedSim, with zero if it leaves out any line of index
+     */
+    private static String cluster(LiveIndex index, TreeMap<Float,ArrayList<Integer>> sortedSim) {
+
+        float[] values = similarities(index, sortedSim);
+        if (values.length == 0 || values[values.length - 1] < .1)
+            return "I don't know";
+        for (Float f : kMeansTopCluster(values)) {
+            ArrayList<Integer> docs = sortedSim.get(f);
+            if (docs != null)
+                return index.line(docs.get(0));
+        }
+        return "I don't know";
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testMatchesEveryLine() {
+
+        for (String query : queries)
+            assertEquals(query, reference(chatbot, query), chatbot.matchBestInputUncached(query));
+    }
+
+    /** *************************************************************
+     * Some queries share terms with more than TOP_K lines here, and
+     * for at least one of them clustering the best TOP_K alone gives
+     * another response, so this would fail if matchBestInput() did.
+     */
+    @Test
+    public void testMatchesEveryLineOfLargeCorpus() {
+
+        int differ = 0;
+        for (String query : queries) {
+            String expected = reference(large, query);
+            if (!expected.equals(topKReference(large, query)))
+                differ++;
+            assertEquals(query, expected, large.matchBestInputUncached(query));
+        }
+        assertTrue(differ > 0);
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testShardsMatchOneShard() {
+
+        try {
+            for (int shards : new int[] {2, 3, 8}) {
+                Chatbot.setShards(shards);
+                for (String query : queries)
+                    assertEquals(query + " in " + shards + " shards", reference(large, query),
+                            large.matchBestInputUncached(query));
+            }
+        }
+        finally {
+            Chatbot.setShards(1);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package chatbot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dataprocessing.elasticsearch.ElasticSearchClient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks ElasticSearchBackend against a stub of the _search API: the
+ * candidates a search finds, and that the backend is ready only while
+ * the server answers.
+ */
+public class ElasticSearchBackendTest {
+
+    private static final String INDEX = "chatbot";
+    private static final String TYPE = "dialog";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ElasticSearchClient client;
+
+    // whether the stub answers, and the requests of each kind it had
+    private volatile boolean up = true;
+    private final AtomicInteger pings = new AtomicInteger();
+    private final AtomicInteger searches = new AtomicInteger();
+    private volatile JSONObject lastSearch = null;
+
+    /** *************************************************************
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        client = new ElasticSearchClient("localhost", server.getAddress().getPort(), "http", INDEX, TYPE);
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** *************************************************************
+     * Answer HEAD /index, and _search with three hits.  While down, the index is missing and every search fails.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                body.write(buf, 0, n);
+        }
+        String text = new String(body.toByteArray(), StandardCharsets.UTF_8);
+        if (method.equals("HEAD") && path.equals("/" + INDEX)) {
+            pings.incrementAndGet();
+            exchange.sendResponseHeaders(up ? 200 : 404, -1);
+            exchange.close();
+        }
+        else if (path.equals("/" + INDEX + "/" + TYPE + "/_search")) {
+            searches.incrementAndGet();
+            lastSearch = new JSONObject(text);
+            if (!up) {
+                respond(exchange, 500, "{\"error\":\"all shards failed\",\"status\":500}");
+                return;
+            }
+            JSONArray hits = new JSONArray();
+            hits.put(hit("a", 3.5, "the weather is sunny"));
+            hits.put(hit("b", 2.0, "sunny days at the beach"));
+            hits.put(hit("c", 2.0, "rain again"));
+            respond(exchange, 200, new JSONObject().put("took", 2).put("timed_out", false)
+                    .put("hits", new JSONObject().put("total", 3).put("max_score", 3.5).put("hits", hits)).toString());
+        }
+        else
+            respond(exchange, 404, "{}");
+    }
+
+    /** *************************************************************
+     */
+    private static JSONObject hit(String id, double score, String text) {
+
+        return new JSONObject().put("_index", INDEX).put("_type", TYPE).put("_id", id).put("_score", score)
+                .put("_source", new JSONObject().put("text", text));
+    }
+
+    /** *************************************************************
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** *************************************************************
+     * @return whether backend became ready within millis
+     */
+    private static boolean readyWithin(ElasticSearchBackend backend, long millis) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + millis;
+        while (!backend.isReady() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        return backend.isReady();
+    }
+
+    /** *************************************************************
+     * The hits of a search become candidates numbered in their order,
+     * the equal scores sharing one entry.
+     */
+    @Test
+    public void testRetrieve() throws Exception {
+
+        ElasticSearchBackend backend = new ElasticSearchBackend(client);
+        RetrievalBackend.Candidates candidates =
+                backend.retrieve(new ArrayList<>(Arrays.asList("weather", "sunny")), 10).get(5, TimeUnit.SECONDS);
+        assertEquals(10, lastSearch.getInt("size"));
+        assertEquals("weather sunny", lastSearch.getJSONObject("query").getJSONObject("match").getString("text"));
+        assertEquals(3, candidates.size());
+        assertTrue(candidates.hasUnscored());
+        assertEquals(Arrays.asList(0), candidates.scores().get(3.5f));
+        assertEquals(Arrays.asList(1, 2), candidates.scores().get(2.0f));
+        assertEquals("the weather is sunny", candidates.line(0));
+        assertEquals("rain again", candidates.line(2));
+        assertArrayEquals(new float[] {0f, 2.0f, 3.5f}, candidates.similarities(), 0f);
+
+        candidates = backend.retrieve(null, 10).get(5, TimeUnit.SECONDS);
+        assertEquals(0, candidates.size());
+        assertEquals(1, searches.get());
+    }
+
+    /** *************************************************************
+     * The backend is ready once a ping finds the index, isn't once a
+     * search fails, and is again once a later ping succeeds; within
+     * readyMillis of an outcome it doesn't ping.
+     */
+    @Test
+    public void testReadiness() throws Exception {
+
+        ElasticSearchBackend backend = new ElasticSearchBackend(client, 200);
+        assertTrue(readyWithin(backend, 5000));
+        int before = pings.get();
+        for (int i = 0; i < 100; i++)
+            backend.isReady();
+        assertTrue(pings.get() <= before + 1);
+
+        up = false;
+        try {
+            backend.retrieve(new ArrayList<>(Collections.singletonList("weather")), 10).get(5, TimeUnit.SECONDS);
+            fail("a search succeeded against a server that fails them");
+        }
+        catch (ExecutionException e) {
+            assertFalse(backend.isReady());
+        }
+        Thread.sleep(300);
+        assertFalse(readyWithin(backend, 1000));
+        assertTrue(pings.get() > before + 1);
+
+        up = true;
+        assertTrue(readyWithin(backend, 5000));
+        backend.retrieve(new ArrayList<>(Collections.singletonList("weather")), 10).get(5, TimeUnit.SECONDS);
+        assertTrue(backend.isReady());
+    }
+}
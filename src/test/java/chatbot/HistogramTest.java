@@ -0,0 +1,178 @@
+package chatbot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks Histogram: that its buckets cover every value once, each no
+ * wider than 1/32 of its values, that percentiles are never below the
+ * exact ones nor more than 1/32 above, and that values recorded by
+ * many threads at once are all counted.
+ */
+public class HistogramTest {
+
+    /** *************************************************************
+     * The buckets run from 0 to Long.MAX_VALUE without gaps or
+     * overlaps; the first 32 hold a value each, and each after them is
+     * at most 1/32 of its lowest value wide.
+     */
+    @Test
+    public void testBucketBoundaries() {
+
+        for (int v = 0; v < 32; v++) {
+            assertEquals(v, Histogram.bucket(v));
+            assertEquals(v, Histogram.lowest(v));
+            assertEquals(v, Histogram.highest(v));
+        }
+        assertEquals(32, Histogram.bucket(32));
+        assertEquals(63, Histogram.bucket(63));
+        assertEquals(64, Histogram.bucket(64));
+        assertEquals(64, Histogram.bucket(65));
+        assertEquals(65, Histogram.bucket(66));
+        assertEquals(96, Histogram.bucket(128));
+        assertEquals(96, Histogram.bucket(131));
+
+        int last = Histogram.bucket(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, Histogram.highest(last));
+        assertEquals(0, Histogram.lowest(0));
+        for (int b = 0; b <= last; b++) {
+            long lowest = Histogram.lowest(b);
+            long highest = Histogram.highest(b);
+            assertEquals(b, Histogram.bucket(lowest));
+            assertEquals(b, Histogram.bucket(highest));
+            assertTrue(b + ": " + lowest + ".." + highest, highest - lowest <= lowest / 32);
+            if (b < last)
+                assertEquals(highest + 1, Histogram.lowest(b + 1));
+        }
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long v = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int b = Histogram.bucket(v);
+            assertTrue(v + " in " + b, Histogram.lowest(b) <= v && v <= Histogram.highest(b));
+        }
+    }
+
+    /** *************************************************************
+     * @return the value quantile of sorted are at or below, by rank
+     */
+    private static long exact(long[] sorted, double quantile) {
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * sorted.length));
+        return sorted[(int) rank - 1];
+    }
+
+    /** *************************************************************
+     * @return a histogram of values
+     */
+    private static Histogram of(long[] values) {
+
+        Histogram h = new Histogram();
+        for (long v : values)
+            h.record(v);
+        return h;
+    }
+
+    /** *************************************************************
+     * Each percentile of values spread over many powers of two is the
+     * exact one or up to 1/32 above it, and the 100th is the largest.
+     */
+    @Test
+    public void testPercentileAccuracy() {
+
+        Random random = new Random(2);
+        long[] values = new long[200000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (long) Math.exp(8 + 3 * random.nextGaussian());
+        Histogram h = of(values);
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : new double[] {0, 0.001, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 0.9999, 1}) {
+            long expected = exact(sorted, q);
+            long actual = h.percentile(q);
+            assertTrue(q + ": " + actual + " below " + expected, actual >= expected);
+            assertTrue(q + ": " + actual + " too far above " + expected, actual - expected <= expected / 32);
+        }
+        assertEquals(sorted[sorted.length - 1], h.percentile(1));
+        assertEquals(sorted[sorted.length - 1], h.max());
+
+        long[] small = new long[100];
+        for (int i = 0; i < small.length; i++)
+            small[i] = i + 1;
+        Histogram exactly = of(small);
+        assertEquals(1, exactly.percentile(0));
+        assertEquals(31, exactly.percentile(0.31));
+        assertEquals(50, exactly.percentile(0.5));
+        assertEquals(100, exactly.percentile(0.999));
+    }
+
+    /** *************************************************************
+     * Count, sum, mean and max; nothing recorded reads as 0, negative
+     * values count as 0, and reset() forgets everything.
+     */
+    @Test
+    public void testSummary() {
+
+        Histogram h = new Histogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(0.5));
+        assertEquals(0, h.mean(), 0);
+        h.record(10);
+        h.record(-5);
+        h.record(1000000);
+        assertEquals(3, h.count());
+        assertEquals(1000010, h.sum());
+        assertEquals(1000010 / 3.0, h.mean(), 1e-9);
+        assertEquals(1000000, h.max());
+        assertEquals(0, h.percentile(0.3));
+        assertEquals(10, h.percentile(0.5));
+        assertEquals(1000000, h.percentile(1));
+
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.sum());
+        assertEquals(0, h.max());
+        assertEquals(0, h.percentile(0.99));
+    }
+
+    /** *************************************************************
+     * Values recorded by many threads at once are all counted.
+     */
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+
+        Histogram h = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 100000; i++)
+                    h.record(i + offset);
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(400000, h.count());
+        long sum = 0;
+        for (int t = 0; t < threads.length; t++)
+            sum += 100000L * 100001 / 2 + 100000L * t;
+        assertEquals(sum, h.sum());
+        assertEquals(100003, h.max());
+        assertEquals(100003, h.percentile(1));
+    }
+}
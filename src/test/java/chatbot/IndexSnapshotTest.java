@@ -0,0 +1,122 @@
+package chatbot;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that a snapshot loads back as it was written when it is
+ * mapped in segments far smaller than the file, so that arrays and
+ * text run across many of them, and when its arrays are larger than
+ * one chunk of a write.
+ */
+public class IndexSnapshotTest {
+
+    private static final long CHECKSUM = 0x0123456789abcdefL;
+
+    private static Analyzer analyzer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        analyzer = new Analyzer(ChatbotTest.readLines(ChatbotTest.STOPWORDS));
+    }
+
+    /** *************************************************************
+     * Write lines with their index, load them back mapped in segments
+     * of each size, and check every array and line.
+     */
+    private void assertRoundTrip(List<String> lines, int[] segmentSizes) throws IOException {
+
+        TfidfIndexBuilder builder = new TfidfIndexBuilder();
+        builder.addDocuments(lines, analyzer, null);
+        TfidfIndex index = builder.build(lines.size());
+        int[] sentiment = new int[lines.size()];
+        for (int i = 0; i < sentiment.length; i++)
+            sentiment[i] = i % 7 - 3;
+        String file = new File(folder.getRoot(), "snapshot").getPath();
+        IndexSnapshot.write(file, CHECKSUM, lines, builder, index, lines.size(), sentiment);
+
+        for (int segmentBytes : segmentSizes) {
+            String message = "segments of " + segmentBytes;
+            IndexSnapshot snapshot = IndexSnapshot.load(file, CHECKSUM, segmentBytes);
+            assertNotNull(message, snapshot);
+            assertEquals(message, lines, snapshot.lines);
+            assertEquals(message, lines.size(), snapshot.idfDocCount);
+            assertArrayEquals(message, sentiment, snapshot.sentiment);
+            TfidfIndex loaded = snapshot.index;
+            assertEquals(message, index.termCount, loaded.termCount);
+            assertEquals(message, index.docCount, loaded.docCount);
+            assertEquals(message, index.nonEmptyDocs, loaded.nonEmptyDocs);
+            for (int t = 0; t < index.termCount; t++)
+                assertEquals(message, index.terms.term(t), loaded.terms.term(t));
+            assertArrayEquals(message, index.docfreq, loaded.docfreq);
+            assertArrayEquals(message, index.idf, loaded.idf, 0f);
+            assertArrayEquals(message, index.rowOffsets, loaded.rowOffsets);
+            assertArrayEquals(message, index.termIds, loaded.termIds);
+            assertArrayEquals(message, index.weights, loaded.weights, 0f);
+            assertArrayEquals(message, index.norms, loaded.norms, 0f);
+            assertArrayEquals(message, index.postingOffsets, loaded.postingOffsets);
+            assertArrayEquals(message, index.postingDocs, loaded.postingDocs);
+            assertArrayEquals(message, index.postingWeights, loaded.postingWeights, 0f);
+            assertArrayEquals(message, index.maxWeights, loaded.maxWeights, 0f);
+            assertArrayEquals(message, builder.counts(), snapshot.builder.counts());
+        }
+        assertNull(IndexSnapshot.load(file, CHECKSUM + 1));
+    }
+
+    /** *************************************************************
+     * The fixture corpus with text of several bytes a character, in
+     * segments down to the smallest that hold the header.
+     */
+    @Test
+    public void testSmallSegments() throws IOException {
+
+        List<String> lines = new ArrayList<>(ChatbotTest.readLines(ChatbotTest.CORPUS));
+        lines.add("Caf\u00E9 na\u00EFve r\u00E9sum\u00E9");
+        lines.add("\u65E5\u672C\u8A9E\u306E\u6587\u7AE0\u3067\u3059");
+        lines.add("emoji \uD83D\uDE00 smile");
+        lines.add("");
+        assertRoundTrip(lines, new int[] {64, 72, 136, 4096, IndexSnapshot.SEGMENT_BYTES});
+    }
+
+    /** *************************************************************
+     * More entries than one chunk of a write holds.
+     */
+    @Test
+    public void testChunkedWrites() throws IOException {
+
+        List<String> lines = ChatbotTest.weatherLines(80000, 2);
+        TfidfIndexBuilder builder = new TfidfIndexBuilder();
+        builder.addDocuments(lines, analyzer, null);
+        assertTrue(builder.counts().length > (1 << 20) / 4);
+        assertRoundTrip(lines, new int[] {1 << 16, IndexSnapshot.SEGMENT_BYTES});
+    }
+}
@@ -0,0 +1,170 @@
+package chatbot;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that a query scores exactly the appended lines that share a
+ * term with it, found through their postings, including while another
+ * thread goes on appending.
+ */
+public class LiveIndexTest {
+
+    private static Analyzer analyzer;
+    private static List<String> corpus;
+    private static List<String> queries;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        analyzer = new Analyzer(ChatbotTest.readLines(ChatbotTest.STOPWORDS));
+        corpus = ChatbotTest.readLines(ChatbotTest.CORPUS);
+        queries = new ArrayList<>(ChatbotTest.readLines(ChatbotTest.QUERIES));
+        queries.add("sunny wind wba");
+        queries.add("wza wzb");
+    }
+
+    /** *************************************************************
+     * @return a LiveIndex built from the first half of the corpus
+     */
+    private static LiveIndex halfBuilt() {
+
+        List<String> half = corpus.subList(0, corpus.size() / 2);
+        TfidfIndexBuilder builder = new TfidfIndexBuilder();
+        builder.addDocuments(half, analyzer, null);
+        return new LiveIndex(builder.build(half.size()), half.size(), half.toArray(new String[half.size()]), null);
+    }
+
+    /** *************************************************************
+     * @return the appended lines of lines, from base on, that share a
+     * term with the query
+     */
+    private static Set<Integer> sharing(List<String> lines, int base, String query) {
+
+        List<String> terms = analyzer.tokenize(query);
+        Set<Integer> docs = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            List<String> tokens = analyzer.tokenize(lines.get(i));
+            if (terms == null || tokens == null)
+                continue;
+            for (String t : tokens)
+                if (terms.contains(t))
+                    docs.add(base + i);
+        }
+        return docs;
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testScoresLinesSharingATerm() {
+
+        LiveIndex index = halfBuilt();
+        int base = index.docCount();
+        List<String> added = new ArrayList<>(corpus.subList(corpus.size() / 2, corpus.size()));
+        added.addAll(ChatbotTest.weatherLines(2000, 3));
+        added.add("");
+        for (String line : added)
+            index.add(line, analyzer.tokenize(line), 0);
+
+        for (String query : queries) {
+            List<String> tokens = analyzer.tokenize(query);
+            if (tokens == null)
+                continue;
+            QueryVector q = index.query(tokens);
+            ScoreList all = new ScoreList();
+            index.scoreAll(q, all, 1, null);
+            Set<Integer> scored = new HashSet<>();
+            int last = -1;
+            for (int i = 0; i < all.size(); i++) {
+                assertTrue(query, all.doc(i) > last);
+                last = all.doc(i);
+                if (all.doc(i) >= base)
+                    scored.add(all.doc(i));
+            }
+            assertEquals(query, sharing(added, base, query), scored);
+
+            TopKCollector top = new TopKCollector(all.size() + 1);
+            index.topK(q, top);
+            assertEquals(query, all.size(), top.size());
+        }
+    }
+
+    /** *************************************************************
+     * Queries running while lines are appended see only lines they
+     * share a term with, each once, in order.
+     */
+    @Test
+    public void testQueriesWhileAppending() throws InterruptedException {
+
+        LiveIndex index = halfBuilt();
+        int base = index.docCount();
+        List<String> added = ChatbotTest.weatherLines(20000, 4);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for (String line : added)
+                index.add(line, analyzer.tokenize(line), 0);
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 3; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    while (writer.isAlive()) {
+                        for (String query : new String[] {"sunny weather", "wza wind", "cold beach tonight"}) {
+                            List<String> terms = analyzer.tokenize(query);
+                            ScoreList all = new ScoreList();
+                            index.scoreAll(index.query(terms), all, 1, null);
+                            int last = -1;
+                            for (int i = 0; i < all.size(); i++) {
+                                int doc = all.doc(i);
+                                assertTrue(doc > last);
+                                last = doc;
+                                if (doc < base)
+                                    continue;
+                                List<String> tokens = analyzer.tokenize(index.line(doc));
+                                boolean shares = false;
+                                for (String t : tokens)
+                                    shares |= terms.contains(t);
+                                assertTrue(index.line(doc), shares);
+                            }
+                        }
+                    }
+                }
+                catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }));
+        }
+        writer.start();
+        for (Thread t : readers)
+            t.start();
+        writer.join();
+        for (Thread t : readers)
+            t.join();
+        assertNull(failure.get());
+        assertEquals(base + added.size(), index.docCount());
+    }
+}
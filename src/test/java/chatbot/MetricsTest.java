@@ -0,0 +1,167 @@
+package chatbot;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks Metrics: that dump() is valid Prometheus text with the values
+ * recorded, each series once under the type of its family, and that
+ * nothing is recorded while metrics are off.
+ */
+public class MetricsTest {
+
+    // a sample: a name, labels if any, and a value
+    private static final Pattern SAMPLE = Pattern.compile(
+            "([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\"" +
+            "(,[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"\\\\\\n]*\")*\\})? (-?[0-9]+(\\.[0-9]+)?(E-?[0-9]+)?)");
+
+    // a type line
+    private static final Pattern TYPE = Pattern.compile("# TYPE ([a-zA-Z_:][a-zA-Z0-9_:]*) (counter|gauge|summary)");
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        Metrics.setEnabled(true);
+    }
+
+    /** *************************************************************
+     * @return the value of each series of dump, by its name and labels,
+     * failing unless every line is a type or a sample, every sample
+     * follows the type of its family, and no family or series repeats
+     */
+    private static Map<String,String> parse(String dump) {
+
+        assertTrue(dump.endsWith("\n"));
+        Map<String,String> series = new HashMap<>();
+        Map<String,String> types = new HashMap<>();
+        String family = null;
+        for (String line : dump.split("\n")) {
+            Matcher type = TYPE.matcher(line);
+            if (type.matches()) {
+                family = type.group(1);
+                assertNull(line, types.put(family, type.group(2)));
+                continue;
+            }
+            Matcher sample = SAMPLE.matcher(line);
+            assertTrue(line, sample.matches());
+            String name = sample.group(1);
+            List<String> names = new ArrayList<>(Arrays.asList(family));
+            if (types.get(family).equals("summary")) {
+                names.add(family + "_sum");
+                names.add(family + "_count");
+                if (name.equals(family))
+                    assertTrue(line, sample.group(2).contains(",quantile=\""));
+            }
+            assertTrue(line + " isn't of " + family, names.contains(name));
+            String key = name + (sample.group(2) == null ? "" : sample.group(2));
+            assertNull(line, series.put(key, sample.group(4)));
+        }
+        return series;
+    }
+
+    /** *************************************************************
+     * Every stage, distribution, counter and gauge is in the dump,
+     * latencies in seconds and the rest as recorded.
+     */
+    @Test
+    public void testDumpFormat() {
+
+        Metrics metrics = new Metrics();
+        metrics.histogram(Metrics.Stage.SCORE).record(1500000000L);
+        metrics.histogram(Metrics.Stage.SCORE).record(2000000L);
+        for (int i = 1; i <= 4; i++)
+            metrics.record(Metrics.Distribution.CANDIDATES, 10 * i);
+        for (int i = 0; i < 3; i++)
+            metrics.increment(Metrics.Counter.QUERIES);
+        metrics.gauge("lines", () -> 42);
+        Map<String,String> series = parse(metrics.dump());
+
+        assertEquals("1.5", series.get("chatbot_stage_seconds{stage=\"score\",quantile=\"0.99\"}"));
+        double median = Double.parseDouble(series.get("chatbot_stage_seconds{stage=\"score\",quantile=\"0.5\"}"));
+        assertTrue(median + " isn't 0.002 to within 1/32", median >= 0.002 && median <= 0.002 * 33 / 32);
+        assertEquals("1.502", series.get("chatbot_stage_seconds_sum{stage=\"score\"}"));
+        assertEquals("2", series.get("chatbot_stage_seconds_count{stage=\"score\"}"));
+        assertEquals("0", series.get("chatbot_stage_seconds_count{stage=\"tokenize\"}"));
+        assertEquals("0", series.get("chatbot_stage_seconds{stage=\"compact\",quantile=\"0.999\"}"));
+        assertEquals("20", series.get("chatbot_responses{set=\"candidates\",quantile=\"0.5\"}"));
+        assertEquals("40", series.get("chatbot_responses{set=\"candidates\",quantile=\"0.9\"}"));
+        assertEquals("100", series.get("chatbot_responses_sum{set=\"candidates\"}"));
+        assertEquals("4", series.get("chatbot_responses_count{set=\"candidates\"}"));
+        assertEquals("3", series.get("chatbot_queries_total"));
+        assertEquals("0", series.get("chatbot_compactions_total"));
+        assertEquals("42", series.get("chatbot_lines"));
+        assertTrue(Long.parseLong(series.get("chatbot_heap_used_bytes")) > 0);
+
+        int expected = Metrics.Stage.values().length * 6 + Metrics.Distribution.values().length * 6 +
+                Metrics.Counter.values().length + 4;
+        assertEquals(expected, series.size());
+
+        metrics.reset();
+        series = parse(metrics.dump());
+        assertEquals("0", series.get("chatbot_queries_total"));
+        assertEquals("0", series.get("chatbot_responses_count{set=\"candidates\"}"));
+        assertEquals("42", series.get("chatbot_lines"));
+    }
+
+    /** *************************************************************
+     * While metrics are off start() doesn't read the clock, and stop(),
+     * record() and increment() keep nothing, even for a stage that
+     * began while they were on; no MBean is registered.
+     */
+    @Test
+    public void testDisabledRecordsNothing() throws InterruptedException {
+
+        Metrics metrics = new Metrics();
+        long started = metrics.start();
+        assertTrue(started != 0);
+        Metrics.setEnabled(false);
+        assertFalse(Metrics.isEnabled());
+        assertEquals(0, metrics.start());
+        Thread.sleep(1);
+        metrics.stop(Metrics.Stage.QUERY, started);
+        metrics.stop(Metrics.Stage.QUERY, metrics.start());
+        metrics.record(Metrics.Distribution.RANKED, 7);
+        metrics.increment(Metrics.Counter.QUERIES);
+        assertNull(metrics.registerMBean("metrics-test"));
+        for (Metrics.Stage stage : Metrics.Stage.values())
+            assertEquals(0, metrics.histogram(stage).count());
+        for (Metrics.Distribution d : Metrics.Distribution.values())
+            assertEquals(0, metrics.histogram(d).count());
+        for (Metrics.Counter counter : Metrics.Counter.values())
+            assertEquals(0, metrics.count(counter));
+        for (Map.Entry<String,String> e : parse(metrics.dump()).entrySet())
+            if (!e.getKey().startsWith("chatbot_heap_"))
+                assertEquals(e.getKey(), "0", e.getValue());
+
+        Metrics.setEnabled(true);
+        metrics.increment(Metrics.Counter.QUERIES);
+        metrics.stop(Metrics.Stage.QUERY, metrics.start());
+        assertEquals(1, metrics.count(Metrics.Counter.QUERIES));
+        assertEquals(1, metrics.histogram(Metrics.Stage.QUERY).count());
+    }
+}
@@ -0,0 +1,129 @@
+package chatbot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks what ProfanityFilter censors: whole words and phrases in any
+ * case and under any default locale, the leftmost and then longest of
+ * overlapping matches, and each response on its own, commas and all.
+ */
+public class ProfanityFilterTest {
+
+    private static final String C = ProfanityFilter.CENSORED;
+
+    /** *************************************************************
+     */
+    private static ProfanityFilter filter(String... words) {
+
+        return new ProfanityFilter(Arrays.asList(words));
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testCaseFolding() {
+
+        ProfanityFilter f = filter("DaMn", "heck");
+        assertEquals(C + " it", f.censor("damn it"));
+        assertEquals(C + " IT", f.censor("DAMN IT"));
+        assertEquals("oh " + C + ", " + C, f.censor("oh Heck, hECK"));
+    }
+
+    /** *************************************************************
+     * In a Turkish locale String.toLowerCase() turns I into a dotless
+     * i, which the text, folded a character at a time, never has.
+     */
+    @Test
+    public void testTurkishLocale() {
+
+        Locale saved = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            ProfanityFilter f = filter("SHIT", "Idiot");
+            assertEquals(C + " happens", f.censor("shit happens"));
+            assertEquals("you " + C, f.censor("you IDIOT"));
+            assertEquals("you " + C, f.censor("you idiot"));
+        }
+        finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testWordBoundaries() {
+
+        ProfanityFilter f = filter("ass");
+        assertEquals("a class of grass, assets and bass", f.censor("a class of grass, assets and bass"));
+        assertEquals("ass2 and 2ass", f.censor("ass2 and 2ass"));
+        assertEquals(C, f.censor("ass"));
+        assertEquals("kick " + C + "!", f.censor("kick ass!"));
+        assertEquals("(" + C + ")-" + C + "'s", f.censor("(ass)-ASS's"));
+        assertEquals("caf\u00e9ass ass\u00e9", f.censor("caf\u00e9ass ass\u00e9"));
+    }
+
+    /** *************************************************************
+     * Where matches overlap the one starting first wins, and of those
+     * starting together the longest; the text after it is matched on.
+     */
+    @Test
+    public void testOverlappingAndMultiWordPatterns() {
+
+        ProfanityFilter f = filter("son of", "son of a bitch", "bitch", "big bad", "bad wolf", "bad");
+        assertEquals("you " + C + "!", f.censor("you son of a bitch!"));
+        assertEquals(C + " a gun", f.censor("son of a gun"));
+        assertEquals("a " + C, f.censor("a bitch"));
+        assertEquals("the " + C + " wolf", f.censor("the big bad wolf"));
+        assertEquals("not " + C + " at all", f.censor("not bad at all"));
+        assertEquals("the " + C + " " + C, f.censor("the bad bad"));
+        assertEquals("son  of", f.censor("son  of"));
+
+        ProfanityFilter nested = filter("bad", "big bad wolf");
+        assertEquals("the " + C + ", " + C, nested.censor("the big bad wolf, bad"));
+        assertEquals("the big " + C + " wolves", nested.censor("the big bad wolves"));
+    }
+
+    /** *************************************************************
+     * Each response is censored by itself, so its commas don't split
+     * it, as they did when the responses were joined with commas.
+     */
+    @Test
+    public void testResponsesWithCommas() {
+
+        ProfanityFilter f = filter("damn", "hell");
+        ArrayList<String> censored = f.censor(Arrays.asList("well, damn,damn", "a, b, c", "what the hell,", ","));
+        assertEquals(Arrays.asList("well, " + C + "," + C, "a, b, c", "what the " + C + ",", ","), censored);
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testEmpty() {
+
+        ProfanityFilter f = filter("", "  ", "damn");
+        assertNull(f.censor((String) null));
+        assertEquals("", f.censor(""));
+        assertEquals(" ", f.censor(" "));
+        assertEquals("fine", filter().censor("fine"));
+        assertEquals(Collections.<String>emptyList(), f.censor(Collections.<String>emptyList()));
+    }
+}
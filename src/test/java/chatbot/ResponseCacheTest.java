@@ -0,0 +1,247 @@
+package chatbot;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks ResponseCache: its hit and miss counts, that a response is a
+ * miss under any generation but its own, that each segment drops its
+ * least recently used entry, and, through a Chatbot, that addLine() and
+ * compact() make the responses cached before them misses, and that a
+ * query matched while a line is added is never cached as an answer of
+ * the corpus with that line.
+ */
+public class ResponseCacheTest {
+
+    private static List<String> corpus;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        Chatbot.setShards(1);
+        corpus = ChatbotTest.readLines(ChatbotTest.CORPUS);
+    }
+
+    /** *************************************************************
+     * @return n keys that share segment
+     */
+    private static List<String> keysIn(int segment, int n) {
+
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; keys.size() < n; i++)
+            if (ResponseCache.segmentOf("key" + i) == segment)
+                keys.add("key" + i);
+        return keys;
+    }
+
+    /** *************************************************************
+     * Every get() counts once, as a hit or a miss, and clear() starts
+     * the counts again.
+     */
+    @Test
+    public void testCounters() {
+
+        ResponseCache cache = new ResponseCache(100);
+        assertNull(cache.get("a", 0));
+        cache.put("a", 0, "A");
+        assertEquals("A", cache.get("a", 0));
+        assertEquals("A", cache.get("a", 0));
+        assertNull(cache.get("b", 0));
+        assertNull(cache.get("a", 1));
+        assertEquals(2, cache.hits());
+        assertEquals(3, cache.misses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.hits());
+        assertEquals(0, cache.misses());
+        assertNull(cache.get("a", 1));
+        assertEquals(1, cache.misses());
+    }
+
+    /** *************************************************************
+     * A response is only found under its own generation.  A newer one
+     * drops it; an older one, asked by a query that began before the
+     * corpus changed, leaves it, and can't replace it.
+     */
+    @Test
+    public void testGenerations() {
+
+        ResponseCache cache = new ResponseCache(100);
+        cache.put("a", 5, "five");
+        assertNull(cache.get("a", 4));
+        assertEquals(1, cache.size());
+        assertEquals("five", cache.get("a", 5));
+
+        cache.put("a", 4, "four");
+        assertEquals("five", cache.get("a", 5));
+        assertNull(cache.get("a", 4));
+
+        assertNull(cache.get("a", 6));
+        assertEquals(0, cache.size());
+        assertNull(cache.get("a", 5));
+
+        cache.put("a", 6, "six");
+        cache.put("a", 7, "seven");
+        assertNull(cache.get("a", 6));
+        assertEquals("seven", cache.get("a", 7));
+    }
+
+    /** *************************************************************
+     * With two entries a segment, a third in one segment drops the one
+     * used least recently there, whatever the other segments hold.
+     */
+    @Test
+    public void testLeastRecentlyUsedPerSegment() {
+
+        ResponseCache cache = new ResponseCache(2 * ResponseCache.SEGMENTS);
+        List<String> keys = keysIn(3, 3);
+        List<String> others = keysIn(4, 2);
+        for (String key : others)
+            cache.put(key, 0, key);
+        cache.put(keys.get(0), 0, "0");
+        cache.put(keys.get(1), 0, "1");
+        assertEquals("0", cache.get(keys.get(0), 0));
+        cache.put(keys.get(2), 0, "2");
+        assertEquals(4, cache.size());
+        assertNull(cache.get(keys.get(1), 0));
+        assertEquals("0", cache.get(keys.get(0), 0));
+        assertEquals("2", cache.get(keys.get(2), 0));
+        for (String key : others)
+            assertEquals(key, cache.get(key, 0));
+
+        cache.put(keys.get(1), 0, "1");
+        assertNull(cache.get(keys.get(0), 0));
+        assertEquals(4, cache.size());
+
+        cache.put(keys.get(2), 0, "two");
+        assertEquals("two", cache.get(keys.get(2), 0));
+        assertEquals(4, cache.size());
+    }
+
+    /** *************************************************************
+     * A query asked again is answered from the cache, until a line is
+     * added or the index is compacted.
+     */
+    @Test
+    public void testAddLineAndCompactAreMisses() throws IOException {
+
+        Chatbot chatbot = new Chatbot(corpus, ChatbotTest.STOPWORDS);
+        String query = "how is the weather today";
+        String response = chatbot.matchBestInput(query);
+        assertEquals(response, chatbot.matchBestInput(query));
+        assertEquals(1, chatbot.cacheHits());
+        assertEquals(1, chatbot.cacheMisses());
+
+        assertTrue(chatbot.addLine("the weather today is sunny and warm") >= 0);
+        chatbot.matchBestInput(query);
+        assertEquals(1, chatbot.cacheHits());
+        assertEquals(2, chatbot.cacheMisses());
+        String added = chatbot.matchBestInput(query);
+        assertEquals(2, chatbot.cacheHits());
+
+        chatbot.compact();
+        assertEquals(added, chatbot.matchBestInput(query));
+        assertEquals(2, chatbot.cacheHits());
+        assertEquals(3, chatbot.cacheMisses());
+        chatbot.matchBestInput(query);
+        assertEquals(3, chatbot.cacheHits());
+    }
+
+    /** *************************************************************
+     * Answers a query with one line, which is the line it had when
+     * asked; the first query waits in retrieve() until released.
+     */
+    private static class OneLineBackend implements RetrievalBackend {
+
+        final CountDownLatch retrieving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile String line = "the old answer";
+
+        @Override
+        public CompletableFuture<Candidates> retrieve(ArrayList<String> tokens, int k) {
+
+            String answer = line;
+            retrieving.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            TreeMap<Float,ArrayList<Integer>> scores = new TreeMap<>();
+            scores.put(1f, new ArrayList<>(Arrays.asList(0)));
+            return CompletableFuture.completedFuture(new Candidates() {
+
+                public TreeMap<Float,ArrayList<Integer>> scores() { return scores; }
+                public boolean hasUnscored() { return false; }
+                public String line(int candidate) { return answer; }
+                public int sentiment(int candidate) { return 0; }
+            });
+        }
+
+        @Override
+        public boolean isReady() {
+
+            return true;
+        }
+    }
+
+    /** *************************************************************
+     * A query that found its candidates before a line was added, and
+     * answers after, is cached under the generation it began in, so
+     * the same query asked next is matched again.
+     */
+    @Test
+    public void testQueryRacingAppend() throws Exception {
+
+        Chatbot chatbot = new Chatbot(corpus, ChatbotTest.STOPWORDS);
+        OneLineBackend backend = new OneLineBackend();
+        chatbot.setBackend(backend);
+        String query = "how is the weather today";
+        AtomicReference<String> raced = new AtomicReference<>();
+        Thread asker = new Thread(() -> raced.set(chatbot.matchBestInput(query)));
+        asker.start();
+        assertTrue(backend.retrieving.await(10, TimeUnit.SECONDS));
+        assertTrue(chatbot.addLine("the weather today is sunny and warm") >= 0);
+        backend.line = "the new answer";
+        backend.release.countDown();
+        asker.join(10000);
+        assertFalse(asker.isAlive());
+        assertEquals("the old answer", raced.get());
+
+        assertEquals("the new answer", chatbot.matchBestInput(query));
+        assertEquals(0, chatbot.cacheHits());
+        assertEquals(2, chatbot.cacheMisses());
+        assertEquals("the new answer", chatbot.matchBestInput(query));
+        assertEquals(1, chatbot.cacheHits());
+    }
+}
@@ -0,0 +1,212 @@
+package chatbot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks sharding across JVMs: three ShardServers of the fixture corpus,
+ * each started by ShardServer.main() in a JVM of its own, searched by a
+ * ShardedBackend here, give the candidates of one shard of the whole
+ * corpus in this JVM, for every query of the fixture.
+ */
+public class ShardServerProcessTest {
+
+    private static final int SHARDS = 3;
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    // more than the lines of the corpus, so no shard's hits are cut off
+    private static final int K = 1000;
+
+    // the longest a shard's JVM has to start listening
+    private static final long START_MILLIS = 60000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<String> queries;
+    private static Analyzer analyzer;
+
+    private final List<Process> processes = new ArrayList<>();
+    private final List<File> logs = new ArrayList<>();
+    private ShardServer whole;
+    private ShardedBackend sharded;
+    private ShardedBackend single;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+
+        queries = ChatbotTest.readLines(ChatbotTest.QUERIES);
+        analyzer = new Analyzer(ChatbotTest.readLines(ChatbotTest.STOPWORDS));
+    }
+
+    /** *************************************************************
+     * Fork the three shards, wait for each to listen, and start the
+     * backends.
+     */
+    @Before
+    public void setUp() throws Exception {
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int s = 0; s < SHARDS; s++)
+            addresses.add(fork(s));
+        for (int s = 0; s < SHARDS; s++)
+            awaitListening(s, addresses.get(s));
+        sharded = new ShardedBackend(addresses, TIMEOUT_MILLIS);
+        sharded.start();
+
+        whole = new ShardServer(ChatbotTest.STOPWORDS, 0, 1);
+        whole.readFile(ChatbotTest.CORPUS);
+        whole.start(0);
+        single = new ShardedBackend(Collections.singletonList(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), whole.port())), TIMEOUT_MILLIS);
+        single.start();
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() throws InterruptedException {
+
+        if (sharded != null)
+            sharded.close();
+        if (single != null)
+            single.close();
+        if (whole != null)
+            whole.stop();
+        for (Process process : processes)
+            process.destroy();
+        for (Process process : processes)
+            if (!process.waitFor(10, TimeUnit.SECONDS))
+                process.destroyForcibly();
+    }
+
+    /** *************************************************************
+     * @return a port nothing is listening on, as far as can be told
+     */
+    private static int freePort() throws IOException {
+
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /** *************************************************************
+     * Start shard of the fixture corpus in a JVM of its own, on this
+     * JVM's class path, writing what it prints to a log.
+     * @return its address
+     */
+    private InetSocketAddress fork(int shard) throws IOException {
+
+        int port = freePort();
+        File log = folder.newFile("shard-" + shard + ".log");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-Xmx256m", "-cp", System.getProperty("java.class.path"),
+                ShardServer.class.getName(), Integer.toString(port), Integer.toString(shard),
+                Integer.toString(SHARDS), ChatbotTest.CORPUS, ChatbotTest.STOPWORDS);
+        builder.directory(new File(System.getProperty("user.dir")));
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(log);
+        processes.add(builder.start());
+        logs.add(log);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /** *************************************************************
+     * Wait until shard accepts connections, failing with what it printed
+     * if it exits or takes too long.
+     */
+    private void awaitListening(int shard, InetSocketAddress address) throws Exception {
+
+        long deadline = System.currentTimeMillis() + START_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!processes.get(shard).isAlive())
+                break;
+            try (Socket socket = new Socket()) {
+                socket.connect(address, 1000);
+                return;
+            }
+            catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new AssertionError("shard " + shard + " isn't listening on " + address + ":\n" +
+                new String(Files.readAllBytes(logs.get(shard).toPath()), StandardCharsets.UTF_8));
+    }
+
+    /** *************************************************************
+     * @return the corpus lines of candidates by score, each list sorted
+     */
+    private static TreeMap<Float,List<Integer>> lines(RetrievalBackend.Candidates candidates) {
+
+        TreeMap<Float,List<Integer>> result = new TreeMap<>();
+        for (Map.Entry<Float,ArrayList<Integer>> e : candidates.scores().entrySet()) {
+            List<Integer> lines = new ArrayList<>(e.getValue());
+            Collections.sort(lines);
+            result.put(e.getKey(), lines);
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     * Every query finds the lines, scores and texts the single index
+     * finds, with every shard answering, and some find lines of every
+     * shard.
+     */
+    @Test
+    public void testMatchesSingleIndex() throws Exception {
+
+        assertTrue(sharded.isReady());
+        boolean[] found = new boolean[SHARDS];
+        for (String query : queries) {
+            ArrayList<String> tokens = analyzer.tokenize(query);
+            RetrievalBackend.Candidates candidates = sharded.retrieve(tokens, K).get(30, TimeUnit.SECONDS);
+            RetrievalBackend.Candidates expected = single.retrieve(tokens, K).get(30, TimeUnit.SECONDS);
+            assertFalse(query, candidates.isPartial());
+            assertEquals(query, lines(expected), lines(candidates));
+            assertEquals(query, expected.hasUnscored(), candidates.hasUnscored());
+            for (List<Integer> lines : lines(candidates).values()) {
+                for (int line : lines) {
+                    assertEquals(expected.line(line), candidates.line(line));
+                    found[line % SHARDS] = true;
+                }
+            }
+        }
+        for (int s = 0; s < SHARDS; s++)
+            assertTrue("no lines of shard " + s, found[s]);
+    }
+}
@@ -0,0 +1,416 @@
+package chatbot;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks a ShardedBackend over three ShardServers of the fixture corpus
+ * against one over a single shard: that with every shard answering the
+ * candidates are the same, that a shard too slow to answer is left out
+ * and the candidates marked partial, and that a shard that restarts is
+ * left out until it has been sent its frequencies again, and that the
+ * backend is ready while some shard answers.  The coordinator
+ * reaches shard 1 through a Proxy, which can hold its answers or switch
+ * to another server.
+ */
+public class ShardedBackendTest {
+
+    private static final int SHARDS = 3;
+    private static final int TIMEOUT_MILLIS = 1000;
+
+    // more than the lines of the corpus, so no shard's hits are cut off
+    private static final int K = 1000;
+
+    /** *************************************************************
+     * Forwards connections to a shard server, holding the answers back
+     * while holding is set.
+     */
+    private static class Proxy implements Closeable {
+
+        private final ServerSocket server;
+        private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+        private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "proxy");
+            t.setDaemon(true);
+            return t;
+        });
+        volatile InetSocketAddress target;
+        volatile boolean holding = false;
+
+        Proxy(InetSocketAddress target) throws IOException {
+
+            this.target = target;
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            executor.execute(this::accept);
+        }
+
+        int port() {
+
+            return server.getLocalPort();
+        }
+
+        private void accept() {
+
+            while (!server.isClosed()) {
+                try {
+                    Socket client = server.accept();
+                    Socket shard = new Socket();
+                    shard.connect(target);
+                    sockets.add(client);
+                    sockets.add(shard);
+                    executor.execute(() -> copy(client, shard, false));
+                    executor.execute(() -> copy(shard, client, true));
+                }
+                catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void copy(Socket from, Socket to, boolean answers) {
+
+            try {
+                InputStream in = from.getInputStream();
+                OutputStream out = to.getOutputStream();
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    while (answers && holding)
+                        Thread.sleep(10);
+                    out.write(buf, 0, n);
+                    out.flush();
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                // one end went away
+            }
+            finally {
+                close(from);
+                close(to);
+            }
+        }
+
+        /** close every connection, as a shard that stops does */
+        void drop() {
+
+            for (Socket socket : sockets)
+                close(socket);
+            sockets.clear();
+        }
+
+        private static void close(Socket socket) {
+
+            try {
+                socket.close();
+            }
+            catch (IOException e) {
+                // already closed
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            server.close();
+            drop();
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> queries;
+    private static Analyzer analyzer;
+
+    private final List<ShardServer> servers = new ArrayList<>();
+    private Proxy proxy;
+    private ShardedBackend sharded;
+    private ShardedBackend single;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+
+        queries = ChatbotTest.readLines(ChatbotTest.QUERIES);
+        analyzer = new Analyzer(ChatbotTest.readLines(ChatbotTest.STOPWORDS));
+    }
+
+    /** *************************************************************
+     * Three shards, the second behind the proxy, and one shard of the
+     * whole corpus to compare with.
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int s = 0; s < SHARDS; s++) {
+            ShardServer server = startShard(s, SHARDS);
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.port());
+            if (s == 1) {
+                proxy = new Proxy(address);
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.port());
+            }
+            addresses.add(address);
+        }
+        sharded = new ShardedBackend(addresses, TIMEOUT_MILLIS);
+        sharded.start();
+        ShardServer whole = startShard(0, 1);
+        single = new ShardedBackend(Collections.singletonList(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), whole.port())), TIMEOUT_MILLIS);
+        single.start();
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() throws IOException {
+
+        sharded.close();
+        single.close();
+        proxy.close();
+        for (ShardServer server : servers)
+            server.stop();
+    }
+
+    /** *************************************************************
+     * @return a server of shard of shards of the fixture corpus,
+     * listening on a free port
+     */
+    private ShardServer startShard(int shard, int shards) throws IOException {
+
+        ShardServer server = new ShardServer(ChatbotTest.STOPWORDS, shard, shards);
+        server.readFile(ChatbotTest.CORPUS);
+        server.start(0);
+        servers.add(server);
+        return server;
+    }
+
+    /** *************************************************************
+     * @return the corpus lines of candidates by score, each list sorted
+     */
+    private static TreeMap<Float,List<Integer>> lines(RetrievalBackend.Candidates candidates) {
+
+        TreeMap<Float,List<Integer>> result = new TreeMap<>();
+        for (Map.Entry<Float,ArrayList<Integer>> e : candidates.scores().entrySet()) {
+            List<Integer> lines = new ArrayList<>(e.getValue());
+            Collections.sort(lines);
+            result.put(e.getKey(), lines);
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     * @return lines without those of shard
+     */
+    private static TreeMap<Float,List<Integer>> without(TreeMap<Float,List<Integer>> lines, int shard) {
+
+        TreeMap<Float,List<Integer>> result = new TreeMap<>();
+        for (Map.Entry<Float,List<Integer>> e : lines.entrySet()) {
+            List<Integer> kept = new ArrayList<>();
+            for (int line : e.getValue())
+                if (line % SHARDS != shard)
+                    kept.add(line);
+            if (!kept.isEmpty())
+                result.put(e.getKey(), kept);
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     */
+    private static RetrievalBackend.Candidates retrieve(RetrievalBackend backend, ArrayList<String> tokens)
+            throws Exception {
+
+        return backend.retrieve(tokens, K).get(10, TimeUnit.SECONDS);
+    }
+
+    /** *************************************************************
+     * @return the terms of the first query that finds lines in every
+     * shard of backend
+     */
+    private static ArrayList<String> query(ShardedBackend backend) throws Exception {
+
+        for (String query : queries) {
+            ArrayList<String> tokens = analyzer.tokenize(query);
+            if (tokens == null)
+                continue;
+            boolean[] found = new boolean[SHARDS];
+            for (List<Integer> lines : lines(retrieve(backend, tokens)).values())
+                for (int line : lines)
+                    found[line % SHARDS] = true;
+            if (found[0] && found[1] && found[2])
+                return tokens;
+        }
+        throw new AssertionError("no query finds lines in every shard");
+    }
+
+    /** *************************************************************
+     * With every shard answering, the candidates are those of one
+     * shard of the whole corpus.
+     */
+    @Test
+    public void testMatchesOneShard() throws Exception {
+
+        assertTrue(sharded.isReady());
+        for (String query : queries) {
+            ArrayList<String> tokens = analyzer.tokenize(query);
+            RetrievalBackend.Candidates candidates = retrieve(sharded, tokens);
+            RetrievalBackend.Candidates expected = retrieve(single, tokens);
+            assertFalse(query, candidates.isPartial());
+            assertEquals(query, lines(expected), lines(candidates));
+            assertEquals(query, expected.hasUnscored(), candidates.hasUnscored());
+            for (List<Integer> lines : lines(candidates).values())
+                for (int line : lines)
+                    assertEquals(expected.line(line), candidates.line(line));
+        }
+    }
+
+    /** *************************************************************
+     * While shard 1 holds its answer past the timeout, the candidates
+     * are those of the other shards, marked partial; once it answers
+     * again they are whole.
+     */
+    @Test
+    public void testShardTimesOut() throws Exception {
+
+        ArrayList<String> tokens = query(single);
+        TreeMap<Float,List<Integer>> expected = lines(retrieve(single, tokens));
+        assertEquals(expected, lines(retrieve(sharded, tokens)));
+
+        proxy.holding = true;
+        long start = System.currentTimeMillis();
+        RetrievalBackend.Candidates partial = retrieve(sharded, tokens);
+        long took = System.currentTimeMillis() - start;
+        assertTrue(partial.isPartial());
+        assertTrue(partial.hasUnscored());
+        assertEquals(without(expected, 1), lines(partial));
+        assertTrue("took " + took, took >= TIMEOUT_MILLIS - 50 && took < TIMEOUT_MILLIS + 2000);
+
+        proxy.holding = false;
+        RetrievalBackend.Candidates whole = retrieve(sharded, tokens);
+        assertFalse(whole.isPartial());
+        assertEquals(expected, lines(whole));
+    }
+
+    /** *************************************************************
+     * When shard 1 restarts, the next query finds it without its
+     * frequencies and leaves it out, and it is sent them again so that
+     * a later query is whole.
+     */
+    @Test
+    public void testShardRestarts() throws Exception {
+
+        ArrayList<String> tokens = query(single);
+        TreeMap<Float,List<Integer>> expected = lines(retrieve(single, tokens));
+        assertEquals(expected, lines(retrieve(sharded, tokens)));
+
+        ShardServer restarted = startShard(1, SHARDS);
+        proxy.target = new InetSocketAddress(InetAddress.getLoopbackAddress(), restarted.port());
+        proxy.drop();
+        RetrievalBackend.Candidates partial = retrieve(sharded, tokens);
+        assertTrue(partial.isPartial());
+        assertEquals(without(expected, 1), lines(partial));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        RetrievalBackend.Candidates candidates = retrieve(sharded, tokens);
+        while (candidates.isPartial() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            candidates = retrieve(sharded, tokens);
+        }
+        assertFalse(candidates.isPartial());
+        assertEquals(expected, lines(candidates));
+    }
+
+    /** *************************************************************
+     * @return what isReady() says once it has said expected, or after
+     * ten seconds
+     */
+    private static boolean awaitReady(ShardedBackend backend, boolean expected) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (backend.isReady() != expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        return backend.isReady();
+    }
+
+    /** *************************************************************
+     * A backend of shard 1 alone, through the proxy, isn't ready until
+     * started, nor after a query no shard answered; probes find it ready
+     * again once the shard answers, and not ready once it is gone.  Of
+     * three shards, one that doesn't answer leaves the backend ready.
+     */
+    @Test
+    public void testReadiness() throws Exception {
+
+        ArrayList<String> tokens = query(single);
+        ShardedBackend alone = new ShardedBackend(Collections.singletonList(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), proxy.port())), TIMEOUT_MILLIS, 100);
+        try {
+            assertFalse(alone.isReady());
+            alone.start();
+            assertTrue(alone.isReady());
+
+            proxy.holding = true;
+            assertTrue(retrieve(sharded, tokens).isPartial());
+            assertTrue(sharded.isReady());
+            try {
+                retrieve(alone, tokens);
+                fail("no shard answered");
+            }
+            catch (ExecutionException e) {
+                assertEquals("no shard answered", e.getCause().getMessage());
+            }
+            assertFalse(alone.isReady());
+
+            proxy.holding = false;
+            assertTrue(awaitReady(alone, true));
+
+            int closed;
+            try (ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+                closed = socket.getLocalPort();
+            }
+            proxy.target = new InetSocketAddress(InetAddress.getLoopbackAddress(), closed);
+            proxy.drop();
+            assertFalse(awaitReady(alone, false));
+            assertTrue(sharded.isReady());
+        }
+        finally {
+            alone.close();
+        }
+    }
+}
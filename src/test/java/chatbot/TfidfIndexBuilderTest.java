@@ -0,0 +1,189 @@
+package chatbot;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that a TfidfIndexBuilder filled with addDocuments() and built
+ * on a pool gives exactly the index of one filled a line at a time with
+ * addDocument() and built on this thread: the same term ids, rows,
+ * weights, norms, postings and bounds, to the last bit.  The corpus is
+ * the fixture, made up lines about the weather, and lines of made up
+ * words, with blank and stop word only lines among them, enough for
+ * every stage to be split into several chunks.
+ */
+public class TfidfIndexBuilderTest {
+
+    // the pool's parallelism, fixed so the chunks don't depend on the
+    // cores of the machine
+    private static final int PARALLELISM = 4;
+
+    private static Analyzer analyzer;
+    private static List<String> lines;
+    private static ForkJoinPool pool;
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        analyzer = new Analyzer(ChatbotTest.readLines(ChatbotTest.STOPWORDS));
+        lines = new ArrayList<>(ChatbotTest.readLines(ChatbotTest.CORPUS));
+        lines.addAll(ChatbotTest.weatherLines(20000, 5));
+        lines.addAll(madeUpLines(20000, 6));
+        pool = new ForkJoinPool(PARALLELISM);
+    }
+
+    /** *************************************************************
+     */
+    @AfterClass
+    public static void tearDown() {
+
+        pool.shutdown();
+    }
+
+    /** *************************************************************
+     * @return n lines of up to eight words of five random letters, so
+     * that most of their terms are rare and there are many of them;
+     * every hundredth line is blank and every hundredth but one holds
+     * only stop words
+     */
+    private static List<String> madeUpLines(int n, long seed) {
+
+        Random random = new Random(seed);
+        List<String> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            if (i % 100 == 0) {
+                result.add("");
+                continue;
+            }
+            if (i % 100 == 1) {
+                result.add("the and of it");
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            int length = 1 + random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                if (j > 0)
+                    sb.append(' ');
+                for (int k = 0; k < 5; k++)
+                    sb.append((char) ('a' + random.nextInt(26)));
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+
+    /** *************************************************************
+     * @return a builder given each of docs with addDocument()
+     */
+    private static TfidfIndexBuilder oneAtATime(List<String> docs) {
+
+        TfidfIndexBuilder builder = new TfidfIndexBuilder();
+        for (String doc : docs)
+            builder.addDocument(doc, analyzer);
+        return builder;
+    }
+
+    /** *************************************************************
+     * Fail unless every field of actual is that of expected.
+     */
+    private static void assertSameIndex(TfidfIndex expected, TfidfIndex actual) {
+
+        assertEquals(expected.termCount, actual.termCount);
+        assertEquals(expected.docCount, actual.docCount);
+        assertEquals(expected.nonEmptyDocs, actual.nonEmptyDocs);
+        assertEquals(expected.terms.size(), actual.terms.size());
+        for (int t = 0; t < expected.terms.size(); t++)
+            assertEquals(expected.terms.term(t), actual.terms.term(t));
+        assertArrayEquals(expected.docfreq, actual.docfreq);
+        assertArrayEquals(expected.idf, actual.idf, 0f);
+        assertArrayEquals(expected.rowOffsets, actual.rowOffsets);
+        assertArrayEquals(expected.termIds, actual.termIds);
+        assertArrayEquals(expected.weights, actual.weights, 0f);
+        assertArrayEquals(expected.norms, actual.norms, 0f);
+        assertArrayEquals(expected.postingOffsets, actual.postingOffsets);
+        assertArrayEquals(expected.postingDocs, actual.postingDocs);
+        assertArrayEquals(expected.postingWeights, actual.postingWeights, 0f);
+        assertArrayEquals(expected.maxWeights, actual.maxWeights, 0f);
+    }
+
+    /** *************************************************************
+     * The corpus is large enough that addDocuments() and each stage of
+     * build() split their work, or the test would prove nothing.
+     */
+    @Test
+    public void testSplitsIntoChunks() {
+
+        TfidfIndexBuilder builder = oneAtATime(lines);
+        assertTrue(lines.size() >= 2 * 4096 * PARALLELISM);
+        assertTrue(builder.termCount() >= 2 * 4096);
+    }
+
+    /** *************************************************************
+     * Added in parallel, built in parallel, in both orders of which is
+     * done on this thread, the index is the same as built sequentially.
+     */
+    @Test
+    public void testParallelMatchesSequential() {
+
+        TfidfIndexBuilder sequential = oneAtATime(lines);
+        TfidfIndex expected = sequential.build(lines.size());
+
+        TfidfIndexBuilder parallel = new TfidfIndexBuilder();
+        parallel.addDocuments(lines, analyzer, pool);
+        assertEquals(sequential.size(), parallel.size());
+        assertArrayEquals(sequential.counts(), parallel.counts());
+        assertSameIndex(expected, parallel.build(lines.size(), pool));
+        assertSameIndex(expected, parallel.build(lines.size()));
+        assertSameIndex(expected, sequential.build(lines.size(), pool));
+
+        TfidfIndexBuilder unpooled = new TfidfIndexBuilder();
+        unpooled.addDocuments(lines, analyzer, null);
+        assertSameIndex(expected, unpooled.build(lines.size()));
+    }
+
+    /** *************************************************************
+     * Lines added in parallel after some added one at a time follow
+     * them, with the terms they share keeping their ids; the idf of a
+     * larger corpus and the document frequencies of another give the
+     * same weights either way.
+     */
+    @Test
+    public void testAddingToRowsAndOtherFrequencies() {
+
+        int split = lines.size() / 3;
+        TfidfIndexBuilder mixed = oneAtATime(lines.subList(0, split));
+        mixed.addDocuments(lines.subList(split, lines.size()), analyzer, pool);
+        TfidfIndexBuilder sequential = oneAtATime(lines);
+        int idfDocCount = 3 * lines.size();
+        TfidfIndex expected = sequential.build(idfDocCount);
+        assertSameIndex(expected, mixed.build(idfDocCount, pool));
+
+        int[] docfreq = new int[sequential.termCount()];
+        for (int t = 0; t < docfreq.length; t++)
+            docfreq[t] = sequential.docfreq(t) + t % 7;
+        assertSameIndex(sequential.build(idfDocCount, docfreq, null), mixed.build(idfDocCount, docfreq, pool));
+    }
+}
@@ -0,0 +1,137 @@
+package chatbot;
+
+import nlp.KMeans;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that TopClusterSelector chooses exactly the cluster the loop
+ * over KMeans.run() that matchBestInput() used to run chose, on the
+ * similarities of the queries of the fixture corpus and on random
+ * values, many of them equally far from two centroids; and that each
+ * of its k-means splits is KMeans.run()'s.  ChatbotTest compares the
+ * responses of matchBestInput() with those of the loop.
+ */
+public class TopClusterSelectorTest {
+
+    private static final List<float[]> distributions = new ArrayList<>();
+
+    /** *************************************************************
+     */
+    @BeforeClass
+    public static void setUp() throws IOException {
+
+        Chatbot.setOptions(false, false, false);
+        List<String> queries = ChatbotTest.readLines(ChatbotTest.QUERIES);
+        List<String> corpus = ChatbotTest.readLines(ChatbotTest.CORPUS);
+        List<String> more = new ArrayList<>(corpus);
+        more.addAll(ChatbotTest.weatherLines(1000, 1));
+        for (List<String> lines : Arrays.asList(corpus, more)) {
+            Chatbot chatbot = new Chatbot(lines, ChatbotTest.STOPWORDS);
+            for (String query : queries) {
+                float[] values = ChatbotTest.similarities(chatbot, query);
+                if (values.length > 0 && values[values.length - 1] >= .1)
+                    distributions.add(values);
+            }
+        }
+    }
+
+    /** *************************************************************
+     * @return the values of the top cluster the selector chooses
+     */
+    private static List<Float> selected(float[] values) {
+
+        List<Float> result = new ArrayList<>();
+        for (int i : TopClusterSelector.topCluster(values, 3, 3))
+            result.add(values[i]);
+        return result;
+    }
+
+    /** *************************************************************
+     * @return n sorted values, drawn from few enough levels, if coarse,
+     * that values and centroids are often equally far apart
+     */
+    private static float[] randomValues(Random random, int n, boolean coarse) {
+
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++)
+            values[i] = coarse ? random.nextInt(9) / 8f : random.nextFloat();
+        Arrays.sort(values);
+        return values;
+    }
+
+    /** *************************************************************
+     * Every distribution of the fixture gets the top cluster of the
+     * loop over KMeans.run(), and some need more than three clusters.
+     */
+    @Test
+    public void testMatchesKMeansOnCorpus() {
+
+        int grown = 0;
+        for (float[] values : distributions) {
+            assertEquals(Arrays.toString(values), ChatbotTest.kMeansTopCluster(values), selected(values));
+            if (KMeans.run(values.length, values, Math.min(3, values.length)).get(Math.min(3, values.length) - 1)
+                    .size() > 3)
+                grown++;
+        }
+        assertTrue(distributions.size() > 0);
+        assertTrue(grown > 0);
+    }
+
+    /** *************************************************************
+     * Random values, with and without repeats and ties, get the top
+     * cluster of the loop over KMeans.run().
+     */
+    @Test
+    public void testMatchesKMeansOnRandomValues() {
+
+        Random random = new Random(18021918);
+        for (int trial = 0; trial < 2000; trial++) {
+            float[] values = randomValues(random, 1 + random.nextInt(60), trial % 2 == 0);
+            assertEquals(Arrays.toString(values), ChatbotTest.kMeansTopCluster(values), selected(values));
+        }
+    }
+
+    /** *************************************************************
+     * For every k, each value is in the cluster KMeans.run() puts it
+     * in, empty clusters and all.
+     */
+    @Test
+    public void testSplitsMatchKMeans() {
+
+        Random random = new Random(1918);
+        for (int trial = 0; trial < 500; trial++) {
+            float[] values = randomValues(random, 1 + random.nextInt(40), trial % 2 == 0);
+            for (int k = 1; k <= values.length; k++) {
+                ArrayList<ArrayList<Float>> res = KMeans.run(values.length, values, k);
+                int[] assignment = TopClusterSelector.kMeans(values, k);
+                for (int j = 0; j < k; j++) {
+                    List<Float> cluster = new ArrayList<>();
+                    for (int i = 0; i < values.length; i++)
+                        if (assignment[i] == j)
+                            cluster.add(values[i]);
+                    assertEquals(Arrays.toString(values) + " k=" + k + " cluster " + j, res.get(j), cluster);
+                }
+            }
+        }
+    }
+}
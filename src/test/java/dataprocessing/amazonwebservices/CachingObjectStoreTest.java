@@ -0,0 +1,174 @@
+package dataprocessing.amazonwebservices;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that a stream over an object of a CachingObjectStore, or a
+ * RangedObjectInputStream over one, never mixes the bytes of two
+ * versions when the object is replaced while it is read.
+ */
+public class CachingObjectStoreTest {
+
+    private static final String KEY = "object.bin";
+
+    // small enough that a read of the object maps many segments
+    private static final int MAP_BYTES = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path objects;
+    private Path copies;
+    private LocalObjectStore local;
+    private CachingObjectStore caching;
+    private byte[] first;
+    private byte[] second;
+
+    /** *************************************************************
+     * A cache that checks its copy on every read, over one object that
+     * a test replaces by another of a different length.
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        objects = folder.newFolder("objects").toPath();
+        copies = folder.newFolder("copies").toPath();
+        Random random = new Random(18021918);
+        first = new byte[1000];
+        random.nextBytes(first);
+        second = new byte[1500];
+        random.nextBytes(second);
+        Files.write(objects.resolve(KEY), first);
+        local = new LocalObjectStore(objects.toString());
+        caching = new CachingObjectStore(local, copies.toString(), 1 << 20, 0, MAP_BYTES);
+    }
+
+    /** *************************************************************
+     * Write the second version of the object, a while later by its
+     * modification time, so its ETag differs.
+     */
+    private void replace() throws IOException {
+
+        Path file = objects.resolve(KEY);
+        long before = Files.getLastModifiedTime(file).toMillis();
+        Files.write(file, second);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(before + 5000));
+    }
+
+    /** *************************************************************
+     * @return the rest of in
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[37];
+        int n;
+        while ((n = in.read(buf)) >= 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    /** *************************************************************
+     * A stream opened on the first version reads it to the end after
+     * the cache has replaced its copy by one of the second, which is
+     * kept under another name.
+     */
+    @Test
+    public void testStreamKeepsItsVersion() throws IOException {
+
+        String etag = caching.head(KEY).etag;
+        try (InputStream in = caching.open(KEY)) {
+            new DataInputStream(in).readFully(new byte[100]);
+            replace();
+            String now = caching.head(KEY).etag;
+            assertNotEquals(etag, now);
+            assertFalse(Files.exists(copies.resolve(CachingObjectStore.name(KEY, etag) + ".data")));
+            assertTrue(Files.exists(copies.resolve(CachingObjectStore.name(KEY, now) + ".data")));
+            byte[] rest = readAll(in);
+            assertArrayEquals(Arrays.copyOfRange(first, 100, first.length), rest);
+        }
+        try (InputStream in = caching.open(KEY)) {
+            assertArrayEquals(second, readAll(in));
+        }
+    }
+
+    /** *************************************************************
+     * A RangedObjectInputStream over either store returns bytes of the
+     * first version only, and then fails, once the object is replaced.
+     */
+    @Test
+    public void testRangedReadFailsWhenObjectChanges() throws IOException {
+
+        for (ObjectStore store : new ObjectStore[] {caching, local}) {
+            Files.write(objects.resolve(KEY), first);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = new RangedObjectInputStream(store, KEY, 100, 1, 1)) {
+                byte[] buf = new byte[100];
+                assertEquals(100, in.read(buf));
+                out.write(buf);
+                replace();
+                int n;
+                while ((n = in.read(buf)) >= 0)
+                    out.write(buf, 0, n);
+                fail("read past a change of the object from " + store);
+            }
+            catch (ObjectChangedException e) {
+                byte[] read = out.toByteArray();
+                assertTrue(read.length < first.length);
+                assertArrayEquals(Arrays.copyOf(first, read.length), read);
+            }
+        }
+    }
+
+    /** *************************************************************
+     * A ranged read for a version fails once the copy is of another.
+     */
+    @Test
+    public void testGetOfOldVersionFails() throws IOException {
+
+        String etag = caching.head(KEY).etag;
+        try (InputStream in = caching.get(KEY, 10, 19, etag)) {
+            assertArrayEquals(Arrays.copyOfRange(first, 10, 20), readAll(in));
+        }
+        replace();
+        try (InputStream in = caching.get(KEY, 10, 19, etag)) {
+            fail("read " + readAll(in).length + " bytes of a version that has been replaced");
+        }
+        catch (ObjectChangedException e) {
+            // expected
+        }
+        try (InputStream in = caching.get(KEY, 10, 19)) {
+            assertArrayEquals(Arrays.copyOfRange(second, 10, 20), readAll(in));
+        }
+    }
+}
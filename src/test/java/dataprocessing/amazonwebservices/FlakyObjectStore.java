@@ -0,0 +1,91 @@
+package dataprocessing.amazonwebservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * An ObjectStore for tests that passes each request on to another,
+ * after failing the first few tries of each distinct request, and
+ * counts the requests it is asked.
+ */
+class FlakyObjectStore implements ObjectStore {
+
+    private final ObjectStore store;
+    private final int failures;
+    private final boolean isTransient;
+
+    // tries so far of each distinct request
+    private final ConcurrentHashMap<String,AtomicInteger> tries = new ConcurrentHashMap<>();
+
+    final AtomicInteger listPages = new AtomicInteger();
+    final AtomicInteger gets = new AtomicInteger();
+
+    /** *************************************************************
+     * @param failures the number of tries of each request that fail
+     * @param isTransient true to fail with TransientStoreException,
+     *                    false with a plain IOException
+     */
+    FlakyObjectStore(ObjectStore store, int failures, boolean isTransient) {
+
+        this.store = store;
+        this.failures = failures;
+        this.isTransient = isTransient;
+    }
+
+    /** *************************************************************
+     * Fail if request has been tried fewer than failures times.
+     */
+    private void maybeFail(String request) throws IOException {
+
+        int n = tries.computeIfAbsent(request, r -> new AtomicInteger()).incrementAndGet();
+        if (n <= failures) {
+            if (isTransient)
+                throw new TransientStoreException("try " + n + " of " + request, null);
+            throw new IOException("try " + n + " of " + request);
+        }
+    }
+
+    /** *************************************************************
+     * @return the number of times request was tried
+     */
+    int tries(String request) {
+
+        AtomicInteger n = tries.get(request);
+        return n == null ? 0 : n.get();
+    }
+
+    @Override
+    public Page listPage(String prefix, String token) throws IOException {
+
+        listPages.incrementAndGet();
+        maybeFail("list " + prefix + " " + token);
+        return store.listPage(prefix, token);
+    }
+
+    @Override
+    public long size(String key) throws IOException {
+
+        maybeFail("size " + key);
+        return store.size(key);
+    }
+
+    @Override
+    public InputStream get(String key, long start, long end) throws IOException {
+
+        gets.incrementAndGet();
+        maybeFail("get " + key + " " + start + "-" + end);
+        return store.get(key, start, end);
+    }
+}
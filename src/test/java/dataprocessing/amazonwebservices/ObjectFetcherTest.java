@@ -0,0 +1,180 @@
+package dataprocessing.amazonwebservices;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that a LocalObjectStore lists its keys in pages, and that
+ * ObjectFetcher follows the pages of each listing to the end and hands
+ * objects over in order, retrying requests that fail transiently.
+ */
+public class ObjectFetcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the keys of the files written, in order
+    private final List<String> keys = new ArrayList<>();
+
+    /** *************************************************************
+     * Write 25 files under a/ and 7 under b/, with a file of their own
+     * number of lines each, and one outside both.
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        Path root = folder.getRoot().toPath();
+        for (String dir : new String[] {"a", "b"}) {
+            Files.createDirectories(root.resolve(dir));
+            for (int i = 0; i < (dir.equals("a") ? 25 : 7); i++) {
+                String key = dir + "/part-" + String.format("%03d", i) + ".txt";
+                Files.write(root.resolve(key), lines(key, i), StandardCharsets.UTF_8);
+                keys.add(key);
+            }
+        }
+        Files.write(root.resolve("c.txt"), Collections.singletonList("c"), StandardCharsets.UTF_8);
+        Collections.sort(keys);
+    }
+
+    /** *************************************************************
+     * @return n lines naming key
+     */
+    private static List<String> lines(String key, int n) {
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            lines.add(key + " line " + i);
+        return lines;
+    }
+
+    /** *************************************************************
+     * @return the keys written under prefix
+     */
+    private List<String> keys(String prefix) {
+
+        List<String> result = new ArrayList<>();
+        for (String key : keys)
+            if (key.startsWith(prefix))
+                result.add(key);
+        return result;
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testListPages() throws IOException {
+
+        LocalObjectStore store = new LocalObjectStore(folder.getRoot().getPath(), 10);
+        List<String> listed = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        String token = null;
+        do {
+            ObjectStore.Page page = store.listPage("a/", token);
+            listed.addAll(page.keys);
+            sizes.add(page.keys.size());
+            token = page.next;
+        } while (token != null);
+        assertEquals(keys("a/"), listed);
+        assertEquals(Arrays.asList(10, 10, 5), sizes);
+
+        // a listing that exactly fills a page has no page after it
+        LocalObjectStore seven = new LocalObjectStore(folder.getRoot().getPath(), 7);
+        ObjectStore.Page page = seven.listPage("b/", null);
+        assertEquals(keys("b/"), page.keys);
+        assertNull(page.next);
+
+        assertEquals(keys(""), new ArrayList<>(store.list("")).subList(0, keys.size()));
+        assertEquals(Collections.singletonList("c.txt"), store.list("c"));
+        assertEquals(Collections.emptyList(), store.list("d"));
+    }
+
+    /** *************************************************************
+     * Every page and object fails transiently twice before it is read.
+     */
+    @Test
+    public void testRetriesTransientFailures() throws IOException {
+
+        FlakyObjectStore flaky = new FlakyObjectStore(new LocalObjectStore(folder.getRoot().getPath(), 4),
+                Retry.ATTEMPTS - 2, true);
+        try (ObjectFetcher fetcher = new ObjectFetcher(flaky, 3)) {
+            Map<String,List<String>> listed = fetcher.list(Arrays.asList("a/", "b/"));
+            assertEquals(Arrays.asList("a/", "b/"), new ArrayList<>(listed.keySet()));
+            assertEquals(keys("a/"), listed.get("a/"));
+            assertEquals(keys("b/"), listed.get("b/"));
+            // 7 pages of a/ and 2 of b/, each tried until it is read
+            assertEquals((7 + 2) * (Retry.ATTEMPTS - 1), flaky.listPages.get());
+            assertEquals(Retry.ATTEMPTS - 1, flaky.tries("list a/ a/part-011.txt"));
+
+            List<String> handled = new ArrayList<>();
+            fetcher.fetch(keys, (key, lines) -> {
+                assertEquals(lines(key, Integer.parseInt(key.substring(7, 10))), lines);
+                handled.add(key);
+            });
+            assertEquals(keys, handled);
+            assertEquals(Retry.ATTEMPTS - 1, flaky.tries("size a/part-003.txt"));
+            assertEquals(Retry.ATTEMPTS - 1, flaky.tries("get a/part-003.txt 0-" +
+                    (Files.size(folder.getRoot().toPath().resolve("a/part-003.txt")) - 1)));
+        }
+    }
+
+    /** *************************************************************
+     * An object that fails every try stops the fetch there, after the
+     * objects before it have been handled.
+     */
+    @Test
+    public void testStopsAtFailure() throws IOException {
+
+        LocalObjectStore local = new LocalObjectStore(folder.getRoot().getPath());
+        ObjectStore store = new ObjectStore() {
+            @Override
+            public Page listPage(String prefix, String token) throws IOException {
+                return local.listPage(prefix, token);
+            }
+            @Override
+            public long size(String key) throws IOException {
+                if (key.equals("a/part-010.txt"))
+                    throw new TransientStoreException("throttled", null);
+                return local.size(key);
+            }
+            @Override
+            public InputStream get(String key, long start, long end) throws IOException {
+                return local.get(key, start, end);
+            }
+        };
+        List<String> handled = new ArrayList<>();
+        try (ObjectFetcher fetcher = new ObjectFetcher(store, 4)) {
+            fetcher.fetch(keys("a/"), (key, lines) -> handled.add(key));
+            fail("fetched an object that can't be read");
+        }
+        catch (TransientStoreException e) {
+            assertEquals(keys("a/").subList(0, 10), handled);
+        }
+    }
+}
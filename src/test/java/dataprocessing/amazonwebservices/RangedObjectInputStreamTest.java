@@ -0,0 +1,182 @@
+package dataprocessing.amazonwebservices;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks that RangedObjectInputStream reads an object of a
+ * LocalObjectStore byte for byte, whatever the chunk length,
+ * parallelism and read ahead, and retries ranges that fail transiently.
+ */
+public class RangedObjectInputStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalObjectStore store;
+    private byte[] bytes;
+
+    /** *************************************************************
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        bytes = new byte[100003];
+        new Random(18021918).nextBytes(bytes);
+        Files.write(folder.getRoot().toPath().resolve("random.bin"), bytes);
+        Files.write(folder.getRoot().toPath().resolve("empty.bin"), new byte[0]);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            sb.append("line ").append(i).append(" caf\u00e9\n");
+        Files.write(folder.getRoot().toPath().resolve("lines.txt"), sb.toString().getBytes(StandardCharsets.UTF_8));
+        store = new LocalObjectStore(folder.getRoot().getPath());
+    }
+
+    /** *************************************************************
+     * @return everything in, read with reads of up to step bytes, or
+     * one byte at a time if step is 1
+     */
+    private static byte[] readAll(InputStream in, int step) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[step];
+        if (step == 1) {
+            int b;
+            while ((b = in.read()) >= 0)
+                out.write(b);
+        }
+        else {
+            int n;
+            while ((n = in.read(buf, 0, step)) >= 0)
+                out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testGetReadsRange() throws IOException {
+
+        byte[] range = readAll(store.get("random.bin", 10, 20009), 4096);
+        byte[] expected = new byte[20000];
+        System.arraycopy(bytes, 10, expected, 0, expected.length);
+        assertArrayEquals(expected, range);
+        try {
+            store.get("random.bin", bytes.length - 10, bytes.length + 10).close();
+            fail("read past the end");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testReadsWholeObject() throws IOException {
+
+        int[][] settings = {{1, 1, 1}, {7, 3, 2}, {4096, 4, 8}, {100003, 2, 2}, {1 << 20, 4, 8}};
+        for (int[] s : settings) {
+            for (int step : new int[] {1, 1000, 65536}) {
+                try (InputStream in = new RangedObjectInputStream(store, "random.bin", s[0], s[1], s[2])) {
+                    assertArrayEquals("chunks of " + s[0] + ", reads of " + step, bytes, readAll(in, step));
+                }
+            }
+        }
+        try (InputStream in = new RangedObjectInputStream(store, "empty.bin", 16, 2, 2)) {
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /** *************************************************************
+     */
+    @Test
+    public void testLines() throws IOException {
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            expected.add("line " + i + " caf\u00e9");
+        try (Stream<String> lines = store.lines("lines.txt")) {
+            assertEquals(expected, lines.collect(Collectors.toList()));
+        }
+        // chunks that split the two bytes of the e with an acute accent
+        try (Stream<String> lines = new BufferedReader(new InputStreamReader(
+                new RangedObjectInputStream(store, "lines.txt", 13, 3, 4), StandardCharsets.UTF_8)).lines()) {
+            assertEquals(expected, lines.collect(Collectors.toList()));
+        }
+    }
+
+    /** *************************************************************
+     * Every range fails transiently twice and is then read.
+     */
+    @Test
+    public void testRetriesTransientFailures() throws IOException {
+
+        FlakyObjectStore flaky = new FlakyObjectStore(store, Retry.ATTEMPTS - 2, true);
+        try (InputStream in = new RangedObjectInputStream(flaky, "random.bin", 40000, 3, 3)) {
+            assertArrayEquals(bytes, readAll(in, 8192));
+        }
+        assertEquals(Retry.ATTEMPTS - 1, flaky.tries("size random.bin"));
+        assertEquals(Retry.ATTEMPTS - 1, flaky.tries("get random.bin 0-39999"));
+        assertEquals(Retry.ATTEMPTS - 1, flaky.tries("get random.bin 80000-100002"));
+        assertEquals(3 * (Retry.ATTEMPTS - 1), flaky.gets.get());
+    }
+
+    /** *************************************************************
+     * A range that fails every try, or fails in a way that isn't
+     * transient, is reported by the read that reaches it.
+     */
+    @Test
+    public void testReportsFailures() throws IOException {
+
+        FlakyObjectStore down = new FlakyObjectStore(store, Retry.ATTEMPTS, true);
+        try {
+            new RangedObjectInputStream(down, "random.bin", 40000, 3, 3).close();
+            fail("sized an object that can't be reached");
+        }
+        catch (TransientStoreException e) {
+            assertEquals(Retry.ATTEMPTS, down.tries("size random.bin"));
+        }
+
+        FlakyObjectStore broken = new FlakyObjectStore(store, 1, false);
+        try {
+            new RangedObjectInputStream(broken, "random.bin", 40000, 3, 3).close();
+            fail("sized an object after a failure that isn't transient");
+        }
+        catch (IOException e) {
+            assertFalse(e instanceof TransientStoreException);
+            assertEquals(1, broken.tries("size random.bin"));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package dataprocessing.elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks BulkIndexer against a stub of the _bulk API: that it keeps
+ * the documents a batch rejects, item by item or as a whole, and that
+ * add() blocks while maxInFlight batches are unanswered.
+ */
+public class BulkIndexerTest {
+
+    private static final String INDEX = "chatbot";
+    private static final String TYPE = "line";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ElasticSearchClient client;
+
+    // whether the stub rejects some documents, and a latch it waits on
+    // before answering, if any
+    private volatile boolean rejecting = false;
+    private volatile CountDownLatch gate = null;
+
+    // the requests received, those being answered, and the most at once
+    private final AtomicInteger received = new AtomicInteger();
+    private final AtomicInteger answering = new AtomicInteger();
+    private final AtomicInteger mostAnswering = new AtomicInteger();
+
+    /** *************************************************************
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/" + INDEX + "/" + TYPE + "/_bulk", this::bulk);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        client = new ElasticSearchClient("localhost", server.getAddress().getPort(), "http", INDEX, TYPE);
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        CountDownLatch g = gate;
+        if (g != null)
+            g.countDown();
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** *************************************************************
+     * @return the number of a document with id doc-n
+     */
+    private static int number(String id) {
+
+        return Integer.parseInt(id.substring(id.indexOf('-') + 1));
+    }
+
+    /** *************************************************************
+     * Answer a _bulk request.  When rejecting, the whole batch fails
+     * with 500 if it holds doc-50, and otherwise each document whose
+     * number ends in 3 is refused as too busy and each ending in 7 as
+     * unparsable.
+     */
+    private void bulk(HttpExchange exchange) throws IOException {
+
+        received.incrementAndGet();
+        int now = answering.incrementAndGet();
+        mostAnswering.accumulateAndGet(now, Math::max);
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buf = new byte[4096];
+                int n;
+                while ((n = in.read(buf)) >= 0)
+                    body.write(buf, 0, n);
+            }
+            String[] lines = new String(body.toByteArray(), StandardCharsets.UTF_8).split("\n");
+            List<String> ids = new ArrayList<>();
+            for (int i = 0; i < lines.length; i += 2)
+                ids.add(new JSONObject(lines[i]).getJSONObject("index").getString("_id"));
+            CountDownLatch g = gate;
+            if (g != null)
+                g.await(10, TimeUnit.SECONDS);
+            else
+                Thread.sleep(20);
+            if (rejecting && ids.contains("doc-50")) {
+                respond(exchange, 500, "{\"error\":\"shard failure\",\"status\":500}");
+                return;
+            }
+            JSONArray items = new JSONArray();
+            boolean errors = false;
+            for (String id : ids) {
+                JSONObject result = new JSONObject().put("_id", id);
+                int digit = number(id) % 10;
+                if (rejecting && digit == 3) {
+                    result.put("status", 429).put("error", new JSONObject()
+                            .put("type", "es_rejected_execution_exception").put("reason", "queue full"));
+                    errors = true;
+                }
+                else if (rejecting && digit == 7) {
+                    result.put("status", 400).put("error", new JSONObject()
+                            .put("type", "mapper_parsing_exception").put("reason", "failed to parse"));
+                    errors = true;
+                }
+                else
+                    result.put("status", 201);
+                items.put(new JSONObject().put("index", result));
+            }
+            respond(exchange, 200, new JSONObject().put("took", 1).put("errors", errors).put("items", items).toString());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, "{}");
+        }
+        finally {
+            answering.decrementAndGet();
+        }
+    }
+
+    /** *************************************************************
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** *************************************************************
+     * Of 100 documents in batches of 10, the batch holding doc-50 fails
+     * whole and two of every other batch are refused; the retryable
+     * ones are indexed when added again.
+     */
+    @Test
+    public void testPartialFailures() throws IOException {
+
+        rejecting = true;
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        BulkIndexer indexer = client.bulkIndexer(10, 3);
+        indexer.setListener(seen::add);
+        for (int i = 0; i < 100; i++)
+            indexer.add("doc-" + i, new JSONObject().put("text", "line " + i).toString());
+        indexer.await();
+        assertEquals(10, indexer.requests());
+        assertEquals(72, indexer.indexed());
+        assertEquals(28, indexer.failed());
+        assertEquals(72, seen.size());
+        List<BulkIndexer.Failure> retry = new ArrayList<>();
+        for (BulkIndexer.Failure failure : indexer.drainFailures()) {
+            int n = number(failure.id);
+            assertFalse(seen.contains(failure.id));
+            assertEquals(new JSONObject().put("text", "line " + n).toString(), failure.source);
+            if (n >= 50 && n < 60)
+                assertEquals(500, failure.status);
+            else if (n % 10 == 3)
+                assertEquals(429, failure.status);
+            else {
+                assertEquals(7, n % 10);
+                assertEquals(400, failure.status);
+                assertTrue(failure.reason, failure.reason.startsWith("mapper_parsing_exception"));
+            }
+            if (failure.isRetryable())
+                retry.add(failure);
+        }
+        assertEquals(19, retry.size());
+        assertTrue(indexer.drainFailures().isEmpty());
+
+        rejecting = false;
+        for (BulkIndexer.Failure failure : retry)
+            indexer.add(failure.id, failure.source);
+        indexer.close();
+        assertEquals(91, indexer.indexed());
+        assertEquals(28, indexer.failed());
+        assertEquals(91, seen.size());
+        assertTrue(indexer.drainFailures().isEmpty());
+        assertTrue(mostAnswering.get() <= 3);
+    }
+
+    /** *************************************************************
+     * While the stub holds its answers, a thread adding one document
+     * per batch sends maxInFlight batches and then waits in add(); it
+     * goes on when the batches are answered.
+     */
+    @Test
+    public void testBackpressure() throws Exception {
+
+        gate = new CountDownLatch(1);
+        BulkIndexer indexer = client.bulkIndexer(1, 2);
+        AtomicInteger added = new AtomicInteger();
+        Thread adder = new Thread(() -> {
+            try {
+                for (int i = 0; i < 6; i++) {
+                    indexer.add("doc-" + i, "{}");
+                    added.incrementAndGet();
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        adder.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.get() < 2 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Thread.sleep(300);
+        assertEquals(2, received.get());
+        assertEquals(2, indexer.requests());
+        assertEquals(2, added.get());
+        assertTrue(adder.isAlive());
+
+        gate.countDown();
+        adder.join(10000);
+        assertFalse(adder.isAlive());
+        indexer.close();
+        assertEquals(6, indexer.indexed());
+        assertEquals(6, indexer.requests());
+        assertEquals(2, mostAnswering.get());
+    }
+}
@@ -0,0 +1,329 @@
+package dataprocessing.elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dataprocessing.amazonwebservices.LocalObjectStore;
+import dataprocessing.amazonwebservices.ObjectStore;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks CorporaIndexer.indexCorpora() from a LocalObjectStore to a
+ * stub of the _bulk API, restarted from its checkpoint each run: that
+ * a run that fails partway is finished by the next, which sends only
+ * the documents not yet indexed, that a run after that sends nothing,
+ * and that a file that has changed is indexed again whole.  Among the
+ * files are an empty one, one of a single line and one of blank lines.
+ * One fetcher, one parser and one batch in flight keep the documents
+ * in the order of the files, so the checkpoint ends where the indexed
+ * documents do.
+ */
+public class CorporaIndexerTest {
+
+    private static final String INDEX = "chatbot";
+    private static final String TYPE = "line";
+    private static final int BATCH = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path root;
+    private String checkpointFile;
+    private HttpServer server;
+    private ExecutorService executor;
+    private ElasticSearchClient client;
+
+    // the batches the stub takes before it fails every one, and the ids
+    // of the documents it took and the requests it had in this run
+    private volatile int accepting = Integer.MAX_VALUE;
+    private final List<String> accepted = new CopyOnWriteArrayList<>();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /** *************************************************************
+     * Write the corpora c1 and c2, and start the stub.
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        root = folder.newFolder("store").toPath();
+        checkpointFile = folder.getRoot().toPath().resolve("corpora.checkpoint").toString();
+        write("c1/part-000.txt", lines("c1 zero", 120));
+        write("c1/part-001.txt", Collections.<String>emptyList());
+        write("c1/part-002.txt", Collections.singletonList("hello"));
+        write("c1/part-003.txt", Arrays.asList("", " ", "\t"));
+        write("c1/notes.md", lines("not a corpus file", 5));
+        write("c2/part-000.txt", lines("c2 zero", 80));
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/" + INDEX + "/" + TYPE + "/_bulk", this::bulk);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        client = new ElasticSearchClient("localhost", server.getAddress().getPort(), "http", INDEX, TYPE);
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** *************************************************************
+     * @return n lines starting with text, every tenth of them blank
+     */
+    private static List<String> lines(String text, int n) {
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            lines.add(i % 10 == 9 ? "" : text + " line " + i);
+        return lines;
+    }
+
+    /** *************************************************************
+     */
+    private void write(String key, List<String> lines) throws IOException {
+
+        Path file = root.resolve(key);
+        Files.createDirectories(file.getParent());
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /** *************************************************************
+     * @return the ids of the documents of the lines of key that aren't
+     * blank
+     */
+    private Set<String> ids(String key) throws IOException {
+
+        String corpus = key.substring(0, key.indexOf('/'));
+        String fileName = key.substring(key.indexOf('/') + 1);
+        List<String> lines = Files.readAllLines(root.resolve(key), StandardCharsets.UTF_8);
+        Set<String> ids = new TreeSet<>();
+        for (int i = 0; i < lines.size(); i++)
+            if (!lines.get(i).trim().isEmpty())
+                ids.add(ElasticSearchClient.documentId(corpus, fileName, i));
+        return ids;
+    }
+
+    /** *************************************************************
+     * @return the ids of every document of the corpora
+     */
+    private Set<String> allIds() throws IOException {
+
+        Set<String> ids = new TreeSet<>();
+        for (String key : keys())
+            ids.addAll(ids(key));
+        return ids;
+    }
+
+    /** *************************************************************
+     * @return the keys of the corpus files
+     */
+    private static List<String> keys() {
+
+        return Arrays.asList("c1/part-000.txt", "c1/part-001.txt", "c1/part-002.txt", "c1/part-003.txt",
+                "c2/part-000.txt");
+    }
+
+    /** *************************************************************
+     * Take a batch, or fail it whole with 500 once the batches to take
+     * are used up.
+     */
+    private void bulk(HttpExchange exchange) throws IOException {
+
+        requests.incrementAndGet();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                body.write(buf, 0, n);
+        }
+        String[] lines = new String(body.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < lines.length; i += 2)
+            ids.add(new JSONObject(lines[i]).getJSONObject("index").getString("_id"));
+        synchronized (this) {
+            if (accepting <= 0) {
+                respond(exchange, 500, "{\"error\":\"shard failure\",\"status\":500}");
+                return;
+            }
+            accepting--;
+        }
+        accepted.addAll(ids);
+        JSONArray items = new JSONArray();
+        for (String id : ids)
+            items.put(new JSONObject().put("index", new JSONObject().put("_id", id).put("status", 201)));
+        respond(exchange, 200, new JSONObject().put("took", 1).put("errors", false).put("items", items).toString());
+    }
+
+    /** *************************************************************
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** *************************************************************
+     * Run the indexer as a restart would, from the checkpoint file,
+     * taking batches batches before failing the rest.
+     * @return the ids of the documents the stub took in the run
+     */
+    private List<String> run(int batches) throws IOException {
+
+        accepting = batches;
+        accepted.clear();
+        requests.set(0);
+        CorporaIndexer indexer = new CorporaIndexer(Arrays.asList("c1", "c2"), new Checkpoint(checkpointFile), 1, 1);
+        indexer.indexCorpora(new LocalObjectStore(root.toString()), client.bulkIndexer(BATCH, 1));
+        return new ArrayList<>(accepted);
+    }
+
+    /** *************************************************************
+     * A run whose batches fail after the fifth leaves the rest to the
+     * next, which sends each of them once; a third run sends nothing.
+     * Empty files and files of blank lines are complete once read.
+     */
+    @Test
+    public void testResumes() throws IOException {
+
+        Set<String> all = allIds();
+        List<String> first = run(5);
+        assertEquals(5 * BATCH, first.size());
+        assertTrue(requests.get() > 5);
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        LocalObjectStore store = new LocalObjectStore(root.toString());
+        assertFalse(checkpoint.isComplete("c1/part-000.txt", store.head("c1/part-000.txt")));
+        assertTrue(checkpoint.offset("c1/part-000.txt") > 0);
+        assertTrue(checkpoint.isComplete("c1/part-001.txt", store.head("c1/part-001.txt")));
+        assertTrue(checkpoint.isComplete("c1/part-003.txt", store.head("c1/part-003.txt")));
+        assertFalse(checkpoint.isComplete("c1/part-002.txt", store.head("c1/part-002.txt")));
+
+        List<String> second = run(Integer.MAX_VALUE);
+        Set<String> remaining = new TreeSet<>(all);
+        remaining.removeAll(first);
+        assertEquals(remaining, new TreeSet<>(second));
+        assertEquals(remaining.size(), second.size());
+        checkpoint = new Checkpoint(checkpointFile);
+        for (String key : keys())
+            assertTrue(key, checkpoint.isComplete(key, store.head(key)));
+        assertFalse(checkpoint.isComplete("c1/notes.md", store.head("c1/notes.md")));
+
+        assertEquals(Collections.emptyList(), run(Integer.MAX_VALUE));
+        assertEquals(0, requests.get());
+    }
+
+    /** *************************************************************
+     * A file whose ETag has changed, with the same size or another, is
+     * indexed again from its first line; the others are left alone.
+     */
+    @Test
+    public void testChangedFilesStartAgain() throws IOException {
+
+        assertEquals(allIds(), new TreeSet<>(run(Integer.MAX_VALUE)));
+
+        Path same = root.resolve("c1/part-002.txt");
+        FileTime modified = Files.getLastModifiedTime(same);
+        write("c1/part-002.txt", Collections.singletonList("howdy"));
+        Files.setLastModifiedTime(same, FileTime.fromMillis(modified.toMillis() + 60000));
+        write("c2/part-000.txt", lines("c2 again", 90));
+        Set<String> expected = new TreeSet<>(ids("c1/part-002.txt"));
+        expected.addAll(ids("c2/part-000.txt"));
+        List<String> again = run(Integer.MAX_VALUE);
+        assertEquals(expected, new TreeSet<>(again));
+        assertEquals(expected.size(), again.size());
+
+        assertEquals(Collections.emptyList(), run(Integer.MAX_VALUE));
+    }
+
+    /** *************************************************************
+     * The progress of a version is kept across a save and a reload,
+     * and is forgotten when another version, or none, is started; a
+     * line written before versions were kept matches no version.
+     */
+    @Test
+    public void testCheckpointVersions() throws IOException {
+
+        ObjectStore.Metadata v1 = new ObjectStore.Metadata(100, "\"etag-1\"");
+        ObjectStore.Metadata v2 = new ObjectStore.Metadata(100, "\"etag-2\"");
+        ObjectStore.Metadata bigger = new ObjectStore.Metadata(120, "\"etag-1\"");
+        Checkpoint checkpoint = new Checkpoint(checkpointFile);
+        checkpoint.start("a.txt", v1, 4);
+        for (int line : new int[] {0, 1, 3})
+            checkpoint.done("a.txt", line);
+        checkpoint.start("b.txt", new ObjectStore.Metadata(0, null), 0);
+        checkpoint.save();
+
+        checkpoint = new Checkpoint(checkpointFile);
+        assertEquals(2, checkpoint.offset("a.txt"));
+        assertFalse(checkpoint.isComplete("a.txt", v1));
+        assertTrue(checkpoint.isComplete("b.txt", new ObjectStore.Metadata(0, null)));
+        assertFalse(checkpoint.isComplete("b.txt", new ObjectStore.Metadata(0, "\"etag\"")));
+        checkpoint.start("a.txt", v1, 4);
+        assertEquals(2, checkpoint.offset("a.txt"));
+        checkpoint.done("a.txt", 2);
+        checkpoint.done("a.txt", 3);
+        assertTrue(checkpoint.isComplete("a.txt", v1));
+        assertFalse(checkpoint.isComplete("a.txt", v2));
+        assertFalse(checkpoint.isComplete("a.txt", bigger));
+        checkpoint.start("a.txt", v2, 4);
+        assertEquals(0, checkpoint.offset("a.txt"));
+
+        Files.write(folder.getRoot().toPath().resolve("corpora.checkpoint"),
+                Arrays.asList("4\t4\ta.txt", "bad line"), StandardCharsets.UTF_8);
+        checkpoint = new Checkpoint(checkpointFile);
+        assertEquals(4, checkpoint.offset("a.txt"));
+        assertFalse(checkpoint.isComplete("a.txt", v1));
+        checkpoint.start("a.txt", v1, 4);
+        assertEquals(0, checkpoint.offset("a.txt"));
+        assertEquals(0, checkpoint.offset("c.txt"));
+    }
+}
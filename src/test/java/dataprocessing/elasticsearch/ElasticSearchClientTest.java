@@ -0,0 +1,213 @@
+package dataprocessing.elasticsearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This code is copyright CloudMinds 2017.
+ * This software is released under the GNU Public License <http://www.gnu.org/copyleft/gpl.html>.
+ * Users of this code also consent, by use of this code, to credit Articulate Software
+ * and Teknowledge in any writings, briefings, publications, presentations, or
+ * other representations of any software which incorporates, builds on, or uses this
+ * code.  Please cite the following article in any publication with references:
+ * Pease, A., (2003). The Sigma Ontology Development Environment,
+ * in Working Notes of the IJCAI-2003 Workshop on Ontology and Distributed Systems,
+ * August 9, Acapulco, Mexico.
+ *
+ * Checks ElasticSearchClient.retrieveDocuments() against a stub of the
+ * _mget API: that it asks for MGET_BATCH ids at a time, parses the
+ * documents as they stream in, keeps the order asked for, and loses
+ * only the documents of a batch that fails.
+ */
+public class ElasticSearchClientTest {
+
+    private static final String INDEX = "chatbot";
+    private static final String TYPE = "dialog";
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private ElasticSearchClient client;
+
+    // the _mget requests the stub had, and an id whose batch it fails
+    private final AtomicInteger mgets = new AtomicInteger();
+    private volatile String failing = null;
+
+    /** *************************************************************
+     */
+    @Before
+    public void setUp() throws IOException {
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/" + INDEX + "/" + TYPE + "/_mget", this::mget);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        client = new ElasticSearchClient("localhost", server.getAddress().getPort(), "http", INDEX, TYPE);
+    }
+
+    /** *************************************************************
+     */
+    @After
+    public void tearDown() {
+
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** *************************************************************
+     * @return the number of a document with id doc-n
+     */
+    private static int number(String id) {
+
+        return Integer.parseInt(id.substring(id.indexOf('-') + 1));
+    }
+
+    /** *************************************************************
+     * Answer an _mget request with each document whose number isn't a
+     * multiple of 7, in reverse order, with every field unless only
+     * the text is asked for.  A batch holding the failing id fails.
+     */
+    private void mget(HttpExchange exchange) throws IOException {
+
+        mgets.incrementAndGet();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                body.write(buf, 0, n);
+        }
+        String query = exchange.getRequestURI().getQuery();
+        JSONArray ids = new JSONObject(new String(body.toByteArray(), StandardCharsets.UTF_8)).getJSONArray("ids");
+        JSONArray docs = new JSONArray();
+        for (int i = ids.length() - 1; i >= 0; i--) {
+            String id = ids.getString(i);
+            if (id.equals(failing)) {
+                respond(exchange, 500, "{\"error\":\"shard failure\",\"status\":500}");
+                return;
+            }
+            JSONObject doc = new JSONObject().put("_index", INDEX).put("_type", TYPE).put("_id", id);
+            if (number(id) % 7 == 0)
+                doc.put("found", false);
+            else {
+                JSONObject source = new JSONObject().put("text", "line " + id);
+                if (query == null || !query.contains("_source=text"))
+                    source.put("corpus", "test").put("tags", new JSONArray().put(1).put(2.5))
+                            .put("meta", new JSONObject().put("empty", JSONObject.NULL).put("ok", true));
+                doc.put("found", true).put("_source", source);
+            }
+            docs.put(doc);
+        }
+        respond(exchange, 200, new JSONObject().put("docs", docs).toString());
+    }
+
+    /** *************************************************************
+     */
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** *************************************************************
+     * @return doc-from to doc-to, both inclusive
+     */
+    private static List<String> ids(int from, int to) {
+
+        List<String> ids = new ArrayList<>();
+        for (int i = from; i <= to; i++)
+            ids.add("doc-" + i);
+        return ids;
+    }
+
+    /** *************************************************************
+     * @return the ids of ids the stub finds
+     */
+    private static List<String> found(List<String> ids) {
+
+        List<String> found = new ArrayList<>();
+        for (String id : ids)
+            if (number(id) % 7 != 0)
+                found.add(id);
+        return found;
+    }
+
+    /** *************************************************************
+     * The documents of 2500 ids come from three requests, in the order
+     * asked for, with their sources parsed whole.
+     */
+    @Test
+    public void testRetrieveDocuments() {
+
+        List<String> ids = ids(1, 2 * ElasticSearchClient.MGET_BATCH + 500);
+        Map<String,JSONObject> documents = client.retrieveDocuments(ids);
+        assertEquals(3, mgets.get());
+        assertEquals(found(ids), new ArrayList<>(documents.keySet()));
+        JSONObject first = documents.get("doc-1");
+        assertEquals("line doc-1", first.getString("text"));
+        assertEquals("test", first.getString("corpus"));
+        assertEquals(2.5, first.getJSONArray("tags").getDouble(1), 0);
+        assertTrue(first.getJSONObject("meta").isNull("empty"));
+        assertTrue(first.getJSONObject("meta").getBoolean("ok"));
+    }
+
+    /** *************************************************************
+     * Only the fields asked for are returned, and one document is
+     * found by itself or not at all.
+     */
+    @Test
+    public void testFieldsAndSingleDocuments() {
+
+        Map<String,JSONObject> documents = client.retrieveDocuments(Arrays.asList("doc-8", "doc-14", "doc-9"), "text");
+        assertEquals(Arrays.asList("doc-8", "doc-9"), new ArrayList<>(documents.keySet()));
+        assertFalse(documents.get("doc-9").has("corpus"));
+        assertEquals("line doc-9", client.retrieveDocument("doc-9").getString("text"));
+        assertEquals(0, client.retrieveDocument("doc-14").length());
+        assertTrue(client.retrieveDocuments(new ArrayList<String>()).isEmpty());
+        assertEquals(3, mgets.get());
+    }
+
+    /** *************************************************************
+     * A batch that fails loses its documents, not those of the others.
+     */
+    @Test
+    public void testFailedBatch() {
+
+        failing = "doc-1500";
+        List<String> ids = ids(1, 2 * ElasticSearchClient.MGET_BATCH + 500);
+        Map<String,JSONObject> documents = client.retrieveDocuments(ids);
+        assertEquals(3, mgets.get());
+        List<String> expected = found(ids(1, ElasticSearchClient.MGET_BATCH));
+        expected.addAll(found(ids(2 * ElasticSearchClient.MGET_BATCH + 1, 2 * ElasticSearchClient.MGET_BATCH + 500)));
+        assertEquals(expected, new ArrayList<>(documents.keySet()));
+    }
+}